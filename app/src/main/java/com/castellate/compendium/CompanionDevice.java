@@ -28,367 +28,1159 @@
 package com.castellate.compendium;
 
 import static com.castellate.compendium.protocol.Protocol.STATUS.READY_TO_SEND;
+import static com.castellate.compendium.protocol.messages.Constants.ADR_CD;
+import static com.castellate.compendium.protocol.messages.Constants.ADR_PC;
+import static com.castellate.compendium.protocol.messages.Constants.HASH_PC_PUBLIC_KEY;
 import static com.castellate.compendium.protocol.messages.Constants.ID_CD;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.castellate.compendium.data.Config;
 import com.castellate.compendium.exceptions.StorageException;
 import com.castellate.compendium.protocol.Protocol;
 import com.castellate.compendium.protocol.ProtocolException;
-import com.castellate.compendium.protocol.ProtocolViewModel;
+import com.castellate.compendium.protocol.core.CoreProtocol;
+import com.castellate.compendium.protocol.core.ResumeProtocol;
+import com.castellate.compendium.protocol.core.ResumeReqProtocolMessage;
 import com.castellate.compendium.protocol.messages.ProtocolMessageException;
+import com.castellate.compendium.ws.CompressionMetrics;
+import com.castellate.compendium.ws.MeteredDeflateExtension;
+import com.castellate.compendium.ws.OutboundQueue;
+import com.castellate.compendium.ws.ReconnectPolicy;
+import com.castellate.compendium.ws.RelayMetrics;
 import com.castellate.compendium.ws.WSMessages;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
 import org.java_websocket.handshake.ServerHandshake;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Represents a Companion Device, handles protocol and web socket client management
+ * Represents a Companion Device, handles protocol and web socket client management. Multiple
+ * protocol sessions can run concurrently, each with its own Protocol instance and Protocol Data,
+ * multiplexed over a single web socket connection. Sessions are held in a session table keyed
+ * by the relay address of the PC (ADR_PC) or, if that is not available, the hash of the PC public
+ * key (HASH_PC_PUBLIC_KEY). Each session registers its own ephemeral address with the relay, and
+ * a delivered message is routed to the session holding the address it was delivered to. A
+ * message that cannot be matched to a session is dropped rather than offered to other sessions.
+ *
+ * A request received in a push message can be prepared before the user opens it, running the
+ * protocol in the background up to the point it awaits the UI. The prepared session is parked
+ * until the UI attaches to it, so the connection and key exchange are not part of the time the
+ * user waits for, or until it expires.
+ *
+ * The relay connection is kept open, with a ping/pong keepalive, for an idle window after the
+ * last session ends so that successive protocol runs reuse it. The ephemeral address of a session
+ * that finishes is also reused, answering the INIT of a later session locally, until its
+ * configured lifetime expires or the connection closes. An address is only held by one session at
+ * a time, so delivered messages can still be routed by address.
+ *
+ * Outgoing messages are written by the single writer thread of an OutboundQueue, in order and
+ * only whilst the connection is open. A session records a message as sent once it has been
+ * written, rather than when it is queued.
+ *
+ * If the connection is lost whilst a session is active it is re-established with exponential
+ * backoff, within a bounded number of attempts after which the sessions are put in error. On
+ * reconnecting the addresses of the active sessions are re-registered with the relay, and the
+ * last message written for each session that has not been responded to is replayed. Routed
+ * messages carry a sequence number so that the peer can discard a replayed message it has
+ * already received.
+ *
+ * If enabled in the config, permessage-deflate is offered to the relay. Messages below the
+ * configured threshold, such as the handshake messages, are sent uncompressed whilst larger
+ * payloads are deflated. The size of each message before and after compression is recorded by
+ * the extension for the connection, and for the session that sent or received it. Outgoing
+ * messages are attributed as the writer thread encodes them and incoming messages as they are
+ * routed, the totals for a session are logged when it ends.
+ *
+ * Protocol work is run on the serial executor of each session. Messages received on the web
+ * socket thread and updates from the UI are posted to the session they belong to, so parsing,
+ * crypto and storage do not run on either thread, and the messages of a session are processed in
+ * order. The only exception is recording a message as sent, which is done by the writer thread
+ * whilst holding the session lock, so that it is recorded before any reply can be processed.
  */
 public class CompanionDevice {
     private static final String TAG = "CompanionDevice";
-    private final String id;
+    private static final String PENDING_KEY_PREFIX = "pending-";
+    private static final int ERROR_EXPIRED = 105;
+    private static final int KEEPALIVE_SECONDS = 30;
+    private static final int MAX_QUEUED_MESSAGES = 64;
+    private static final long RECONNECT_BASE_MILLIS = 500;
+    private static final long RECONNECT_MAX_MILLIS = 16000;
+    private static final int DEFAULT_RECONNECT_ATTEMPTS = 5;
+    private static final String COMPRESSION_DEFLATE = "deflate";
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 256;
+    private static CompanionDevice instance;
+    private volatile String id;
+
+    //Outgoing messages, held until the web socket client is open
+    private final OutboundQueue outbound = new OutboundQueue(new OutboundQueue.Connection() {
+        @Override
+        public boolean isOpen() {
+            return isConnected();
+        }
 
-    //Temporary buffer to hold outgoing messages until the web socket client is initialised
-    private final Queue<String> bufferedQueue = new ConcurrentLinkedQueue<>();
+        @Override
+        public void write(String message) {
+            send(message);
+        }
+    }, MAX_QUEUED_MESSAGES);
+
+    //Session table, keyed by ADR_PC, HASH_PC_PUBLIC_KEY or a pending key prior to the first message
+    private final Map<String, ProtocolSession> sessions = new ConcurrentHashMap<>();
+
+    //Sessions that have sent an INIT to the relay and are waiting on the INITRESP, in send order
+    private final Queue<ProtocolSession> awaitingInitResp = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingCounter = new AtomicLong();
+
+    //Sessions prepared from a push message awaiting the UI, keyed by the ADR_PC of the request
+    private final Map<String, ProtocolSession> preparedSessions = new ConcurrentHashMap<>();
+    private final Handler expiryHandler = new Handler(Looper.getMainLooper());
+
+    private volatile WebSocketClient mWebSocketClient;
+    //Set once the relay has agreed to binary CBOR frames for the current connection
+    private volatile boolean binaryFrames = false;
+    private final RelayMetrics relayMetrics = new RelayMetrics();
+    private final Runnable idleClose = this::closeIfIdle;
+    //Addresses registered by the live sessions on the current connection, keyed by address
+    private final Map<String, RelayAddress> relayAddresses = new ConcurrentHashMap<>();
+    //Addresses released by finished sessions, reused by later sessions until they expire
+    private final Queue<RelayAddress> spareAddresses = new ConcurrentLinkedQueue<>();
 
-    private WebSocketClient mWebSocketClient;
-    private Protocol currentProtocol = null;
-    private boolean errorMessagePrepared = false;
+    //Sequence number of routed messages, so the peer can de-duplicate replayed messages
+    private final AtomicLong routeSeq = new AtomicLong();
+    //Addresses being re-registered with the relay after a reconnect, in send order
+    private final Queue<String> awaitingReregistration = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger reconnectAttempt = new AtomicInteger();
+    private ReconnectPolicy reconnectPolicy;
+    private final Runnable reconnect = this::reconnect;
+
+    private final CompressionMetrics compressionMetrics = new CompressionMetrics();
 
     /**
      * Construct a new Companion Device with the specified companionId
      * @param companionId name of the Companion Device
      */
-    public CompanionDevice(String companionId) {
+    private CompanionDevice(String companionId) {
         id = companionId;
     }
 
     /**
-     * Runs the specified Protocol on this CompanionDevice, only one protocol can be run at
-     * a time.
+     * Get the CompanionDevice instance, creating it if it does not exist. The CompanionDevice is
+     * shared across the app so that concurrent sessions share the same web socket connection. If
+     * the name of the Companion Device has changed the instance is kept, so its sessions and
+     * connection are not orphaned, and the new name is used for protocols run from then on.
+     * Sessions already running keep the name they were started with.
+     * @param companionId name of the Companion Device
+     * @return CompanionDevice instance
+     */
+    public static synchronized CompanionDevice getInstance(String companionId) {
+        if (instance == null) {
+            instance = new CompanionDevice(companionId);
+        } else if (!instance.id.equals(companionId)) {
+            Log.i(TAG, "Companion Device name changed, new sessions will use the new name");
+            instance.id = companionId;
+        }
+        return instance;
+    }
+
+    /**
+     * Runs the specified Protocol on this CompanionDevice in a new session. Multiple protocols
+     * can be run concurrently, each in its own session.
      *
      * @param protocol protocol to be run
-     * @throws ProtocolException thrown if a protocol is already running
+     * @return the session the protocol is running in
+     * @throws ProtocolException thrown if the protocol is already running
      */
-    public void runProtocol(Protocol protocol) throws ProtocolException {
-        if (currentProtocol != null) {
-            throw new ProtocolException("Existing protocol running, stop first");
+    public ProtocolSession runProtocol(Protocol protocol) throws ProtocolException {
+        for (ProtocolSession session : sessions.values()) {
+            if (session.getProtocol() == protocol) {
+                throw new ProtocolException("Protocol already running in an existing session");
+            }
         }
         protocol.putInProtocolData(ID_CD, id);
-        currentProtocol = protocol;
-        if (currentProtocol.getStatus() == READY_TO_SEND) {
-            bufferedQueue.add(currentProtocol.getNextMessage());
+        ProtocolSession session = new ProtocolSession(this, protocol, PENDING_KEY_PREFIX + pendingCounter.incrementAndGet());
+        sessions.put(session.getKey(), session);
+        updateSessionKey(session);
+        expiryHandler.removeCallbacks(idleClose);
+        if (!initWebSocketClient() && isConnected()) {
+            relayMetrics.connectionReused();
+        }
+        session.execute(() -> {
+            synchronized (session) {
+                if (protocol.getStatus() == READY_TO_SEND) {
+                    sendSessionMessage(session, protocol.getNextMessage(), false);
+                }
+            }
+        });
+        return session;
+    }
+
+    /**
+     * Prepare a session for a request received in a push message before the user has opened
+     * it. The protocol is run up to the point it awaits the UI, which for a core request is once
+     * the request has been received and decrypted, and the session is then parked until the UI
+     * calls attachPreparedSession. If the UI does not attach within the configured timeout the
+     * PC is sent an error and the session is ended.
+     * @param request request from the push message
+     * @return the prepared session or null if preparing is disabled or the request cannot be prepared
+     */
+    public ProtocolSession prepareSession(JSONObject request) {
+        long timeout = getPreparedSessionTimeoutMillis();
+        String requestKey = request.optString(ADR_PC);
+        if (timeout <= 0 || requestKey.isEmpty() || preparedSessions.containsKey(requestKey)) {
+            return null;
+        }
+        Protocol protocol = ResumeReqProtocolMessage.isResumeRequest(request) ? new ResumeProtocol() : new CoreProtocol();
+        ProtocolSession session;
+        try {
+            session = runProtocol(protocol);
+        } catch (ProtocolException e) {
+            Log.d(TAG, "Exception preparing session", e);
+            return null;
+        }
+        preparedSessions.put(requestKey, session);
+        session.processMessage(request);
+        expiryHandler.postDelayed(() -> expirePreparedSession(requestKey, session), timeout);
+        Log.d(TAG, "Prepared session:" + requestKey);
+        return session;
+    }
+
+    /**
+     * Attach to the session prepared for the specified request, if there is one. The session
+     * is no longer subject to the prepared session timeout once attached. A prepared session that
+     * has failed is ended, so the caller should run the request in a new session.
+     * @param request request from the push message
+     * @return the prepared session or null if there is no usable prepared session
+     */
+    public ProtocolSession attachPreparedSession(JSONObject request) {
+        ProtocolSession session = preparedSessions.remove(request.optString(ADR_PC));
+        if (session == null) {
+            return null;
         }
+        Protocol.STATUS status = session.getStatus();
+        if (status == Protocol.STATUS.ERROR || status == Protocol.STATUS.FINISHED || !sessions.containsValue(session)) {
+            Log.d(TAG, "Prepared session not usable:" + status);
+            endSession(session);
+            return null;
+        }
+        Log.d(TAG, "Attached to prepared session:" + session.getKey());
+        return session;
+    }
+
+    /**
+     * Expire a prepared session that the UI has not attached to, letting the PC know the request
+     * was not answered
+     * @param requestKey key of the session in the prepared sessions
+     * @param session session to expire
+     */
+    private void expirePreparedSession(String requestKey, ProtocolSession session) {
+        if (!preparedSessions.remove(requestKey, session)) {
+            return;
+        }
+        Log.d(TAG, "Prepared session expired:" + requestKey);
+        if (session.getStatus() != Protocol.STATUS.ERROR) {
+            session.setProtocolInError(ERROR_EXPIRED, "Request Expired");
+        }
+        endSession(session);
+    }
+
+    /**
+     * Get the time a prepared session is held for from the config
+     * @return timeout in milliseconds, or zero if preparing sessions is disabled
+     */
+    private static long getPreparedSessionTimeoutMillis() {
+        return getConfigMillis(Config.PREPARED_SESSION_TIMEOUT);
+    }
+
+    /**
+     * Get a time given in seconds from the config
+     * @param name name of the config value
+     * @return time in milliseconds, or zero if it is not set or invalid
+     */
+    private static long getConfigMillis(String name) {
+        try {
+            return Long.parseLong(Config.getInstance().get(name)) * 1000L;
+        } catch (StorageException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Open the relay connection ahead of a protocol run, for example on receipt of a push
+     * message. The connection is closed again if no session uses it within the idle window.
+     */
+    public void prewarmConnection() {
         initWebSocketClient();
+        if (sessions.isEmpty()) {
+            scheduleIdleClose();
+        }
     }
 
     /**
-     * Sends the specified message, queuing it in a buffer if the web socket client is not
-     * yet initialise. As such, this does not guarantee immediate send, however, it will maintain
-     * the ordering of messages sent via this method.
-     *
+     * Get the relay connection and address reuse metrics
+     * @return RelayMetrics
+     */
+    public RelayMetrics getRelayMetrics() {
+        return relayMetrics;
+    }
+
+    /**
+     * Get the size of the messages written to and received from the relay before and after
+     * compression, across all sessions
+     * @return CompressionMetrics
+     */
+    public CompressionMetrics getCompressionMetrics() {
+        return compressionMetrics;
+    }
+
+    /**
+     * Update the key of the session in the session table once the PC address or public key hash
+     * becomes available in the Protocol Data. If another session is already held under that key
+     * it is assumed to be stale and is replaced.
+     * @param session session to update
+     */
+    private void updateSessionKey(ProtocolSession session) {
+        String key = session.getProtocol().getProtocolData(ADR_PC);
+        if (key == null) {
+            key = session.getProtocol().getProtocolData(HASH_PC_PUBLIC_KEY);
+        }
+        if (key == null || key.equals(session.getKey())) {
+            return;
+        }
+        sessions.remove(session.getKey(), session);
+        session.setKey(key);
+        ProtocolSession previous = sessions.put(key, session);
+        if (previous != null && previous != session) {
+            Log.d(TAG, "Replacing stale session:" + key);
+            awaitingInitResp.remove(previous);
+            previous.getProtocol().cleanUp();
+        }
+    }
+
+    /**
+     * Sends a message on behalf of a session, recording the session as awaiting an INITRESP
+     * if the message is a relay INIT message and adding a sequence number if it is a routed
+     * message. The caller must hold the session lock.
+     * @param session session sending the message
      * @param message message to send
+     * @param markSent true to call messageSent on the protocol once the message has been written
      */
-    private void sendWSSMessage(String message) {
+    private void sendSessionMessage(ProtocolSession session, String message, boolean markSent) {
         if (message == null) {
             Log.d(TAG, "Null send message, assume dummy, will ignore");
+            new SessionSendCallback(session, null, markSent).onSent();
             return;
         }
-        if (!mWebSocketClient.isOpen()) {
-            Log.d(TAG, "Queuing message:" + message);
-            bufferedQueue.add(message);
-        } else {
-            clearQueue();
-            Log.d(TAG, "Sending message direct:" + message);
-            mWebSocketClient.send(message);
+        JSONObject msg = WSMessages.parse(message);
+        String type = msg == null ? null : msg.optString(WSMessages.MSG_TYPE);
+        if (WSMessages.MsgTypes.INIT.equals(type)) {
+            RelayAddress spare = takeSpareAddress();
+            if (spare != null) {
+                relayMetrics.initReused();
+                //Answer once the session has finished handling the send, as the relay would
+                session.execute(() -> {
+                    if (!sessions.containsValue(session)) {
+                        return;
+                    }
+                    new SessionSendCallback(session, null, markSent).onSent();
+                    handleMessage(session, WSMessages.parse(spare.initResp));
+                });
+                return;
+            }
+            relayMetrics.initSent();
+            awaitingInitResp.add(session);
+        } else if (WSMessages.MsgTypes.ROUTE.equals(type)) {
+            message = addSequenceNumber(msg);
         }
+        outbound.enqueue(message, session, new SessionSendCallback(session, message, markSent), session.getCompressionMetrics());
     }
 
     /**
-     * Get the progress of the current protocol, which will be calculated via the current
-     * state.
-     * @return progress as a percentage
+     * Add the next sequence number to a routed message
+     * @param msg ROUTE message
+     * @return message to send
      */
-    public int getProgress() {
-        if (currentProtocol == null) {
-            return 0;
+    private String addSequenceNumber(JSONObject msg) {
+        try {
+            msg.put(WSMessages.SEQ, routeSeq.incrementAndGet());
+        } catch (JSONException e) {
+            Log.d(TAG, "Exception adding sequence number", e);
         }
-        return currentProtocol.getProgress();
+        return msg.toString();
     }
 
     /**
-     * Clears the current message queue by polling to send the oldest first
+     * Records a message of a session as written, so that it can be replayed if the connection
+     * is lost before the peer responds, and optionally as sent by the protocol. Puts the session
+     * in error if the message could not be queued.
      */
-    private synchronized void clearQueue() {
-        String msgToSend;
-        Log.d(TAG, "Clearing Queue");
-        while ((msgToSend = bufferedQueue.poll()) != null) {
-            Log.d(TAG, "Sending queued message:" + msgToSend);
-            mWebSocketClient.send(msgToSend);
+    private final class SessionSendCallback implements OutboundQueue.SendCallback {
+        private final ProtocolSession session;
+        private final String message;
+        private final boolean markSent;
+
+        private SessionSendCallback(ProtocolSession session, String message, boolean markSent) {
+            this.session = session;
+            this.message = message;
+            this.markSent = markSent;
+        }
+
+        @Override
+        public void onSent() {
+            Protocol protocol = session.getProtocol();
+            synchronized (session) {
+                if (!sessions.containsValue(session)) {
+                    return;
+                }
+                if (message != null) {
+                    session.setUnacknowledged(message);
+                }
+                if (!markSent) {
+                    return;
+                }
+                protocol.messageSent();
+            }
+            if (protocol.getStatus() == Protocol.STATUS.FINISHED) {
+                closeIfAllSessionsComplete();
+            }
+        }
+
+        @Override
+        public void onRejected() {
+            //Called on the thread that queued the message, which may be the UI thread
+            session.execute(session.getProtocol()::setErrorStatus);
         }
     }
 
     /**
-     * Get the string representation of the current state of the running protocol or the string
-     * "Null" if no protocol is running
-     * @return current state of the protocol or the string "Null"
+     * Ephemeral address registered with the relay, with the INITRESP that registered it and the
+     * time after which it is no longer reused
      */
-    public String getCurrentStateOfProtocol() {
-        if (currentProtocol != null) {
-            return currentProtocol.getProtocolStateString();
-        } else {
-            return "Null";
+    private static final class RelayAddress {
+        private final String address;
+        private final String initResp;
+        private final long expires;
+
+        private RelayAddress(String address, String initResp, long expires) {
+            this.address = address;
+            this.initResp = initResp;
+            this.expires = expires;
         }
     }
 
     /**
-     * Puts the specified key-value pair into the underlying Protocol data associated with
-     * the currently running protocol. This will overwrite any existing data.
-     * @param key name
-     * @param value value
+     * Record the address given to a session by the relay so that it can be reused once the
+     * session has finished. Addresses are not recorded if reuse is disabled in the config.
+     * @param msg INITRESP message
      */
-    public void putInProtocolData(String key, String value) {
-        if (currentProtocol != null) {
-            currentProtocol.putInProtocolData(key, value);
+    private void registerAddress(JSONObject msg) {
+        long lifetime = getConfigMillis(Config.RELAY_ADDRESS_LIFETIME);
+        String address = msg.optString(WSMessages.InitRespMsg.ADR);
+        if (lifetime <= 0 || address.isEmpty()) {
+            return;
         }
-
+        relayAddresses.put(address, new RelayAddress(address, msg.toString(), System.currentTimeMillis() + lifetime));
     }
 
     /**
-     * Triggers the protocol to continue after it has been waiting for a UI update. This does
-     * not pass any additional data to the protocol
+     * Release the address of a session that is ending. If the session finished and the address
+     * has not expired it is kept for the next session, otherwise it is discarded, as the PC of a
+     * failed session may still send to it.
+     * @param session session that is ending
      */
-    public void updateFromUI() {
-        updateFromUI(null);
+    private void releaseAddress(ProtocolSession session) {
+        String address = session.getProtocol().getProtocolData(ADR_CD);
+        if (address == null) {
+            return;
+        }
+        RelayAddress relayAddress = relayAddresses.remove(address);
+        if (relayAddress == null || session.getStatus() != Protocol.STATUS.FINISHED) {
+            return;
+        }
+        if (isConnected() && System.currentTimeMillis() < relayAddress.expires) {
+            spareAddresses.add(relayAddress);
+        }
     }
 
-    public void reset() {
-        Log.d(TAG, "Resetting Companion Device");
-        if (this.currentProtocol != null) {
-            this.currentProtocol.cleanUp();
-            this.currentProtocol = null;
+    /**
+     * Take an unexpired address released by a finished session, so that a new session can use it
+     * without sending an INIT
+     * @return address or null if a new INIT must be sent
+     */
+    private RelayAddress takeSpareAddress() {
+        if (!isConnected()) {
+            return null;
         }
-
-        bufferedQueue.clear();
-        if (this.mWebSocketClient.isOpen()) {
-            Log.d(TAG, "WebSocket Client is still open will try to close");
-            if (!this.mWebSocketClient.isClosing()) {
-                this.mWebSocketClient.close();
+        RelayAddress spare;
+        while ((spare = spareAddresses.poll()) != null) {
+            if (System.currentTimeMillis() < spare.expires) {
+                relayAddresses.put(spare.address, spare);
+                return spare;
             }
+            Log.d(TAG, "Relay address expired:" + spare.address);
         }
-        if (this.mWebSocketClient.isClosed()) {
-            Log.d(TAG, "WebSocket Client is Closed");
-        }
+        return null;
+    }
 
+    /**
+     * Checks whether the relay connection is open
+     * @return true if open, false if not
+     */
+    @VisibleForTesting
+    boolean isConnected() {
+        WebSocketClient client = mWebSocketClient;
+        return client != null && client.isOpen();
     }
 
     /**
-     * Triggers an update from the UI with the provided data being added into the Protocol Data
-     * first. This should be used when waiting for some UI action, like a biometric approval or
-     * signature. Those actions happen within the UI framework and when complete they should
-     * call this method to pass that newly created data back to the protocol so that it can
-     * continue processing messages
+     * Sends the error message of a session through the same path as its protocol messages, so it
+     * carries a sequence number and is replayed if the connection is lost before it reaches the
+     * PC. The caller must hold the session lock.
+     * @param session session in error
+     * @param message error message to send
+     */
+    void sendErrorMessage(ProtocolSession session, String message) {
+        session.setUnacknowledged(null);
+        sendSessionMessage(session, message, false);
+    }
+
+    /**
+     * Sends the specified message, queuing it to be written by the writer thread once the web
+     * socket client is open. As such, this does not guarantee immediate send, however, it will
+     * maintain the ordering of messages sent via this method.
      *
-     * @param newData key-value data to add to the Protocol Data
+     * @param message message to send
      */
-    public void updateFromUI(Map<String, String> newData) {
-        if (newData != null) {
-            currentProtocol.putAllInProtocolData(newData);
+    void sendWSSMessage(String message) {
+        if (message == null) {
+            Log.d(TAG, "Null send message, assume dummy, will ignore");
+            return;
         }
-        currentProtocol.receivedUI();
+        outbound.enqueue(message, null, null);
+    }
+
+    /**
+     * Write a message to the web socket, as a binary CBOR frame if agreed with the relay,
+     * otherwise as JSON text. Only called on the writer thread of the outbound queue, every
+     * message, including those to the relay itself, must be queued rather than written directly.
+     * @param message message to send
+     */
+    private void send(String message) {
+        WebSocketClient client = mWebSocketClient;
+        if (binaryFrames) {
+            byte[] encoded = WSMessages.encodeBinary(message);
+            if (encoded != null) {
+                client.send(encoded);
+                return;
+            }
+            Log.d(TAG, "Cannot encode message as CBOR, sending as JSON");
+        }
+        client.send(message);
+    }
+
+    /**
+     * Create the draft for a new connection, offering permessage-deflate if compression is
+     * enabled in the config
+     * @return Draft_6455
+     */
+    private Draft_6455 createDraft() {
         try {
-            currentProtocol.prepareNextMessage();
-            if (currentProtocol.getStatus() == READY_TO_SEND) {
-                sendWSSMessage(currentProtocol.getNextMessage());
-
-                currentProtocol.messageSent();
-                if (currentProtocol.getStatus() == Protocol.STATUS.FINISHED) {
-                    Log.d(TAG, "Calling Close From Finished UI");
-                    mWebSocketClient.close();
-                }
+            if (!COMPRESSION_DEFLATE.equals(Config.getInstance().get(Config.WIRE_COMPRESSION))) {
+                return new Draft_6455();
             }
+        } catch (StorageException e) {
+            Log.d(TAG, "Wire compression not configured, will not compress");
+            return new Draft_6455();
+        }
+        int threshold;
+        try {
+            threshold = Integer.parseInt(Config.getInstance().get(Config.COMPRESSION_THRESHOLD));
+        } catch (StorageException | NumberFormatException e) {
+            threshold = DEFAULT_COMPRESSION_THRESHOLD;
+        }
+        return new Draft_6455(new MeteredDeflateExtension(threshold, compressionMetrics));
+    }
 
+    /**
+     * Get the number of sessions currently held by this CompanionDevice
+     * @return number of sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
 
-        } catch (ProtocolMessageException e) {
-            Log.e(TAG, "Exception preparing message", e);
-            if (this.currentProtocol != null) {
-                this.currentProtocol.setErrorStatus();
+    /**
+     * Ends the specified session, cleaning up its protocol and removing it from the session
+     * table. If no sessions remain the web socket client is closed.
+     * @param session session to end
+     */
+    void endSession(ProtocolSession session) {
+        //Queued behind any error message the session is preparing, which needs its protocol data
+        session.execute(() -> {
+            Log.d(TAG, "Ending session:" + session.getKey() + ", " + session.getCompressionMetrics());
+            sessions.remove(session.getKey(), session);
+            awaitingInitResp.remove(session);
+            releaseAddress(session);
+            session.getProtocol().cleanUp();
+            if (sessions.isEmpty()) {
+                Log.d(TAG, "No sessions remaining, web socket will close when idle");
+                scheduleIdleClose();
             }
+        });
+    }
+
+    /**
+     * Schedule the web socket client to be closed once the idle window has passed without a new
+     * session, or close it now if there is no idle window configured
+     */
+    private void scheduleIdleClose() {
+        expiryHandler.removeCallbacks(idleClose);
+        long idle = getConfigMillis(Config.RELAY_IDLE_TIMEOUT);
+        if (idle <= 0) {
+            closeWebSocketClient();
+            return;
+        }
+        expiryHandler.postDelayed(idleClose, idle);
+    }
 
+    /**
+     * Close the web socket client at the end of the idle window, provided no session is still
+     * active
+     */
+    private void closeIfIdle() {
+        if (!getActiveSessions().isEmpty()) {
+            return;
         }
+        Log.i(TAG, "Closing idle web socket, " + relayMetrics + ", " + outbound + ", " + compressionMetrics);
+        closeWebSocketClient();
     }
 
     /**
-     * Process an incoming protocol message formatted as JSON object
-     *
-     * If no protocol is active the message is ignored
-     *
-     * @param msg JSONObject containing the message to be processed
+     * Close the web socket client if it is open and not already closing
      */
-    public void processMessage(JSONObject msg) {
-        if (currentProtocol == null || msg == null) {
+    private synchronized void closeWebSocketClient() {
+        spareAddresses.clear();
+        //Messages not written by now belong to ended sessions, unless a new session has started
+        if (sessions.isEmpty()) {
+            outbound.clear();
+        }
+        if (mWebSocketClient == null) {
             return;
         }
-        //process the message and decide the what to do next
-        switch (currentProtocol.parseIncomingMessage(msg)) {
-            case READY_TO_SEND:
-                //We have completed processing on the incoming message and its corresponding reply
-                //and we are ready to send
-                sendWSSMessage(currentProtocol.getNextMessage());
-
-                currentProtocol.messageSent();
-                if (currentProtocol.getStatus() == Protocol.STATUS.FINISHED) {
-                    Log.d(TAG, "Calling Close");
-                    mWebSocketClient.close();
-                }
-                break;
-            case AWAITING_UI:
-                //We need something from the UI before we can process the outgoing message
-                Log.d(TAG, "Awaiting UI");
-                break;
-            case AWAITING_RESPONSE:
-                //We have sent a message and are now awaiting a response
-                Log.d(TAG, "Awaiting response");
-                break;
-            case IDLE:
-                break;
+        if (mWebSocketClient.isOpen()) {
+            Log.d(TAG, "WebSocket Client is still open will try to close");
+            if (!mWebSocketClient.isClosing()) {
+                mWebSocketClient.close();
+            }
+        }
+        if (mWebSocketClient.isClosed()) {
+            Log.d(TAG, "WebSocket Client is Closed");
         }
-
     }
 
     /**
-     * Gets a particular value from the Protocol Data
-     * @param field name of field to retrieve
-     * @return value of that field or "" if no protocol is running
+     * Closes the web socket client once a session has finished, provided no other session is
+     * still active
      */
-    public String getProtocolData(String field) {
-        if (currentProtocol != null) {
-            return currentProtocol.getProtocolData(field);
-        } else {
-            return "";
+    private void closeIfAllSessionsComplete() {
+        if (!getActiveSessions().isEmpty()) {
+            return;
         }
+        Log.d(TAG, "All sessions complete, web socket will close when idle");
+        scheduleIdleClose();
     }
 
     /**
-     * TODO Check if we can combine this with other processMessage, in particular why do we not need the response?
-     * @param msg message to process
+     * Triggers an update from the UI with the provided data being added into the Protocol Data
+     * of the session first. This should be used when waiting for some UI action, like a biometric
+     * approval or signature. Those actions happen within the UI framework and when complete they
+     * should call this method to pass that newly created data back to the protocol so that it
+     * can continue processing messages
+     *
+     * @param session session to update
+     * @param newData key-value data to add to the Protocol Data
+     */
+    void updateFromUI(ProtocolSession session, Map<String, String> newData) {
+        session.execute(() -> {
+            Protocol protocol = session.getProtocol();
+            synchronized (session) {
+                if (newData != null) {
+                    protocol.putAllInProtocolData(newData);
+                }
+                protocol.receivedUI();
+                try {
+                    protocol.prepareNextMessage();
+                    if (protocol.getStatus() == READY_TO_SEND) {
+                        sendSessionMessage(session, protocol.getNextMessage(), true);
+                    }
+                } catch (ProtocolMessageException e) {
+                    Log.e(TAG, "Exception preparing message", e);
+                    protocol.setErrorStatus();
+                }
+            }
+            if (protocol.getStatus() == Protocol.STATUS.FINISHED) {
+                Log.d(TAG, "Session finished from UI");
+                closeIfAllSessionsComplete();
+            }
+        });
+    }
+
+    /**
+     * Process an incoming protocol message formatted as JSON object for the specified session,
+     * the message is processed on the executor of the session
+     *
+     * @param session session to process the message
+     * @param msg JSONObject containing the message to be processed
+     */
+    void processMessage(ProtocolSession session, JSONObject msg) {
+        session.execute(() -> handleMessage(session, msg));
+    }
+
+    /**
+     * Process an incoming protocol message for the specified session, only called on the
+     * executor of the session
+     *
+     * @param session session to process the message
+     * @param msg JSONObject containing the message to be processed
+     * @return status of the protocol after processing
      */
-    public void processMessage(String msg) {
-        if (currentProtocol != null) {
-            currentProtocol.parseIncomingMessage(msg);
+    private Protocol.STATUS handleMessage(ProtocolSession session, JSONObject msg) {
+        Protocol protocol = session.getProtocol();
+        if (msg == null) {
+            return protocol.getStatus();
+        }
+        Protocol.STATUS status;
+        synchronized (session) {
+            //process the message and decide the what to do next
+            status = protocol.parseIncomingMessage(msg);
+            updateSessionKey(session);
+            if (status != Protocol.STATUS.AWAITING_RESPONSE) {
+                //The message was accepted so the peer has received the last message we wrote
+                session.setUnacknowledged(null);
+            }
+            switch (status) {
+                case READY_TO_SEND:
+                    //We have completed processing on the incoming message and its corresponding reply
+                    //and we are ready to send
+                    sendSessionMessage(session, protocol.getNextMessage(), true);
+                    break;
+                case AWAITING_UI:
+                    //We need something from the UI before we can process the outgoing message
+                    Log.d(TAG, "Awaiting UI");
+                    break;
+                case AWAITING_RESPONSE:
+                    //We have sent a message and are now awaiting a response
+                    Log.d(TAG, "Awaiting response");
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (protocol.getStatus() == Protocol.STATUS.FINISHED) {
+            closeIfAllSessionsComplete();
         }
+        return status;
     }
 
     /**
-     * Sets the protocol to be in a state of error causing it to try ot send an error message
-     * to the requester
-     * @param errorCode error code
-     * @param errorMessage error message
+     * Process an incoming protocol message formatted as a JSON string for the specified session.
+     * The message is only parsed, it will not trigger any outgoing message, which is prepared
+     * when the UI calls updateFromUI.
+     * @param session session to process the message
+     * @param msg message to process
      */
-    public void setProtocolInError(int errorCode, String errorMessage) {
-        if (currentProtocol != null) {
-            if (!errorMessagePrepared) {
-                String errorMsg = currentProtocol.prepareErrorMessage(errorCode, errorMessage);
-                if (errorMsg != null) {
-                    this.sendWSSMessage(errorMsg);
-                }
-                errorMessagePrepared = true;
+    void processMessage(ProtocolSession session, String msg) {
+        session.execute(() -> {
+            synchronized (session) {
+                session.getProtocol().parseIncomingMessage(msg);
+                updateSessionKey(session);
             }
-            currentProtocol.setErrorStatus();
+        });
+    }
+
+    /**
+     * Route an INITRESP from the relay to the session that sent the oldest outstanding INIT
+     * @param msg INITRESP message
+     * @return session the message was routed to or null if it was not routed to a session
+     */
+    private ProtocolSession routeInitResp(JSONObject msg) {
+        String previousAddress = awaitingReregistration.poll();
+        if (previousAddress != null) {
+            completeReregistration(previousAddress, msg.optString(WSMessages.InitRespMsg.ADR));
+            return null;
+        }
+        ProtocolSession session = awaitingInitResp.poll();
+        if (session == null) {
+            Log.d(TAG, "INITRESP received with no session awaiting it");
+            return null;
         }
+        registerAddress(msg);
+        processMessage(session, msg);
+        return session;
     }
 
     /**
-     * Sets the protocol to be in error with a generic unknown error, ideally call
-     * setProtocolInError with error code and error message.
+     * Route a delivered message to the session it belongs to. The relay names the ephemeral
+     * address the message was delivered to, which identifies the session that registered it. If
+     * the address is not given the message is routed by the PC address or public key hash it
+     * contains. A message that cannot be matched to a session is dropped, it is never offered to
+     * other sessions as processing it would change their state.
+     * @param deliver DELIVER message
+     * @return session the message was routed to or null if it was dropped
      */
-    public void setProtocolInError() {
-        setProtocolInError(100, "Unknown Error");
+    private ProtocolSession routeDeliver(JSONObject deliver) {
+        JSONObject msg = deliver.optJSONObject(WSMessages.DeliverMsg.MSG);
+        if (msg == null) {
+            return null;
+        }
+        ProtocolSession target = getSessionByAddress(deliver.optString(WSMessages.DeliverMsg.ADR));
+        if (target == null) {
+            target = sessions.get(msg.optString(ADR_PC));
+        }
+        if (target == null) {
+            target = sessions.get(msg.optString(HASH_PC_PUBLIC_KEY));
+        }
+        if (target == null) {
+            Log.w(TAG, "Delivered message does not match a session, dropping");
+            return null;
+        }
+        processMessage(target, msg);
+        return target;
     }
 
     /**
-     * Set the view model to use for the protocol. This view model will receive updates
-     * on the progress of the protocol allowing the UI to be updated
-     * @param model view model to use
+     * Get the session that registered the specified ephemeral address with the relay
+     * @param address ephemeral address
+     * @return session or null if no session holds the address
      */
-    public void setProtocolViewModel(ProtocolViewModel model) {
-        if (currentProtocol != null) {
-            currentProtocol.setProtocolViewModel(model);
+    private ProtocolSession getSessionByAddress(String address) {
+        if (address.isEmpty()) {
+            return null;
         }
+        for (ProtocolSession session : sessions.values()) {
+            if (address.equals(session.getProtocol().getProtocolData(ADR_CD))) {
+                return session;
+            }
+        }
+        return null;
     }
 
     /**
-     * Initialise the web socket client
+     * Initialise the web socket client if there is not already an open connection
+     * @return true if a new connection was opened, false if the existing connection is kept or
+     * the relay address is not configured
      */
-    public void initWebSocketClient() {
+    public synchronized boolean initWebSocketClient() {
+        if (mWebSocketClient != null && !mWebSocketClient.isClosed() && !mWebSocketClient.isClosing()) {
+            return false;
+        }
         URI uri;
         try {
             uri = new URI(Config.getInstance().get(Config.WSS_SERVER));
         } catch (URISyntaxException | StorageException e) {
             Log.d(TAG, "WebSocketClient exception", e);
-            if (this.currentProtocol != null) {
-                this.currentProtocol.setErrorStatus();
-            }
-            return;
+            setAllSessionsInError();
+            return false;
         }
-        mWebSocketClient = new WebSocketClient(uri, new Draft_6455()) {
+        binaryFrames = false;
+        spareAddresses.clear();
+        relayMetrics.connectionOpened();
+        mWebSocketClient = new WebSocketClient(uri, createDraft()) {
             @Override
             public void onOpen(ServerHandshake serverHandshake) {
                 Log.d(TAG, "Connected");
-                clearQueue();
+                reregisterSessions();
+                outbound.flush();
             }
 
             @Override
             public void onMessage(String s) {
                 Log.d(TAG, "Received:" + s);
-                JSONObject msg = WSMessages.parse(s);
+                attributeReceived(processWSMessage(WSMessages.parse(s)));
+            }
+
+            @Override
+            public void onMessage(ByteBuffer bytes) {
+                Log.d(TAG, "Received binary:" + bytes.remaining());
+                attributeReceived(processWSMessage(WSMessages.parse(bytes)));
+            }
+
+            /**
+             * Process a validated message received from the relay
+             * @param msg message to process or null if it failed validation
+             * @return session the message was routed to or null if it was not routed to a session
+             */
+            private ProtocolSession processWSMessage(JSONObject msg) {
                 if (msg == null) {
-                    return;
+                    return null;
                 }
                 try {
                     switch (msg.getString(WSMessages.MSG_TYPE)) {
                         case WSMessages.MsgTypes.INITRESP:
                             Log.d(TAG, "Process INITRESP");
-                            processMessage(msg);
-                            break;
+                            if (WSMessages.acceptsBinaryCodec(msg)) {
+                                binaryFrames = true;
+                            }
+                            return routeInitResp(msg);
                         case WSMessages.MsgTypes.DELIVER:
                             Log.d(TAG, "Process Deliver");
-                            processMessage(msg.optJSONObject(WSMessages.DeliverMsg.MSG));
-                            break;
+                            return routeDeliver(msg);
                         default:
                             Log.d(TAG, "Unknown message type:" + msg.getString(WSMessages.MSG_TYPE));
                     }
                 } catch (JSONException e) {
                     Log.e(TAG, "Error processing JSON message:", e);
                 }
+                return null;
+            }
+
+            /**
+             * Record the size of the message just dispatched against the session it was routed
+             * to. Called for every message, so that the sizes held by the extension stay in step
+             * with the messages dispatched.
+             * @param session session the message was routed to or null
+             */
+            private void attributeReceived(ProtocolSession session) {
+                IExtension extension = ((Draft_6455) getConnection().getDraft()).getExtension();
+                if (extension instanceof MeteredDeflateExtension) {
+                    ((MeteredDeflateExtension) extension).attributeReceived(session == null ? null : session.getCompressionMetrics());
+                }
             }
 
             @Override
             public void onClose(int i, String s, boolean b) {
                 Log.d(TAG, "WebSocket Closed" + s);
+                connectionLost(this);
                 //Logger.LogInfo("Websocket", "Closed " + s);
             }
 
             @Override
             public void onError(Exception e) {
-                if (currentProtocol != null) {
-                    currentProtocol.setErrorStatus();
-                }
+                //The connection is closed following an error, which will attempt to reconnect
                 Log.d(TAG, "WebSocket Error", e);
                 //Logger.LogInfo("Websocket", "Error " + e.getMessage());
             }
         };
+        //Pings the relay and closes the connection if it stops responding
+        mWebSocketClient.setConnectionLostTimeout(KEEPALIVE_SECONDS);
         mWebSocketClient.connect();
+        return true;
+    }
+
+    /**
+     * Get the sessions that have not finished or failed
+     * @return list of active sessions
+     */
+    private List<ProtocolSession> getActiveSessions() {
+        List<ProtocolSession> active = new ArrayList<>();
+        for (ProtocolSession session : sessions.values()) {
+            Protocol.STATUS status = session.getStatus();
+            if (status != Protocol.STATUS.FINISHED && status != Protocol.STATUS.ERROR) {
+                active.add(session);
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Get the sessions that need the connection to be re-established if it is lost, those that
+     * are active and those in error whose error message may not have reached the PC
+     * @return list of sessions to resume
+     */
+    private List<ProtocolSession> getSessionsToResume() {
+        List<ProtocolSession> resume = getActiveSessions();
+        for (ProtocolSession session : sessions.values()) {
+            if (session.isErrorUnacknowledged() && !resume.contains(session)) {
+                resume.add(session);
+            }
+        }
+        return resume;
+    }
+
+    /**
+     * Get the reconnect policy, with the number of attempts taken from the config
+     * @return ReconnectPolicy
+     */
+    private synchronized ReconnectPolicy getReconnectPolicy() {
+        if (reconnectPolicy == null) {
+            int attempts;
+            try {
+                attempts = Integer.parseInt(Config.getInstance().get(Config.RECONNECT_ATTEMPTS));
+            } catch (StorageException | NumberFormatException e) {
+                attempts = DEFAULT_RECONNECT_ATTEMPTS;
+            }
+            reconnectPolicy = new ReconnectPolicy(RECONNECT_BASE_MILLIS, RECONNECT_MAX_MILLIS, attempts);
+        }
+        return reconnectPolicy;
+    }
+
+    /**
+     * Called when the web socket client closes. If a session is still active, or has an error
+     * message to replay, a reconnect is scheduled with backoff, unless the retry budget has been
+     * used, in which case the active sessions are put in error.
+     * @param client web socket client that closed
+     */
+    private synchronized void connectionLost(WebSocketClient client) {
+        if (client != mWebSocketClient) {
+            return;
+        }
+        //Spare addresses are not re-registered, so cannot be reused on the next connection
+        spareAddresses.clear();
+        awaitingReregistration.clear();
+        if (getSessionsToResume().isEmpty()) {
+            outbound.release();
+            return;
+        }
+        ReconnectPolicy policy = getReconnectPolicy();
+        int attempt = reconnectAttempt.incrementAndGet();
+        if (!policy.allows(attempt)) {
+            Log.i(TAG, "Unable to reconnect after " + policy.getMaxAttempts() + " attempts");
+            reconnectAttempt.set(0);
+            outbound.release();
+            setAllSessionsInError();
+            return;
+        }
+        outbound.hold();
+        long delay = policy.getDelayMillis(attempt);
+        Log.d(TAG, "Connection lost, reconnecting in " + delay + "ms");
+        for (ProtocolSession session : getActiveSessions()) {
+            session.getProtocol().shareState("Reconnecting (" + attempt + "/" + policy.getMaxAttempts() + ")");
+        }
+        expiryHandler.removeCallbacks(idleClose);
+        expiryHandler.postDelayed(reconnect, delay);
+    }
+
+    /**
+     * Re-establish the web socket connection, provided a session still needs it
+     */
+    private void reconnect() {
+        if (getSessionsToResume().isEmpty()) {
+            outbound.release();
+            return;
+        }
+        Log.d(TAG, "Reconnecting, attempt " + reconnectAttempt.get());
+        initWebSocketClient();
+    }
+
+    /**
+     * Re-register the addresses of the active sessions once the connection has been
+     * re-established, so the PC can continue to reach them. The INIT messages are queued ahead
+     * of the held messages, which are not written until every address has been re-registered.
+     * If no session holds an address the sessions are resumed straight away.
+     */
+    private void reregisterSessions() {
+        if (!outbound.isHeld()) {
+            return;
+        }
+        LinkedHashSet<String> addresses = new LinkedHashSet<>();
+        for (ProtocolSession session : getSessionsToResume()) {
+            String address = session.getProtocol().getProtocolData(ADR_CD);
+            if (address != null) {
+                addresses.add(address);
+            }
+        }
+        if (addresses.isEmpty()) {
+            resumeSessions();
+            return;
+        }
+        awaitingReregistration.addAll(addresses);
+        List<String> reregister = new ArrayList<>(addresses);
+        for (int i = reregister.size() - 1; i >= 0; i--) {
+            Log.d(TAG, "Re-registering address:" + reregister.get(i));
+            outbound.enqueueFirst(WSMessages.createReregisterMsg(reregister.get(i)).toString());
+        }
+    }
+
+    /**
+     * Handle the INITRESP to a re-registration. If the relay could not restore the previous
+     * address the sessions using it can no longer be reached and are put in error. Once every
+     * address has been re-registered the sessions are resumed.
+     * @param previousAddress address that was being re-registered
+     * @param address address given by the relay
+     */
+    private void completeReregistration(String previousAddress, String address) {
+        if (!previousAddress.equals(address)) {
+            Log.d(TAG, "Relay did not restore address:" + previousAddress);
+            relayAddresses.remove(previousAddress);
+            for (ProtocolSession session : getActiveSessions()) {
+                if (previousAddress.equals(session.getProtocol().getProtocolData(ADR_CD))) {
+                    session.setUnacknowledged(null);
+                    session.execute(session.getProtocol()::setErrorStatus);
+                }
+            }
+        }
+        if (awaitingReregistration.isEmpty()) {
+            resumeSessions();
+        }
+    }
+
+    /**
+     * Resume the active sessions after a reconnect, replaying the last unacknowledged message of
+     * each ahead of any queued messages. INIT messages are replayed in the order the sessions
+     * await their INITRESP, so that the responses are still routed to the right session. Error
+     * messages are replayed once, as the PC does not respond to them. The reconnect is complete at
+     * this point, so the next connection loss starts a new series of attempts.
+     */
+    private void resumeSessions() {
+        reconnectAttempt.set(0);
+        List<ProtocolSession> active = getActiveSessions();
+        List<ProtocolSession> resume = getSessionsToResume();
+        List<String> replay = new ArrayList<>();
+        for (ProtocolSession session : awaitingInitResp) {
+            String message = session.getUnacknowledged();
+            if (message != null && resume.contains(session)) {
+                replay.add(message);
+            }
+        }
+        for (ProtocolSession session : resume) {
+            String message = session.getUnacknowledged();
+            if (message != null && !awaitingInitResp.contains(session)) {
+                replay.add(message);
+            }
+            if (!active.contains(session)) {
+                session.setUnacknowledged(null);
+            }
+        }
+        Log.d(TAG, "Resuming sessions, replaying " + replay.size() + " messages");
+        for (int i = replay.size() - 1; i >= 0; i--) {
+            outbound.enqueueFirst(replay.get(i));
+        }
+        for (ProtocolSession session : active) {
+            Protocol protocol = session.getProtocol();
+            protocol.shareState(protocol.getProtocolStateString());
+        }
+        outbound.release();
+    }
+
+    /**
+     * Sets every session that has not yet finished into an error status, used when the shared
+     * web socket connection fails
+     */
+    private void setAllSessionsInError() {
+        for (ProtocolSession session : sessions.values()) {
+            if (session.getStatus() != Protocol.STATUS.FINISHED) {
+                session.execute(session.getProtocol()::setErrorStatus);
+            }
+        }
     }
 }
@@ -74,7 +74,6 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         getWindow().requestFeature(Window.FEATURE_CONTENT_TRANSITIONS);
-        boolean errorOccurred = false;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             // Create channel to show notifications.
             String channelId = getString(R.string.default_notification_channel_id);
@@ -83,18 +82,18 @@ public class MainActivity extends AppCompatActivity {
             notificationManager.createNotificationChannel(new NotificationChannel(channelId, channelName, NotificationManager.IMPORTANCE_HIGH));
         }
 
-        //Check we have access to an IdentityStore
-        IdentityStore identityStore = IdentityStore.getInstance();
-        if (!identityStore.isInitialised()) {
-            Log.d(TAG, "Unable to access Identity Store, will stop");
-            AlertDialog.Builder builder;
-            builder = new AlertDialog.Builder(this);
-            builder.setTitle("Error Loading");
-            builder.setMessage("The app is unable to access the identity store and will close.");
-            builder.setPositiveButton("OK", (dialogInterface, i) -> finish());
-            builder.show();
-            errorOccurred = true;
-        }
+        //Check we have access to an IdentityStore, which is loaded in the background
+        IdentityStore.getInstance().getReadyState().observe(this, ready -> {
+            if (!ready) {
+                Log.d(TAG, "Unable to access Identity Store, will stop");
+                AlertDialog.Builder builder;
+                builder = new AlertDialog.Builder(this);
+                builder.setTitle("Error Loading");
+                builder.setMessage("The app is unable to access the identity store and will close.");
+                builder.setPositiveButton("OK", (dialogInterface, i) -> finish());
+                builder.show();
+            }
+        });
 
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
@@ -105,11 +104,6 @@ public class MainActivity extends AppCompatActivity {
         appBarConfiguration = new AppBarConfiguration.Builder(navController.getGraph()).build();
         NavigationUI.setupActionBarWithNavController(this, navController, appBarConfiguration);
 
-        //If an error has occurred then stop any further setup because we will close
-        if (errorOccurred) {
-            return;
-        }
-
         //Setup the PushServer Manager and check the device is registered
         PushServerManager.checkRegistered(getApplicationContext());
 
@@ -161,7 +155,7 @@ public class MainActivity extends AppCompatActivity {
      */
     public void resetApp() {
         try {
-            CompanionKeyManager ckm = new CompanionKeyManager();
+            CompanionKeyManager ckm = CompanionKeyManager.getInstance();
             ckm.reset();
             IdentityStore.getInstance().reset();
         } catch (CryptoException | StorageException e) {
@@ -0,0 +1,270 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium;
+
+import com.castellate.compendium.protocol.Protocol;
+import com.castellate.compendium.protocol.ProtocolViewModel;
+import com.castellate.compendium.ws.CompressionMetrics;
+
+import org.json.JSONObject;
+
+import java.util.Map;
+
+/**
+ * Represents a single protocol run hosted by a CompanionDevice. Each session has its own Protocol
+ * instance and Protocol Data, whilst sharing the web socket connection of the CompanionDevice.
+ * UI components should hold on to the session returned from CompanionDevice.runProtocol and use
+ * it for all interactions with that run of the protocol.
+ *
+ * All work on the protocol, processing incoming messages, updates from the UI, preparing error
+ * messages and ending the session, runs on the serial executor of the session rather than on the
+ * thread that triggered it. Changes in status are posted back to the view model.
+ */
+public class ProtocolSession {
+    private final CompanionDevice device;
+    private final Protocol protocol;
+    private volatile String key;
+    private volatile boolean errorMessagePrepared = false;
+    //Last message written for this session that the peer has not yet responded to
+    private volatile String unacknowledged;
+    private final SerialExecutor executor = new SerialExecutor();
+    private final CompressionMetrics compressionMetrics = new CompressionMetrics();
+
+    /**
+     * Create a new session, sessions are created by CompanionDevice.runProtocol
+     * @param device CompanionDevice hosting the session
+     * @param protocol protocol being run in this session
+     * @param key initial key of the session in the session table
+     */
+    ProtocolSession(CompanionDevice device, Protocol protocol, String key) {
+        this.device = device;
+        this.protocol = protocol;
+        this.key = key;
+    }
+
+    /**
+     * Get the protocol being run in this session
+     * @return protocol
+     */
+    Protocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Get the size of the messages written and received for this session before and after
+     * compression
+     * @return CompressionMetrics
+     */
+    public CompressionMetrics getCompressionMetrics() {
+        return compressionMetrics;
+    }
+
+    /**
+     * Get the key of this session in the session table
+     * @return session key
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Set the key of this session in the session table
+     * @param key new session key
+     */
+    void setKey(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the last message written for this session that has not been responded to
+     * @return message or null if there is none
+     */
+    String getUnacknowledged() {
+        return unacknowledged;
+    }
+
+    /**
+     * Set the last message written for this session that has not been responded to
+     * @param message message or null once a response has been received
+     */
+    void setUnacknowledged(String message) {
+        unacknowledged = message;
+    }
+
+    /**
+     * Get the status of the underlying protocol
+     * @return protocol status
+     */
+    public Protocol.STATUS getStatus() {
+        return protocol.getStatus();
+    }
+
+    /**
+     * Get the progress of the protocol, which will be calculated via the current state.
+     * @return progress as a percentage
+     */
+    public int getProgress() {
+        return protocol.getProgress();
+    }
+
+    /**
+     * Get the string representation of the current state of the protocol
+     * @return current state of the protocol
+     */
+    public String getCurrentStateOfProtocol() {
+        return protocol.getProtocolStateString();
+    }
+
+    /**
+     * Puts the specified key-value pair into the Protocol Data of this session. This will
+     * overwrite any existing data.
+     * @param key name
+     * @param value value
+     */
+    public synchronized void putInProtocolData(String key, String value) {
+        protocol.putInProtocolData(key, value);
+    }
+
+    /**
+     * Gets a particular value from the Protocol Data of this session
+     * @param field name of field to retrieve
+     * @return value of that field
+     */
+    public synchronized String getProtocolData(String field) {
+        return protocol.getProtocolData(field);
+    }
+
+    /**
+     * Triggers the protocol to continue after it has been waiting for a UI update. This does
+     * not pass any additional data to the protocol
+     */
+    public void updateFromUI() {
+        updateFromUI(null);
+    }
+
+    /**
+     * Triggers an update from the UI with the provided data being added into the Protocol Data
+     * first. See CompanionDevice for details.
+     * @param newData key-value data to add to the Protocol Data
+     */
+    public void updateFromUI(Map<String, String> newData) {
+        device.updateFromUI(this, newData);
+    }
+
+    /**
+     * Process an incoming protocol message formatted as a JSON object
+     * @param msg JSONObject containing the message to be processed
+     */
+    public void processMessage(JSONObject msg) {
+        device.processMessage(this, msg);
+    }
+
+    /**
+     * Process an incoming protocol message formatted as a JSON string
+     * @param msg message to process
+     */
+    public void processMessage(String msg) {
+        device.processMessage(this, msg);
+    }
+
+    /**
+     * Checks whether this session has written an error message that has not been replayed since
+     * the connection was lost, in which case it needs the connection to be re-established
+     * @return true if the error message may not have reached the PC
+     */
+    boolean isErrorUnacknowledged() {
+        return errorMessagePrepared && unacknowledged != null;
+    }
+
+    /**
+     * Sets the protocol to be in a state of error causing it to try to send an error message
+     * to the requester. Only one error message will be sent per session. The message is sent in
+     * sequence with the protocol messages of the session and replayed if the connection is lost.
+     * @param errorCode error code
+     * @param errorMessage error message
+     */
+    public void setProtocolInError(int errorCode, String errorMessage) {
+        execute(() -> {
+            synchronized (this) {
+                if (!errorMessagePrepared) {
+                    String errorMsg = protocol.prepareErrorMessage(errorCode, errorMessage);
+                    if (errorMsg != null) {
+                        device.sendErrorMessage(this, errorMsg);
+                    } else {
+                        unacknowledged = null;
+                    }
+                    errorMessagePrepared = true;
+                }
+                protocol.setErrorStatus();
+            }
+        });
+    }
+
+    /**
+     * Sets the protocol to be in error with a generic unknown error, ideally call
+     * setProtocolInError with error code and error message.
+     */
+    public void setProtocolInError() {
+        setProtocolInError(100, "Unknown Error");
+    }
+
+    /**
+     * Set the view model to use for the protocol. This view model will receive updates
+     * on the progress of the protocol allowing the UI to be updated. If the protocol has already
+     * progressed, for example in a prepared session, the current state and status are posted so
+     * the UI can pick up from where the protocol is.
+     * @param model view model to use
+     */
+    public void setProtocolViewModel(ProtocolViewModel model) {
+        synchronized (this) {
+            protocol.setProtocolViewModel(model);
+            if (model != null && protocol.getStatus() != Protocol.STATUS.IDLE) {
+                model.postProtocolState(protocol.getProtocolStateString());
+                model.postProtocolStatus(protocol.getStatus());
+            }
+        }
+    }
+
+    /**
+     * Run a task on the executor of this session. Tasks run one at a time, in the order they were
+     * submitted, after any protocol work already queued. UI components should use this for work
+     * on the data of the session, such as crypto with a biometric authorised object, rather than
+     * doing it on the main thread.
+     * @param task task to run
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * End this session, cleaning up the protocol and removing it from the CompanionDevice
+     */
+    public void reset() {
+        device.endSession(this);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Segmented AES-GCM for payloads that are too large to be encrypted as a single message. The
+ * payload is split into chunks that are each encrypted under the same data key with their own
+ * nonce, formed from a random per-payload prefix and the chunk index. The chunk index and a
+ * final chunk flag are authenticated as additional data, so chunks cannot be reordered, dropped
+ * or the payload truncated without detection.
+ *
+ * Only one chunk is ever held in memory, so the memory used is independent of the payload size.
+ */
+public class ChunkedCipher {
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_CHUNKS = 4096;
+    public static final int KEY_LENGTH = 32;
+    private static final int PREFIX_LENGTH = 8;
+    private static final int TAG_LENGTH = 128;
+    private static final SecureRandom random = new SecureRandom();
+
+    private ChunkedCipher() {
+        // restrict instantiation
+    }
+
+    /**
+     * Generate a new random data key for a chunked payload
+     * @return key bytes, the caller should zero these once they are no longer needed
+     */
+    public static byte[] generateKey() {
+        byte[] key = new byte[KEY_LENGTH];
+        random.nextBytes(key);
+        return key;
+    }
+
+    /**
+     * Generate a new random nonce prefix for a chunked payload
+     * @return nonce prefix bytes
+     */
+    public static byte[] generatePrefix() {
+        byte[] prefix = new byte[PREFIX_LENGTH];
+        random.nextBytes(prefix);
+        return prefix;
+    }
+
+    /**
+     * Encrypt a single chunk of a payload
+     * @param key data key of the payload
+     * @param prefix nonce prefix of the payload
+     * @param index index of the chunk in the payload
+     * @param last true if this is the final chunk of the payload
+     * @param plaintext chunk plaintext, at most CHUNK_SIZE bytes
+     * @return chunk cipher text including the authentication tag
+     * @throws CryptoException
+     */
+    public static byte[] encryptChunk(SecretKey key, byte[] prefix, int index, boolean last, byte[] plaintext) throws CryptoException {
+        if (plaintext.length > CHUNK_SIZE) {
+            throw new CryptoException("Chunk exceeds maximum size");
+        }
+        return doChunk(Cipher.ENCRYPT_MODE, key, prefix, index, last, plaintext);
+    }
+
+    /**
+     * Decrypt and authenticate a single chunk of a payload
+     * @param key data key of the payload
+     * @param prefix nonce prefix of the payload
+     * @param index index the chunk is expected to have in the payload
+     * @param last true if this is expected to be the final chunk of the payload
+     * @param cipherText chunk cipher text including the authentication tag
+     * @return chunk plaintext
+     * @throws CryptoException if the chunk fails authentication
+     */
+    public static byte[] decryptChunk(SecretKey key, byte[] prefix, int index, boolean last, byte[] cipherText) throws CryptoException {
+        if (cipherText.length > CHUNK_SIZE + TAG_LENGTH / 8) {
+            throw new CryptoException("Chunk exceeds maximum size");
+        }
+        return doChunk(Cipher.DECRYPT_MODE, key, prefix, index, last, cipherText);
+    }
+
+    private static byte[] doChunk(int mode, SecretKey key, byte[] prefix, int index, boolean last, byte[] input) throws CryptoException {
+        if (key == null || prefix == null || prefix.length != PREFIX_LENGTH) {
+            throw new CryptoException("Invalid chunk key or nonce prefix");
+        }
+        if (index < 0 || index >= MAX_CHUNKS) {
+            throw new CryptoException("Invalid chunk index");
+        }
+        byte[] nonce = ByteBuffer.allocate(PREFIX_LENGTH + 4).put(prefix).putInt(index).array();
+        byte[] aad = ByteBuffer.allocate(5).putInt(index).put((byte) (last ? 1 : 0)).array();
+        try {
+            Cipher cipher = CryptoContext.get().getCipher("AES/GCM/NoPadding");
+            cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH, nonce));
+            cipher.updateAAD(aad);
+            return cipher.doFinal(input);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Exception processing chunk", e);
+        }
+    }
+}
@@ -28,12 +28,20 @@
 
 package com.castellate.compendium.crypto;
 
+import android.os.Build;
 import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyInfo;
 import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import com.castellate.compendium.data.Config;
+import com.castellate.compendium.exceptions.StorageException;
 
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
@@ -47,35 +55,115 @@ import java.security.UnrecoverableEntryException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.spec.ECGenParameterSpec;
+import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.GCMParameterSpec;
 
 /**
  * Key Manager for the companion device. Handles access to the keys in the AndroidKeyStore and
  * the storing of public keys received from PCs
+ *
+ * There is a single process-wide instance, so the AndroidKeyStore is only loaded once. Accessing
+ * the AndroidKeyStore is slow, so the identity key pair is cached together with its encoded
+ * public key and key ID, and the key handles of other aliases are cached once retrieved or
+ * created. Cached handles are discarded when the key is deleted or the keystore is reset. The
+ * keys themselves remain in the AndroidKeyStore, so biometric protected keys still require a
+ * biometric authorisation. By default every use of a key is authorised by its own biometric
+ * prompt. On Android 11 and above batching can be enabled by setting auth_validity_seconds, in
+ * which case new keys are authorised for that period after a strong biometric authentication, so
+ * that a batch of requests needs a single authentication. Keys created whilst batching is
+ * disabled, or on earlier versions, remain per use, so a batch using any of them still prompts once
+ * for each operation.
  */
 public class CompanionKeyManager {
+    private static final String TAG = "CompanionKeyManager";
     private static final String identityKey = "CompanionDeviceIdentity";
+    private static final String resumptionKey = "CompanionDeviceResumption";
     private static final String CURVE = "secp256r1";
     public static final String KEYSTORE = "AndroidKeyStore";
     private static final int KEY_SIZE = 256;
     private static final int TAG_LENGTH = 128;
     private static final String SYMMETRIC_ALG = "AES/GCM/NoPadding";
     private static final String SIGNATURE_ALG="SHA256withECDSA";
+    private static volatile CompanionKeyManager instance;
     private final KeyStore keystore;
+    private final Map<String, Object> keyHandles = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> timeBoundKeys = new ConcurrentHashMap<>();
+    private volatile IdentityMaterial identity;
+
+    /**
+     * Identity key pair of this device together with its encoded public key and key ID
+     */
+    public static final class IdentityMaterial {
+        private final KeyPair keyPair;
+        private final String encodedPublicKey;
+        private final String keyId;
+
+        private IdentityMaterial(KeyPair keyPair) throws CryptoException {
+            this.keyPair = keyPair;
+            this.encodedPublicKey = CryptoUtils.encodePublicKey(keyPair.getPublic());
+            this.keyId = CryptoUtils.getPublicKeyId(keyPair.getPublic());
+        }
+
+        /**
+         * Get the identity key pair
+         * @return KeyPair whose private key is held in the AndroidKeyStore
+         */
+        public KeyPair getKeyPair() {
+            return keyPair;
+        }
+
+        /**
+         * Get the Base64 encoded identity public key
+         * @return encoded public key
+         */
+        public String getEncodedPublicKey() {
+            return encodedPublicKey;
+        }
+
+        /**
+         * Get the key ID of the identity public key
+         * @return hex encoded key ID
+         */
+        public String getKeyId() {
+            return keyId;
+        }
+    }
+
+    /**
+     * Get the Companion Key Manager, loading the AndroidKeyStore on first use
+     * @return CompanionKeyManager instance
+     * @throws CryptoException
+     */
+    public static CompanionKeyManager getInstance() throws CryptoException {
+        CompanionKeyManager ckm = instance;
+        if (ckm == null) {
+            synchronized (CompanionKeyManager.class) {
+                ckm = instance;
+                if (ckm == null) {
+                    ckm = new CompanionKeyManager();
+                    instance = ckm;
+                }
+            }
+        }
+        return ckm;
+    }
 
     /**
      * Create a new Companion Key Manager
      * @throws CryptoException
      */
-    public CompanionKeyManager() throws CryptoException {
+    private CompanionKeyManager() throws CryptoException {
 
         try {
             this.keystore = KeyStore.getInstance(KEYSTORE);
@@ -93,7 +181,36 @@ public class CompanionKeyManager {
      * @return Generated or retrieved KeyPair
      * @throws CryptoException
      */
-    public synchronized KeyPair getOrCreateIdentityKey() throws CryptoException{
+    public KeyPair getOrCreateIdentityKey() throws CryptoException{
+        return getIdentity().getKeyPair();
+    }
+
+    /**
+     * Gets the identity key pair, encoded public key and key ID, retrieving or creating the key
+     * pair on first use
+     * @return cached IdentityMaterial
+     * @throws CryptoException
+     */
+    public IdentityMaterial getIdentity() throws CryptoException {
+        IdentityMaterial material = identity;
+        if (material == null) {
+            synchronized (this) {
+                material = identity;
+                if (material == null) {
+                    material = new IdentityMaterial(loadOrCreateIdentityKey());
+                    identity = material;
+                }
+            }
+        }
+        return material;
+    }
+
+    /**
+     * Retrieves the identity key pair from the AndroidKeyStore or creates it if it doesn't exist
+     * @return Generated or retrieved KeyPair
+     * @throws CryptoException
+     */
+    private KeyPair loadOrCreateIdentityKey() throws CryptoException{
         try {
             if (keystore.containsAlias(identityKey)) {
                 PrivateKeyEntry privateKey = (PrivateKeyEntry) keystore.getEntry(identityKey, null);
@@ -184,24 +301,91 @@ public class CompanionKeyManager {
 
     }
 
+    /**
+     * Gets a Cipher object for encrypting resumption secrets. The underlying key is stored in
+     * the AndroidKeyStore but, like the identity key, is not protected by a biometric so that
+     * a session can be resumed without a biometric check
+     * @return Initialised Cipher object ready for encryption
+     * @throws CryptoException
+     */
+    public Cipher getResumptionEncryptionCipher() throws CryptoException {
+        try {
+            Cipher cipher = Cipher.getInstance(SYMMETRIC_ALG);
+            cipher.init(Cipher.ENCRYPT_MODE, getOrCreateResumptionKey());
+            return cipher;
+        } catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new CryptoException("Exception getting resumption encryption cipher",e);
+        }
+    }
+
+    /**
+     * Gets a Cipher object for decrypting resumption secrets
+     * @param iv IV used during encryption
+     * @return Initialised Cipher object ready for decryption
+     * @throws CryptoException
+     */
+    public Cipher getResumptionDecryptionCipher(byte[] iv) throws CryptoException {
+        try {
+            Cipher cipher = Cipher.getInstance(SYMMETRIC_ALG);
+            cipher.init(Cipher.DECRYPT_MODE, getOrCreateResumptionKey(), new GCMParameterSpec(TAG_LENGTH, iv));
+            return cipher;
+        } catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException e) {
+            throw new CryptoException("Exception getting resumption decryption cipher",e);
+        }
+    }
+
+    /**
+     * Gets or creates the symmetric key used to protect resumption secrets
+     * @return Created or retrieved SecretKey
+     * @throws CryptoException
+     */
+    private synchronized SecretKey getOrCreateResumptionKey() throws CryptoException {
+        Object cached = keyHandles.get(resumptionKey);
+        if (cached instanceof SecretKey) {
+            return (SecretKey) cached;
+        }
+        try {
+            SecretKey key;
+            if (keystore.containsAlias(resumptionKey)) {
+                key = (SecretKey) keystore.getKey(resumptionKey, null);
+            } else {
+                KeyGenParameterSpec spec = new KeyGenParameterSpec.Builder(resumptionKey, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT).setBlockModes(KeyProperties.BLOCK_MODE_GCM).setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE).setKeySize(KEY_SIZE).setUnlockedDeviceRequired(true).build();
+                KeyGenerator keyGen = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+                keyGen.init(spec);
+                key = keyGen.generateKey();
+            }
+            keyHandles.put(resumptionKey, key);
+            return key;
+        } catch (KeyStoreException | NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException | UnrecoverableKeyException e) {
+            throw new CryptoException("Exception getting or creating resumption key", e);
+        }
+    }
+
     /**
      * Gets or creates a biometrically protected signing key with the specified key ID
      * @param keyId unique ID of the key
      * @return KeyPair of retrieved or created key pair
      * @throws CryptoException
      */
-    private KeyPair getOrCreateSigningKeyPair(String keyId) throws CryptoException {
+    private synchronized KeyPair getOrCreateSigningKeyPair(String keyId) throws CryptoException {
         //TODO handle someone request an incorrect key
+        Object cached = keyHandles.get(keyId);
+        if (cached instanceof KeyPair) {
+            return (KeyPair) cached;
+        }
         try {
+            KeyPair kp;
             if (keystore.containsAlias(keyId)) {
                 PrivateKeyEntry privateKey = (PrivateKeyEntry) keystore.getEntry(keyId, null);
-                return new KeyPair(privateKey.getCertificate().getPublicKey(), privateKey.getPrivateKey());
+                kp = new KeyPair(privateKey.getCertificate().getPublicKey(), privateKey.getPrivateKey());
+            } else {
+                final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_EC, KEYSTORE);
+                final KeyGenParameterSpec keyGenParameterSpec = requireAuthentication(new KeyGenParameterSpec.Builder(keyId, KeyProperties.PURPOSE_SIGN | KeyProperties.PURPOSE_VERIFY).setDigests(KeyProperties.DIGEST_SHA256).setAlgorithmParameterSpec(new ECGenParameterSpec(CURVE))).build();
+                keyPairGenerator.initialize(keyGenParameterSpec);
+                kp = keyPairGenerator.generateKeyPair();
             }
-            final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_EC, KEYSTORE);
-            final KeyGenParameterSpec keyGenParameterSpec = new KeyGenParameterSpec.Builder(keyId, KeyProperties.PURPOSE_SIGN | KeyProperties.PURPOSE_VERIFY).setDigests(KeyProperties.DIGEST_SHA256).setAlgorithmParameterSpec(new ECGenParameterSpec(CURVE)).setUserAuthenticationRequired(true).build();
-            keyPairGenerator.initialize(keyGenParameterSpec);
-
-            return keyPairGenerator.generateKeyPair();
+            keyHandles.put(keyId, kp);
+            return kp;
         } catch (KeyStoreException | NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException | UnrecoverableEntryException e) {
             throw new CryptoException("Exception getting or creating key pair",e);
         }
@@ -236,6 +420,9 @@ public class CompanionKeyManager {
      * @throws CryptoException
      */
     public boolean isNewKey(String keyId)throws CryptoException{
+        if (keyHandles.containsKey(keyId)) {
+            return false;
+        }
         try {
             return !keystore.containsAlias(keyId);
         } catch (KeyStoreException e) {
@@ -243,21 +430,97 @@ public class CompanionKeyManager {
         }
     }
 
+    /**
+     * Gets the number of seconds a single biometric authentication authorises the use of newly
+     * created keys for. Zero, the default, means each use of a key requires its own
+     * authentication, which is always the case before Android 11 where a time-bound key could also be unlocked by the
+     * device credential
+     * @return validity period in seconds, or zero for per-use keys
+     */
+    private int getAuthValiditySeconds() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(Config.getInstance().get(Config.AUTH_VALIDITY)));
+        } catch (StorageException | NumberFormatException e) {
+            Log.d(TAG, "Cannot read authentication validity, using per-use keys", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Sets the user authentication policy of a new key. If a validity period is configured the
+     * key can be used for that period after a strong biometric authentication, otherwise it has
+     * to be authorised for each use through a CryptoObject
+     * @param builder key specification builder
+     * @return the builder
+     */
+    private KeyGenParameterSpec.Builder requireAuthentication(KeyGenParameterSpec.Builder builder) {
+        builder.setUserAuthenticationRequired(true);
+        int validity = getAuthValiditySeconds();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && validity > 0) {
+            builder.setUserAuthenticationParameters(validity, KeyProperties.AUTH_BIOMETRIC_STRONG);
+        }
+        return builder;
+    }
+
+    /**
+     * Checks if the specified key is authorised for a period after a biometric authentication,
+     * rather than for each use. The Cipher and Signature objects of a time-bound key can only be
+     * initialised after the user has authenticated, but a single authentication can authorise
+     * several operations. A key that does not exist yet will be created with the current policy.
+     * @param keyId ID of the key
+     * @return true if the key is time-bound, false if each use must be authorised
+     * @throws CryptoException
+     */
+    public boolean isTimeBoundKey(String keyId) throws CryptoException {
+        Boolean cached = timeBoundKeys.get(keyId);
+        if (cached != null) {
+            return cached;
+        }
+        if (isNewKey(keyId)) {
+            return getAuthValiditySeconds() > 0;
+        }
+        try {
+            Key key = keystore.getKey(keyId, null);
+            KeyInfo keyInfo;
+            if (key instanceof SecretKey) {
+                keyInfo = (KeyInfo) SecretKeyFactory.getInstance(key.getAlgorithm(), KEYSTORE).getKeySpec((SecretKey) key, KeyInfo.class);
+            } else {
+                keyInfo = KeyFactory.getInstance(key.getAlgorithm(), KEYSTORE).getKeySpec(key, KeyInfo.class);
+            }
+            boolean timeBound = keyInfo.getUserAuthenticationValidityDurationSeconds() > 0;
+            timeBoundKeys.put(keyId, timeBound);
+            return timeBound;
+        } catch (KeyStoreException | NoSuchAlgorithmException | NoSuchProviderException | UnrecoverableKeyException | InvalidKeySpecException e) {
+            throw new CryptoException("Exception getting key authentication policy", e);
+        }
+    }
+
     /**
      * Gets or creates a new symmetric key protected by a biometric
      * @param keyId Key ID
      * @return Created or retrieved SecretKey
      * @throws CryptoException
      */
-    private SecretKey getOrCreateSecretKey(String keyId) throws CryptoException {
+    private synchronized SecretKey getOrCreateSecretKey(String keyId) throws CryptoException {
+        Object cached = keyHandles.get(keyId);
+        if (cached instanceof SecretKey) {
+            return (SecretKey) cached;
+        }
         try {
+            SecretKey key;
             if (keystore.containsAlias(keyId)) {
-                return (SecretKey) keystore.getKey(keyId, null);
+                key = (SecretKey) keystore.getKey(keyId, null);
+            } else {
+                KeyGenParameterSpec spec = requireAuthentication(new KeyGenParameterSpec.Builder(keyId, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT).setBlockModes(KeyProperties.BLOCK_MODE_GCM).setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE).setKeySize(KEY_SIZE)).build();
+                KeyGenerator keyGen = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+                keyGen.init(spec);
+                key = keyGen.generateKey();
             }
-            KeyGenParameterSpec spec = new KeyGenParameterSpec.Builder(keyId, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT).setBlockModes(KeyProperties.BLOCK_MODE_GCM).setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE).setKeySize(KEY_SIZE).setUserAuthenticationRequired(true).build();
-            KeyGenerator keyGen = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
-            keyGen.init(spec);
-            return keyGen.generateKey();
+            keyHandles.put(keyId, key);
+            return key;
         } catch (KeyStoreException | NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException | UnrecoverableKeyException e) {
             throw new CryptoException("Exception getting or creating secret key", e);
         }
@@ -268,9 +531,14 @@ public class CompanionKeyManager {
      * @param keyId Key ID to delete
      * @throws CryptoException
      */
-    public void deleteKey(String keyId) throws CryptoException{
+    public synchronized void deleteKey(String keyId) throws CryptoException{
         try {
             keystore.deleteEntry(keyId);
+            keyHandles.remove(keyId);
+            timeBoundKeys.remove(keyId);
+            if (identityKey.equals(keyId)) {
+                identity = null;
+            }
         } catch (KeyStoreException e) {
             throw new CryptoException("Exception cleaning up unused key",e);
         }
@@ -289,12 +557,15 @@ public class CompanionKeyManager {
      * Reset the keystore by deleting all entries, including the identity key
      * @throws CryptoException
      */
-    public void reset() throws CryptoException{
+    public synchronized void reset() throws CryptoException{
         try {
             Enumeration<String> en = keystore.aliases();
             while (en.hasMoreElements()) {
                 keystore.deleteEntry(en.nextElement());
             }
+            keyHandles.clear();
+            timeBoundKeys.clear();
+            identity = null;
         } catch (KeyStoreException e) {
             throw new CryptoException("Exception resetting device",e);
         }
@@ -0,0 +1,149 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Per-thread cache of JCA engine instances. Looking up a provider and creating a Cipher,
+ * Signature, Mac or MessageDigest is comparatively expensive, so each thread keeps one instance
+ * per algorithm and re-initialises it for each use. The instances are not thread safe, hence a
+ * context per thread.
+ *
+ * Instances are only cached for use with software keys. Keys held in the AndroidKeyStore bind an
+ * instance to the AndroidKeyStore provider, so signing with the identity key uses a separate
+ * signer instance, and Cipher objects for biometric protected keys are never cached as each is
+ * bound to a single authorised operation.
+ */
+public final class CryptoContext {
+    private static final ThreadLocal<CryptoContext> contexts = ThreadLocal.withInitial(CryptoContext::new);
+    private final Map<String, Cipher> ciphers = new HashMap<>();
+    private final Map<String, Signature> verifiers = new HashMap<>();
+    private final Map<String, Signature> identitySigners = new HashMap<>();
+    private final Map<String, Mac> macs = new HashMap<>();
+    private final Map<String, MessageDigest> digests = new HashMap<>();
+
+    private CryptoContext() {
+        // restrict instantiation
+    }
+
+    /**
+     * Get the crypto context of the current thread
+     * @return CryptoContext for the current thread
+     */
+    public static CryptoContext get() {
+        return contexts.get();
+    }
+
+    /**
+     * Get a Cipher for use with software keys, it must be initialised before each use
+     * @param transformation cipher transformation
+     * @return cached Cipher instance
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchPaddingException
+     */
+    public Cipher getCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Cipher cipher = ciphers.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            ciphers.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Get a Signature for verifying with software public keys, it must be initialised before
+     * each use
+     * @param algorithm signature algorithm
+     * @return cached Signature instance
+     * @throws NoSuchAlgorithmException
+     */
+    public Signature getVerifier(String algorithm) throws NoSuchAlgorithmException {
+        Signature signature = verifiers.get(algorithm);
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm);
+            verifiers.put(algorithm, signature);
+        }
+        return signature;
+    }
+
+    /**
+     * Get a Signature for signing with the identity key, it must be initialised before each use
+     * @param algorithm signature algorithm
+     * @return cached Signature instance
+     * @throws NoSuchAlgorithmException
+     */
+    public Signature getIdentitySigner(String algorithm) throws NoSuchAlgorithmException {
+        Signature signature = identitySigners.get(algorithm);
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm);
+            identitySigners.put(algorithm, signature);
+        }
+        return signature;
+    }
+
+    /**
+     * Get a Mac, it must be initialised before each use
+     * @param algorithm mac algorithm
+     * @return cached Mac instance
+     * @throws NoSuchAlgorithmException
+     */
+    public Mac getMac(String algorithm) throws NoSuchAlgorithmException {
+        Mac mac = macs.get(algorithm);
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            macs.put(algorithm, mac);
+        }
+        return mac;
+    }
+
+    /**
+     * Get a MessageDigest, reset ready for use
+     * @param algorithm digest algorithm
+     * @return cached MessageDigest instance
+     * @throws NoSuchAlgorithmException
+     */
+    public MessageDigest getDigest(String algorithm) throws NoSuchAlgorithmException {
+        MessageDigest digest = digests.get(algorithm);
+        if (digest == null) {
+            digest = MessageDigest.getInstance(algorithm);
+            digests.put(algorithm, digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+}
@@ -52,6 +52,8 @@ public class CryptoUtils {
     private static final String HASH_ALG="SHA256";
     private static final String KEY_ALG="ECDH";
     private static final byte[] HKDF_INFO="STS Handshake data".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HKDF_RESUMPTION_INFO="Resumption secret".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HKDF_RESUMED_INFO="Resumed session key".getBytes(StandardCharsets.UTF_8);
     private static final int HKDF_KEY_SIZE=32;
 
     /**
@@ -65,7 +67,7 @@ public class CryptoUtils {
         PublicKey publicKey = CryptoUtils.getPublicKey(publicKeyString);
         MessageDigest digest;
         try {
-            digest = MessageDigest.getInstance(HASH_ALG);
+            digest = CryptoContext.get().getDigest(HASH_ALG);
         } catch (NoSuchAlgorithmException e) {
             throw new CryptoException("Exception converting key to hex id",e);
         }
@@ -82,7 +84,7 @@ public class CryptoUtils {
     public static String getPublicKeyId(PublicKey publicKey) throws CryptoException {
         MessageDigest digest;
         try {
-            digest = MessageDigest.getInstance(HASH_ALG);
+            digest = CryptoContext.get().getDigest(HASH_ALG);
         } catch (NoSuchAlgorithmException e) {
             throw new CryptoException("Exception converting key to hex id",e);
         }
@@ -187,11 +189,51 @@ public class CryptoUtils {
      * @throws CryptoException
      */
     public static String deriveKey(byte[] sharedSecret) throws CryptoException{
+        return B64.encode(deriveKeyBytes(sharedSecret));
+    }
+
+    /**
+     * Derive and AES key from the shared secret use an HMACSHA256 based HKDF
+     * @param sharedSecret bytes of shared secret from DH
+     * @return derived key bytes
+     * @throws CryptoException
+     */
+    public static byte[] deriveKeyBytes(byte[] sharedSecret) throws CryptoException{
         try {
-            byte[] derived = HMACSHA256Hkdf.computeHkdf(sharedSecret, null, HKDF_INFO, HKDF_KEY_SIZE);
-            return B64.encode(derived);
+            return HMACSHA256Hkdf.computeHkdf(sharedSecret, null, HKDF_INFO, HKDF_KEY_SIZE);
         }catch (GeneralSecurityException e){
             throw new CryptoException("Exception deriving key", e);
         }
     }
+
+    /**
+     * Derive a resumption secret from the key of a completed session. The resumption secret is
+     * never used directly as a session key, it is only used to derive keys for resumed sessions
+     * @param derivedKey bytes of the session key
+     * @return resumption secret bytes
+     * @throws CryptoException
+     */
+    public static byte[] deriveResumptionSecret(byte[] derivedKey) throws CryptoException{
+        try {
+            return HMACSHA256Hkdf.computeHkdf(derivedKey, null, HKDF_RESUMPTION_INFO, HKDF_KEY_SIZE);
+        }catch (GeneralSecurityException e){
+            throw new CryptoException("Exception deriving resumption secret", e);
+        }
+    }
+
+    /**
+     * Derive the AES key for a resumed session from the resumption secret and the nonces
+     * exchanged by both parties
+     * @param resumptionSecret bytes of the resumption secret
+     * @param nonces concatenation of the PC and Companion Device nonces, used as the HKDF salt
+     * @return derived key bytes
+     * @throws CryptoException
+     */
+    public static byte[] deriveResumedKey(byte[] resumptionSecret, byte[] nonces) throws CryptoException{
+        try {
+            return HMACSHA256Hkdf.computeHkdf(resumptionSecret, nonces, HKDF_RESUMED_INFO, HKDF_KEY_SIZE);
+        }catch (GeneralSecurityException e){
+            throw new CryptoException("Exception deriving resumed key", e);
+        }
+    }
 }
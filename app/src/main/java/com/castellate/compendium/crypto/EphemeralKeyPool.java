@@ -0,0 +1,195 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.crypto;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.startup.Initializer;
+
+import com.castellate.compendium.data.StartupTasks;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.Destroyable;
+
+/**
+ * Bounded pool of pre-generated ephemeral EC key pairs used in the key exchange. The pool is
+ * filled on a background thread when the app starts and topped up whenever a key pair is taken
+ * or a push request arrives, so that key generation is not on the critical path of a request.
+ * Each key pair is removed from the pool when it is taken, so is handed out at most once, and
+ * should be passed to wipe once the key exchange is complete.
+ */
+public class EphemeralKeyPool implements Initializer<EphemeralKeyPool> {
+    private static final String TAG = "EphemeralKeyPool";
+    private static final int POOL_SIZE = 4;
+    private static final EphemeralKeyPool instance = new EphemeralKeyPool();
+    private final BlockingQueue<KeyPair> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean refilling = new AtomicBoolean(false);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Public constructor required by the Initializer, use getInstance to access the pool
+     */
+    public EphemeralKeyPool() {
+
+    }
+
+    /**
+     * Get an instance of EphemeralKeyPool
+     * @return EphemeralKeyPool instance
+     */
+    public static EphemeralKeyPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Take a key pair from the pool, generating one directly if the pool is empty. A refill
+     * is scheduled after each take.
+     * @return KeyPair that has not been handed out before
+     * @throws CryptoException
+     */
+    public KeyPair take() throws CryptoException {
+        KeyPair kp = pool.poll();
+        if (kp != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            Log.d(TAG, "Pool empty, generating key pair on request");
+            kp = CryptoUtils.generateEphemeralKeys();
+        }
+        refill();
+        return kp;
+    }
+
+    /**
+     * Schedule the pool to be topped up on the background thread. Only one refill runs at a time.
+     */
+    public void refill() {
+        if (pool.remainingCapacity() == 0 || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                while (pool.remainingCapacity() > 0) {
+                    if (!pool.offer(CryptoUtils.generateEphemeralKeys())) {
+                        break;
+                    }
+                }
+            } catch (CryptoException e) {
+                Log.e(TAG, "Exception generating ephemeral key pair", e);
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+
+    /**
+     * Wipe the private key of a key pair once it is no longer needed. Not all providers support
+     * destroying keys, in which case the key is left for garbage collection.
+     * @param kp key pair to wipe
+     */
+    public static void wipe(KeyPair kp) {
+        if (kp == null) {
+            return;
+        }
+        PrivateKey privateKey = kp.getPrivate();
+        if (privateKey instanceof Destroyable && !((Destroyable) privateKey).isDestroyed()) {
+            try {
+                ((Destroyable) privateKey).destroy();
+            } catch (DestroyFailedException e) {
+                Log.d(TAG, "Provider does not support destroying ephemeral key");
+            }
+        }
+    }
+
+    /**
+     * Get the number of key pairs taken from the pool
+     * @return pool hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of key pairs generated on request because the pool was empty
+     * @return pool misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of key pairs currently in the pool
+     * @return number of available key pairs
+     */
+    public int getAvailable() {
+        return pool.size();
+    }
+
+    /**
+     * Initializes and a component given the application {@link Context}
+     *
+     * @param context The application context.
+     */
+    @NonNull
+    @Override
+    public EphemeralKeyPool create(@NonNull Context context) {
+        long start = System.nanoTime();
+        EphemeralKeyPool keyPool = EphemeralKeyPool.getInstance();
+        keyPool.refill();
+        StartupTasks.record(TAG + ".create", start);
+        return keyPool;
+    }
+
+    /**
+     * @return A list of dependencies that this {@link Initializer} depends on. This is
+     * used to determine initialization order of {@link Initializer}s.
+     * <br/>
+     * For e.g. if a {@link Initializer} `B` defines another
+     * {@link Initializer} `A` as its dependency, then `A` gets initialized before `B`.
+     */
+    @NonNull
+    @Override
+    public List<Class<? extends Initializer<?>>> dependencies() {
+        return new ArrayList<>();
+    }
+}
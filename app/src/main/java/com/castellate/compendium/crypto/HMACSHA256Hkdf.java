@@ -51,7 +51,7 @@ public final class HMACSHA256Hkdf {
      */
     public static byte[] computeHkdf(final byte[] sharedSecret, final byte[] salt, final byte[] info, int size)
             throws GeneralSecurityException {
-        Mac mac = Mac.getInstance(macAlgorithm);
+        Mac mac = CryptoContext.get().getMac(macAlgorithm);
 
         if (size > 255 * mac.getMacLength()) {
             throw new GeneralSecurityException("size too large");
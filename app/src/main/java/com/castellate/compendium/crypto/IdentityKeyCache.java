@@ -0,0 +1,217 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.crypto;
+
+import java.security.interfaces.ECPublicKey;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of parsed PC public keys, keyed by their Public Key ID (HASH_PC_PUBLIC_KEY). Each
+ * entry holds the decoded ECPublicKey and its ID, so neither the parsing of the encoded key nor
+ * the hashing to calculate its ID is repeated for the same few PCs on every signature check.
+ *
+ * The cache is populated by the IdentityStore when identities are loaded or stored, an entry is
+ * invalidated when its identity is removed or its key replaced, and the cache is cleared when the
+ * store is reset. Identity keys that are not in the store, for example during enrolment, are added
+ * on first use. Only identity keys are held, ephemeral keys are parsed by the ProtocolData of the
+ * protocol run. The least recently used entry is evicted once full.
+ */
+public class IdentityKeyCache {
+    private static final int MAX_ENTRIES = 32;
+    private static final IdentityKeyCache instance = new IdentityKeyCache();
+    private final LinkedHashMap<String, CachedKey> entries = new LinkedHashMap<String, CachedKey>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedKey> eldest) {
+            if (size() > MAX_ENTRIES) {
+                byEncoded.remove(eldest.getValue().encoded);
+                return true;
+            }
+            return false;
+        }
+    };
+    private final Map<String, CachedKey> byEncoded = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private IdentityKeyCache() {
+        // restrict instantiation
+    }
+
+    /**
+     * Get the singleton instance of the cache
+     * @return IdentityKeyCache instance
+     */
+    public static IdentityKeyCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Add a parsed public key to the cache
+     * @param keyId Public Key ID
+     * @param encodedKey Base64 encoded public key
+     * @param publicKey parsed public key
+     */
+    public synchronized void put(String keyId, String encodedKey, ECPublicKey publicKey) {
+        CachedKey previous = entries.get(keyId);
+        if (previous != null) {
+            byEncoded.remove(previous.encoded);
+        }
+        CachedKey entry = new CachedKey(keyId, encodedKey, publicKey);
+        entries.put(keyId, entry);
+        byEncoded.put(encodedKey, entry);
+    }
+
+    /**
+     * Add an encoded public key to the cache, parsing it and calculating its ID
+     * @param encodedKey Base64 encoded public key
+     * @return entry for the key
+     * @throws CryptoException if the key is invalid
+     */
+    private CachedKey add(String encodedKey) throws CryptoException {
+        ECPublicKey publicKey = CryptoUtils.getPublicKey(encodedKey);
+        String keyId = CryptoUtils.getPublicKeyId(publicKey);
+        synchronized (this) {
+            put(keyId, encodedKey, publicKey);
+            return byEncoded.get(encodedKey);
+        }
+    }
+
+    /**
+     * Get the entry for an encoded public key, parsing and adding it on a miss
+     * @param encodedKey Base64 encoded public key
+     * @return entry for the key
+     * @throws CryptoException if the key is null or invalid
+     */
+    private CachedKey getEntry(String encodedKey) throws CryptoException {
+        if (encodedKey == null) {
+            throw new CryptoException("Encoded key is null");
+        }
+        CachedKey entry;
+        synchronized (this) {
+            entry = byEncoded.get(encodedKey);
+            if (entry != null) {
+                //Access via the ID so the entry is marked as recently used
+                entries.get(entry.keyId);
+            }
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry;
+        }
+        misses.incrementAndGet();
+        return add(encodedKey);
+    }
+
+    /**
+     * Get the parsed public key for an encoded public key
+     * @param encodedKey Base64 encoded public key
+     * @return ECPublicKey
+     * @throws CryptoException if the key is null or invalid
+     */
+    public ECPublicKey getPublicKey(String encodedKey) throws CryptoException {
+        return getEntry(encodedKey).publicKey;
+    }
+
+    /**
+     * Get the Public Key ID for an encoded public key
+     * @param encodedKey Base64 encoded public key
+     * @return hex encoded Public Key ID
+     * @throws CryptoException if the key is null or invalid
+     */
+    public String getKeyId(String encodedKey) throws CryptoException {
+        return getEntry(encodedKey).keyId;
+    }
+
+    /**
+     * Get the parsed public key for a Public Key ID if it is cached
+     * @param keyId Public Key ID
+     * @return ECPublicKey or null if not cached
+     */
+    public ECPublicKey getPublicKeyById(String keyId) {
+        CachedKey entry;
+        synchronized (this) {
+            entry = entries.get(keyId);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.publicKey;
+    }
+
+    /**
+     * Remove the entry for the Public Key ID
+     * @param keyId Public Key ID
+     */
+    public synchronized void invalidate(String keyId) {
+        CachedKey entry = entries.remove(keyId);
+        if (entry != null) {
+            byEncoded.remove(entry.encoded);
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public synchronized void clear() {
+        entries.clear();
+        byEncoded.clear();
+    }
+
+    /**
+     * Get the number of lookups that were served from the cache
+     * @return cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups that required the key to be parsed
+     * @return cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static final class CachedKey {
+        private final String keyId;
+        private final String encoded;
+        private final ECPublicKey publicKey;
+
+        private CachedKey(String keyId, String encoded, ECPublicKey publicKey) {
+            this.keyId = keyId;
+            this.encoded = encoded;
+            this.publicKey = publicKey;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.crypto;
+
+import android.util.Log;
+
+import com.castellate.compendium.data.Config;
+import com.castellate.compendium.data.IdentityStore;
+import com.castellate.compendium.exceptions.StorageException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * Manages resumption tickets that allow a PC that has recently completed a full key exchange to
+ * resume a session without repeating the ECDH and signatures. After a successful handshake a
+ * resumption secret is derived from the session key, encrypted with a key held in the
+ * AndroidKeyStore and stored against the PC key ID together with an expiry time. Tickets are
+ * valid for the configured resumption window, a window of zero disables resumption.
+ */
+public class ResumptionManager {
+    private static final String TAG = "ResumptionManager";
+    private static final String IV = "iv";
+    private static final String CIPHER_TEXT = "cipher_text";
+    private static final String EXPIRES = "expires";
+    private static final ResumptionManager instance = new ResumptionManager();
+
+    private ResumptionManager() {
+
+    }
+
+    /**
+     * Get an instance of the ResumptionManager
+     * @return ResumptionManager instance
+     */
+    public static ResumptionManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the resumption window from the config
+     * @return resumption window in milliseconds, or zero if resumption is disabled
+     */
+    private long getWindowMillis() {
+        try {
+            return Long.parseLong(Config.getInstance().get(Config.RESUMPTION_WINDOW)) * 1000L;
+        } catch (StorageException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Checks if session resumption is enabled
+     * @return true if enabled, false if not
+     */
+    public boolean isEnabled() {
+        return getWindowMillis() > 0;
+    }
+
+    /**
+     * Issue a new resumption ticket for a PC following a full key exchange. The ticket is valid
+     * for the configured resumption window.
+     * @param keyId key ID of the PC
+     * @param derivedKey session key established by the key exchange
+     * @throws CryptoException
+     */
+    public void issueTicket(String keyId, byte[] derivedKey) throws CryptoException {
+        long window = getWindowMillis();
+        if (window <= 0 || keyId == null || derivedKey == null) {
+            return;
+        }
+        storeTicket(keyId, derivedKey, System.currentTimeMillis() + window);
+    }
+
+    /**
+     * Replace the resumption ticket of a PC following a resumed session, so that each resumption
+     * secret is only used once. The expiry of the original ticket is kept, resumed sessions do
+     * not extend the window.
+     * @param keyId key ID of the PC
+     * @param derivedKey session key of the resumed session
+     * @param expires expiry time of the ticket being replaced
+     * @throws CryptoException
+     */
+    public void rotateTicket(String keyId, byte[] derivedKey, long expires) throws CryptoException {
+        if (keyId == null || derivedKey == null || expires < System.currentTimeMillis()) {
+            revokeTicket(keyId);
+            return;
+        }
+        storeTicket(keyId, derivedKey, expires);
+    }
+
+    /**
+     * Derive, encrypt and store a resumption secret
+     * @param keyId key ID of the PC
+     * @param derivedKey session key to derive the resumption secret from
+     * @param expires expiry time in milliseconds since the epoch
+     * @throws CryptoException
+     */
+    private void storeTicket(String keyId, byte[] derivedKey, long expires) throws CryptoException {
+        byte[] secret = CryptoUtils.deriveResumptionSecret(derivedKey);
+        try {
+            Cipher cipher = CompanionKeyManager.getInstance().getResumptionEncryptionCipher();
+            byte[] cipherText = cipher.doFinal(secret);
+            JSONObject ticket = new JSONObject();
+            ticket.put(IV, B64.encode(cipher.getIV()));
+            ticket.put(CIPHER_TEXT, B64.encode(cipherText));
+            ticket.put(EXPIRES, expires);
+            IdentityStore.getInstance().storeResumptionTicket(keyId, ticket);
+        } catch (BadPaddingException | IllegalBlockSizeException | JSONException | StorageException e) {
+            throw new CryptoException("Exception storing resumption ticket", e);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * Get the expiry time of the ticket held for a PC
+     * @param keyId key ID of the PC
+     * @return expiry time in milliseconds since the epoch, or zero if there is no ticket
+     */
+    public long getTicketExpiry(String keyId) {
+        try {
+            JSONObject ticket = IdentityStore.getInstance().getResumptionTicket(keyId);
+            return ticket == null ? 0 : ticket.optLong(EXPIRES, 0);
+        } catch (StorageException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Get the resumption secret for a PC. Expired tickets are removed.
+     * @param keyId key ID of the PC
+     * @return resumption secret bytes or null if there is no valid ticket
+     * @throws CryptoException
+     */
+    public byte[] getResumptionSecret(String keyId) throws CryptoException {
+        if (keyId == null || !isEnabled()) {
+            return null;
+        }
+        try {
+            IdentityStore identityStore = IdentityStore.getInstance();
+            JSONObject ticket = identityStore.getResumptionTicket(keyId);
+            if (ticket == null) {
+                return null;
+            }
+            if (ticket.optLong(EXPIRES, 0) < System.currentTimeMillis()) {
+                Log.d(TAG, "Resumption ticket expired");
+                identityStore.removeResumptionTicket(keyId);
+                return null;
+            }
+            Cipher cipher = CompanionKeyManager.getInstance().getResumptionDecryptionCipher(B64.decode(ticket.getString(IV)));
+            return cipher.doFinal(B64.decode(ticket.getString(CIPHER_TEXT)));
+        } catch (BadPaddingException | IllegalBlockSizeException | JSONException | StorageException e) {
+            throw new CryptoException("Exception loading resumption ticket", e);
+        }
+    }
+
+    /**
+     * Revoke the resumption ticket of a PC
+     * @param keyId key ID of the PC
+     */
+    public void revokeTicket(String keyId) {
+        if (keyId == null) {
+            return;
+        }
+        try {
+            IdentityStore.getInstance().removeResumptionTicket(keyId);
+        } catch (StorageException e) {
+            Log.e(TAG, "Exception revoking resumption ticket", e);
+        }
+    }
+}
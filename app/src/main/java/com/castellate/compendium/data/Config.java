@@ -32,6 +32,9 @@ import android.content.res.Resources;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
 import androidx.startup.Initializer;
 
 import com.castellate.compendium.R;
@@ -42,17 +45,36 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * Config class singleton that is initialised using the Initialize pattern
+ * Config class singleton that is initialised using the Initialize pattern. The properties are
+ * loaded on the startup background thread, reads wait up to READY_TIMEOUT_MS for them to load.
  */
 public final class Config implements Initializer<Config> {
     public static final String WSS_REGISTER = "wss_register_url";
     public static final String WSS_SERVER = "wss_url";
+    public static final String RESUMPTION_WINDOW = "resumption_window_seconds";
+    public static final String WIRE_CODEC = "wire_codec";
+    public static final String SIGNATURE_MODE = "signature_mode";
+    public static final String PREPARED_SESSION_TIMEOUT = "prepared_session_timeout_seconds";
+    public static final String RELAY_IDLE_TIMEOUT = "relay_idle_seconds";
+    public static final String RELAY_ADDRESS_LIFETIME = "relay_address_lifetime_seconds";
+    public static final String RECONNECT_ATTEMPTS = "reconnect_attempts";
+    public static final String WIRE_COMPRESSION = "wire_compression";
+    public static final String COMPRESSION_THRESHOLD = "compression_threshold_bytes";
+    public static final String AUTH_VALIDITY = "auth_validity_seconds";
     private static final String TAG = "Config";
+    private static final long READY_TIMEOUT_MS = 5000;
     private static final Config _instance = new Config();
     private final Properties properties = new Properties();
     private volatile boolean isInitialised = false;
+    private final CompletableFuture<Config> ready = new CompletableFuture<>();
+    private final MutableLiveData<Boolean> readyState = new MutableLiveData<>();
 
     /**
      * Protected constructor
@@ -78,15 +100,52 @@ public final class Config implements Initializer<Config> {
     }
 
     /**
-     * Gets a string value from the config
+     * Get a future that completes when the config has been loaded, or completes exceptionally
+     * if loading fails
+     * @return Future of the loaded Config
+     */
+    public Future<Config> getReady() {
+        return this.ready;
+    }
+
+    /**
+     * Get the readiness of the config as LiveData, which is set to true once the config has
+     * been loaded or false if loading fails
+     * @return LiveData of the readiness of the config
+     */
+    public LiveData<Boolean> getReadyState() {
+        return this.readyState;
+    }
+
+    /**
+     * Wait for the config to be loaded
+     * @param timeoutMs maximum time to wait in milliseconds
+     * @throws StorageException if the config failed to load or is not loaded within the timeout
+     */
+    public void awaitReady(long timeoutMs) throws StorageException {
+        if (isInitialised()) {
+            return;
+        }
+        try {
+            this.ready.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new StorageException("Config is uninitialised", e.getCause());
+        } catch (TimeoutException e) {
+            throw new StorageException("Timed out waiting for config to initialise", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted waiting for config to initialise", e);
+        }
+    }
+
+    /**
+     * Gets a string value from the config, waiting for the config to load if necessary
      * @param name field to get
      * @return value of field
      * @throws StorageException if the property doesn't exist or config is not initialised
      */
     public String get(String name) throws StorageException {
-        if (!isInitialised()) {
-            throw new StorageException("Config is uninitialised");
-        }
+        awaitReady(READY_TIMEOUT_MS);
         String ret = properties.getProperty(name);
         if (ret == null) {
             throw new StorageException("Missing configuration value");
@@ -94,6 +153,16 @@ public final class Config implements Initializer<Config> {
         return ret;
     }
 
+    /**
+     * Overrides a value in the config, used by tests to point the app at a local server
+     * @param name field to set
+     * @param value value of the field
+     */
+    @VisibleForTesting
+    public void set(String name, String value) {
+        properties.setProperty(name, value);
+    }
+
     /**
      * Initialise the config file reading the data from a properties file
      * @param context context to use for reading the file
@@ -105,6 +174,8 @@ public final class Config implements Initializer<Config> {
             InputStream rawResource = resources.openRawResource(R.raw.config);
             properties.load(rawResource);
             this.isInitialised = true;
+            this.ready.complete(this);
+            this.readyState.postValue(true);
             Log.d(TAG, "Config file successfully loaded");
         } catch (Resources.NotFoundException | IOException e) {
             throw new StorageException("Exception loading config", e);
@@ -120,12 +191,19 @@ public final class Config implements Initializer<Config> {
     @NonNull
     @Override
     public Config create(@NonNull Context context) {
+        long start = System.nanoTime();
         Config config = Config.getInstance();
-        try {
-            config.initialise(context);
-        } catch (StorageException e) {
-            Log.e(TAG, "Exception initialising config", e);
-        }
+        Context appContext = context.getApplicationContext();
+        StartupTasks.execute(TAG + ".load", () -> {
+            try {
+                config.initialise(appContext);
+            } catch (StorageException e) {
+                Log.e(TAG, "Exception initialising config", e);
+                config.ready.completeExceptionally(e);
+                config.readyState.postValue(false);
+            }
+        });
+        StartupTasks.record(TAG + ".create", start);
         return config;
     }
 
@@ -0,0 +1,359 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.data;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable snapshot of the contents of the IdentityStore. Each change creates a new model,
+ * copying only the maps that change, which is then published by the IdentityStore. Readers
+ * therefore never block and never see a partially applied change.
+ *
+ * Iteration order of each map follows the order entries were added, matching the order of the
+ * underlying JSON file. Sorted indexes of the names and apps, used for paged queries, are built
+ * on first use and kept for the life of the model.
+ */
+final class IdentityModel {
+    static final String NAME_IDX = "names";
+    static final String KEY_NAME_IDX = "key-names";
+    static final String KEYS = "keys";
+    static final String NAME = "name";
+    static final String APPS = "apps";
+    static final String RESUMPTION = "resumption";
+    static final IdentityModel EMPTY = new IdentityModel("", Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+
+    private final String name;
+    private final Map<String, Identity> identities;
+    private final Map<String, String> nameIdx;
+    private final Map<String, Map<String, String>> apps;
+    private final Map<String, String> resumption;
+    private final Map<String, SortedIndex> appIndexes = new ConcurrentHashMap<>();
+    private volatile SortedIndex nameIndex;
+
+    /**
+     * Public identity of an enrolled PC
+     */
+    static final class Identity {
+        final String keyId;
+        final String publicKey;
+        final String name;
+
+        Identity(String keyId, String publicKey, String name) {
+            this.keyId = keyId;
+            this.publicKey = publicKey;
+            this.name = name;
+        }
+    }
+
+    private IdentityModel(String name, Map<String, Identity> identities, Map<String, String> nameIdx, Map<String, Map<String, String>> apps, Map<String, String> resumption) {
+        this.name = name;
+        this.identities = identities;
+        this.nameIdx = nameIdx;
+        this.apps = apps;
+        this.resumption = resumption;
+    }
+
+    /**
+     * Create a model from the JSON representation of the store
+     * @param data JSON representation of the store
+     * @return IdentityModel
+     * @throws JSONException
+     */
+    static IdentityModel fromJson(JSONObject data) throws JSONException {
+        JSONObject keys = data.getJSONObject(KEYS);
+        JSONObject keyNames = data.getJSONObject(KEY_NAME_IDX);
+        Map<String, Identity> identities = new LinkedHashMap<>();
+        Iterator<String> itr = keys.keys();
+        while (itr.hasNext()) {
+            String keyId = itr.next();
+            identities.put(keyId, new Identity(keyId, keys.getString(keyId), keyNames.optString(keyId, null)));
+        }
+        Map<String, Map<String, String>> apps = new LinkedHashMap<>();
+        JSONObject appsObj = data.getJSONObject(APPS);
+        itr = appsObj.keys();
+        while (itr.hasNext()) {
+            String keyId = itr.next();
+            apps.put(keyId, freeze(toMap(appsObj.getJSONObject(keyId))));
+        }
+        Map<String, String> resumption = new LinkedHashMap<>();
+        JSONObject resumptionObj = data.optJSONObject(RESUMPTION);
+        if (resumptionObj != null) {
+            itr = resumptionObj.keys();
+            while (itr.hasNext()) {
+                String keyId = itr.next();
+                resumption.put(keyId, resumptionObj.getJSONObject(keyId).toString());
+            }
+        }
+        return new IdentityModel(data.getString(NAME), freeze(identities), freeze(toMap(data.getJSONObject(NAME_IDX))), freeze(apps), freeze(resumption));
+    }
+
+    /**
+     * Create the JSON representation of the store
+     * @return JSONObject of the store
+     * @throws JSONException
+     */
+    JSONObject toJson() throws JSONException {
+        JSONObject keys = new JSONObject();
+        JSONObject keyNames = new JSONObject();
+        for (Identity identity : identities.values()) {
+            keys.put(identity.keyId, identity.publicKey);
+            if (identity.name != null) {
+                keyNames.put(identity.keyId, identity.name);
+            }
+        }
+        JSONObject appsObj = new JSONObject();
+        for (Map.Entry<String, Map<String, String>> entry : apps.entrySet()) {
+            appsObj.put(entry.getKey(), new JSONObject(entry.getValue()));
+        }
+        JSONObject resumptionObj = new JSONObject();
+        for (Map.Entry<String, String> entry : resumption.entrySet()) {
+            resumptionObj.put(entry.getKey(), new JSONObject(entry.getValue()));
+        }
+        JSONObject data = new JSONObject();
+        data.put(NAME_IDX, new JSONObject(nameIdx));
+        data.put(KEYS, keys);
+        data.put(KEY_NAME_IDX, keyNames);
+        data.put(NAME, name);
+        data.put(APPS, appsObj);
+        data.put(RESUMPTION, resumptionObj);
+        return data;
+    }
+
+    /**
+     * Get the device name
+     * @return name of this device
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Get the public identity for a key ID
+     * @param keyId key ID to look up
+     * @return Identity or null if it doesn't exist
+     */
+    Identity getIdentity(String keyId) {
+        return identities.get(keyId);
+    }
+
+    /**
+     * Get all public identities
+     * @return unmodifiable map of key ID to Identity
+     */
+    Map<String, Identity> getIdentities() {
+        return identities;
+    }
+
+    /**
+     * Get the name index
+     * @return unmodifiable map of name to key ID
+     */
+    Map<String, String> getNameIdx() {
+        return nameIdx;
+    }
+
+    /**
+     * Get the sorted index of names, building it on first use
+     * @return SortedIndex of names
+     */
+    SortedIndex getSortedNames() {
+        SortedIndex index = nameIndex;
+        if (index == null) {
+            index = new SortedIndex(nameIdx.keySet());
+            nameIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Get the sorted index of AppIDs registered by a PC, building it on first use
+     * @param keyId key ID of the PC
+     * @return SortedIndex of AppIDs, empty if the PC has no apps
+     */
+    SortedIndex getSortedApps(String keyId) {
+        Map<String, String> keyApps = apps.get(keyId);
+        if (keyApps == null) {
+            return SortedIndex.EMPTY;
+        }
+        SortedIndex index = appIndexes.get(keyId);
+        if (index == null) {
+            index = new SortedIndex(keyApps.keySet());
+            appIndexes.put(keyId, index);
+        }
+        return index;
+    }
+
+    /**
+     * Get the apps of all PCs
+     * @return unmodifiable map of key ID to apps
+     */
+    Map<String, Map<String, String>> getApps() {
+        return apps;
+    }
+
+    /**
+     * Get the apps registered by a PC
+     * @param keyId key ID of the PC
+     * @return map of AppID to app type or null if the PC has no apps
+     */
+    Map<String, String> getApps(String keyId) {
+        return apps.get(keyId);
+    }
+
+    /**
+     * Get the resumption ticket for a PC
+     * @param keyId key ID of the PC
+     * @return JSON string of the ticket or null if there is none
+     */
+    String getResumptionTicket(String keyId) {
+        return resumption.get(keyId);
+    }
+
+    /**
+     * Create a copy of this model with the public identity stored. Any previous name for the
+     * name or key ID remains in the name index, as in the JSON store.
+     * @param name name of the PC
+     * @param publicKey Base64 encoded public key
+     * @param keyId key ID of the public key
+     * @return updated model
+     */
+    IdentityModel withIdentity(String name, String publicKey, String keyId) {
+        Map<String, Identity> updatedIdentities = new LinkedHashMap<>(identities);
+        updatedIdentities.put(keyId, new Identity(keyId, publicKey, name));
+        Map<String, String> updatedNameIdx = new LinkedHashMap<>(nameIdx);
+        updatedNameIdx.put(name, keyId);
+        return new IdentityModel(this.name, freeze(updatedIdentities), freeze(updatedNameIdx), apps, resumption);
+    }
+
+    /**
+     * Create a copy of this model with a public identity removed, along with every name that
+     * refers to it, its apps and its resumption ticket
+     * @param keyId key ID of the PC
+     * @return updated model
+     */
+    IdentityModel withoutIdentity(String keyId) {
+        Map<String, Identity> updatedIdentities = new LinkedHashMap<>(identities);
+        updatedIdentities.remove(keyId);
+        Map<String, String> updatedNameIdx = new LinkedHashMap<>(nameIdx);
+        updatedNameIdx.values().removeIf(keyId::equals);
+        Map<String, Map<String, String>> updatedApps = new LinkedHashMap<>(apps);
+        updatedApps.remove(keyId);
+        Map<String, String> updatedResumption = new LinkedHashMap<>(resumption);
+        updatedResumption.remove(keyId);
+        return new IdentityModel(name, freeze(updatedIdentities), freeze(updatedNameIdx), freeze(updatedApps), freeze(updatedResumption));
+    }
+
+    /**
+     * Create a copy of this model with the device name changed
+     * @param name name of this device
+     * @return updated model
+     */
+    IdentityModel withName(String name) {
+        return new IdentityModel(name, identities, nameIdx, apps, resumption);
+    }
+
+    /**
+     * Create a copy of this model with an app added or replaced
+     * @param keyId key ID of the PC
+     * @param appId AppID to add
+     * @param type app type
+     * @return updated model
+     */
+    IdentityModel withApp(String keyId, String appId, String type) {
+        Map<String, String> keyApps = apps.containsKey(keyId) ? new LinkedHashMap<>(apps.get(keyId)) : new LinkedHashMap<>();
+        keyApps.put(appId, type);
+        Map<String, Map<String, String>> updatedApps = new LinkedHashMap<>(apps);
+        updatedApps.put(keyId, freeze(keyApps));
+        return new IdentityModel(name, identities, nameIdx, freeze(updatedApps), resumption);
+    }
+
+    /**
+     * Create a copy of this model with an app removed
+     * @param keyId key ID of the PC
+     * @param appId AppID to remove
+     * @return updated model
+     */
+    IdentityModel withoutApp(String keyId, String appId) {
+        if (!apps.containsKey(keyId)) {
+            return this;
+        }
+        Map<String, String> keyApps = new LinkedHashMap<>(apps.get(keyId));
+        keyApps.remove(appId);
+        Map<String, Map<String, String>> updatedApps = new LinkedHashMap<>(apps);
+        updatedApps.put(keyId, freeze(keyApps));
+        return new IdentityModel(name, identities, nameIdx, freeze(updatedApps), resumption);
+    }
+
+    /**
+     * Create a copy of this model with a resumption ticket stored or removed
+     * @param keyId key ID of the PC
+     * @param ticket JSON string of the ticket or null to remove it
+     * @return updated model
+     */
+    IdentityModel withResumptionTicket(String keyId, String ticket) {
+        Map<String, String> updatedResumption = new LinkedHashMap<>(resumption);
+        if (ticket == null) {
+            updatedResumption.remove(keyId);
+        } else {
+            updatedResumption.put(keyId, ticket);
+        }
+        return new IdentityModel(name, identities, nameIdx, apps, freeze(updatedResumption));
+    }
+
+    /**
+     * Wrap a map so it cannot be modified once published
+     * @param map map to wrap
+     * @return unmodifiable view of the map
+     */
+    private static <V> Map<String, V> freeze(Map<String, V> map) {
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Convert a JSONObject of strings into a map
+     * @param obj JSONObject to convert
+     * @return map of the JSONObject fields
+     * @throws JSONException
+     */
+    private static Map<String, String> toMap(JSONObject obj) throws JSONException {
+        Map<String, String> map = new LinkedHashMap<>();
+        Iterator<String> itr = obj.keys();
+        while (itr.hasNext()) {
+            String key = itr.next();
+            map.put(key, obj.getString(key));
+        }
+        return map;
+    }
+}
@@ -31,47 +31,59 @@ import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
 import androidx.startup.Initializer;
 
 import com.castellate.compendium.crypto.CryptoException;
 import com.castellate.compendium.crypto.CryptoUtils;
+import com.castellate.compendium.crypto.IdentityKeyCache;
 import com.castellate.compendium.exceptions.StorageException;
 import com.castellate.compendium.ui.apps.AppItem;
 import com.castellate.compendium.ui.keys.KeyItem;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.security.interfaces.ECPublicKey;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Identity store to store received public key. Note, unlike the Python implementation, this does
  * not store any private credentials, which are all stored within the AndroidKeyStore.
  *
  * The data within the IdentityStore is stored in a JSON file that is written to the apps
- * data folder, which should be protected by the OS from unauthorised access.
+ * data folder, which should be protected by the OS from unauthorised access. Changes are written
+ * to an append-only StoreJournal alongside it, which is periodically compacted into the JSON file.
+ *
+ * In memory the data is held as an immutable IdentityModel. Changes are made whilst holding the
+ * lock on this store and publish a new model, so lookups read the current model without locking
+ * and always see either all or none of a change.
+ *
+ * The store is loaded on a background thread at startup. Methods that need the data wait for
+ * the load to complete, up to READY_TIMEOUT_MS, rather than failing whilst it is in progress.
  */
 public class IdentityStore implements Initializer<IdentityStore> {
     private static final String FILE_NAME = "identityStore.json";
-    private static final String NAME_IDX = "names";
-    private static final String KEY_NAME_IDX = "key-names";
-    private static final String KEYS = "keys";
-    private static final String NAME = "name";
-    private static final String APPS = "apps";
+    private static final String JOURNAL_FILE_NAME = "identityStore.journal";
     private static final String TAG = "IdentityStore";
+    private static final long READY_TIMEOUT_MS = 5000;
     private static final IdentityStore instance = new IdentityStore();
-    private File dataFile;
-    private volatile JSONObject data;
+    private StoreJournal journal;
+    private volatile IdentityModel model = IdentityModel.EMPTY;
     private volatile boolean initialised = false;
+    private final CompletableFuture<IdentityStore> ready = new CompletableFuture<>();
+    private final MutableLiveData<Boolean> readyState = new MutableLiveData<>();
+    private final List<StoreChangeListener> listeners = new CopyOnWriteArrayList<>();
 
     private IdentityStore() {
 
@@ -93,9 +105,85 @@ public class IdentityStore implements Initializer<IdentityStore> {
         return this.initialised;
     }
 
+    /**
+     * Get a future that completes when the store has been loaded, or completes exceptionally if
+     * loading fails
+     * @return Future of the loaded IdentityStore
+     */
+    public Future<IdentityStore> getReady() {
+        return this.ready;
+    }
+
+    /**
+     * Get the readiness of the store as LiveData, which is set to true once the store has been
+     * loaded or false if loading fails
+     * @return LiveData of the readiness of the store
+     */
+    public LiveData<Boolean> getReadyState() {
+        return this.readyState;
+    }
+
+    /**
+     * Wait for the store to be loaded
+     * @param timeoutMs maximum time to wait in milliseconds
+     * @throws StorageException if the store failed to load or is not loaded within the timeout
+     */
+    public void awaitReady(long timeoutMs) throws StorageException {
+        if (this.initialised) {
+            return;
+        }
+        try {
+            this.ready.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new StorageException("Storage not initialised", e.getCause());
+        } catch (TimeoutException e) {
+            throw new StorageException("Timed out waiting for storage to initialise", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted waiting for storage to initialise", e);
+        }
+    }
+
+    /**
+     * Add a listener to be notified of changes to identities and apps
+     * @param listener listener to add
+     */
+    public void addChangeListener(StoreChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a previously added listener
+     * @param listener listener to remove
+     */
+    public void removeChangeListener(StoreChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Notify the listeners of a change. Must be called after the change has been published and
+     * without holding the lock on this store.
+     * @param change change to notify
+     */
+    private void notifyListeners(StoreChange change) {
+        for (StoreChangeListener listener : listeners) {
+            listener.onStoreChanged(change);
+        }
+    }
+
+    /**
+     * Compare two names in the order used by paged queries, which is case insensitive
+     * @param a first name
+     * @param b second name
+     * @return negative, zero or positive as the first name sorts before, equal to or after the second
+     */
+    public static int compareNames(String a, String b) {
+        return SortedIndex.compareNames(a, b);
+    }
+
     private void checkInitialised() throws StorageException {
         if (!this.initialised) {
-            throw new StorageException("Storage not initialised");
+            awaitReady(READY_TIMEOUT_MS);
         }
     }
 
@@ -103,99 +191,161 @@ public class IdentityStore implements Initializer<IdentityStore> {
      * Reset the identity store by deleting all stored data
      * @throws StorageException
      */
-    private synchronized  void resetStore()throws StorageException{
-        createStructure();
+    private void resetStore()throws StorageException{
+        checkInitialised();
+        long seq;
+        synchronized (this) {
+            IdentityKeyCache.getInstance().clear();
+            seq = createStructure();
+        }
+        journal.commit(seq);
+        notifyListeners(new StoreChange(StoreChange.Type.RESET, null, null, null));
     }
 
     /**
-     * Create the basic empty structure of the identity store JSON
+     * Create the basic empty structure of the identity store, replacing any existing data. The
+     * caller must commit the returned sequence number.
+     * @return journal sequence number of the change
      * @throws StorageException
      */
-    private synchronized void createStructure() throws StorageException {
-        data = new JSONObject();
+    private synchronized long createStructure() throws StorageException {
         try {
-            data.put(NAME_IDX, new JSONObject());
-            data.put(KEYS, new JSONObject());
-            data.put(KEY_NAME_IDX, new JSONObject());
-            data.put(NAME, "");
-            data.put(APPS, new JSONObject());
-            store();
+            return publish(IdentityModel.EMPTY, StoreJournal.entry(StoreJournal.OP_RESET, IdentityModel.EMPTY.toJson()));
         } catch (JSONException e) {
             throw new StorageException("Exception creating JSON Structure", e);
         }
     }
 
     /**
-     * Initialise by loading the underlying data in the JSON file
+     * Initialise by loading the underlying data from the JSON file and replaying the journal
      * @param storageDirectory director where file is stored
      * @throws StorageException
      */
-    public synchronized void init(File storageDirectory) throws StorageException {
-        if (this.initialised) {
-            return;
+    public void init(File storageDirectory) throws StorageException {
+        long seq = 0;
+        synchronized (this) {
+            if (this.initialised) {
+                return;
+            }
+            journal = new StoreJournal(new File(storageDirectory, FILE_NAME), new File(storageDirectory, JOURNAL_FILE_NAME), this::snapshot);
+            JSONObject loaded = journal.load();
+            if (loaded == null) {
+                seq = createStructure();
+            } else {
+                try {
+                    this.model = IdentityModel.fromJson(loaded);
+                } catch (JSONException e) {
+                    throw new StorageException("Exception reading JSON data", e);
+                }
+                warmKeyCache();
+            }
+            Log.d(TAG, "Loaded identities: " + this.model.getIdentities().size());
+            this.initialised = true;
         }
-        dataFile = new File(storageDirectory, FILE_NAME);
-        this.initialised = true;
-        if (!dataFile.exists()) {
-            createStructure();
+        if (seq > 0) {
+            journal.commit(seq);
         }
-        load();
+        this.ready.complete(this);
+        this.readyState.postValue(true);
+    }
 
+    /**
+     * Initialise on the startup background thread, completing the readiness future and LiveData
+     * once loaded
+     * @param storageDirectory director where file is stored
+     */
+    public void initAsync(File storageDirectory) {
+        StartupTasks.execute(TAG + ".load", () -> {
+            try {
+                init(storageDirectory);
+            } catch (StorageException e) {
+                Log.e(TAG, "Exception initialising IdentityStore", e);
+                this.ready.completeExceptionally(e);
+                this.readyState.postValue(false);
+            }
+        });
     }
 
     /**
-     * Loads the data from the file
+     * Get the current state of the store for compacting the journal
+     * @return JSON string of the store
      * @throws StorageException
      */
-    private synchronized void load() throws StorageException {
-
-        BufferedReader br = null;
+    private String snapshot() throws StorageException {
         try {
-            br = new BufferedReader(new FileReader(this.dataFile));
-            StringBuilder buffer = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                buffer.append(line);
-            }
-            this.data = new JSONObject(buffer.toString());
-            Log.d(TAG, "data:" + this.data.toString());
-        } catch (IOException | JSONException e) {
-            throw new StorageException("Exception writing JSON data", e);
-        } finally {
-            try {
-                if (br != null) {
-                    br.close();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "IOException in finally closing reader", e);
-            }
+            return this.model.toJson().toString();
+        } catch (JSONException e) {
+            throw new StorageException("Exception creating store snapshot", e);
         }
+    }
 
+    /**
+     * Publish an updated model and append the entries describing the change to the journal. The
+     * model is published first so that a compaction triggered by any later commit includes it.
+     * The caller must hold the lock on this store and commit the returned sequence number once
+     * the lock is released.
+     * @param updated updated model
+     * @param entries journal entries describing the change
+     * @return journal sequence number of the last entry
+     */
+    private long publish(IdentityModel updated, JSONObject... entries) {
+        this.model = updated;
+        long seq = 0;
+        for (JSONObject entry : entries) {
+            seq = journal.append(entry);
+        }
+        return seq;
     }
 
     /**
-     * Save the data to the file
+     * Create a journal entry
+     * @param op journal operation
+     * @param value value to put, null for a remove
+     * @param path path of the field to change
+     * @return JSONObject of the entry
      * @throws StorageException
      */
-    private synchronized void store() throws StorageException {
-        checkInitialised();
-        FileWriter fw = null;
+    private static JSONObject entry(String op, Object value, String... path) throws StorageException {
         try {
-            fw = new FileWriter(this.dataFile);
-            fw.write(this.data.toString());
-        } catch (IOException e) {
-            throw new StorageException("Exception writing JSON to file", e);
-        } finally {
-            if (fw != null) {
-                try {
-                    fw.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "IOException in finally whilst writing JSON to file", e);
-                }
-            }
+            return StoreJournal.entry(op, value, path);
+        } catch (JSONException e) {
+            throw new StorageException("Exception updating store", e);
         }
+    }
 
+    /**
+     * Start a batch of changes on the calling thread. The changes are applied immediately but
+     * are written to disk together when the matching endBatch is called. Must be paired with
+     * endBatch in a finally block.
+     * @throws StorageException
+     */
+    public void beginBatch() throws StorageException {
+        checkInitialised();
+        journal.beginBatch();
+    }
 
+    /**
+     * End a batch of changes on the calling thread, writing them to disk
+     * @throws StorageException
+     */
+    public void endBatch() throws StorageException {
+        checkInitialised();
+        journal.endBatch();
+    }
+
+    /**
+     * Parse the stored public keys into the IdentityKeyCache so the first signature check for
+     * each paired PC does not need to parse the key. Invalid keys are skipped and will fail when
+     * they are used.
+     */
+    private void warmKeyCache() {
+        for (IdentityModel.Identity identity : this.model.getIdentities().values()) {
+            try {
+                IdentityKeyCache.getInstance().getPublicKey(identity.publicKey);
+            } catch (CryptoException e) {
+                Log.w(TAG, "Invalid public key in store", e);
+            }
+        }
     }
 
     /**
@@ -210,6 +360,7 @@ public class IdentityStore implements Initializer<IdentityStore> {
         try {
             String keyId = CryptoUtils.getPublicKeyId(key);
             String keyStr = CryptoUtils.encodePublicKey(key);
+            IdentityKeyCache.getInstance().put(keyId, keyStr, key);
             storePublicIdentity(name, keyStr, keyId);
         } catch (CryptoException e) {
             throw new StorageException("Exception storing public key", e);
@@ -225,7 +376,7 @@ public class IdentityStore implements Initializer<IdentityStore> {
     public void storePublicIdentity(String name, String key) throws StorageException {
         checkInitialised();
         try {
-            String keyId = CryptoUtils.getPublicKeyId(CryptoUtils.getPublicKey(key));
+            String keyId = IdentityKeyCache.getInstance().getKeyId(key);
             storePublicIdentity(name, key, keyId);
         } catch (CryptoException e) {
             throw new StorageException("Exception storing public key", e);
@@ -239,16 +390,53 @@ public class IdentityStore implements Initializer<IdentityStore> {
      * @param keyId public key ID
      * @throws StorageException
      */
-    public synchronized void storePublicIdentity(String name, String key, String keyId) throws StorageException {
+    public void storePublicIdentity(String name, String key, String keyId) throws StorageException {
         checkInitialised();
-        try {
-            data.getJSONObject(KEYS).put(keyId, key);
-            data.getJSONObject(NAME_IDX).put(name, keyId);
-            data.getJSONObject(KEY_NAME_IDX).put(keyId, name);
-            this.store();
-        } catch (JSONException e) {
-            throw new StorageException("Exception adding key to JSON", e);
+        long seq;
+        synchronized (this) {
+            IdentityModel.Identity previous = this.model.getIdentity(keyId);
+            if (previous != null && !previous.publicKey.equals(key)) {
+                IdentityKeyCache.getInstance().invalidate(keyId);
+            }
+            seq = publish(this.model.withIdentity(name, key, keyId),
+                    entry(StoreJournal.OP_PUT, key, IdentityModel.KEYS, keyId),
+                    entry(StoreJournal.OP_PUT, keyId, IdentityModel.NAME_IDX, name),
+                    entry(StoreJournal.OP_PUT, name, IdentityModel.KEY_NAME_IDX, keyId));
+        }
+        journal.commit(seq);
+        notifyListeners(new StoreChange(StoreChange.Type.IDENTITY_ADDED, keyId, name, null));
+    }
+
+    /**
+     * Remove a public identity, along with its names, apps and resumption ticket. The parsed key
+     * is evicted from the IdentityKeyCache so it can no longer be used to verify a signature.
+     * @param keyId key ID of the PC to remove
+     * @throws StorageException
+     */
+    public void removePublicIdentity(String keyId) throws StorageException {
+        checkInitialised();
+        IdentityModel.Identity identity;
+        long seq;
+        synchronized (this) {
+            identity = this.model.getIdentity(keyId);
+            if (identity == null) {
+                return;
+            }
+            List<JSONObject> entries = new ArrayList<>();
+            entries.add(entry(StoreJournal.OP_REMOVE, null, IdentityModel.KEYS, keyId));
+            entries.add(entry(StoreJournal.OP_REMOVE, null, IdentityModel.KEY_NAME_IDX, keyId));
+            for (Map.Entry<String, String> name : this.model.getNameIdx().entrySet()) {
+                if (keyId.equals(name.getValue())) {
+                    entries.add(entry(StoreJournal.OP_REMOVE, null, IdentityModel.NAME_IDX, name.getKey()));
+                }
+            }
+            entries.add(entry(StoreJournal.OP_REMOVE, null, IdentityModel.APPS, keyId));
+            entries.add(entry(StoreJournal.OP_REMOVE, null, IdentityModel.RESUMPTION, keyId));
+            IdentityKeyCache.getInstance().invalidate(keyId);
+            seq = publish(this.model.withoutIdentity(keyId), entries.toArray(new JSONObject[0]));
         }
+        journal.commit(seq);
+        notifyListeners(new StoreChange(StoreChange.Type.IDENTITY_REMOVED, keyId, identity.name, null));
     }
 
     /**
@@ -259,16 +447,13 @@ public class IdentityStore implements Initializer<IdentityStore> {
      */
     public String getPublicIdentityByName(String name) throws StorageException {
         checkInitialised();
-        try {
-            if (this.data.getJSONObject(NAME_IDX).has(name)) {
-                String keyId = this.data.getJSONObject(NAME_IDX).getString(name);
-                return getPublicIdentityById(keyId);
-            } else {
-                return null;
-            }
-        } catch (JSONException e) {
-            throw new StorageException("Exception reading key by name", e);
+        IdentityModel current = this.model;
+        String keyId = current.getNameIdx().get(name);
+        if (keyId == null) {
+            return null;
         }
+        IdentityModel.Identity identity = current.getIdentity(keyId);
+        return identity == null ? null : identity.publicKey;
     }
 
     /**
@@ -279,15 +464,8 @@ public class IdentityStore implements Initializer<IdentityStore> {
      */
     public String getNameByKeyID(String keyId) throws StorageException {
         checkInitialised();
-        try {
-            if (this.data.getJSONObject(KEY_NAME_IDX).has(keyId)) {
-                return this.data.getJSONObject(KEY_NAME_IDX).getString(keyId);
-            } else {
-                return null;
-            }
-        } catch (JSONException e) {
-            throw new StorageException("Exception reading key by id", e);
-        }
+        IdentityModel.Identity identity = this.model.getIdentity(keyId);
+        return identity == null ? null : identity.name;
     }
 
     /**
@@ -298,15 +476,8 @@ public class IdentityStore implements Initializer<IdentityStore> {
      */
     public String getPublicIdentityById(String keyId) throws StorageException {
         checkInitialised();
-        try {
-            if (this.data.getJSONObject(KEYS).has(keyId)) {
-                return this.data.getJSONObject(KEYS).getString(keyId);
-            } else {
-                return null;
-            }
-        } catch (JSONException e) {
-            throw new StorageException("Exception reading key by id", e);
-        }
+        IdentityModel.Identity identity = this.model.getIdentity(keyId);
+        return identity == null ? null : identity.publicKey;
     }
 
     /**
@@ -317,20 +488,11 @@ public class IdentityStore implements Initializer<IdentityStore> {
      */
     public List<AppItem> getKeyNameAppEntries(String keyId) throws StorageException {
         checkInitialised();
-        try {
-
-            List<AppItem> appEntries = new ArrayList<>();
-            JSONObject appsIdx =this.getKeyApps(keyId);
-            Iterator<String> itr = appsIdx.keys();
-            while(itr.hasNext()){
-                String name = itr.next();
-                AppItem keyItem = new AppItem(name,appsIdx.getString(name));
-                appEntries.add(keyItem);
-            }
-            return appEntries;
-        } catch (JSONException e) {
-            throw new StorageException("Exception getting names", e);
+        List<AppItem> appEntries = new ArrayList<>();
+        for (Map.Entry<String, String> app : getKeyApps(keyId).entrySet()) {
+            appEntries.add(new AppItem(app.getKey(), app.getValue()));
         }
+        return appEntries;
     }
 
     /**
@@ -340,70 +502,88 @@ public class IdentityStore implements Initializer<IdentityStore> {
      */
     public List<KeyItem> getKeyNameEntries() throws StorageException {
         checkInitialised();
-        try {
-            List<KeyItem> keyEntries = new ArrayList<>();
-            JSONObject namesIdx =this.data.getJSONObject(NAME_IDX);
-            Iterator<String> itr = namesIdx.keys();
-            while(itr.hasNext()){
-                String name = itr.next();
-                KeyItem keyItem = new KeyItem(name,namesIdx.getString(name));
-                keyEntries.add(keyItem);
-            }
-            return keyEntries;
-        } catch (JSONException e) {
-            throw new StorageException("Exception getting names", e);
+        List<KeyItem> keyEntries = new ArrayList<>();
+        for (Map.Entry<String, String> name : this.model.getNameIdx().entrySet()) {
+            keyEntries.add(new KeyItem(name.getKey(), name.getValue()));
         }
+        return keyEntries;
     }
 
     /**
-     * Get the names of the keys stored
-     * @return List of names
+     * Get a page of KeyItems, sorted by name, whose names start with the prefix. Queries read a
+     * single snapshot of the store, but successive pages may come from different snapshots if
+     * the store changes between them.
+     * @param prefix case insensitive prefix to filter names by, null or empty for all keys
+     * @param offset offset of the first KeyItem within the matching keys
+     * @param limit maximum number of KeyItems to return
+     * @return Page of KeyItems
      * @throws StorageException
      */
-    public List<String> getKeyNames() throws StorageException {
+    public Page<KeyItem> queryKeys(String prefix, int offset, int limit) throws StorageException {
         checkInitialised();
-        try {
-
-            JSONArray names = this.data.getJSONObject(NAME_IDX).names();
-            if (names != null) {
-                return convertJSONArrayToList(names);
-            }
-            return new ArrayList<>();
-        } catch (JSONException e) {
-            throw new StorageException("Exception getting names", e);
+        checkPage(offset, limit);
+        IdentityModel current = this.model;
+        Page<String> names = current.getSortedNames().query(prefix, offset, limit);
+        List<KeyItem> keyEntries = new ArrayList<>(names.getItems().size());
+        for (String name : names.getItems()) {
+            keyEntries.add(new KeyItem(name, current.getNameIdx().get(name)));
         }
+        return new Page<>(keyEntries, names.getOffset(), names.getTotal());
     }
 
     /**
-     * Get the key IDs stored
-     * @return
+     * Get a page of the AppItems registered by a PC, sorted by AppID, whose AppIDs start with
+     * the prefix
+     * @param keyId key ID of the PC
+     * @param prefix case insensitive prefix to filter AppIDs by, null or empty for all apps
+     * @param offset offset of the first AppItem within the matching apps
+     * @param limit maximum number of AppItems to return
+     * @return Page of AppItems, empty if the PC has no apps
      * @throws StorageException
      */
-    public List<String> getKeyIds() throws StorageException {
+    public Page<AppItem> queryApps(String keyId, String prefix, int offset, int limit) throws StorageException {
         checkInitialised();
-        try {
-            JSONArray names = this.data.getJSONObject(KEYS).names();
-            if (names != null) {
-                return convertJSONArrayToList(names);
-            }
-            return new ArrayList<>();
-        } catch (JSONException e) {
-            throw new StorageException("Exception getting id", e);
+        checkPage(offset, limit);
+        IdentityModel current = this.model;
+        Page<String> appIds = current.getSortedApps(keyId).query(prefix, offset, limit);
+        Map<String, String> keyApps = current.getApps(keyId);
+        List<AppItem> appEntries = new ArrayList<>(appIds.getItems().size());
+        for (String appId : appIds.getItems()) {
+            appEntries.add(new AppItem(appId, keyApps.get(appId)));
         }
+        return new Page<>(appEntries, appIds.getOffset(), appIds.getTotal());
     }
 
     /**
-     * Convert a JSONArray to a Java List
-     * @param arr JSONArray to convert
-     * @return List of strings that were in the JSON Array
-     * @throws JSONException
+     * Check the offset and limit of a paged query are valid
+     * @param offset offset of the first item
+     * @param limit maximum number of items
+     * @throws StorageException if either is invalid
      */
-    private List<String> convertJSONArrayToList(JSONArray arr) throws JSONException {
-        List<String> list = new ArrayList<>();
-        for (int i = 0; i < arr.length(); i++) {
-            list.add(arr.getString(i));
+    private static void checkPage(int offset, int limit) throws StorageException {
+        if (offset < 0 || limit <= 0) {
+            throw new StorageException("Invalid page offset or limit");
         }
-        return list;
+    }
+
+    /**
+     * Get the names of the keys stored
+     * @return List of names
+     * @throws StorageException
+     */
+    public List<String> getKeyNames() throws StorageException {
+        checkInitialised();
+        return new ArrayList<>(this.model.getNameIdx().keySet());
+    }
+
+    /**
+     * Get the key IDs stored
+     * @return
+     * @throws StorageException
+     */
+    public List<String> getKeyIds() throws StorageException {
+        checkInitialised();
+        return new ArrayList<>(this.model.getIdentities().keySet());
     }
 
     /**
@@ -413,11 +593,7 @@ public class IdentityStore implements Initializer<IdentityStore> {
      */
     public String getName() throws StorageException {
         checkInitialised();
-        try {
-            return this.data.getString(NAME);
-        } catch (JSONException e) {
-            throw new StorageException("Exception getting name", e);
-        }
+        return this.model.getName();
     }
 
     /**
@@ -427,12 +603,11 @@ public class IdentityStore implements Initializer<IdentityStore> {
      */
     public void setName(String name) throws StorageException {
         checkInitialised();
-        try {
-            this.data.put(NAME, name);
-            this.store();
-        } catch (JSONException e) {
-            throw new StorageException("Exception setting name", e);
+        long seq;
+        synchronized (this) {
+            seq = publish(this.model.withName(name), entry(StoreJournal.OP_PUT, name, IdentityModel.NAME));
         }
+        journal.commit(seq);
     }
 
 
@@ -444,41 +619,17 @@ public class IdentityStore implements Initializer<IdentityStore> {
      */
     public boolean hasPublicIdentity(String keyId) throws StorageException {
         checkInitialised();
-        try {
-            return this.data.getJSONObject(KEYS).has(keyId);
-        } catch (JSONException e) {
-            throw new StorageException("Exception setting name", e);
-        }
-    }
-
-    /**
-     * Gets a JSONObject from the passed in JSONObject, used as an internal method to better
-     * handle exception
-     * @param obj JSONObject to try to retrieve a JSONObject from
-     * @param key field name to retrieve JSONObject from
-     * @return JSONObject
-     * @throws StorageException
-     */
-    private JSONObject getJsonObject(JSONObject obj, String key) throws StorageException {
-        try {
-            JSONObject result = obj.getJSONObject(key);
-            if (result == null) {
-                throw new StorageException("JSONObject is null");
-            }
-            return result;
-        } catch (JSONException e) {
-            throw new StorageException("Exception getting JSONObject", e);
-        }
-
+        return this.model.getIdentity(keyId) != null;
     }
 
     /**
      * Get the APPs associated with this device
-     * @return JSONObject of apps
+     * @return unmodifiable map of key ID to the apps of that PC
      * @throws StorageException
      */
-    public JSONObject getApps() throws StorageException {
-        return getJsonObject(this.data, APPS);
+    public Map<String, Map<String, String>> getApps() throws StorageException {
+        checkInitialised();
+        return this.model.getApps();
     }
 
     /**
@@ -489,13 +640,9 @@ public class IdentityStore implements Initializer<IdentityStore> {
      * @throws StorageException
      */
     public boolean appExists(String keyId, String appId) throws StorageException {
-        JSONObject apps = getApps();
-        if (apps.has(keyId)) {
-            JSONObject pcApps = getJsonObject(apps, keyId);
-            return pcApps.has(appId);
-        }
-
-        return false;
+        checkInitialised();
+        Map<String, String> pcApps = this.model.getApps(keyId);
+        return pcApps != null && pcApps.containsKey(appId);
     }
 
     /**
@@ -506,32 +653,31 @@ public class IdentityStore implements Initializer<IdentityStore> {
      * @throws StorageException
      */
     public String getAppType(String keyId, String appId) throws StorageException {
-        try {
-            JSONObject apps = getApps();
-            if (apps.has(keyId)) {
-                JSONObject pcApps = getJsonObject(apps, keyId);
-                String result = pcApps.getString(appId);
-
-                if (result == null) {
-                    throw new StorageException("AppID is missing");
-                }
-                return result;
-            }
-        } catch (JSONException e) {
-            throw new StorageException("JSONException checking app type", e);
+        checkInitialised();
+        Map<String, String> pcApps = this.model.getApps(keyId);
+        if (pcApps == null) {
+            throw new StorageException("Missing keyId or appId");
         }
-        throw new StorageException("Missing keyId or appId");
+        String result = pcApps.get(appId);
+        if (result == null) {
+            throw new StorageException("AppID is missing");
+        }
+        return result;
     }
 
     /**
      * Get the apps associated with a particular KeyID
      * @param keyId key ID to get
-     * @return JSONObject of associated apps
-     * @throws StorageException
+     * @return unmodifiable map of AppID to app type
+     * @throws StorageException if the key ID has no apps
      */
-    public JSONObject getKeyApps(String keyId) throws StorageException {
-        JSONObject apps = getApps();
-        return getJsonObject(apps, keyId);
+    public Map<String, String> getKeyApps(String keyId) throws StorageException {
+        checkInitialised();
+        Map<String, String> pcApps = this.model.getApps(keyId);
+        if (pcApps == null) {
+            throw new StorageException("No apps for keyId");
+        }
+        return pcApps;
     }
 
     /**
@@ -542,21 +688,16 @@ public class IdentityStore implements Initializer<IdentityStore> {
      * @throws StorageException
      */
     public void addApp(String keyId, String appId, String type) throws StorageException {
-
-        try {
-            JSONObject apps = getApps();
-            if (!apps.has(keyId)) {
-                apps.put(keyId, new JSONObject());
-            }
-            JSONObject keysApps = getKeyApps(keyId);
-            if (keysApps.has(appId)) {
+        checkInitialised();
+        long seq;
+        synchronized (this) {
+            if (appExists(keyId, appId)) {
                 throw new StorageException("App already exists");
             }
-            keysApps.put(appId, type);
-            this.store();
-        } catch (JSONException e) {
-            throw new StorageException("Exception adding new app", e);
+            seq = publish(this.model.withApp(keyId, appId, type), entry(StoreJournal.OP_PUT, type, IdentityModel.APPS, keyId, appId));
         }
+        journal.commit(seq);
+        notifyListeners(new StoreChange(StoreChange.Type.APP_ADDED, keyId, appId, type));
     }
 
     /**
@@ -567,12 +708,10 @@ public class IdentityStore implements Initializer<IdentityStore> {
     @NonNull
     @Override
     public IdentityStore create(@NonNull Context context) {
+        long start = System.nanoTime();
         IdentityStore idStore = IdentityStore.getInstance();
-        try {
-            idStore.init(context.getFilesDir());
-        } catch (StorageException e) {
-            Log.d(TAG, "Exception initialising IdentityStore");
-        }
+        idStore.initAsync(context.getFilesDir());
+        StartupTasks.record(TAG + ".create", start);
         return idStore;
 
     }
@@ -598,16 +737,67 @@ public class IdentityStore implements Initializer<IdentityStore> {
      * @throws StorageException
      */
     public void cleanUpUnusedApp(String keyId, String appId) throws StorageException {
-        JSONObject apps = getApps();
-        if (!apps.has(keyId)) {
-            return;
+        checkInitialised();
+        long seq;
+        synchronized (this) {
+            if (!appExists(keyId, appId)) {
+                return;
+            }
+            seq = publish(this.model.withoutApp(keyId, appId), entry(StoreJournal.OP_REMOVE, null, IdentityModel.APPS, keyId, appId));
+        }
+        journal.commit(seq);
+        notifyListeners(new StoreChange(StoreChange.Type.APP_REMOVED, keyId, appId, null));
+    }
+
+    /**
+     * Store a resumption ticket for a PC, replacing any existing ticket
+     * @param keyId key ID of the PC
+     * @param ticket JSONObject containing the ticket
+     * @throws StorageException
+     */
+    public void storeResumptionTicket(String keyId, JSONObject ticket) throws StorageException {
+        checkInitialised();
+        long seq;
+        synchronized (this) {
+            seq = publish(this.model.withResumptionTicket(keyId, ticket.toString()), entry(StoreJournal.OP_PUT, ticket, IdentityModel.RESUMPTION, keyId));
+        }
+        journal.commit(seq);
+    }
+
+    /**
+     * Get the resumption ticket for a PC
+     * @param keyId key ID of the PC
+     * @return JSONObject containing the ticket or null if it doesn't exist
+     * @throws StorageException
+     */
+    public JSONObject getResumptionTicket(String keyId) throws StorageException {
+        checkInitialised();
+        String ticket = this.model.getResumptionTicket(keyId);
+        if (ticket == null) {
+            return null;
         }
-        JSONObject keysApps = getKeyApps(keyId);
-        if (keysApps.has(appId)) {
-            keysApps.remove(appId);
+        try {
+            return new JSONObject(ticket);
+        } catch (JSONException e) {
+            throw new StorageException("Exception reading resumption ticket", e);
         }
-        this.store();
+    }
 
+    /**
+     * Remove the resumption ticket for a PC, if one exists
+     * @param keyId key ID of the PC
+     * @throws StorageException
+     */
+    public void removeResumptionTicket(String keyId) throws StorageException {
+        checkInitialised();
+        long seq;
+        synchronized (this) {
+            if (this.model.getResumptionTicket(keyId) == null) {
+                return;
+            }
+            seq = publish(this.model.withResumptionTicket(keyId, null), entry(StoreJournal.OP_REMOVE, null, IdentityModel.RESUMPTION, keyId));
+        }
+        journal.commit(seq);
     }
 
     /**
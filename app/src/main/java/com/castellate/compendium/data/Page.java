@@ -0,0 +1,93 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of results from a paged query of the IdentityStore
+ * @param <T> type of the items in the page
+ */
+public final class Page<T> {
+    private final List<T> items;
+    private final int offset;
+    private final int total;
+
+    /**
+     * Create a new page
+     * @param items items in the page
+     * @param offset offset of the first item within all matching items
+     * @param total total number of matching items
+     */
+    public Page(List<T> items, int offset, int total) {
+        this.items = Collections.unmodifiableList(items);
+        this.offset = offset;
+        this.total = total;
+    }
+
+    /**
+     * Get the items in this page
+     * @return unmodifiable list of items
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Get the offset of the first item in this page
+     * @return offset within all matching items
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the total number of items matching the query
+     * @return total number of matching items
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the offset to request the following page from
+     * @return offset of the next page
+     */
+    public int getNextOffset() {
+        return offset + items.size();
+    }
+
+    /**
+     * Are there more matching items after this page
+     * @return true if there are, false if not
+     */
+    public boolean hasMore() {
+        return getNextOffset() < total;
+    }
+}
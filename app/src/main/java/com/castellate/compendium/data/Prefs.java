@@ -30,4 +30,5 @@ package com.castellate.compendium.data;
 public class Prefs {
     public static final String APP_SETTINGS="AppSettings";
     public static final String REGISTERED = "registered";
+    public static final String DEVICE_ID = "id";
 }
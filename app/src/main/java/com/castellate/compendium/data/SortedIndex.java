@@ -0,0 +1,130 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable index of names sorted case insensitively, supporting prefix filtering with offset
+ * and limit paging. Matching a prefix is a binary search for the start and end of the range of
+ * names with that prefix, so a page can be returned without visiting every name.
+ */
+final class SortedIndex {
+    static final SortedIndex EMPTY = new SortedIndex(Collections.<String>emptyList());
+    private final String[] values;
+    private final String[] sortKeys;
+
+    /**
+     * Create an index of the specified names
+     * @param names names to index
+     */
+    SortedIndex(Collection<String> names) {
+        String[] sorted = names.toArray(new String[0]);
+        Arrays.sort(sorted, SortedIndex::compareNames);
+        this.values = sorted;
+        this.sortKeys = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            this.sortKeys[i] = sortKey(sorted[i]);
+        }
+    }
+
+    /**
+     * Compare two names in index order, case insensitively and then by the exact name
+     * @param a first name
+     * @param b second name
+     * @return negative, zero or positive as the first name sorts before, equal to or after the second
+     */
+    static int compareNames(String a, String b) {
+        int cmp = sortKey(a).compareTo(sortKey(b));
+        return cmp != 0 ? cmp : a.compareTo(b);
+    }
+
+    /**
+     * Get the key names are sorted and matched by
+     * @param name name to get the key for
+     * @return lower case name
+     */
+    private static String sortKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Find the index of the first sort key that is not less than the target
+     * @param target key to search for
+     * @return index of the first key greater than or equal to the target
+     */
+    private int lowerBound(String target) {
+        int low = 0;
+        int high = sortKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortKeys[mid].compareTo(target) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get a page of names, in sorted order, that start with the prefix
+     * @param prefix case insensitive prefix to filter by, null or empty for all names
+     * @param offset offset within the matching names of the first name to return
+     * @param limit maximum number of names to return
+     * @return Page of names
+     */
+    Page<String> query(String prefix, int offset, int limit) {
+        int from = 0;
+        int to = values.length;
+        if (prefix != null && !prefix.isEmpty()) {
+            String key = sortKey(prefix);
+            from = lowerBound(key);
+            to = lowerBound(key + Character.MAX_VALUE);
+        }
+        int total = to - from;
+        int start = Math.min(from + offset, to);
+        int end = (int) Math.min((long) start + limit, to);
+        List<String> items = new ArrayList<>(end - start);
+        items.addAll(Arrays.asList(values).subList(start, end));
+        return new Page<>(items, start - from, total);
+    }
+
+    /**
+     * Get the number of names in the index
+     * @return number of names
+     */
+    int size() {
+        return values.length;
+    }
+}
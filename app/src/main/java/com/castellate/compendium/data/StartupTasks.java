@@ -0,0 +1,106 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.data;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background executor and timing for the work done by the androidx.startup Initializers. The
+ * Initializers only schedule their loading here, so that reading and parsing files is not on the
+ * main thread during process start, which would otherwise delay the first screen or the
+ * biometric prompt of a push request.
+ *
+ * The time taken by each step is recorded and logged so the cold start cost of each Initializer
+ * can be tracked.
+ */
+public final class StartupTasks {
+    private static final String TAG = "StartupTasks";
+    private static final int THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+    private static final ExecutorService executor = createExecutor();
+    private static final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private StartupTasks() {
+        // restrict instantiation
+    }
+
+    /**
+     * Create the executor, the threads exit once startup is complete
+     * @return ExecutorService
+     */
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Run a startup task on the background executor, recording how long it takes
+     * @param name name to record the timing under
+     * @param task task to run
+     */
+    public static void execute(String name, Runnable task) {
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                record(name, start);
+            }
+        });
+    }
+
+    /**
+     * Record the time taken by a startup step
+     * @param name name to record the timing under
+     * @param startNanos value of System.nanoTime when the step started
+     */
+    public static void record(String name, long startNanos) {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        timings.put(name, elapsed);
+        Log.i(TAG, name + " took " + elapsed + "ms");
+    }
+
+    /**
+     * Get the recorded startup timings
+     * @return copy of the map of step name to duration in milliseconds
+     */
+    public static Map<String, Long> getTimings() {
+        synchronized (timings) {
+            return new LinkedHashMap<>(timings);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.data;
+
+/**
+ * A change made to the IdentityStore, published to StoreChangeListeners once the change has
+ * been applied
+ */
+public final class StoreChange {
+    /**
+     * Type of change
+     */
+    public enum Type {
+        /** A public identity was stored, or an existing key ID was given a new name */
+        IDENTITY_ADDED,
+        /** A public identity was removed, along with its apps */
+        IDENTITY_REMOVED,
+        /** An app was registered for a PC */
+        APP_ADDED,
+        /** An app was removed from a PC */
+        APP_REMOVED,
+        /** All data was deleted */
+        RESET
+    }
+
+    private final Type type;
+    private final String keyId;
+    private final String name;
+    private final String appType;
+
+    /**
+     * Create a new change
+     * @param type type of change
+     * @param keyId key ID of the PC, null for a reset
+     * @param name name of the identity or AppID of the app, null for a reset
+     * @param appType type of an added app, null otherwise
+     */
+    StoreChange(Type type, String keyId, String name, String appType) {
+        this.type = type;
+        this.keyId = keyId;
+        this.name = name;
+        this.appType = appType;
+    }
+
+    /**
+     * Get the type of change
+     * @return Type of change
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the key ID of the PC the change applies to
+     * @return key ID or null for a reset
+     */
+    public String getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * Get the name of the identity or the AppID of the app that changed
+     * @return name or AppID, null for a reset
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the type of an added app
+     * @return app type or null if this is not an APP_ADDED change
+     */
+    public String getAppType() {
+        return appType;
+    }
+}
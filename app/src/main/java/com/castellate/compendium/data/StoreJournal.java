@@ -0,0 +1,381 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.data;
+
+import android.util.Log;
+
+import com.castellate.compendium.exceptions.StorageException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Append-only journal backing the IdentityStore. Rather than rewriting the whole store on every
+ * change, each mutation is appended to the journal as a single line describing a put or remove
+ * at a path within the store JSON. The journal is periodically compacted into a snapshot, which
+ * is written to a temporary file and renamed over the previous snapshot so that a crash never
+ * leaves a partially written store. On startup the snapshot is loaded and only the journal
+ * written since the last compaction is replayed.
+ *
+ * Mutations are appended in memory by the caller and only written and synced when committed.
+ * A commit writes all pending entries with a single sync, so concurrent or batched mutations
+ * share one write. Operations are idempotent, so replaying entries that are already in the
+ * snapshot, for example after a crash during compaction, leaves the store unchanged.
+ */
+class StoreJournal {
+    static final String OP_PUT = "put";
+    static final String OP_REMOVE = "remove";
+    static final String OP_RESET = "reset";
+    private static final String OP = "op";
+    private static final String PATH = "path";
+    private static final String VALUE = "value";
+    private static final String TAG = "StoreJournal";
+    private static final int COMPACT_ENTRIES = 256;
+    private static final long COMPACT_BYTES = 64 * 1024;
+    private final File snapshotFile;
+    private final File journalFile;
+    private final File tempFile;
+    private final SnapshotSource source;
+    private final Object commitLock = new Object();
+    private final List<String> pending = new ArrayList<>();
+    private final ThreadLocal<long[]> batch = new ThreadLocal<>();
+    private long appendedSeq = 0;
+    private volatile long durableSeq = 0;
+    private FileOutputStream journalOut;
+    private int journalEntries = 0;
+    private long journalBytes = 0;
+
+    /**
+     * Source of the current state of the store, used when compacting the journal
+     */
+    interface SnapshotSource {
+        /**
+         * Get the current state of the store
+         * @return JSON string of the store
+         * @throws StorageException
+         */
+        String snapshot() throws StorageException;
+    }
+
+    /**
+     * Create a new journal
+     * @param snapshotFile file holding the last snapshot of the store
+     * @param journalFile file holding the entries since the last snapshot
+     * @param source source of the current state when compacting
+     */
+    StoreJournal(File snapshotFile, File journalFile, SnapshotSource source) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+        this.tempFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+        this.source = source;
+    }
+
+    /**
+     * Create a journal entry
+     * @param op operation, one of OP_PUT, OP_REMOVE or OP_RESET
+     * @param value value to put, or the new store for a reset, null for a remove
+     * @param path path of names from the root of the store to the field being changed
+     * @return JSONObject of the entry
+     * @throws JSONException
+     */
+    static JSONObject entry(String op, Object value, String... path) throws JSONException {
+        JSONObject entry = new JSONObject();
+        entry.put(OP, op);
+        JSONArray pathArray = new JSONArray();
+        for (String name : path) {
+            pathArray.put(name);
+        }
+        entry.put(PATH, pathArray);
+        if (value != null) {
+            entry.put(VALUE, value);
+        }
+        return entry;
+    }
+
+    /**
+     * Apply a journal entry to the store, creating any missing parents of a put
+     * @param root root JSONObject of the store
+     * @param entry entry to apply
+     * @throws JSONException if the entry is malformed
+     */
+    static void apply(JSONObject root, JSONObject entry) throws JSONException {
+        String op = entry.getString(OP);
+        if (OP_RESET.equals(op)) {
+            JSONArray names = root.names();
+            if (names != null) {
+                for (int i = 0; i < names.length(); i++) {
+                    root.remove(names.getString(i));
+                }
+            }
+            JSONObject value = entry.getJSONObject(VALUE);
+            Iterator<String> itr = value.keys();
+            while (itr.hasNext()) {
+                String name = itr.next();
+                root.put(name, value.get(name));
+            }
+            return;
+        }
+        JSONArray path = entry.getJSONArray(PATH);
+        int last = path.length() - 1;
+        if (last < 0) {
+            throw new JSONException("Empty journal path");
+        }
+        JSONObject parent = root;
+        for (int i = 0; i < last; i++) {
+            String name = path.getString(i);
+            JSONObject child = parent.optJSONObject(name);
+            if (child == null) {
+                if (OP_REMOVE.equals(op)) {
+                    return;
+                }
+                child = new JSONObject();
+                parent.put(name, child);
+            }
+            parent = child;
+        }
+        switch (op) {
+            case OP_PUT:
+                parent.put(path.getString(last), entry.get(VALUE));
+                break;
+            case OP_REMOVE:
+                parent.remove(path.getString(last));
+                break;
+            default:
+                throw new JSONException("Unknown journal operation");
+        }
+    }
+
+    /**
+     * Load the store by reading the snapshot and replaying the journal. If the journal ends with
+     * a partially written entry, from a crash during a commit, it is discarded and the journal
+     * is compacted immediately.
+     * @return JSONObject of the store or null if nothing has been stored
+     * @throws StorageException
+     */
+    JSONObject load() throws StorageException {
+        JSONObject root;
+        try {
+            root = snapshotFile.exists() ? new JSONObject(readFile(snapshotFile)) : new JSONObject();
+        } catch (IOException | JSONException e) {
+            throw new StorageException("Exception reading store snapshot", e);
+        }
+        boolean torn = false;
+        int replayed = 0;
+        if (journalFile.exists()) {
+            try (BufferedReader br = new BufferedReader(new FileReader(journalFile))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    try {
+                        apply(root, new JSONObject(line));
+                        replayed++;
+                    } catch (JSONException e) {
+                        Log.w(TAG, "Discarding incomplete journal entry", e);
+                        torn = true;
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new StorageException("Exception reading store journal", e);
+            }
+        }
+        Log.d(TAG, "Replayed journal entries: " + replayed);
+        synchronized (commitLock) {
+            if (torn) {
+                writeSnapshot(root.toString());
+            } else {
+                openJournal(true);
+                journalEntries = replayed;
+                journalBytes = journalFile.length();
+            }
+        }
+        return root.length() == 0 ? null : root;
+    }
+
+    /**
+     * Add an entry to the pending entries. The entry is not durable until commit is called with
+     * the returned sequence number. Callers should append whilst holding the same lock used to
+     * apply the mutation, so entries are appended in the order they were applied.
+     * @param entry entry to append
+     * @return sequence number of the entry
+     */
+    long append(JSONObject entry) {
+        String line = entry.toString();
+        synchronized (pending) {
+            pending.add(line);
+            return ++appendedSeq;
+        }
+    }
+
+    /**
+     * Start a batch of mutations on this thread. Commits within the batch are deferred until the
+     * outermost batch ends, so the whole batch is written with one sync.
+     */
+    void beginBatch() {
+        long[] state = batch.get();
+        if (state == null) {
+            state = new long[2];
+            batch.set(state);
+        }
+        state[0]++;
+    }
+
+    /**
+     * End a batch of mutations on this thread, committing the batch if this is the outermost
+     * batch
+     * @throws StorageException
+     */
+    void endBatch() throws StorageException {
+        long[] state = batch.get();
+        if (state == null || state[0] == 0) {
+            throw new StorageException("No batch in progress");
+        }
+        state[0]--;
+        if (state[0] == 0) {
+            long seq = state[1];
+            batch.remove();
+            if (seq > 0) {
+                commit(seq);
+            }
+        }
+    }
+
+    /**
+     * Ensure that the entry with the specified sequence number, and all before it, are written
+     * to the journal and synced. If another thread has already written the entry this returns
+     * without writing. Must not be called whilst holding the lock used by the SnapshotSource.
+     * @param seq sequence number returned by append
+     * @throws StorageException
+     */
+    void commit(long seq) throws StorageException {
+        long[] state = batch.get();
+        if (state != null && state[0] > 0) {
+            state[1] = Math.max(state[1], seq);
+            return;
+        }
+        if (durableSeq >= seq) {
+            return;
+        }
+        synchronized (commitLock) {
+            if (durableSeq >= seq) {
+                return;
+            }
+            List<String> lines;
+            long lastSeq;
+            synchronized (pending) {
+                lines = new ArrayList<>(pending);
+                lastSeq = appendedSeq;
+                pending.clear();
+            }
+            StringBuilder buffer = new StringBuilder();
+            for (String line : lines) {
+                buffer.append(line).append('\n');
+            }
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                journalOut.write(bytes);
+                journalOut.getFD().sync();
+            } catch (IOException e) {
+                throw new StorageException("Exception writing store journal", e);
+            }
+            durableSeq = lastSeq;
+            journalEntries += lines.size();
+            journalBytes += bytes.length;
+            if (journalEntries >= COMPACT_ENTRIES || journalBytes >= COMPACT_BYTES) {
+                writeSnapshot(source.snapshot());
+            }
+        }
+    }
+
+    /**
+     * Compact the journal by writing the snapshot to a temporary file, syncing it and renaming it
+     * over the previous snapshot, then truncating the journal. Must be called whilst holding the
+     * commit lock. Entries still pending may already be in the snapshot, which is safe because
+     * replaying them is idempotent.
+     * @param snapshot JSON string of the store
+     * @throws StorageException
+     */
+    private void writeSnapshot(String snapshot) throws StorageException {
+        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+            fos.write(snapshot.getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        } catch (IOException e) {
+            throw new StorageException("Exception writing store snapshot", e);
+        }
+        if (!tempFile.renameTo(snapshotFile)) {
+            throw new StorageException("Exception replacing store snapshot");
+        }
+        openJournal(false);
+        journalEntries = 0;
+        journalBytes = 0;
+        Log.d(TAG, "Compacted journal into snapshot");
+    }
+
+    /**
+     * Open the journal for writing, closing any previously open stream
+     * @param append true to append to the existing journal, false to truncate it
+     * @throws StorageException
+     */
+    private void openJournal(boolean append) throws StorageException {
+        try {
+            if (journalOut != null) {
+                journalOut.close();
+            }
+            journalOut = new FileOutputStream(journalFile, append);
+        } catch (IOException e) {
+            throw new StorageException("Exception opening store journal", e);
+        }
+    }
+
+    /**
+     * Read the contents of a file
+     * @param file file to read
+     * @return contents of the file
+     * @throws IOException
+     */
+    private static String readFile(File file) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            StringBuilder buffer = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                buffer.append(line);
+            }
+            return buffer.toString();
+        }
+    }
+}
@@ -19,6 +19,7 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.graphics.BitmapFactory;
 import android.media.RingtoneManager;
 import android.net.Uri;
@@ -27,13 +28,18 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
 
+import com.castellate.compendium.CompanionDevice;
 import com.castellate.compendium.R;
+import com.castellate.compendium.crypto.EphemeralKeyPool;
+import com.castellate.compendium.data.Prefs;
 import com.castellate.compendium.push.PushServerManager;
 import com.castellate.compendium.exceptions.CompendiumException;
 import com.castellate.compendium.ui.request.CompendiumRequestActivity;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
+import org.json.JSONObject;
+
 import java.util.Map;
 
 
@@ -86,6 +92,8 @@ public class CompendiumFirebaseNotificationService extends FirebaseMessagingServ
 
         // Not getting messages here? See why this may be: https://goo.gl/39bRNJ
         Log.d(TAG, "From: " + remoteMessage.getFrom());
+        //Top up the ephemeral keys now so they are ready when the request is opened
+        EphemeralKeyPool.getInstance().refill();
 
         // Check if message contains a data payload.
         if (remoteMessage.getData().size() > 0) {
@@ -141,9 +149,28 @@ public class CompendiumFirebaseNotificationService extends FirebaseMessagingServ
     private void handleNow(Map<String,String> data)
     {
         sendNotification("Companion Device Request",data);
+        prepareSession(data);
         Log.d(TAG, "Short lived task is done.");
     }
 
+    /**
+     * Prepare the session for the request in the background, so that by the time the user taps
+     * the notification the connection and key exchange have been completed and the request is
+     * waiting for approval. If the session is not ready, or has expired, the request will be run
+     * when the notification is opened.
+     *
+     * @param data data payload of the push message
+     */
+    private void prepareSession(Map<String,String> data) {
+        SharedPreferences prefs = getSharedPreferences(Prefs.APP_SETTINGS, Context.MODE_PRIVATE);
+        String deviceId = prefs.getString(Prefs.DEVICE_ID, android.os.Build.MODEL);
+        CompanionDevice device = CompanionDevice.getInstance(deviceId);
+        if (device.prepareSession(new JSONObject(data)) == null) {
+            //Not prepared, but open the connection so it is ready when the notification is opened
+            device.prewarmConnection();
+        }
+    }
+
     /**
      * Persist token to third-party servers.
      * <p>
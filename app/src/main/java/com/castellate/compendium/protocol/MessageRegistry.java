@@ -0,0 +1,89 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol;
+
+import com.castellate.compendium.protocol.messages.MessageFactory;
+import com.castellate.compendium.protocol.messages.ProtocolMessage;
+
+/**
+ * Registry that maps each protocol state ordinal to the factory for the message expected in that
+ * state. A registry should be built once per protocol class and held statically. The table is
+ * checked when it is built, so a missing or broken entry fails when the protocol class is loaded
+ * rather than partway through a handshake.
+ */
+public final class MessageRegistry {
+    private final MessageFactory[] factories;
+
+    /**
+     * Create a new registry, use build to construct
+     * @param factories array of factories indexed by state ordinal
+     */
+    private MessageRegistry(MessageFactory[] factories) {
+        this.factories = factories;
+    }
+
+    /**
+     * Build and validate a message registry. Each factory is called once to check it produces a
+     * message.
+     * @param stateCount number of states that require a message
+     * @param factories message factories in state order
+     * @return validated MessageRegistry
+     * @throws IllegalStateException if the table is the wrong size or an entry is invalid
+     */
+    public static MessageRegistry build(int stateCount, MessageFactory... factories) {
+        if (factories == null || factories.length != stateCount) {
+            throw new IllegalStateException("Message registry does not cover all protocol states");
+        }
+        for (int i = 0; i < factories.length; i++) {
+            if (factories[i] == null || factories[i].create() == null) {
+                throw new IllegalStateException("Invalid message factory for state " + i);
+            }
+        }
+        return new MessageRegistry(factories.clone());
+    }
+
+    /**
+     * Create a new message for the specified state
+     * @param stateOrdinal ordinal of the state
+     * @return new ProtocolMessage for that state or null if no message is registered for the state
+     */
+    public ProtocolMessage create(int stateOrdinal) {
+        if (stateOrdinal < 0 || stateOrdinal >= factories.length) {
+            return null;
+        }
+        return factories[stateOrdinal].create();
+    }
+
+    /**
+     * Get the number of registered messages
+     * @return number of registered messages
+     */
+    public int size() {
+        return factories.length;
+    }
+}
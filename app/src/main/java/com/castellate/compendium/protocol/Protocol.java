@@ -37,7 +37,6 @@ import com.castellate.compendium.protocol.messages.ProtocolMessageException;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -46,16 +45,16 @@ import java.util.Map;
  */
 public abstract class Protocol {
     private static final String TAG = "Protocol";
-    protected final Map<String, String> protocolData = new HashMap<>();
+    protected final ProtocolData protocolData = new ProtocolData();
     protected ProtocolMessage nextMessage = null;
     protected ProtocolViewModel model;
     protected STATUS status = STATUS.IDLE;
 
     /**
-     * Get a list of message classes that define this protocol
-     * @return message classes that define this protocol
+     * Get the registry of message factories that define this protocol
+     * @return message registry that defines this protocol
      */
-    public abstract Class<? extends ProtocolMessage>[] getMessages();
+    public abstract MessageRegistry getMessages();
 
     /**
      * Get the ordinal (index) of the current state of the protocol
@@ -91,6 +90,17 @@ public abstract class Protocol {
         return status;
     }
 
+    /**
+     * Share a state description with the view model, if set, for example whilst the connection
+     * is being re-established
+     * @param state state description to share
+     */
+    public void shareState(String state) {
+        if (model != null) {
+            model.postProtocolState(state);
+        }
+    }
+
     /**
      * Share the status with the ProtocolViewModel if set
      * @param status status to be shared
@@ -109,15 +119,22 @@ public abstract class Protocol {
      * @return status of the protocol after the processing
      */
     public STATUS parseIncomingMessage(JSONObject msg) {
-        ProtocolMessage protoMessage;
-        try {
-            protoMessage = (ProtocolMessage) getMessages()[getStateOrdinal()].newInstance();
-
-        } catch (IllegalAccessException | InstantiationException e) {
+        ProtocolMessage protoMessage = getMessages().create(getStateOrdinal());
+        if (protoMessage == null) {
             status = STATUS.ERROR;
             return shareStatus(status);
         }
-        if (!protoMessage.parse(msg)) {
+        return processParsedMessage(protoMessage, protoMessage.parse(msg));
+    }
+
+    /**
+     * Process a message that has been parsed, advancing the state if it is valid
+     * @param protoMessage message expected in the current state
+     * @param parsed true if the message was parsed and validated, false if not
+     * @return status of the protocol after processing the incoming message
+     */
+    private STATUS processParsedMessage(ProtocolMessage protoMessage, boolean parsed) {
+        if (!parsed) {
             status = STATUS.AWAITING_RESPONSE;
             return shareStatus(status);
         }
@@ -172,19 +189,19 @@ public abstract class Protocol {
     public abstract boolean advancedStateTriggerUI();
 
     /**
-     * Parse an incoming message, utility wrapper that first parses the string as a JSONObject
-     * then calls the respective parseIncomingMessage
+     * Parse an incoming message from a string. The string is parsed with the schema of the
+     * message expected in the current state, so an oversized message or one with unexpected
+     * fields is rejected before it is read in full.
      * @param msg string message to parse
      * @return status of the protocol after processing the incoming message
      */
     public STATUS parseIncomingMessage(String msg) {
-        try {
-            return parseIncomingMessage(new JSONObject(msg));
-        } catch (JSONException e) {
-            status = STATUS.AWAITING_RESPONSE;
+        ProtocolMessage protoMessage = getMessages().create(getStateOrdinal());
+        if (protoMessage == null) {
+            status = STATUS.ERROR;
             return shareStatus(status);
         }
-
+        return processParsedMessage(protoMessage, protoMessage.parse(msg));
     }
 
     /**
@@ -286,11 +303,9 @@ public abstract class Protocol {
      * @throws ProtocolMessageException
      */
     public void prepareNextMessage() throws ProtocolMessageException {
-        ProtocolMessage protoMessage;
-        try {
-            protoMessage = (ProtocolMessage) getMessages()[getStateOrdinal()].newInstance();
-        } catch (IllegalAccessException | InstantiationException e) {
-            throw new ProtocolMessageException("Cannot create protocol message class", e);
+        ProtocolMessage protoMessage = getMessages().create(getStateOrdinal());
+        if (protoMessage == null) {
+            throw new ProtocolMessageException("Cannot create protocol message class");
         }
         protoMessage.prepareOutgoingMessage(protocolData);
         nextMessage = protoMessage;
@@ -311,10 +326,10 @@ public abstract class Protocol {
             obj.put("error-message", message);
             String errorCondition = obj.toString();
             putInProtocolData(ErrorEncryptedSubMessage.Fields.ERROR_CONDITION, errorCondition);
-            ProtocolMessage errorMessage = ErrorProtocolMessage.class.newInstance();
+            ProtocolMessage errorMessage = new ErrorProtocolMessage();
             errorMessage.prepareOutgoingMessage(protocolData);
             return errorMessage.getWebSocketMsg(protocolData);
-        } catch (JSONException | IllegalAccessException | ProtocolMessageException | InstantiationException e) {
+        } catch (JSONException | ProtocolMessageException e) {
             Log.e(TAG, "Error whilst trying to prepare an error message");
         }
         return null;
@@ -0,0 +1,235 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol;
+
+import com.castellate.compendium.crypto.B64;
+import com.castellate.compendium.crypto.CryptoException;
+import com.castellate.compendium.crypto.CryptoUtils;
+import com.castellate.compendium.crypto.IdentityKeyCache;
+
+import java.security.interfaces.ECPublicKey;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Protocol Data store for a single protocol run. Values are indexed by the field names defined in
+ * Constants and the Fields of each message, and are presented as strings so they can be loaded
+ * into and stored from messages directly. Alongside the string values the store holds the decoded
+ * form of binary values, secret keys and parsed public keys, so that each value is only decoded
+ * once per protocol run. Values put as raw bytes are only Base64 encoded if they are requested as
+ * a string, for example when being written into an outgoing message. Public keys held in the
+ * store, such as the ephemeral keys of the key exchange, are parsed once per protocol run and are
+ * never added to the IdentityKeyCache, which only holds the identity keys of PCs.
+ *
+ * This class is not thread safe, access is serialised by the owning protocol session.
+ */
+public class ProtocolData extends AbstractMap<String, String> {
+    private static final String SECRET_KEY_ALG = "AES";
+    private final Map<String, String> values = new HashMap<>();
+    private final Map<String, byte[]> bytes = new HashMap<>();
+    private final Map<String, SecretKey> secretKeys = new HashMap<>();
+    private final Map<String, ECPublicKey> publicKeys = new HashMap<>();
+    private Transcript transcript;
+
+    @Override
+    public String get(Object field) {
+        String value = values.get(field);
+        if (value == null && !values.containsKey(field) && bytes.containsKey(field)) {
+            value = encodePending((String) field);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object field) {
+        return values.containsKey(field) || bytes.containsKey(field);
+    }
+
+    @Override
+    public String put(String field, String value) {
+        String previous = get(field);
+        values.put(field, value);
+        bytes.remove(field);
+        secretKeys.remove(field);
+        publicKeys.remove(field);
+        return previous;
+    }
+
+    @Override
+    public String remove(Object field) {
+        String previous = get(field);
+        values.remove(field);
+        bytes.remove(field);
+        secretKeys.remove(field);
+        publicKeys.remove(field);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+        bytes.clear();
+        secretKeys.clear();
+        publicKeys.clear();
+        transcript = null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        for (String field : bytes.keySet()) {
+            if (!values.containsKey(field)) {
+                encodePending(field);
+            }
+        }
+        return Collections.unmodifiableSet(values.entrySet());
+    }
+
+    /**
+     * Put a binary value into the store. The value is only Base64 encoded if it is later
+     * requested as a string. The array is held by reference and must not be modified.
+     * @param field name
+     * @param value bytes to store
+     */
+    public void putBytes(String field, byte[] value) {
+        values.remove(field);
+        secretKeys.remove(field);
+        publicKeys.remove(field);
+        bytes.put(field, value);
+    }
+
+    /**
+     * Get a binary value from the store, decoding it from Base64 on first access. The returned
+     * array is shared and must not be modified.
+     * @param field name
+     * @return bytes of the value or null if the field is not set
+     */
+    public byte[] getBytes(String field) {
+        byte[] value = bytes.get(field);
+        if (value == null) {
+            String encoded = values.get(field);
+            if (encoded == null) {
+                return null;
+            }
+            value = B64.decode(encoded);
+            bytes.put(field, value);
+        }
+        return value;
+    }
+
+    /**
+     * Get an AES secret key from the store, creating it from the stored bytes on first access
+     * @param field name
+     * @return SecretKey or null if the field is not set
+     */
+    public SecretKey getSecretKey(String field) {
+        SecretKey key = secretKeys.get(field);
+        if (key == null) {
+            byte[] keyBytes = getBytes(field);
+            if (keyBytes == null) {
+                return null;
+            }
+            key = new SecretKeySpec(keyBytes, SECRET_KEY_ALG);
+            secretKeys.put(field, key);
+        }
+        return key;
+    }
+
+    /**
+     * Get the public key held in the specified field, parsing it on first access in this
+     * protocol run. Used for ephemeral keys, which are not added to the IdentityKeyCache.
+     * @param field name
+     * @return ECPublicKey
+     * @throws CryptoException if the field is not set or does not contain a valid public key
+     */
+    public ECPublicKey getPublicKey(String field) throws CryptoException {
+        ECPublicKey key = publicKeys.get(field);
+        if (key == null) {
+            key = CryptoUtils.getPublicKey(get(field));
+            publicKeys.put(field, key);
+        }
+        return key;
+    }
+
+    /**
+     * Get the parsed identity public key of a PC, reusing a previously parsed key from the
+     * IdentityKeyCache if the same encoding has already been seen. Only identity keys, those
+     * identified by a HASH_PC_PUBLIC_KEY, should be passed, other keys would evict them.
+     * @param encodedKey Base64 encoded public key in PEM or DER format
+     * @return ECPublicKey
+     * @throws CryptoException if the key is null or invalid
+     */
+    public ECPublicKey getIdentityKey(String encodedKey) throws CryptoException {
+        return IdentityKeyCache.getInstance().getPublicKey(encodedKey);
+    }
+
+    /**
+     * Start the transcript of this protocol run, called once the transcript signature mode has
+     * been negotiated
+     * @return the new Transcript
+     * @throws CryptoException if the transcript digest cannot be created
+     */
+    public Transcript startTranscript() throws CryptoException {
+        transcript = new Transcript();
+        return transcript;
+    }
+
+    /**
+     * Get the transcript of this protocol run
+     * @return Transcript or null if the transcript signature mode is not in use
+     */
+    public Transcript getTranscript() {
+        return transcript;
+    }
+
+    /**
+     * Replace the transcript of this protocol run, used once a signature verified against a copy
+     * of the transcript has been accepted
+     * @param transcript transcript to use
+     */
+    public void setTranscript(Transcript transcript) {
+        this.transcript = transcript;
+    }
+
+    /**
+     * Encode a value that was put as bytes into its string form
+     * @param field name
+     * @return Base64 encoded value
+     */
+    private String encodePending(String field) {
+        byte[] value = bytes.get(field);
+        String encoded = value == null ? null : B64.encode(value);
+        values.put(field, encoded);
+        return encoded;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol;
+
+import com.castellate.compendium.crypto.CryptoException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Running hash of the signed fields of a protocol run, used when the transcript signature mode
+ * has been negotiated. Each signed or verified message absorbs its signature fields, in order,
+ * and the signature then covers the digest of everything absorbed so far rather than the
+ * concatenation of the fields of that message alone.
+ *
+ * Each field is absorbed in a canonical form, the 4 byte big endian length of the UTF-8 field
+ * name, the name, the 4 byte big endian length of the UTF-8 value and the value. The encoding of
+ * each field is kept so that values that appear in several messages, for example g_to_x, are
+ * only converted once.
+ *
+ * A received signature is verified against a copy of the transcript, which only replaces the
+ * transcript of the run once the signature has been verified, so a message that fails
+ * verification leaves the transcript as it was.
+ *
+ * This class is not thread safe, access is serialised by the owning protocol session.
+ */
+public class Transcript {
+    private static final String HASH_ALG = "SHA-256";
+    private final MessageDigest digest;
+    private final Map<String, String> values = new HashMap<>();
+    private final Map<String, byte[]> encoded = new HashMap<>();
+    private long length = 0;
+
+    /**
+     * Create a new empty transcript
+     * @throws CryptoException if the hash algorithm is not available
+     */
+    public Transcript() throws CryptoException {
+        try {
+            // The digest is held for the whole run, so it cannot be the shared thread-local one
+            digest = MessageDigest.getInstance(HASH_ALG);
+        } catch (NoSuchAlgorithmException e) {
+            throw new CryptoException("Exception creating transcript digest", e);
+        }
+    }
+
+    /**
+     * Create a copy of a transcript, continuing from the fields absorbed so far
+     * @param other transcript to copy
+     * @throws CryptoException if the digest cannot be cloned
+     */
+    private Transcript(Transcript other) throws CryptoException {
+        try {
+            digest = (MessageDigest) other.digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new CryptoException("Exception cloning transcript digest", e);
+        }
+        values.putAll(other.values);
+        encoded.putAll(other.encoded);
+        length = other.length;
+    }
+
+    /**
+     * Create an independent copy of this transcript, fields absorbed into the copy do not change
+     * this transcript
+     * @return copy of the transcript
+     * @throws CryptoException if the digest cannot be cloned
+     */
+    public Transcript copy() throws CryptoException {
+        return new Transcript(this);
+    }
+
+    /**
+     * Absorb a field into the transcript
+     * @param field name of the field
+     * @param value value of the field
+     */
+    public void absorb(String field, String value) {
+        byte[] bytes = encoded.get(field);
+        String previous = values.get(field);
+        if (bytes == null || (previous != value && !previous.equals(value))) {
+            bytes = encode(field, value);
+            values.put(field, value);
+            encoded.put(field, bytes);
+        }
+        digest.update(bytes);
+        length += bytes.length;
+    }
+
+    /**
+     * Get the digest of the fields absorbed so far. The transcript can continue to absorb fields
+     * afterwards.
+     * @return SHA-256 digest of the transcript
+     * @throws CryptoException if the digest cannot be cloned
+     */
+    public byte[] digest() throws CryptoException {
+        try {
+            return ((MessageDigest) digest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new CryptoException("Exception cloning transcript digest", e);
+        }
+    }
+
+    /**
+     * Get the number of encoded bytes absorbed into the transcript
+     * @return length in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Encode a field in its canonical form
+     * @param field name of the field
+     * @param value value of the field
+     * @return encoded bytes
+     */
+    private static byte[] encode(String field, String value) {
+        byte[] name = field.getBytes(StandardCharsets.UTF_8);
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(8 + name.length + data.length).putInt(name.length).put(name).putInt(data.length).put(data).array();
+    }
+}
@@ -29,6 +29,7 @@ package com.castellate.compendium.protocol.core;
 
 import com.castellate.compendium.data.IdentityStore;
 import com.castellate.compendium.exceptions.StorageException;
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.enrol.InitKeyReqProtocolMessage;
 import com.castellate.compendium.protocol.messages.Constants;
 import com.castellate.compendium.protocol.messages.InitKeyRespProtocolMessage;
@@ -36,8 +37,6 @@ import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.ProtocolMessageException;
 import com.castellate.compendium.protocol.messages.VerifySignature;
 
-import java.util.Map;
-
 public class ConfirmKeyEncryptedSubMessage extends ProtocolMessage implements VerifySignature {
 
     public ConfirmKeyEncryptedSubMessage(){
@@ -45,7 +44,7 @@ public class ConfirmKeyEncryptedSubMessage extends ProtocolMessage implements Ve
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return ConfirmKeyEncryptedSubMessage.class;
     }
 
@@ -67,7 +66,7 @@ public class ConfirmKeyEncryptedSubMessage extends ProtocolMessage implements Ve
     }
 
     @Override
-    public String getPublicKey(Map<String,String>protocolData) throws ProtocolMessageException {
+    public String getPublicKey(ProtocolData protocolData) throws ProtocolMessageException {
         try {
             return IdentityStore.getInstance().getPublicIdentityById(protocolData.get(Constants.HASH_PC_PUBLIC_KEY));
         } catch (StorageException e) {
@@ -0,0 +1,177 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol.core;
+
+import static com.castellate.compendium.protocol.messages.Constants.CHUNK_DATA;
+import static com.castellate.compendium.protocol.messages.Constants.CHUNK_INDEX;
+import static com.castellate.compendium.protocol.messages.Constants.CHUNK_KEY;
+import static com.castellate.compendium.protocol.messages.Constants.CHUNK_PREFIX;
+
+import com.castellate.compendium.crypto.B64;
+import com.castellate.compendium.crypto.ChunkedCipher;
+import com.castellate.compendium.crypto.CryptoException;
+import com.castellate.compendium.protocol.ProtocolData;
+import com.castellate.compendium.protocol.core.req.CoreEncryptedReqSubMessage;
+import com.castellate.compendium.protocol.core.req.CorePutStreamReqMessage;
+import com.castellate.compendium.protocol.messages.ProtocolMessage;
+import com.castellate.compendium.protocol.messages.ProtocolMessageException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+/**
+ * A single chunk of a chunked Put or Get. Incoming chunks are processed as they are received,
+ * being encrypted for a Put or decrypted for a Get with the data key of the transfer, and only
+ * the result of the most recent chunk is kept in the protocol data to be returned to the PC.
+ * Chunks must arrive in order, a repeated chunk is ignored and a missing chunk is an error.
+ */
+public class CoreChunkEncryptedSubMessage extends ProtocolMessage {
+
+    public CoreChunkEncryptedSubMessage(){
+        super();
+    }
+
+    @Override
+    public Class<?> getClassObj(ProtocolData protocolData) {
+        return CoreChunkEncryptedSubMessage.class;
+    }
+
+    @Override
+    public String[] getAllFields() {
+        return Fields.ALL_FIELDS;
+    }
+
+    @Override
+    public boolean parse(JSONObject data) {
+        msgData=data;
+        return super.validate(Fields.ALL_FIELDS) && Fields.TYPE_CHUNK.equals(get(Fields.TYPE));
+    }
+
+    @Override
+    public boolean processMessage(ProtocolData protocolData) throws ProtocolMessageException {
+        SecretKey key = protocolData.getSecretKey(CHUNK_KEY);
+        if (key == null) {
+            throw new ProtocolMessageException("No chunked transfer in progress");
+        }
+        int index = msgData.optInt(Fields.INDEX, -1);
+        int expected = getLastIndex(protocolData) + 1;
+        if (index < expected) {
+            //Repeated chunk, already processed
+            return false;
+        } else if (index > expected) {
+            throw new ProtocolMessageException("Chunk received out of order");
+        }
+        boolean last = isFinalChunk(protocolData, index);
+        if (msgData.optBoolean(Fields.FINAL) != last) {
+            throw new ProtocolMessageException("Invalid final chunk flag");
+        }
+        byte[] prefix = protocolData.getBytes(CHUNK_PREFIX);
+        try {
+            byte[] output;
+            if (CoreEncryptedReqSubMessage.Fields.TYPE_PUT_STREAM.equals(protocolData.get(CoreEncryptedReqSubMessage.Fields.TYPE))) {
+                output = ChunkedCipher.encryptChunk(key, prefix, index, last, B64.decode(get(Fields.DATA)));
+            } else {
+                output = ChunkedCipher.decryptChunk(key, prefix, index, last, B64.decode(get(Fields.DATA)));
+            }
+            protocolData.put(CHUNK_INDEX, String.valueOf(index));
+            protocolData.put(CHUNK_DATA, B64.encode(output));
+        } catch (CryptoException e) {
+            throw new ProtocolMessageException("Exception processing chunk", e);
+        } finally {
+            if (last) {
+                wipeChunkKey(protocolData);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean prepareOutgoingMessage(ProtocolData protocolData) throws ProtocolMessageException {
+        try {
+            int index = getLastIndex(protocolData);
+            msgData.put(Fields.TYPE, Fields.TYPE_CHUNK);
+            msgData.put(Fields.INDEX, index);
+            msgData.put(Fields.FINAL, isFinalChunk(protocolData, index));
+            msgData.put(Fields.DATA, protocolData.get(CHUNK_DATA));
+        } catch (JSONException e) {
+            throw new ProtocolMessageException("Exception creating chunk message", e);
+        }
+        return true;
+    }
+
+    /**
+     * Get the index of the last chunk that was processed
+     * @param protocolData protocol data
+     * @return index of the last chunk processed or -1 if none have been
+     */
+    private static int getLastIndex(ProtocolData protocolData) {
+        String index = protocolData.get(CHUNK_INDEX);
+        return index == null ? -1 : Integer.parseInt(index);
+    }
+
+    /**
+     * Checks if the index is that of the final chunk announced in the request
+     * @param protocolData protocol data
+     * @param index chunk index
+     * @return true if it is the final chunk, false if not
+     */
+    private static boolean isFinalChunk(ProtocolData protocolData, int index) {
+        return index == Integer.parseInt(protocolData.get(CorePutStreamReqMessage.Fields.CHUNKS)) - 1;
+    }
+
+    /**
+     * Zero and remove the data key once the transfer is complete
+     * @param protocolData protocol data
+     */
+    private static void wipeChunkKey(ProtocolData protocolData) {
+        byte[] keyBytes = protocolData.getBytes(CHUNK_KEY);
+        if (keyBytes != null) {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+        protocolData.remove(CHUNK_KEY);
+    }
+
+    public static final class Fields {
+
+        private Fields() {
+            // restrict instantiation
+        }
+
+        public static final String TYPE = "type";
+        public static final String TYPE_CHUNK = "Chunk";
+        public static final String INDEX = "index";
+        public static final String FINAL = "final";
+        public static final String DATA = "data";
+
+        public static final String[] ALL_FIELDS = new String[]{TYPE,INDEX,FINAL,DATA};
+    }
+}
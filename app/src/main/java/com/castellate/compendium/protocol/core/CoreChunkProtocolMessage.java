@@ -0,0 +1,76 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol.core;
+
+import com.castellate.compendium.protocol.ProtocolData;
+import com.castellate.compendium.protocol.messages.EmbeddedEncryptedMessage;
+import com.castellate.compendium.protocol.messages.MessageFactory;
+import com.castellate.compendium.protocol.messages.ProtocolMessage;
+
+/**
+ * Carries a single chunk of a chunked Put or Get, encrypted under the session key. The same
+ * message is used for the chunks received from the PC and the processed chunks returned to it.
+ */
+public class CoreChunkProtocolMessage extends ProtocolMessage implements EmbeddedEncryptedMessage {
+
+    public CoreChunkProtocolMessage(){
+        super();
+    }
+
+
+    @Override
+    public Class<?> getClassObj(ProtocolData protocolData) {
+        return CoreChunkProtocolMessage.class;
+    }
+
+    @Override
+    public String[] getAllFields() {
+        return Fields.ALL_FIELDS;
+    }
+
+
+    @Override
+    public String getEncryptedMsgField() {
+        return Fields.ENC_MSG;
+    }
+
+    @Override
+    public MessageFactory getEncryptedMessageFactory() {
+        return CoreChunkEncryptedSubMessage::new;
+    }
+
+    public static final class Fields {
+
+        private Fields() {
+            // restrict instantiation
+        }
+
+        public static final String ENC_MSG = "enc_msg";
+        public static final String[] ALL_FIELDS = new String[]{ENC_MSG};
+    }
+}
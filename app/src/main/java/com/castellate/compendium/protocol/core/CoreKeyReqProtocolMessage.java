@@ -30,21 +30,19 @@ package com.castellate.compendium.protocol.core;
 import static com.castellate.compendium.protocol.messages.Constants.ADR_PC;
 import static com.castellate.compendium.protocol.messages.Constants.CD_PUBLIC_KEY;
 import static com.castellate.compendium.protocol.messages.Constants.HASH_PC_PUBLIC_KEY;
+import static com.castellate.compendium.protocol.messages.Constants.SIG_MODE;
 
 import com.castellate.compendium.crypto.CompanionKeyManager;
 import com.castellate.compendium.crypto.CryptoException;
-import com.castellate.compendium.crypto.CryptoUtils;
 import com.castellate.compendium.data.IdentityStore;
 import com.castellate.compendium.exceptions.StorageException;
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.Constants;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.ProtocolMessageException;
 import com.castellate.compendium.protocol.messages.StoreProtocolData;
 import com.castellate.compendium.protocol.messages.VerifySignature;
 
-import java.security.KeyPair;
-import java.util.Map;
-
 public class CoreKeyReqProtocolMessage extends ProtocolMessage implements StoreProtocolData, VerifySignature {
 
     public CoreKeyReqProtocolMessage() {
@@ -52,22 +50,24 @@ public class CoreKeyReqProtocolMessage extends ProtocolMessage implements StoreP
     }
 
     @Override
-    public Class<?> getClassObj(Map<String, String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CoreKeyReqProtocolMessage.class;
     }
 
 
     @Override
-    public boolean processMessage(Map<String, String> protocolData) throws ProtocolMessageException {
+    public boolean processMessage(ProtocolData protocolData) throws ProtocolMessageException {
         try {
             if (!super.processMessage(protocolData)) {
                 return false;
             }
-            CompanionKeyManager ckm = new CompanionKeyManager();
-            KeyPair kp = ckm.getOrCreateIdentityKey();
-            protocolData.put(CD_PUBLIC_KEY, CryptoUtils.encodePublicKey(kp.getPublic()));
+            negotiateSignatureMode(Fields.SIG_FIELDS, protocolData);
+            //The request arrived in the push message, so the web socket is still connecting
+            CoreKeyRespProtocolMessage.performEarlyKeyExchange(protocolData);
+            CompanionKeyManager.IdentityMaterial identity = CompanionKeyManager.getInstance().getIdentity();
+            protocolData.put(CD_PUBLIC_KEY, identity.getEncodedPublicKey());
 
-            protocolData.put(Constants.HASH_CD_PUBLIC_KEY, CryptoUtils.getPublicKeyId(kp.getPublic()));
+            protocolData.put(Constants.HASH_CD_PUBLIC_KEY, identity.getKeyId());
         } catch (CryptoException e) {
             throw new ProtocolMessageException("Exception getting CD public key ID", e);
         }
@@ -79,6 +79,11 @@ public class CoreKeyReqProtocolMessage extends ProtocolMessage implements StoreP
         return Fields.ALL_FIELDS;
     }
 
+    @Override
+    public String[] getOptionalFields() {
+        return Fields.OPTIONAL_FIELDS;
+    }
+
 
     @Override
     public String[] getStoreFields() {
@@ -96,7 +101,7 @@ public class CoreKeyReqProtocolMessage extends ProtocolMessage implements StoreP
     }
 
     @Override
-    public String getPublicKey(Map<String, String> protocolData) throws ProtocolMessageException {
+    public String getPublicKey(ProtocolData protocolData) throws ProtocolMessageException {
         IdentityStore identityStore = IdentityStore.getInstance();
         try {
             return identityStore.getPublicIdentityById(get(HASH_PC_PUBLIC_KEY));
@@ -114,6 +119,7 @@ public class CoreKeyReqProtocolMessage extends ProtocolMessage implements StoreP
         public static final String[] ALL_FIELDS = new String[]{ADR_PC, HASH_PC_PUBLIC_KEY, G_X, SIGNATURE_PC};
         public static final String[] SIG_FIELDS = new String[]{ADR_PC, HASH_PC_PUBLIC_KEY, G_X};
         public static final String[] STORE_FIELDS = SIG_FIELDS;
+        public static final String[] OPTIONAL_FIELDS = new String[]{SIG_MODE};
         private Fields() {
             // restrict instantiation
         }
@@ -29,23 +29,29 @@ package com.castellate.compendium.protocol.core;
 
 import com.castellate.compendium.crypto.CryptoException;
 import com.castellate.compendium.crypto.CryptoUtils;
+import com.castellate.compendium.crypto.EphemeralKeyPool;
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.enrol.InitKeyReqProtocolMessage;
 import com.castellate.compendium.protocol.messages.Constants;
 import com.castellate.compendium.protocol.messages.EmbeddedEncryptedMessage;
 import com.castellate.compendium.protocol.messages.InitKeyRespProtocolMessage;
+import com.castellate.compendium.protocol.messages.MessageFactory;
 import com.castellate.compendium.protocol.messages.ProtocolMessageException;
 
 import java.security.KeyPair;
-import java.util.Map;
+import java.util.Arrays;
 
 public class CoreKeyRespProtocolMessage extends InitKeyRespProtocolMessage implements EmbeddedEncryptedMessage {
+    //Result of a key exchange performed ahead of the response, held until the response is sent
+    private static final String PENDING_G_Y = "pending_g_to_y";
+    private static final String PENDING_DERIVED_KEY = "pending_derived_key";
 
     public CoreKeyRespProtocolMessage(){
         super();
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CoreKeyRespProtocolMessage.class;
     }
 
@@ -55,19 +61,18 @@ public class CoreKeyRespProtocolMessage extends InitKeyRespProtocolMessage imple
     }
 
     @Override
-    public Class<?> getEncryptedMessageClass() {
-        return CoreKeyEncryptedRespMessage.class;
+    public MessageFactory getEncryptedMessageFactory() {
+        return CoreKeyEncryptedRespMessage::new;
     }
 
     @Override
-    public boolean prepareOutgoingMessage(Map<String, String> protocolData) throws ProtocolMessageException {
-        try {
-            KeyPair kp = CryptoUtils.generateEphemeralKeys();
-            byte[] sharedSecret = CryptoUtils.performECDH(kp, CryptoUtils.getPublicKey(protocolData.get(InitKeyReqProtocolMessage.Fields.G_X)));
-            protocolData.put(Fields.G_Y, CryptoUtils.encodePublicKey(kp.getPublic()));
-            protocolData.put(Constants.DERIVED_KEY,CryptoUtils.deriveKey(sharedSecret));
-        }catch(CryptoException e){
-            throw new ProtocolMessageException("Exception processing key exchange",e);
+    public boolean prepareOutgoingMessage(ProtocolData protocolData) throws ProtocolMessageException {
+        if (protocolData.containsKey(PENDING_DERIVED_KEY)) {
+            protocolData.put(Fields.G_Y, protocolData.remove(PENDING_G_Y));
+            protocolData.putBytes(Constants.DERIVED_KEY, protocolData.getBytes(PENDING_DERIVED_KEY));
+            protocolData.remove(PENDING_DERIVED_KEY);
+        } else {
+            performKeyExchange(protocolData, Fields.G_Y, Constants.DERIVED_KEY);
         }
         if(!super.prepareOutgoingMessage(protocolData)){
             return false;
@@ -75,5 +80,43 @@ public class CoreKeyRespProtocolMessage extends InitKeyRespProtocolMessage imple
         return true;
     }
 
+    /**
+     * Perform the key exchange ahead of the response. This is called as soon as the key request
+     * has been verified, so that it runs whilst the web socket connection is being established,
+     * rather than once the relay has responded. The result is held as pending until the response
+     * is prepared, so any error sent before then is not encrypted with a key the PC does not have.
+     * @param protocolData protocol data containing the g_to_x of the PC
+     * @throws ProtocolMessageException
+     */
+    static void performEarlyKeyExchange(ProtocolData protocolData) throws ProtocolMessageException {
+        performKeyExchange(protocolData, PENDING_G_Y, PENDING_DERIVED_KEY);
+    }
+
+    /**
+     * Perform the key exchange with the g_to_x of the PC, storing g_to_y and the derived key in
+     * the protocol data
+     * @param protocolData protocol data containing the g_to_x of the PC
+     * @param gyField field to store g_to_y in
+     * @param derivedKeyField field to store the derived key in
+     * @throws ProtocolMessageException
+     */
+    private static void performKeyExchange(ProtocolData protocolData, String gyField, String derivedKeyField) throws ProtocolMessageException {
+        KeyPair kp = null;
+        byte[] sharedSecret = null;
+        try {
+            kp = EphemeralKeyPool.getInstance().take();
+            sharedSecret = CryptoUtils.performECDH(kp, protocolData.getPublicKey(InitKeyReqProtocolMessage.Fields.G_X));
+            protocolData.put(gyField, CryptoUtils.encodePublicKey(kp.getPublic()));
+            protocolData.putBytes(derivedKeyField,CryptoUtils.deriveKeyBytes(sharedSecret));
+        }catch(CryptoException e){
+            throw new ProtocolMessageException("Exception processing key exchange",e);
+        }finally{
+            EphemeralKeyPool.wipe(kp);
+            if(sharedSecret!=null){
+                Arrays.fill(sharedSecret,(byte)0);
+            }
+        }
+    }
+
 
 }
@@ -27,6 +27,15 @@
 
 package com.castellate.compendium.protocol.core;
 
+import static com.castellate.compendium.protocol.messages.Constants.CHUNK_KEY;
+import static com.castellate.compendium.protocol.messages.Constants.DERIVED_KEY;
+import static com.castellate.compendium.protocol.messages.Constants.HASH_PC_PUBLIC_KEY;
+
+import android.util.Log;
+
+import com.castellate.compendium.crypto.CryptoException;
+import com.castellate.compendium.crypto.ResumptionManager;
+import com.castellate.compendium.protocol.MessageRegistry;
 import com.castellate.compendium.protocol.Protocol;
 import com.castellate.compendium.protocol.core.req.CoreRequestProtocolMessage;
 import com.castellate.compendium.protocol.core.res.CoreResponseProtocolMessage;
@@ -37,6 +46,7 @@ import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.ProtocolMessageException;
 
 public class CoreProtocol extends Protocol {
+    private static final String TAG = "CoreProtocol";
 
     public enum STATE {
         INIT_KEY_REQ,
@@ -47,6 +57,8 @@ public class CoreProtocol extends Protocol {
         EMPTY_DUMMY,
         CORE_REQ,
         CORE_RESP,
+        CHUNK_REQ,
+        CHUNK_RESP,
         FINISHED {
             @Override
             public STATE next() {
@@ -59,12 +71,12 @@ public class CoreProtocol extends Protocol {
         }
     }
     private STATE state = STATE.INIT_KEY_REQ;
-    private static final Class<ProtocolMessage>[] MESSAGES = new Class[]{CoreKeyReqProtocolMessage.class, InitWSSProtocolMessage.class, InitWSSRespProtocolMessage.class, CoreKeyRespProtocolMessage.class, ConfirmKeyProtocolMessage.class, EmptyProtocolMessage.class,CoreRequestProtocolMessage.class, CoreResponseProtocolMessage.class};
+    private static final MessageRegistry MESSAGES = MessageRegistry.build(STATE.values().length - 1, CoreKeyReqProtocolMessage::new, InitWSSProtocolMessage::new, InitWSSRespProtocolMessage::new, CoreKeyRespProtocolMessage::new, ConfirmKeyProtocolMessage::new, EmptyProtocolMessage::new, CoreRequestProtocolMessage::new, CoreResponseProtocolMessage::new, CoreChunkProtocolMessage::new, CoreChunkProtocolMessage::new);
     public CoreProtocol(){
         super();
     }
     @Override
-    public Class<? extends ProtocolMessage>[] getMessages() {
+    public MessageRegistry getMessages() {
         return CoreProtocol.MESSAGES;
     }
     @Override
@@ -92,13 +104,44 @@ public class CoreProtocol extends Protocol {
 
     @Override
     public boolean advancedStateTriggerUI() {
-        state=state.next();
+        state=nextState();
         if(model!=null){
             model.postProtocolState(state.name());
         }
+        if (state == STATE.EMPTY_DUMMY) {
+            //Key confirmation has been received, so the PC can resume from this session
+            issueResumptionTicket();
+        }
         return state == STATE.CORE_RESP || state == STATE.FINISHED;
     }
 
+    /**
+     * Issue a resumption ticket for the PC from the confirmed session key. Resumption is
+     * optional, so failure is logged and does not affect the current session.
+     */
+    private void issueResumptionTicket() {
+        try {
+            ResumptionManager.getInstance().issueTicket(protocolData.get(HASH_PC_PUBLIC_KEY), protocolData.getBytes(DERIVED_KEY));
+        } catch (CryptoException e) {
+            Log.e(TAG, "Exception issuing resumption ticket", e);
+        }
+    }
+
+    /**
+     * Get the next state. The chunk states are only entered, and repeated, whilst a chunked
+     * transfer is in progress, otherwise the response is followed by the finished state.
+     * @return next state
+     */
+    private STATE nextState() {
+        switch (state) {
+            case CORE_RESP:
+            case CHUNK_RESP:
+                return protocolData.containsKey(CHUNK_KEY) ? STATE.CHUNK_REQ : STATE.FINISHED;
+            default:
+                return state.next();
+        }
+    }
+
     @Override
     public int getTotalStates() {
         //We don't count the finished state
@@ -0,0 +1,153 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol.core;
+
+import static com.castellate.compendium.protocol.messages.Constants.CHUNK_KEY;
+import static com.castellate.compendium.protocol.messages.Constants.DERIVED_KEY;
+import static com.castellate.compendium.protocol.messages.Constants.HASH_PC_PUBLIC_KEY;
+
+import android.util.Log;
+
+import com.castellate.compendium.crypto.CryptoException;
+import com.castellate.compendium.crypto.ResumptionManager;
+import com.castellate.compendium.protocol.MessageRegistry;
+import com.castellate.compendium.protocol.Protocol;
+import com.castellate.compendium.protocol.core.req.CoreRequestProtocolMessage;
+import com.castellate.compendium.protocol.core.res.CoreResponseProtocolMessage;
+import com.castellate.compendium.protocol.enrol.InitWSSProtocolMessage;
+import com.castellate.compendium.protocol.enrol.InitWSSRespProtocolMessage;
+import com.castellate.compendium.protocol.messages.ProtocolMessage;
+import com.castellate.compendium.protocol.messages.ProtocolMessageException;
+
+/**
+ * Resumed variant of the CoreProtocol. A PC holding a valid resumption ticket sends a resume
+ * request instead of a key request, the session key is derived from the resumption secret and
+ * the protocol goes straight from the resume response to the encrypted core request, skipping
+ * the ECDH, key confirmation and handshake signatures.
+ */
+public class ResumeProtocol extends Protocol {
+    private static final String TAG = "ResumeProtocol";
+
+    public enum STATE {
+        RESUME_REQ,
+        INIT_WSS,
+        INIT_WSS_RESP,
+        RESUME_RESP,
+        CORE_REQ,
+        CORE_RESP,
+        CHUNK_REQ,
+        CHUNK_RESP,
+        FINISHED {
+            @Override
+            public STATE next() {
+                return values()[0];
+            }
+        };
+        public STATE next() {
+            // No bounds checking required here, because the last instance overrides
+            return values()[ordinal() + 1];
+        }
+    }
+    private STATE state = STATE.RESUME_REQ;
+    private static final MessageRegistry MESSAGES = MessageRegistry.build(STATE.values().length - 1, ResumeReqProtocolMessage::new, InitWSSProtocolMessage::new, InitWSSRespProtocolMessage::new, ResumeRespProtocolMessage::new, CoreRequestProtocolMessage::new, CoreResponseProtocolMessage::new, CoreChunkProtocolMessage::new, CoreChunkProtocolMessage::new);
+    public ResumeProtocol(){
+        super();
+    }
+    @Override
+    public MessageRegistry getMessages() {
+        return ResumeProtocol.MESSAGES;
+    }
+    @Override
+    public int getStateOrdinal() {
+        return state.ordinal();
+    }
+
+    @Override
+    public boolean isFinished() {
+        return state == STATE.FINISHED;
+    }
+
+    @Override
+    public String getProtocolStateString() {
+        return state.name();
+    }
+
+    @Override
+    public boolean processIncomingMessage(ProtocolMessage protoMessage) throws ProtocolMessageException {
+        return protoMessage.processMessage(this.protocolData);
+    }
+
+    @Override
+    public boolean advancedStateTriggerUI() {
+        state=nextState();
+        if(model!=null){
+            model.postProtocolState(state.name());
+        }
+        if (state == STATE.CORE_RESP) {
+            //The PC has proven possession of the resumption secret, replace it so it is single use
+            rotateResumptionTicket();
+        }
+        return state == STATE.CORE_RESP || state == STATE.FINISHED;
+    }
+
+    /**
+     * Replace the resumption ticket of the PC with one derived from the resumed session key,
+     * keeping the expiry of the original ticket
+     */
+    private void rotateResumptionTicket() {
+        String keyId = protocolData.get(HASH_PC_PUBLIC_KEY);
+        ResumptionManager resumptionManager = ResumptionManager.getInstance();
+        try {
+            resumptionManager.rotateTicket(keyId, protocolData.getBytes(DERIVED_KEY), resumptionManager.getTicketExpiry(keyId));
+        } catch (CryptoException e) {
+            Log.e(TAG, "Exception rotating resumption ticket", e);
+            resumptionManager.revokeTicket(keyId);
+        }
+    }
+
+    /**
+     * Get the next state. The chunk states are only entered, and repeated, whilst a chunked
+     * transfer is in progress, otherwise the response is followed by the finished state.
+     * @return next state
+     */
+    private STATE nextState() {
+        switch (state) {
+            case CORE_RESP:
+            case CHUNK_RESP:
+                return protocolData.containsKey(CHUNK_KEY) ? STATE.CHUNK_REQ : STATE.FINISHED;
+            default:
+                return state.next();
+        }
+    }
+
+    @Override
+    public int getTotalStates() {
+        //We don't count the finished state
+        return STATE.values().length-1;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol.core;
+
+import static com.castellate.compendium.protocol.messages.Constants.ADR_PC;
+import static com.castellate.compendium.protocol.messages.Constants.DERIVED_KEY;
+import static com.castellate.compendium.protocol.messages.Constants.HASH_PC_PUBLIC_KEY;
+
+import com.castellate.compendium.crypto.CryptoException;
+import com.castellate.compendium.crypto.CryptoUtils;
+import com.castellate.compendium.crypto.ResumptionManager;
+import com.castellate.compendium.protocol.ProtocolData;
+import com.castellate.compendium.protocol.messages.ProtocolMessage;
+import com.castellate.compendium.protocol.messages.ProtocolMessageException;
+import com.castellate.compendium.protocol.messages.StoreProtocolData;
+
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Resume request from a PC that holds a valid resumption ticket. Instead of an ephemeral public
+ * key and signature it carries a fresh nonce, the session key is derived from the stored
+ * resumption secret and the nonces of both parties.
+ */
+public class ResumeReqProtocolMessage extends ProtocolMessage implements StoreProtocolData {
+    private static final int NONCE_LENGTH = 16;
+    private static final SecureRandom random = new SecureRandom();
+
+    public ResumeReqProtocolMessage() {
+        super();
+    }
+
+    /**
+     * Checks if a push message is a resume request rather than a full key request
+     * @param msg push message
+     * @return true if the message is a resume request
+     */
+    public static boolean isResumeRequest(JSONObject msg) {
+        return msg != null && msg.has(Fields.NONCE_PC);
+    }
+
+    @Override
+    public Class<?> getClassObj(ProtocolData protocolData) {
+        return ResumeReqProtocolMessage.class;
+    }
+
+    @Override
+    public boolean processMessage(ProtocolData protocolData) throws ProtocolMessageException {
+        if (!super.processMessage(protocolData)) {
+            return false;
+        }
+        byte[] noncePc = protocolData.getBytes(Fields.NONCE_PC);
+        if (noncePc == null || noncePc.length < NONCE_LENGTH) {
+            throw new ProtocolMessageException("Invalid resume nonce");
+        }
+        byte[] secret = null;
+        try {
+            secret = ResumptionManager.getInstance().getResumptionSecret(protocolData.get(HASH_PC_PUBLIC_KEY));
+            if (secret == null) {
+                throw new ProtocolMessageException("No valid resumption ticket");
+            }
+            byte[] nonceCd = new byte[NONCE_LENGTH];
+            random.nextBytes(nonceCd);
+            byte[] nonces = ByteBuffer.allocate(noncePc.length + nonceCd.length).put(noncePc).put(nonceCd).array();
+            protocolData.putBytes(ResumeRespProtocolMessage.Fields.NONCE_CD, nonceCd);
+            protocolData.putBytes(DERIVED_KEY, CryptoUtils.deriveResumedKey(secret, nonces));
+        } catch (CryptoException e) {
+            throw new ProtocolMessageException("Exception resuming session", e);
+        } finally {
+            if (secret != null) {
+                Arrays.fill(secret, (byte) 0);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String[] getAllFields() {
+        return Fields.ALL_FIELDS;
+    }
+
+    @Override
+    public String[] getStoreFields() {
+        return Fields.STORE_FIELDS;
+    }
+
+    public static final class Fields {
+
+        public static final String NONCE_PC = "nonce_pc";
+        public static final String[] ALL_FIELDS = new String[]{ADR_PC, HASH_PC_PUBLIC_KEY, NONCE_PC};
+        public static final String[] STORE_FIELDS = ALL_FIELDS;
+        private Fields() {
+            // restrict instantiation
+        }
+    }
+}
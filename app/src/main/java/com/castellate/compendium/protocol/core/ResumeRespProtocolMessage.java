@@ -0,0 +1,70 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol.core;
+
+import static com.castellate.compendium.protocol.messages.Constants.ADR_CD;
+
+import com.castellate.compendium.protocol.ProtocolData;
+import com.castellate.compendium.protocol.messages.LoadProtocolData;
+import com.castellate.compendium.protocol.messages.ProtocolMessage;
+
+/**
+ * Resume response sent to the PC once the Companion Device has an ephemeral address. Contains
+ * the address and the Companion Device nonce needed by the PC to derive the resumed session key.
+ */
+public class ResumeRespProtocolMessage extends ProtocolMessage implements LoadProtocolData {
+
+    public ResumeRespProtocolMessage() {
+        super();
+    }
+
+    @Override
+    public Class<?> getClassObj(ProtocolData protocolData) {
+        return ResumeRespProtocolMessage.class;
+    }
+
+    @Override
+    public String[] getAllFields() {
+        return Fields.ALL_FIELDS;
+    }
+
+    @Override
+    public String[] getLoadFields() {
+        return Fields.LOAD_FIELDS;
+    }
+
+    public static final class Fields {
+
+        public static final String NONCE_CD = "nonce_cd";
+        public static final String[] ALL_FIELDS = new String[]{ADR_CD, NONCE_CD};
+        public static final String[] LOAD_FIELDS = ALL_FIELDS;
+        private Fields() {
+            // restrict instantiation
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol.core.req;
+
+import com.castellate.compendium.protocol.ProtocolData;
+import com.castellate.compendium.protocol.messages.Constants;
+import com.castellate.compendium.protocol.messages.MessageSchema;
+import com.castellate.compendium.protocol.messages.VerifySignature;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Batch request carrying several Get, Put or Verify operations in a single core request. The
+ * operations are held as a JSON array string so that the PC signature covers their exact
+ * encoding. Each operation contains the same fields as the corresponding single request, without
+ * the Companion Device ID and signature, which are given once for the whole batch.
+ */
+public class CoreBatchReqMessage extends CoreEncryptedReqSubMessage implements VerifySignature {
+    public static final int MAX_OPERATIONS = 16;
+
+    public CoreBatchReqMessage(){
+        super();
+    }
+
+    @Override
+    public Class<?> getClassObj(ProtocolData protocolData) {
+        return CoreBatchReqMessage.class;
+    }
+
+    @Override
+    public boolean parse(JSONObject data) {
+        msgData=data;
+        if (!super.validate(Fields.ALL_FIELDS)) {
+            return false;
+        }
+        try {
+            parseOperations(msgData.getString(Fields.OPS));
+            return true;
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parse and validate the operations of a batch request
+     * @param ops JSON array string of operations
+     * @return JSONArray of operations
+     * @throws JSONException if the operations are malformed, empty, too many or of an unsupported type
+     */
+    public static JSONArray parseOperations(String ops) throws JSONException {
+        JSONArray operations = new JSONArray(ops);
+        if (operations.length() == 0 || operations.length() > MAX_OPERATIONS) {
+            throw new JSONException("Invalid number of batch operations");
+        }
+        for (int i = 0; i < operations.length(); i++) {
+            JSONObject op = operations.getJSONObject(i);
+            String[] opFields;
+            switch (op.getString(Fields.TYPE)) {
+                case CoreEncryptedReqSubMessage.Fields.TYPE_GET:
+                    opFields = Fields.GET_FIELDS;
+                    break;
+                case CoreEncryptedReqSubMessage.Fields.TYPE_PUT:
+                    opFields = Fields.PUT_FIELDS;
+                    break;
+                case CoreEncryptedReqSubMessage.Fields.TYPE_VERIFY:
+                    opFields = Fields.VERIFY_FIELDS;
+                    break;
+                default:
+                    throw new JSONException("Unsupported batch operation");
+            }
+            validateOperation(op, opFields);
+        }
+        return operations;
+    }
+
+    /**
+     * Validate that an operation contains exactly the specified fields
+     * @param op operation to validate
+     * @param fields fields it should contain
+     * @throws JSONException if the operation is invalid
+     */
+    private static void validateOperation(JSONObject op, String[] fields) throws JSONException {
+        if (!MessageSchema.of(fields).validate(op)) {
+            throw new JSONException("Invalid fields in batch operation");
+        }
+    }
+
+    @Override
+    public String[] getAllFields() {
+        return Fields.ALL_FIELDS;
+    }
+
+    @Override
+    public String getSignature() {
+        return get(Fields.SIGNATURE_MSG);
+    }
+
+    @Override
+    public String[] getSignatureFields() {
+        return Fields.SIG_FIELDS;
+    }
+
+    @Override
+    public String getPublicKey(ProtocolData protocolData) {
+        return protocolData.get(Constants.PC_PUBLIC_KEY);
+    }
+
+    @Override
+    public String[] getStoreFields() {
+        return Fields.STORE_FIELDS;
+    }
+
+    public static final class Fields {
+
+        private Fields() {
+            // restrict instantiation
+        }
+
+        public static final String TYPE = "type";
+        public static final String ID_CD = "id_cd";
+        public static final String DESC = "desc";
+        public static final String OPS = "ops";
+        public static final String SIGNATURE_MSG = "signature";
+
+        public static final String[] ALL_FIELDS = new String[]{TYPE,ID_CD,DESC,OPS,SIGNATURE_MSG};
+        public static final String[] SIG_FIELDS = new String[]{TYPE,ID_CD,DESC,OPS};
+        public static final String[] STORE_FIELDS = new String[]{TYPE,DESC,OPS};
+
+        public static final String[] GET_FIELDS = new String[]{TYPE,CoreGetReqMessage.Fields.APP_ID,CoreGetReqMessage.Fields.DESC,CoreGetReqMessage.Fields.CODE,CoreGetReqMessage.Fields.ENC_DATA};
+        public static final String[] PUT_FIELDS = new String[]{TYPE,CorePutReqMessage.Fields.APP_ID,CorePutReqMessage.Fields.DESC,CorePutReqMessage.Fields.CODE,CorePutReqMessage.Fields.DATA};
+        public static final String[] VERIFY_FIELDS = new String[]{TYPE,CoreVerifyReqMessage.Fields.APP_ID,CoreVerifyReqMessage.Fields.DESC,CoreVerifyReqMessage.Fields.CODE,CoreVerifyReqMessage.Fields.NONCE};
+    }
+}
@@ -29,7 +29,9 @@ package com.castellate.compendium.protocol.core.req;
 
 import com.castellate.compendium.data.IdentityStore;
 import com.castellate.compendium.exceptions.StorageException;
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.Constants;
+import com.castellate.compendium.protocol.messages.MessageSchema;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.ProtocolMessageException;
 import com.castellate.compendium.protocol.messages.StoreProtocolData;
@@ -38,16 +40,15 @@ import com.castellate.compendium.protocol.messages.VerifySignature;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Map;
-
 public class CoreEncryptedReqSubMessage extends ProtocolMessage implements VerifySignature, StoreProtocolData {
 
     public CoreEncryptedReqSubMessage(){
         super();
     }
     private CoreEncryptedReqSubMessage innerSubType;
+    private static final MessageSchema PARSE_SCHEMA = MessageSchema.union(CoreGetReqMessage.Fields.ALL_FIELDS, CorePutReqMessage.Fields.ALL_FIELDS, CoreRegReqMessage.Fields.ALL_FIELDS, CoreVerifyReqMessage.Fields.ALL_FIELDS, CoreBatchReqMessage.Fields.ALL_FIELDS, CorePutStreamReqMessage.Fields.ALL_FIELDS, CoreGetStreamReqMessage.Fields.ALL_FIELDS);
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return this.innerSubType.getClassObj(protocolData);
 
     }
@@ -72,6 +73,15 @@ public class CoreEncryptedReqSubMessage extends ProtocolMessage implements Verif
                 case Fields.TYPE_REG:
                     innerSubType = new CoreRegReqMessage();
                     break;
+                case Fields.TYPE_BATCH:
+                    innerSubType = new CoreBatchReqMessage();
+                    break;
+                case Fields.TYPE_PUT_STREAM:
+                    innerSubType = new CorePutStreamReqMessage();
+                    break;
+                case Fields.TYPE_GET_STREAM:
+                    innerSubType = new CoreGetStreamReqMessage();
+                    break;
                 case Fields.TYPE_VERIFY:
                     innerSubType = new CoreVerifyReqMessage();
                     break;
@@ -82,8 +92,13 @@ public class CoreEncryptedReqSubMessage extends ProtocolMessage implements Verif
         }catch(JSONException e){
             return false;
         }
-        innerSubType.parse(msgData);
-        return super.parse(data);
+        //The inner subtype validates the exact fields of its type
+        return innerSubType.parse(msgData);
+    }
+
+    @Override
+    protected MessageSchema getParseSchema() {
+        return PARSE_SCHEMA;
     }
 
     @Override
@@ -98,7 +113,7 @@ public class CoreEncryptedReqSubMessage extends ProtocolMessage implements Verif
     }
 
     @Override
-    public String getPublicKey(Map<String,String>protocolData) throws ProtocolMessageException {
+    public String getPublicKey(ProtocolData protocolData) throws ProtocolMessageException {
         try {
             return IdentityStore.getInstance().getPublicIdentityById(protocolData.get(Constants.HASH_PC_PUBLIC_KEY));
         } catch (StorageException e) {
@@ -124,6 +139,9 @@ public class CoreEncryptedReqSubMessage extends ProtocolMessage implements Verif
         public static final String TYPE_GET = "Get";
         public static final String TYPE_REG = "Reg";
         public static final String TYPE_VERIFY = "Verify";
+        public static final String TYPE_BATCH = "Batch";
+        public static final String TYPE_PUT_STREAM = "PutStream";
+        public static final String TYPE_GET_STREAM = "GetStream";
 
 
 
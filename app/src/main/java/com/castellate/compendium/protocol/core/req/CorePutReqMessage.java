@@ -27,13 +27,12 @@
 
 package com.castellate.compendium.protocol.core.req;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.Constants;
 import com.castellate.compendium.protocol.messages.VerifySignature;
 
 import org.json.JSONObject;
 
-import java.util.Map;
-
 public class CorePutReqMessage extends CoreEncryptedReqSubMessage implements VerifySignature {
 
     public CorePutReqMessage(){
@@ -41,7 +40,7 @@ public class CorePutReqMessage extends CoreEncryptedReqSubMessage implements Ver
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CorePutReqMessage.class;
     }
 
@@ -68,7 +67,7 @@ public class CorePutReqMessage extends CoreEncryptedReqSubMessage implements Ver
     }
 
     @Override
-    public String getPublicKey(Map<String,String>protocolData) {
+    public String getPublicKey(ProtocolData protocolData) {
         return protocolData.get(Constants.PC_PUBLIC_KEY);
 
     }
@@ -0,0 +1,111 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol.core.req;
+
+import com.castellate.compendium.crypto.ChunkedCipher;
+import com.castellate.compendium.protocol.ProtocolData;
+import com.castellate.compendium.protocol.messages.Constants;
+import com.castellate.compendium.protocol.messages.VerifySignature;
+
+import org.json.JSONObject;
+
+/**
+ * Chunked Put request for payloads too large to be sent in a single message. The request only
+ * announces the number of chunks, the plaintext chunks follow once the user has authorised the
+ * request, and are encrypted under a new data key that is wrapped by the App key.
+ */
+public class CorePutStreamReqMessage extends CoreEncryptedReqSubMessage implements VerifySignature {
+
+    public CorePutStreamReqMessage(){
+        super();
+    }
+
+    @Override
+    public Class<?> getClassObj(ProtocolData protocolData) {
+        return CorePutStreamReqMessage.class;
+    }
+
+    @Override
+    public String[] getAllFields() {
+        return Fields.ALL_FIELDS;
+    }
+
+    @Override
+    public boolean parse(JSONObject data) {
+        msgData=data;
+        return super.validate(Fields.ALL_FIELDS) && isValidChunkCount(msgData.optInt(Fields.CHUNKS, 0));
+
+    }
+
+    /**
+     * Checks the announced number of chunks is within the supported range
+     * @param chunks number of chunks
+     * @return true if valid, false if not
+     */
+    static boolean isValidChunkCount(int chunks) {
+        return chunks > 0 && chunks <= ChunkedCipher.MAX_CHUNKS;
+    }
+
+    @Override
+    public String getSignature() {
+        return get(Fields.SIGNATURE_MSG);
+    }
+
+    @Override
+    public String[] getSignatureFields() {
+        return Fields.SIG_FIELDS;
+    }
+
+    @Override
+    public String getPublicKey(ProtocolData protocolData) {
+        return protocolData.get(Constants.PC_PUBLIC_KEY);
+
+    }
+    @Override
+    public String[] getStoreFields() {
+        return Fields.STORE_FIELDS;
+    }
+    public static final class Fields {
+
+        private Fields() {
+            // restrict instantiation
+        }
+
+        public static final String TYPE = "type";
+        public static final String ID_CD = "id_cd";
+        public static final String APP_ID ="app_id";
+        public static final String DESC = "desc";
+        public static final String CODE = "code";
+        public static final String CHUNKS = "chunks";
+        public static final String SIGNATURE_MSG = "signature";
+
+        public static final String[] ALL_FIELDS = new String[]{TYPE,ID_CD,APP_ID,DESC,CODE,CHUNKS,SIGNATURE_MSG};
+        public static final String[] SIG_FIELDS = new String[]{TYPE,ID_CD,APP_ID,DESC,CODE,CHUNKS};
+        public static final String[] STORE_FIELDS = new String[]{TYPE,APP_ID,DESC,CODE,CHUNKS};
+    }
+}
@@ -27,20 +27,19 @@
 
 package com.castellate.compendium.protocol.core.req;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.Constants;
 import com.castellate.compendium.protocol.messages.VerifySignature;
 
 import org.json.JSONObject;
 
-import java.util.Map;
-
 public class CoreRegReqMessage extends CoreEncryptedReqSubMessage implements VerifySignature {
 
     public CoreRegReqMessage(){
         super();
     }
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CoreRegReqMessage.class;
     }
 
@@ -66,7 +65,7 @@ public class CoreRegReqMessage extends CoreEncryptedReqSubMessage implements Ver
     }
 
     @Override
-    public String getPublicKey(Map<String,String>protocolData) {
+    public String getPublicKey(ProtocolData protocolData) {
         return protocolData.get(Constants.PC_PUBLIC_KEY);
 
     }
@@ -27,11 +27,11 @@
 
 package com.castellate.compendium.protocol.core.req;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.EmbeddedEncryptedMessage;
+import com.castellate.compendium.protocol.messages.MessageFactory;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 
-import java.util.Map;
-
 public class CoreRequestProtocolMessage extends ProtocolMessage implements EmbeddedEncryptedMessage {
 
     public CoreRequestProtocolMessage(){
@@ -40,7 +40,7 @@ public class CoreRequestProtocolMessage extends ProtocolMessage implements Embed
 
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CoreRequestProtocolMessage.class;
     }
 
@@ -56,8 +56,8 @@ public class CoreRequestProtocolMessage extends ProtocolMessage implements Embed
     }
 
     @Override
-    public Class<?> getEncryptedMessageClass() {
-        return CoreEncryptedReqSubMessage.class;
+    public MessageFactory getEncryptedMessageFactory() {
+        return CoreEncryptedReqSubMessage::new;
     }
 
     public static final class Fields {
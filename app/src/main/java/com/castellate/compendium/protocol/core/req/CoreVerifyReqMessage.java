@@ -27,13 +27,12 @@
 
 package com.castellate.compendium.protocol.core.req;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.Constants;
 import com.castellate.compendium.protocol.messages.VerifySignature;
 
 import org.json.JSONObject;
 
-import java.util.Map;
-
 public class CoreVerifyReqMessage extends CoreEncryptedReqSubMessage implements VerifySignature {
 
     public CoreVerifyReqMessage(){
@@ -41,7 +40,7 @@ public class CoreVerifyReqMessage extends CoreEncryptedReqSubMessage implements
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CoreVerifyReqMessage.class;
     }
     @Override
@@ -66,7 +65,7 @@ public class CoreVerifyReqMessage extends CoreEncryptedReqSubMessage implements
     }
 
     @Override
-    public String getPublicKey(Map<String,String>protocolData) {
+    public String getPublicKey(ProtocolData protocolData) {
         return protocolData.get(Constants.PC_PUBLIC_KEY);
 
     }
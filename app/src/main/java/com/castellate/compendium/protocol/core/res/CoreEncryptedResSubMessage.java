@@ -27,24 +27,25 @@
 
 package com.castellate.compendium.protocol.core.res;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.LoadProtocolData;
+import com.castellate.compendium.protocol.messages.MessageSchema;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.SignMessage;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Map;
-
 public class CoreEncryptedResSubMessage extends ProtocolMessage implements SignMessage, LoadProtocolData {
 
     public CoreEncryptedResSubMessage(){
         super();
     }
     private CoreEncryptedResSubMessage innerSubType;
+    private static final MessageSchema PARSE_SCHEMA = MessageSchema.union(CoreGetResMessage.Fields.ALL_FIELDS, CorePutResMessage.Fields.ALL_FIELDS, CoreRegResMessage.Fields.ALL_FIELDS, CoreVerifyResMessage.Fields.ALL_FIELDS, CoreBatchResMessage.Fields.ALL_FIELDS, CorePutStreamResMessage.Fields.ALL_FIELDS, CoreGetStreamResMessage.Fields.ALL_FIELDS);
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         if(innerSubType!=null){
             return innerSubType.getClassObj(protocolData);
         }
@@ -58,6 +59,15 @@ public class CoreEncryptedResSubMessage extends ProtocolMessage implements SignM
             case Fields.TYPE_REG:
                 innerSubType = new CoreRegResMessage();
                 break;
+            case Fields.TYPE_BATCH:
+                innerSubType = new CoreBatchResMessage();
+                break;
+            case Fields.TYPE_PUT_STREAM:
+                innerSubType = new CorePutStreamResMessage();
+                break;
+            case Fields.TYPE_GET_STREAM:
+                innerSubType = new CoreGetStreamResMessage();
+                break;
             case Fields.TYPE_VERIFY:
                 innerSubType = new CoreVerifyResMessage();
                 break;
@@ -89,6 +99,15 @@ public class CoreEncryptedResSubMessage extends ProtocolMessage implements SignM
                 case Fields.TYPE_REG:
                     innerSubType = new CoreRegResMessage();
                     break;
+                case Fields.TYPE_BATCH:
+                    innerSubType = new CoreBatchResMessage();
+                    break;
+                case Fields.TYPE_PUT_STREAM:
+                    innerSubType = new CorePutStreamResMessage();
+                    break;
+                case Fields.TYPE_GET_STREAM:
+                    innerSubType = new CoreGetStreamResMessage();
+                    break;
                 case Fields.TYPE_VERIFY:
                     innerSubType = new CoreVerifyResMessage();
                     break;
@@ -102,6 +121,11 @@ public class CoreEncryptedResSubMessage extends ProtocolMessage implements SignM
         return super.parse(data);
     }
 
+    @Override
+    protected MessageSchema getParseSchema() {
+        return PARSE_SCHEMA;
+    }
+
 
 
     @Override
@@ -134,6 +158,9 @@ public class CoreEncryptedResSubMessage extends ProtocolMessage implements SignM
         public static final String TYPE_GET = "Get";
         public static final String TYPE_REG = "Reg";
         public static final String TYPE_VERIFY = "Verify";
+        public static final String TYPE_BATCH = "Batch";
+        public static final String TYPE_PUT_STREAM = "PutStream";
+        public static final String TYPE_GET_STREAM = "GetStream";
 
 
 
@@ -27,7 +27,7 @@
 
 package com.castellate.compendium.protocol.core.res;
 
-import java.util.Map;
+import com.castellate.compendium.protocol.ProtocolData;
 
 public class CoreGetResMessage extends CoreEncryptedResSubMessage {
 
@@ -41,7 +41,7 @@ public class CoreGetResMessage extends CoreEncryptedResSubMessage {
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CoreGetResMessage.class;
     }
 
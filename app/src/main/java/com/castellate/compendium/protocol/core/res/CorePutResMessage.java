@@ -27,7 +27,7 @@
 
 package com.castellate.compendium.protocol.core.res;
 
-import java.util.Map;
+import com.castellate.compendium.protocol.ProtocolData;
 
 public class CorePutResMessage extends CoreEncryptedResSubMessage {
 
@@ -39,7 +39,7 @@ public class CorePutResMessage extends CoreEncryptedResSubMessage {
         return Fields.LOAD_FIELDS;
     }
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CorePutResMessage.class;
     }
 
@@ -27,7 +27,7 @@
 
 package com.castellate.compendium.protocol.core.res;
 
-import java.util.Map;
+import com.castellate.compendium.protocol.ProtocolData;
 
 public class CoreRegResMessage extends CoreEncryptedResSubMessage {
 
@@ -35,7 +35,7 @@ public class CoreRegResMessage extends CoreEncryptedResSubMessage {
         super();
     }
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CoreRegResMessage.class;
     }
     @Override
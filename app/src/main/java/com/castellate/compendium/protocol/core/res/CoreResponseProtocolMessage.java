@@ -27,11 +27,11 @@
 
 package com.castellate.compendium.protocol.core.res;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.EmbeddedEncryptedMessage;
+import com.castellate.compendium.protocol.messages.MessageFactory;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 
-import java.util.Map;
-
 public class CoreResponseProtocolMessage extends ProtocolMessage implements EmbeddedEncryptedMessage {
 
     public CoreResponseProtocolMessage(){
@@ -40,7 +40,7 @@ public class CoreResponseProtocolMessage extends ProtocolMessage implements Embe
 
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CoreResponseProtocolMessage.class;
     }
 
@@ -56,8 +56,8 @@ public class CoreResponseProtocolMessage extends ProtocolMessage implements Embe
     }
 
     @Override
-    public Class<?> getEncryptedMessageClass() {
-        return CoreEncryptedResSubMessage.class;
+    public MessageFactory getEncryptedMessageFactory() {
+        return CoreEncryptedResSubMessage::new;
     }
 
     public static final class Fields {
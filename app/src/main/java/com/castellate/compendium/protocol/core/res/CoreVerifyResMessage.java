@@ -27,7 +27,7 @@
 
 package com.castellate.compendium.protocol.core.res;
 
-import java.util.Map;
+import com.castellate.compendium.protocol.ProtocolData;
 
 public class CoreVerifyResMessage extends CoreEncryptedResSubMessage {
 
@@ -36,7 +36,7 @@ public class CoreVerifyResMessage extends CoreEncryptedResSubMessage {
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return CoreVerifyResMessage.class;
     }
     @Override
@@ -27,13 +27,12 @@
 
 package com.castellate.compendium.protocol.enrol;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.Constants;
 import com.castellate.compendium.protocol.messages.InitKeyRespProtocolMessage;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.VerifySignature;
 
-import java.util.Map;
-
 public class ConfirmKeyEncryptedSubMessage extends ProtocolMessage implements VerifySignature {
 
     public ConfirmKeyEncryptedSubMessage(){
@@ -41,7 +40,7 @@ public class ConfirmKeyEncryptedSubMessage extends ProtocolMessage implements Ve
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return ConfirmKeyEncryptedSubMessage.class;
     }
 
@@ -63,7 +62,7 @@ public class ConfirmKeyEncryptedSubMessage extends ProtocolMessage implements Ve
     }
 
     @Override
-    public String getPublicKey(Map<String,String>protocolData) {
+    public String getPublicKey(ProtocolData protocolData) {
         return protocolData.get(Constants.PC_PUBLIC_KEY);
 
     }
@@ -27,11 +27,11 @@
 
 package com.castellate.compendium.protocol.enrol;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.EmbeddedEncryptedMessage;
+import com.castellate.compendium.protocol.messages.MessageFactory;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 
-import java.util.Map;
-
 public class ConfirmKeyProtocolMessage extends ProtocolMessage implements EmbeddedEncryptedMessage {
 
     public ConfirmKeyProtocolMessage(){
@@ -40,7 +40,7 @@ public class ConfirmKeyProtocolMessage extends ProtocolMessage implements Embedd
 
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return ConfirmKeyProtocolMessage.class;
     }
 
@@ -56,8 +56,8 @@ public class ConfirmKeyProtocolMessage extends ProtocolMessage implements Embedd
     }
 
     @Override
-    public Class<?> getEncryptedMessageClass() {
-        return ConfirmKeyEncryptedSubMessage.class;
+    public MessageFactory getEncryptedMessageFactory() {
+        return ConfirmKeyEncryptedSubMessage::new;
     }
 
     public static final class Fields {
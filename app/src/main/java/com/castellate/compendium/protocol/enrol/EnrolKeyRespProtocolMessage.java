@@ -29,13 +29,16 @@ package com.castellate.compendium.protocol.enrol;
 
 import com.castellate.compendium.crypto.CryptoException;
 import com.castellate.compendium.crypto.CryptoUtils;
+import com.castellate.compendium.crypto.EphemeralKeyPool;
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.Constants;
 import com.castellate.compendium.protocol.messages.EmbeddedEncryptedMessage;
 import com.castellate.compendium.protocol.messages.InitKeyRespProtocolMessage;
+import com.castellate.compendium.protocol.messages.MessageFactory;
 import com.castellate.compendium.protocol.messages.ProtocolMessageException;
 
 import java.security.KeyPair;
-import java.util.Map;
+import java.util.Arrays;
 
 public class EnrolKeyRespProtocolMessage extends InitKeyRespProtocolMessage implements EmbeddedEncryptedMessage {
 
@@ -44,7 +47,7 @@ public class EnrolKeyRespProtocolMessage extends InitKeyRespProtocolMessage impl
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return EnrolKeyRespProtocolMessage.class;
     }
 
@@ -54,19 +57,26 @@ public class EnrolKeyRespProtocolMessage extends InitKeyRespProtocolMessage impl
     }
 
     @Override
-    public Class<?> getEncryptedMessageClass() {
-        return InitKeyEncryptedRespMessage.class;
+    public MessageFactory getEncryptedMessageFactory() {
+        return InitKeyEncryptedRespMessage::new;
     }
 
     @Override
-    public boolean prepareOutgoingMessage(Map<String, String> protocolData) throws ProtocolMessageException {
+    public boolean prepareOutgoingMessage(ProtocolData protocolData) throws ProtocolMessageException {
+        KeyPair kp = null;
+        byte[] sharedSecret = null;
         try {
-            KeyPair kp = CryptoUtils.generateEphemeralKeys();
-            byte[] sharedSecret = CryptoUtils.performECDH(kp, CryptoUtils.getPublicKey(protocolData.get(InitKeyReqProtocolMessage.Fields.G_X)));
+            kp = EphemeralKeyPool.getInstance().take();
+            sharedSecret = CryptoUtils.performECDH(kp, protocolData.getPublicKey(InitKeyReqProtocolMessage.Fields.G_X));
             protocolData.put(Fields.G_Y, CryptoUtils.encodePublicKey(kp.getPublic()));
-            protocolData.put(Constants.DERIVED_KEY,CryptoUtils.deriveKey(sharedSecret));
+            protocolData.putBytes(Constants.DERIVED_KEY,CryptoUtils.deriveKeyBytes(sharedSecret));
         }catch(CryptoException e){
             throw new ProtocolMessageException("Exception processing key exchange",e);
+        }finally{
+            EphemeralKeyPool.wipe(kp);
+            if(sharedSecret!=null){
+                Arrays.fill(sharedSecret,(byte)0);
+            }
         }
         return super.prepareOutgoingMessage(protocolData);
     }
@@ -27,6 +27,7 @@
 
 package com.castellate.compendium.protocol.enrol;
 
+import com.castellate.compendium.protocol.MessageRegistry;
 import com.castellate.compendium.protocol.Protocol;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.ProtocolMessageException;
@@ -50,12 +51,12 @@ public class EnrolProtocol extends Protocol {
         }
     }
     private STATE state = STATE.INIT_KEY_REQ;
-    private static final Class<? extends ProtocolMessage>[] MESSAGES = new Class[]{InitKeyReqProtocolMessage.class,InitWSSProtocolMessage.class,InitWSSRespProtocolMessage.class,EnrolKeyRespProtocolMessage.class,ConfirmKeyProtocolMessage.class};
+    private static final MessageRegistry MESSAGES = MessageRegistry.build(STATE.values().length - 1, InitKeyReqProtocolMessage::new, InitWSSProtocolMessage::new, InitWSSRespProtocolMessage::new, EnrolKeyRespProtocolMessage::new, ConfirmKeyProtocolMessage::new);
     public EnrolProtocol(){
         super();
     }
     @Override
-    public Class<? extends ProtocolMessage>[] getMessages() {
+    public MessageRegistry getMessages() {
         return EnrolProtocol.MESSAGES;
     }
     @Override
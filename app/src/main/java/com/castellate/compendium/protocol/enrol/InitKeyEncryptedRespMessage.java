@@ -30,33 +30,21 @@ package com.castellate.compendium.protocol.enrol;
 import static com.castellate.compendium.protocol.messages.Constants.ADR_CD;
 import static com.castellate.compendium.protocol.messages.Constants.CD_PUBLIC_KEY;
 import static com.castellate.compendium.protocol.messages.Constants.ID_CD;
+import static com.castellate.compendium.protocol.messages.Constants.SIG_MODE;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.InitKeyRespProtocolMessage;
 import com.castellate.compendium.protocol.messages.LoadProtocolData;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.SignMessage;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.Map;
-
 public class InitKeyEncryptedRespMessage extends ProtocolMessage implements LoadProtocolData, SignMessage {
 
     public InitKeyEncryptedRespMessage(){
         super();
     }
     @Override
-    public boolean parse(String data)  {
-        try {
-            return parse(new JSONObject((data)));
-        } catch (JSONException e) {
-            return false;
-        }
-    }
-
-    @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return InitKeyEncryptedRespMessage.class;
     }
 
@@ -65,6 +53,11 @@ public class InitKeyEncryptedRespMessage extends ProtocolMessage implements Load
         return Fields.ALL_FIELDS;
     }
 
+    @Override
+    public String[] getOptionalFields() {
+        return Fields.OPTIONAL_FIELDS;
+    }
+
 
     @Override
     public String[] getLoadFields() {
@@ -89,8 +82,9 @@ public class InitKeyEncryptedRespMessage extends ProtocolMessage implements Load
 
         public static final String SIGNATURE_CD = "signature_cd";
         public static final String[] ALL_FIELDS = new String[]{ADR_CD,ID_CD,CD_PUBLIC_KEY,SIGNATURE_CD};
-        public static final String[] SIG_FIELDS = new String[]{InitKeyRespProtocolMessage.Fields.G_Y,InitKeyReqProtocolMessage.Fields.G_X,ADR_CD,ID_CD,CD_PUBLIC_KEY};
+        public static final String[] OPTIONAL_FIELDS = new String[]{SIG_MODE};
+        public static final String[] SIG_FIELDS = new String[]{InitKeyRespProtocolMessage.Fields.G_Y,InitKeyReqProtocolMessage.Fields.G_X,ADR_CD,ID_CD,CD_PUBLIC_KEY,SIG_MODE};
         //public static final String[] STORE_FIELDS = SIG_FIELDS;
-        public static final String[] LOAD_FIELDS = new String[]{ADR_CD,ID_CD,CD_PUBLIC_KEY};
+        public static final String[] LOAD_FIELDS = new String[]{ADR_CD,ID_CD,CD_PUBLIC_KEY,SIG_MODE};
     }
 }
@@ -31,18 +31,17 @@ import static com.castellate.compendium.protocol.messages.Constants.ADR_PC;
 import static com.castellate.compendium.protocol.messages.Constants.CD_PUBLIC_KEY;
 import static com.castellate.compendium.protocol.messages.Constants.HASH_PC_PUBLIC_KEY;
 import static com.castellate.compendium.protocol.messages.Constants.PC_PUBLIC_KEY;
+import static com.castellate.compendium.protocol.messages.Constants.SIG_MODE;
 
 import com.castellate.compendium.crypto.CompanionKeyManager;
 import com.castellate.compendium.crypto.CryptoException;
-import com.castellate.compendium.crypto.CryptoUtils;
+import com.castellate.compendium.crypto.IdentityKeyCache;
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.ProtocolMessageException;
 import com.castellate.compendium.protocol.messages.StoreProtocolData;
 import com.castellate.compendium.protocol.messages.VerifySignature;
 
-import java.security.KeyPair;
-import java.util.Map;
-
 public class InitKeyReqProtocolMessage extends ProtocolMessage implements StoreProtocolData, VerifySignature {
 
     public InitKeyReqProtocolMessage() {
@@ -50,21 +49,20 @@ public class InitKeyReqProtocolMessage extends ProtocolMessage implements StoreP
     }
 
     @Override
-    public Class<?> getClassObj(Map<String, String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return InitKeyReqProtocolMessage.class;
     }
 
 
     @Override
-    public boolean processMessage(Map<String, String> protocolData) throws ProtocolMessageException {
+    public boolean processMessage(ProtocolData protocolData) throws ProtocolMessageException {
         try {
             if (!super.processMessage(protocolData)) {
                 return false;
             }
-            CompanionKeyManager ckm = new CompanionKeyManager();
-            KeyPair kp = ckm.getOrCreateIdentityKey();
-            protocolData.put(CD_PUBLIC_KEY, CryptoUtils.encodePublicKey(kp.getPublic()));
-            protocolData.put(HASH_PC_PUBLIC_KEY, CryptoUtils.getPublicKeyId(get(PC_PUBLIC_KEY)));
+            negotiateSignatureMode(Fields.SIG_FIELDS, protocolData);
+            protocolData.put(CD_PUBLIC_KEY, CompanionKeyManager.getInstance().getIdentity().getEncodedPublicKey());
+            protocolData.put(HASH_PC_PUBLIC_KEY, IdentityKeyCache.getInstance().getKeyId(get(PC_PUBLIC_KEY)));
             return true;
         } catch (CryptoException e) {
             throw new ProtocolMessageException("Exception get PC Public Key ID", e);
@@ -76,6 +74,11 @@ public class InitKeyReqProtocolMessage extends ProtocolMessage implements StoreP
         return Fields.ALL_FIELDS;
     }
 
+    @Override
+    public String[] getOptionalFields() {
+        return Fields.OPTIONAL_FIELDS;
+    }
+
 
     @Override
     public String[] getStoreFields() {
@@ -93,7 +96,7 @@ public class InitKeyReqProtocolMessage extends ProtocolMessage implements StoreP
     }
 
     @Override
-    public String getPublicKey(Map<String, String> protocolData) {
+    public String getPublicKey(ProtocolData protocolData) {
         return get(PC_PUBLIC_KEY);
     }
 
@@ -105,6 +108,7 @@ public class InitKeyReqProtocolMessage extends ProtocolMessage implements StoreP
         public static final String[] ALL_FIELDS = new String[]{ADR_PC, PC_PUBLIC_KEY, G_X, SIGNATURE_PC};
         public static final String[] SIG_FIELDS = new String[]{ADR_PC, PC_PUBLIC_KEY, G_X};
         public static final String[] STORE_FIELDS = SIG_FIELDS;
+        public static final String[] OPTIONAL_FIELDS = new String[]{SIG_MODE};
         private Fields() {
             // restrict instantiation
         }
@@ -27,11 +27,10 @@
 
 package com.castellate.compendium.protocol.enrol;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.ws.WSMessages;
 
-import java.util.Map;
-
 public class InitWSSProtocolMessage extends ProtocolMessage {
 
     public InitWSSProtocolMessage(){
@@ -39,12 +38,12 @@ public class InitWSSProtocolMessage extends ProtocolMessage {
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return InitWSSProtocolMessage.class;
     }
 
     @Override
-    public String getWebSocketMsg(Map<String, String> protocolData) {
+    public String getWebSocketMsg(ProtocolData protocolData) {
         return WSMessages.createInitMsg().toString();
     }
     @Override
@@ -29,11 +29,13 @@ package com.castellate.compendium.protocol.enrol;
 
 import static com.castellate.compendium.protocol.messages.Constants.ADR_CD;
 
+import com.castellate.compendium.protocol.ProtocolData;
+import com.castellate.compendium.protocol.messages.MessageSchema;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.StoreProtocolData;
 import com.castellate.compendium.ws.WSMessages;
 
-import java.util.Map;
+import org.json.JSONObject;
 
 public class InitWSSRespProtocolMessage extends ProtocolMessage implements StoreProtocolData {
 
@@ -42,12 +44,12 @@ public class InitWSSRespProtocolMessage extends ProtocolMessage implements Store
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return InitWSSRespProtocolMessage.class;
     }
 
     @Override
-    public String getWebSocketMsg(Map<String, String> protocolData) {
+    public String getWebSocketMsg(ProtocolData protocolData) {
         return WSMessages.createInitMsg().toString();
     }
     @Override
@@ -55,6 +57,13 @@ public class InitWSSRespProtocolMessage extends ProtocolMessage implements Store
         return Fields.ALL_FIELDS;
     }
 
+    @Override
+    public boolean parse(JSONObject data) {
+        msgData = data;
+        //The relay may include the agreed wire codec
+        return MessageSchema.of(Fields.ALL_FIELDS, Fields.OPTIONAL_FIELDS).validate(msgData);
+    }
+
 
 
     @Override
@@ -70,6 +79,7 @@ public class InitWSSRespProtocolMessage extends ProtocolMessage implements Store
         public static final String EPHE_WSS_ADDR = "EpheWssAddr";
         public static final String TYPE = "type";
         public static final String[] ALL_FIELDS = new String[]{EPHE_WSS_ADDR,TYPE};
+        public static final String[] OPTIONAL_FIELDS = new String[]{WSMessages.CODEC};
         public static final String[] STORE_FIELDS = new String[]{EPHE_WSS_ADDR+":"+ADR_CD};
     }
 }
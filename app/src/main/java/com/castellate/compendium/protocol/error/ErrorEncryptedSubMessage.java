@@ -27,12 +27,11 @@
 
 package com.castellate.compendium.protocol.error;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.LoadProtocolData;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 import com.castellate.compendium.protocol.messages.SignMessage;
 
-import java.util.Map;
-
 /**
  * Represents an inner encrypted error message
  */
@@ -43,7 +42,7 @@ public class ErrorEncryptedSubMessage extends ProtocolMessage implements SignMes
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return ErrorEncryptedSubMessage.class;
     }
 
@@ -27,11 +27,11 @@
 
 package com.castellate.compendium.protocol.error;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.messages.EmbeddedEncryptedMessage;
+import com.castellate.compendium.protocol.messages.MessageFactory;
 import com.castellate.compendium.protocol.messages.ProtocolMessage;
 
-import java.util.Map;
-
 /**
  * Represents a protocol error message that includes an Encrypted error message
  */
@@ -43,7 +43,7 @@ public class ErrorProtocolMessage extends ProtocolMessage implements EmbeddedEnc
 
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return ErrorProtocolMessage.class;
     }
 
@@ -59,8 +59,8 @@ public class ErrorProtocolMessage extends ProtocolMessage implements EmbeddedEnc
     }
 
     @Override
-    public Class<?> getEncryptedMessageClass() {
-        return ErrorEncryptedSubMessage.class;
+    public MessageFactory getEncryptedMessageFactory() {
+        return ErrorEncryptedSubMessage::new;
     }
 
     public static final class Fields {
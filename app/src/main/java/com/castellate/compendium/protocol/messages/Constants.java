@@ -42,6 +42,14 @@ public class Constants {
     public static final String HASH_CD_PUBLIC_KEY = "hash_cd_public_key";
     public static final String HASH_PC_PUBLIC_KEY = "hash_pc_public_key";
     public static final String APP_ID = "app_id";
+    public static final String CHUNK_KEY = "chunk_key";
+    public static final String CHUNK_INDEX = "chunk_index";
+    public static final String CHUNK_DATA = "chunk_data";
+    public static final String CHUNK_PREFIX = "prefix";
+    public static final String SIG_MODE = "sig_mode";
+
+    public static final String SIG_MODE_FIELDS = "fields";
+    public static final String SIG_MODE_TRANSCRIPT = "transcript";
 
     public static final String TYPE_PUT_GET = "PUT_GET";
     public static final String TYPE_REG_SIGN = "REG_SIGN";
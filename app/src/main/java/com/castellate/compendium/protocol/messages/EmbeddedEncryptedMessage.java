@@ -38,8 +38,8 @@ public interface EmbeddedEncryptedMessage {
     String getEncryptedMsgField();
 
     /**
-     * Get the class of the embedded encrypted message so it can be instantiated
-     * @return Class of the embedded encrypted message
+     * Get the factory for the embedded encrypted message so it can be instantiated
+     * @return MessageFactory of the embedded encrypted message
      */
-    Class<?> getEncryptedMessageClass();
+    MessageFactory getEncryptedMessageFactory();
 }
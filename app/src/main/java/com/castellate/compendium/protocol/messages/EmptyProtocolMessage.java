@@ -27,13 +27,11 @@
 
 package com.castellate.compendium.protocol.messages;
 
+import com.castellate.compendium.protocol.ProtocolData;
 import com.castellate.compendium.protocol.enrol.InitKeyReqProtocolMessage;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Map;
-
 /**
  * Empty placeholder message, used when needing to put a placeholder message in a protocol
  */
@@ -47,21 +45,12 @@ public class EmptyProtocolMessage extends ProtocolMessage {
     }
 
     @Override
-    public String getWebSocketMsg(Map<String, String> protocolData) {
+    public String getWebSocketMsg(ProtocolData protocolData) {
         return null;
     }
 
     @Override
-    public boolean parse(String data)  {
-        try {
-            return parse(new JSONObject((data)));
-        } catch (JSONException e) {
-            return false;
-        }
-    }
-
-    @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return InitKeyReqProtocolMessage.class;
     }
 
@@ -41,6 +41,7 @@ import org.json.JSONObject;
 public class EncryptedMessage {
     public static final String IV = "iv";
     public static final String CIPHER_TEXT = "cipher_text";
+    private static final String[] ALL_FIELDS = new String[]{IV, CIPHER_TEXT};
     private final JSONObject data;
 
     /**
@@ -59,15 +60,17 @@ public class EncryptedMessage {
 
     /**
      * Create a new EncryptedMessage from a String that will first be parsed as a JSONObject, which
-     * should contain an IV and cipher text
+     * must contain only an IV and cipher text. The string is parsed with the schema of those
+     * fields, so an oversized or unexpected message is rejected before it is read in full.
      * @param msg JSON String containing IV and cipher text
      * @throws ProtocolMessageException
      */
     public EncryptedMessage(String msg) throws ProtocolMessageException {
         try {
             Log.d("EncryptedMessage", msg);
-            data = new JSONObject(msg);
-            if (!data.has(IV) || !data.has(CIPHER_TEXT)) {
+            MessageSchema schema = MessageSchema.of(ALL_FIELDS);
+            data = schema.parse(msg);
+            if (!schema.validate(data)) {
                 throw new ProtocolMessageException("Missing fields in cipher");
             }
         } catch (JSONException e) {
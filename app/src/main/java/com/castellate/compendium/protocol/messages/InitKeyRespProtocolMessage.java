@@ -27,9 +27,10 @@
 
 package com.castellate.compendium.protocol.messages;
 
+import com.castellate.compendium.protocol.ProtocolData;
+
 import org.json.JSONObject;
 
-import java.util.Map;
 
 /**
  * Abstract class that represents an Init Key Response Message. This is subclassed by both
@@ -42,7 +43,7 @@ public abstract class  InitKeyRespProtocolMessage extends ProtocolMessage implem
     }
 
     @Override
-    public Class<?> getClassObj(Map<String,String> protocolData) {
+    public Class<?> getClassObj(ProtocolData protocolData) {
         return InitKeyRespProtocolMessage.class;
     }
 
@@ -56,10 +57,6 @@ public abstract class  InitKeyRespProtocolMessage extends ProtocolMessage implem
         return Fields.ENC_MSG;
     }
 
-    @Override
-    public Class<?> getEncryptedMessageClass() {
-        return ProtocolMessage.class;
-    }
     @Override
     public String[] getLoadFields(){
         return Fields.LOAD_FIELDS;
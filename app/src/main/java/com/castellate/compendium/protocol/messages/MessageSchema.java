@@ -0,0 +1,262 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol.messages;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Precomputed schema of the fields a message may contain. Each field is assigned a bit so the
+ * field set of a message can be checked in a single pass over its fields without allocating.
+ * Schemas are cached against the field arrays they are built from, which are the static
+ * Fields.ALL_FIELDS constants of each message, so each is only built once.
+ *
+ * The schema also provides a streaming parse that rejects oversized input, unexpected and
+ * duplicate fields as they are read, before the rest of the message is materialised.
+ */
+public final class MessageSchema {
+    private static final String TAG = "MessageSchema";
+    public static final int MAX_MESSAGE_LENGTH = 256 * 1024;
+    private static final int MAX_FIELDS = 64;
+    private static final int MAX_DEPTH = 8;
+    private static final Map<String[], MessageSchema> schemas = Collections.synchronizedMap(new IdentityHashMap<>());
+    private static final Map<String[], MessageSchema> optionalSchemas = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Map<String, Long> fieldBits = new HashMap<>();
+    private final long requiredBits;
+
+    private MessageSchema(String[][] fieldSets, String[] optionalFields) {
+        long bits = 0;
+        for (String[] fields : fieldSets) {
+            for (String field : fields) {
+                bits |= addField(field);
+            }
+        }
+        for (String field : optionalFields) {
+            addField(field);
+        }
+        requiredBits = bits;
+    }
+
+    /**
+     * Assign a bit to the field if it does not already have one
+     * @param field field name
+     * @return bit of the field
+     */
+    private long addField(String field) {
+        Long existing = fieldBits.get(field);
+        if (existing != null) {
+            return existing;
+        }
+        if (fieldBits.size() == MAX_FIELDS) {
+            throw new IllegalArgumentException("Too many fields in message schema");
+        }
+        long bit = 1L << fieldBits.size();
+        fieldBits.put(field, bit);
+        return bit;
+    }
+
+    /**
+     * Get the schema for the specified fields, building it on first use
+     * @param fields array of all the fields the message contains
+     * @return MessageSchema for those fields
+     */
+    public static MessageSchema of(String[] fields) {
+        MessageSchema schema = schemas.get(fields);
+        if (schema == null) {
+            schema = new MessageSchema(new String[][]{fields}, new String[0]);
+            schemas.put(fields, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * Get the schema for the specified fields that also accepts the optional fields, building it
+     * on first use. Each array of fields must always be used with the same optional fields.
+     * @param fields array of the fields the message must contain
+     * @param optionalFields array of the fields the message may contain
+     * @return MessageSchema for those fields
+     */
+    public static MessageSchema of(String[] fields, String[] optionalFields) {
+        MessageSchema schema = optionalSchemas.get(fields);
+        if (schema == null) {
+            schema = new MessageSchema(new String[][]{fields}, optionalFields);
+            optionalSchemas.put(fields, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * Build a schema that accepts the fields of any of the specified messages, used for parsing
+     * messages whose exact field set depends on their type
+     * @param fieldSets arrays of fields of each message
+     * @return MessageSchema accepting any of the fields
+     */
+    public static MessageSchema union(String[]... fieldSets) {
+        return new MessageSchema(fieldSets, new String[0]);
+    }
+
+    /**
+     * Build a schema that accepts the fields of any of the specified messages as well as the
+     * optional fields
+     * @param optionalFields array of fields any of the messages may contain
+     * @param fieldSets arrays of fields of each message
+     * @return MessageSchema accepting any of the fields
+     */
+    public static MessageSchema unionWithOptional(String[] optionalFields, String[]... fieldSets) {
+        return new MessageSchema(fieldSets, optionalFields);
+    }
+
+    /**
+     * Validate that the message contains all the required fields of this schema and no fields
+     * other than the required and optional fields
+     * @param msg message to validate
+     * @return true if valid, false if not
+     */
+    public boolean validate(JSONObject msg) {
+        long seen = 0;
+        Iterator<String> itr = msg.keys();
+        while (itr.hasNext()) {
+            String field = itr.next();
+            Long bit = fieldBits.get(field);
+            if (bit == null) {
+                Log.d(TAG, "Unexpected field :" + field);
+                return false;
+            }
+            seen |= bit;
+        }
+        if ((seen & requiredBits) != requiredBits) {
+            Log.d(TAG, "Missing fields");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse a message, reading it as a stream and rejecting it as soon as it is found to be
+     * oversized, or to contain a field that is not in this schema or is repeated. The message
+     * must still be validated to check that no fields are missing.
+     * @param data JSON string of the message
+     * @return JSONObject containing the message
+     * @throws JSONException if the message is oversized, malformed or contains invalid fields
+     */
+    public JSONObject parse(String data) throws JSONException {
+        if (data == null || data.length() > MAX_MESSAGE_LENGTH) {
+            throw new JSONException("Message missing or too large");
+        }
+        JsonReader reader = new JsonReader(new StringReader(data));
+        try {
+            JSONObject msg = new JSONObject();
+            long seen = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                Long bit = fieldBits.get(field);
+                if (bit == null) {
+                    throw new JSONException("Unexpected field :" + field);
+                }
+                if ((seen & bit) != 0) {
+                    throw new JSONException("Duplicate field :" + field);
+                }
+                seen |= bit;
+                msg.put(field, readValue(reader, 0));
+            }
+            reader.endObject();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JSONException("Unexpected data after message");
+            }
+            return msg;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException("Malformed message");
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                Log.d(TAG, "Exception closing reader", e);
+            }
+        }
+    }
+
+    /**
+     * Read a single value from the reader, materialising any nested objects or arrays
+     * @param reader reader positioned at the value
+     * @param depth current nesting depth
+     * @return value as a type understood by JSONObject
+     * @throws IOException
+     * @throws JSONException
+     */
+    private static Object readValue(JsonReader reader, int depth) throws IOException, JSONException {
+        if (depth > MAX_DEPTH) {
+            throw new JSONException("Message nested too deeply");
+        }
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject obj = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    obj.put(reader.nextName(), readValue(reader, depth + 1));
+                }
+                reader.endObject();
+                return obj;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader, depth + 1));
+                }
+                reader.endArray();
+                return array;
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+}
@@ -29,13 +29,20 @@ package com.castellate.compendium.protocol.messages;
 
 import static com.castellate.compendium.protocol.messages.Constants.ADR_PC;
 import static com.castellate.compendium.protocol.messages.Constants.DERIVED_KEY;
+import static com.castellate.compendium.protocol.messages.Constants.SIG_MODE;
+import static com.castellate.compendium.protocol.messages.Constants.SIG_MODE_FIELDS;
+import static com.castellate.compendium.protocol.messages.Constants.SIG_MODE_TRANSCRIPT;
 
 import android.util.Log;
 
 import com.castellate.compendium.crypto.B64;
 import com.castellate.compendium.crypto.CompanionKeyManager;
+import com.castellate.compendium.crypto.CryptoContext;
 import com.castellate.compendium.crypto.CryptoException;
-import com.castellate.compendium.crypto.CryptoUtils;
+import com.castellate.compendium.data.Config;
+import com.castellate.compendium.exceptions.StorageException;
+import com.castellate.compendium.protocol.ProtocolData;
+import com.castellate.compendium.protocol.Transcript;
 import com.castellate.compendium.protocol.error.ErrorProtocolMessage;
 import com.castellate.compendium.ws.WSMessages;
 
@@ -49,18 +56,14 @@ import java.security.NoSuchAlgorithmException;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.security.interfaces.ECPublicKey;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * Abstract ProtocolMessage that forms the base of all protocol messages in other protocols.
@@ -68,6 +71,9 @@ import javax.crypto.spec.SecretKeySpec;
  */
 public abstract class ProtocolMessage {
     private static final String TAG = "ProtocolMessage";
+    private static final String SYMMETRIC_ALG = "AES/GCM/NoPadding";
+    private static final String SIGNATURE_ALG = "SHA256withECDSA";
+    private static final String[] NO_OPTIONAL_FIELDS = new String[0];
     protected JSONObject msgData = new JSONObject();
 
     /**
@@ -75,7 +81,7 @@ public abstract class ProtocolMessage {
      * @param protocolData protocol data
      * @return Class representing this object
      */
-    public abstract Class<?> getClassObj(Map<String, String> protocolData);
+    public abstract Class<?> getClassObj(ProtocolData protocolData);
 
     /**
      * Get the ALL_FIELDS value of the inner Fields class. This represents all fields that are
@@ -84,6 +90,14 @@ public abstract class ProtocolMessage {
      */
     public abstract String[] getAllFields();
 
+    /**
+     * Get the OPTIONAL_FIELDS value of the inner Fields class, if it has one. These are fields
+     * that may appear in addition to ALL_FIELDS
+     * @return array of string field names, empty by default
+     */
+    public String[] getOptionalFields() {
+        return NO_OPTIONAL_FIELDS;
+    }
 
     /**
      * Construct a WebSocket compatible message from this ProtocolMessage so that it can be written
@@ -91,7 +105,7 @@ public abstract class ProtocolMessage {
      * @param protocolData map of protocol data
      * @return string containing a message to be written to the web socket
      */
-    public String getWebSocketMsg(Map<String, String> protocolData) {
+    public String getWebSocketMsg(ProtocolData protocolData) {
         return WSMessages.createRoute(protocolData.get(ADR_PC), msgData).toString();
     }
 
@@ -101,7 +115,7 @@ public abstract class ProtocolMessage {
      * @return true if processed successfully, false if not
      * @throws ProtocolMessageException
      */
-    public boolean processMessage(Map<String, String> protocolData) throws ProtocolMessageException {
+    public boolean processMessage(ProtocolData protocolData) throws ProtocolMessageException {
         if (VerifySignature.class.isAssignableFrom(getClassObj(protocolData))) {
             VerifySignature verifySig = (VerifySignature) this;
             verifySig.getPublicKey(protocolData);
@@ -124,12 +138,12 @@ public abstract class ProtocolMessage {
      * @return true if successfully processed, false if not
      * @throws ProtocolMessageException
      */
-    public boolean processSubMessages(Map<String, String> protocolData) throws ProtocolMessageException {
+    public boolean processSubMessages(ProtocolData protocolData) throws ProtocolMessageException {
         if (EmbeddedEncryptedMessage.class.isAssignableFrom(getClassObj(protocolData))) {
             EmbeddedEncryptedMessage embedded = ((EmbeddedEncryptedMessage) this);
             ProtocolMessage subMessage;
             try {
-                subMessage = decryptMessage(embedded.getEncryptedMsgField(), embedded.getEncryptedMessageClass(), protocolData);
+                subMessage = decryptMessage(embedded.getEncryptedMsgField(), embedded.getEncryptedMessageFactory(), protocolData);
             } catch (ProtocolMessageException e) {
                 Log.e(TAG, "Exception processing sub message", e);
                 return false;
@@ -147,7 +161,7 @@ public abstract class ProtocolMessage {
      * @return true if successful, false it not
      * @throws ProtocolMessageException
      */
-    public boolean prepareOutgoingMessage(Map<String, String> protocolData) throws ProtocolMessageException {
+    public boolean prepareOutgoingMessage(ProtocolData protocolData) throws ProtocolMessageException {
         getClassObj(protocolData);
         if (LoadProtocolData.class.isAssignableFrom(getClassObj(protocolData))) {
             addFromProtocolData(protocolData, ((LoadProtocolData) this).getLoadFields());
@@ -156,10 +170,10 @@ public abstract class ProtocolMessage {
             EmbeddedEncryptedMessage embedded = (EmbeddedEncryptedMessage) this;
             ProtocolMessage protoMessage = null;
             try {
-                protoMessage = (ProtocolMessage) embedded.getEncryptedMessageClass().newInstance();
+                protoMessage = embedded.getEncryptedMessageFactory().create();
                 protoMessage.prepareOutgoingMessage(protocolData);
                 msgData.put(embedded.getEncryptedMsgField(), encryptMessage(protoMessage, protocolData));
-            } catch (IllegalAccessException | InstantiationException | JSONException e) {
+            } catch (JSONException e) {
                 throw new ProtocolMessageException("Exception creating embedded encrypted message", e);
             } catch (ProtocolErrorPreKeyException e) {
                 //Extra security check to make sure this is only an Error Message
@@ -219,26 +233,51 @@ public abstract class ProtocolMessage {
     }
 
     /**
-     * Parse string data by first converting to JSON and then calling parse
+     * Parse string data by streaming it into JSON, rejecting any fields not in the parse schema,
+     * and then calling parse
      * @param data string of JSON data to parse
      * @return true if successful, false if not
      */
     public boolean parse(String data) {
         try {
-            return parse(new JSONObject(data));
+            return parse(getParseSchema().parse(data));
         } catch (JSONException e) {
+            Log.d(TAG, "Exception parsing message", e);
             return false;
         }
     }
 
     /**
-     * Parse the JSONObject data and check it is valid against the ALL_FIELDS value
+     * Get the schema used when parsing this message from a string. By default this is the schema
+     * of ALL_FIELDS, messages whose fields depend on their type should override this to accept
+     * the fields of any of the types.
+     * @return MessageSchema to parse with
+     */
+    protected MessageSchema getParseSchema() {
+        return getMessageSchema();
+    }
+
+    /**
+     * Get the schema of ALL_FIELDS and any OPTIONAL_FIELDS of this message
+     * @return MessageSchema of this message
+     */
+    private MessageSchema getMessageSchema() {
+        String[] optionalFields = getOptionalFields();
+        if (optionalFields.length == 0) {
+            return MessageSchema.of(getAllFields());
+        }
+        return MessageSchema.of(getAllFields(), optionalFields);
+    }
+
+    /**
+     * Parse the JSONObject data and check it is valid against the ALL_FIELDS value and any
+     * OPTIONAL_FIELDS
      * @param data JSONObject of message data
      * @return true if valid, false if not
      */
     public boolean parse(JSONObject data) {
         msgData = data;
-        return this.validate(getAllFields());
+        return getMessageSchema().validate(msgData);
 
     }
 
@@ -248,7 +287,7 @@ public abstract class ProtocolMessage {
      * @param fields list of string field names to retrieve from protocol data and load into message
      * @throws ProtocolMessageException
      */
-    protected void addFromProtocolData(Map<String, String> protocolData, String... fields) throws ProtocolMessageException {
+    protected void addFromProtocolData(ProtocolData protocolData, String... fields) throws ProtocolMessageException {
         for (String field : fields) {
             try {
                 msgData.put(field, protocolData.get(field));
@@ -263,7 +302,7 @@ public abstract class ProtocolMessage {
      * @param protocolData map of name value pairs of protocol data
      * @param fields list of fields to save into protocol data map
      */
-    protected void addToProtocolData(Map<String, String> protocolData, String... fields) {
+    protected void addToProtocolData(ProtocolData protocolData, String... fields) {
         for (String field : fields) {
             if (field.contains(":")) {
                 String[] rename = field.split(":");
@@ -282,48 +321,126 @@ public abstract class ProtocolMessage {
      * @return true if valid, false if not
      */
     protected boolean validate(String[] fields) {
-        Set<String> allFields = new HashSet<>();
-        for (String field : fields) {
-            if (!msgData.has(field)) {
-                Log.d(TAG, "Missing field :" + field);
-                return false;
+        return MessageSchema.of(fields).validate(msgData);
+    }
+
+    /**
+     * Negotiate the signature mode offered by the PC in the key request that starts a protocol
+     * run. If the transcript mode was offered and is the preferred mode, the transcript is started
+     * with the signature fields of the request followed by the mode, and the mode is stored so
+     * that it is returned in the response. Otherwise the fields of each message continue to be
+     * signed individually.
+     * @param fields signature fields of the request, already verified and stored
+     * @param protocolData map of protocol data
+     * @throws ProtocolMessageException
+     */
+    protected void negotiateSignatureMode(String[] fields, ProtocolData protocolData) throws ProtocolMessageException {
+        if (!SIG_MODE_TRANSCRIPT.equals(get(SIG_MODE)) || !SIG_MODE_TRANSCRIPT.equals(getPreferredSignatureMode())) {
+            return;
+        }
+        try {
+            Transcript transcript = protocolData.startTranscript();
+            for (String field : fields) {
+                String value = getSignatureValue(field, protocolData);
+                if (value != null) {
+                    transcript.absorb(field, value);
+                }
             }
-            allFields.add(field);
+            transcript.absorb(SIG_MODE, SIG_MODE_TRANSCRIPT);
+            protocolData.put(SIG_MODE, SIG_MODE_TRANSCRIPT);
+        } catch (CryptoException | JSONException e) {
+            throw new ProtocolMessageException("Exception starting transcript", e);
         }
-        Iterator<String> itr = msgData.keys();
-        while (itr.hasNext()) {
-            String field = itr.next();
-            if (!allFields.contains(field)) {
-                Log.d(TAG, "Missing field :" + field);
-                return false;
+    }
+
+    /**
+     * Get the preferred signature mode from the config, defaulting to signing the fields
+     * @return name of the preferred signature mode
+     */
+    private static String getPreferredSignatureMode() {
+        try {
+            String mode = Config.getInstance().get(Config.SIGNATURE_MODE);
+            if (mode != null) {
+                return mode;
             }
+        } catch (StorageException e) {
+            Log.d(TAG, "Signature mode not configured, signing fields");
         }
-        return true;
+        return SIG_MODE_FIELDS;
+    }
+
+    /**
+     * Add the signature fields to the signature. In the transcript mode the fields are absorbed
+     * into the transcript and its digest is added, otherwise the UTF-8 bytes of each field are
+     * added. Values are taken from the message first, and if they don't exist, from protocol data
+     * @param sig initialised Signature
+     * @param fields array of string fields to add
+     * @param protocolData map of protocol data to load data from if necessary
+     * @param transcript transcript to absorb the fields into, or null if not in transcript mode
+     * @throws JSONException
+     * @throws SignatureException
+     * @throws CryptoException
+     */
+    private void updateSignature(Signature sig, String[] fields, ProtocolData protocolData, Transcript transcript) throws JSONException, SignatureException, CryptoException {
+        for (String field : fields) {
+            String value = getSignatureValue(field, protocolData);
+            if (value == null) {
+                continue;
+            }
+            if (transcript != null) {
+                transcript.absorb(field, value);
+            } else {
+                sig.update(value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        if (transcript != null) {
+            sig.update(transcript.digest());
+        }
+    }
+
+    /**
+     * Get the value of a signature field from the message, or if it doesn't exist, from
+     * protocol data
+     * @param field name of field
+     * @param protocolData map of protocol data
+     * @return value of the field or null if it is in neither
+     * @throws JSONException
+     */
+    private String getSignatureValue(String field, ProtocolData protocolData) throws JSONException {
+        if (msgData.has(field)) {
+            return msgData.getString(field);
+        } else if (protocolData.containsKey(field)) {
+            return Objects.requireNonNull(protocolData.get(field));
+        }
+        return null;
     }
 
     /**
      * Verifies the signature of a message creating the message digest from the values in the
-     * message first, and if they don't exist, loading them protocol data
+     * message first, and if they don't exist, loading them protocol data. In the transcript mode
+     * the fields are absorbed into a copy of the transcript, which replaces the transcript of the
+     * run only if the signature is valid.
      * @param signature Base64 encoded signature
      * @param key Base64 encoded public key
      * @param fields array of string fields to add to the message digest
      * @param protocolData map of protocol data to load data from if necessary
      * @return true if valid, false if not
      */
-    public boolean verifySignature(String signature, String key, String[] fields, Map<String, String> protocolData) {
+    public boolean verifySignature(String signature, String key, String[] fields, ProtocolData protocolData) {
         try {
-            ECPublicKey publicKey = CryptoUtils.getPublicKey(key);
+            ECPublicKey publicKey = protocolData.getIdentityKey(key);
             byte[] signatureBytes = B64.decode(signature);
-            Signature sig = Signature.getInstance("SHA256withECDSA");
+            Signature sig = CryptoContext.get().getVerifier(SIGNATURE_ALG);
             sig.initVerify(publicKey);
-            for (String field : fields) {
-                if (msgData.has(field)) {
-                    sig.update(msgData.getString(field).getBytes(StandardCharsets.UTF_8));
-                } else if (protocolData.containsKey(field)) {
-                    sig.update(Objects.requireNonNull(protocolData.get(field)).getBytes(StandardCharsets.UTF_8));
-                }
+            Transcript transcript = copyTranscript(protocolData);
+            updateSignature(sig, fields, protocolData, transcript);
+            if (!sig.verify(signatureBytes)) {
+                return false;
             }
-            return sig.verify(signatureBytes);
+            if (transcript != null) {
+                protocolData.setTranscript(transcript);
+            }
+            return true;
         } catch (CryptoException | NoSuchAlgorithmException | InvalidKeyException | SignatureException | JSONException e) {
             return false;
         }
@@ -331,29 +448,39 @@ public abstract class ProtocolMessage {
 
     }
 
+    /**
+     * Copy the transcript of the run, so that fields are only absorbed into the transcript once
+     * the signature they are part of has been created or verified
+     * @param protocolData protocol data holding the transcript
+     * @return copy of the transcript or null if not in transcript mode
+     * @throws CryptoException if the transcript cannot be copied
+     */
+    private static Transcript copyTranscript(ProtocolData protocolData) throws CryptoException {
+        Transcript transcript = protocolData.getTranscript();
+        return transcript == null ? null : transcript.copy();
+    }
+
     /**
      * Signs the message, creating the signature from value in the message first, but if they don't
-     * exist will look in protocol data second.
+     * exist will look in protocol data second. In the transcript mode the transcript of the run is
+     * only updated once the signature has been created.
      *
      * @param signatureField field name of field to store signature in
      * @param signatureFields array of string field name to add to message digest
      * @param protocolData protocol data to load data from if necessary
      * @throws ProtocolMessageException
      */
-    public void signMessage(String signatureField, String[] signatureFields, Map<String, String> protocolData) throws ProtocolMessageException {
+    public void signMessage(String signatureField, String[] signatureFields, ProtocolData protocolData) throws ProtocolMessageException {
         try {
-            CompanionKeyManager ckm = new CompanionKeyManager();
-            Signature sig = Signature.getInstance("SHA256withECDSA");
-            sig.initSign(ckm.getOrCreateIdentityKey().getPrivate());
-            for (String field : signatureFields) {
-                if (msgData.has(field)) {
-                    sig.update(msgData.getString(field).getBytes(StandardCharsets.UTF_8));
-                } else if (protocolData.containsKey(field)) {
-                    sig.update(Objects.requireNonNull(protocolData.get(field)).getBytes(StandardCharsets.UTF_8));
-                }
-            }
+            Signature sig = CryptoContext.get().getIdentitySigner(SIGNATURE_ALG);
+            sig.initSign(CompanionKeyManager.getInstance().getOrCreateIdentityKey().getPrivate());
+            Transcript transcript = copyTranscript(protocolData);
+            updateSignature(sig, signatureFields, protocolData, transcript);
             byte[] sigBytes = sig.sign();
             msgData.put(signatureField, B64.encode(sigBytes));
+            if (transcript != null) {
+                protocolData.setTranscript(transcript);
+            }
         } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException | JSONException | CryptoException e) {
             throw new ProtocolMessageException("Exception generating signature", e);
         }
@@ -364,25 +491,25 @@ public abstract class ProtocolMessage {
     /**
      * Decrypt a message and instantiates a new ProtocolMessage class of the appropriate type
      * @param encryptedMessageField field name containing encrypted message
-     * @param messageClass class of plaintext message to be instantiated after decryption
+     * @param messageFactory factory of plaintext message to be instantiated after decryption
      * @param protocolData map of protocol data
-     * @return ProtocolMessage of type specified in messageClass instantied with decrypted data
+     * @return ProtocolMessage created by messageFactory instantied with decrypted data
      * @throws ProtocolMessageException
      */
-    public ProtocolMessage decryptMessage(String encryptedMessageField, Class<?> messageClass, Map<String, String> protocolData) throws ProtocolMessageException {
+    public ProtocolMessage decryptMessage(String encryptedMessageField, MessageFactory messageFactory, ProtocolData protocolData) throws ProtocolMessageException {
         try {
             EncryptedMessage encryptedMessage = new EncryptedMessage(getJSON(encryptedMessageField));
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            Cipher cipher = CryptoContext.get().getCipher(SYMMETRIC_ALG);
             byte[] cipherText = encryptedMessage.getCipher();
             GCMParameterSpec params = new GCMParameterSpec(128, encryptedMessage.getIV());
-            byte[] key = B64.decode(protocolData.get(DERIVED_KEY));
-            SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-
-
-            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, params);
+            SecretKey secretKey = protocolData.getSecretKey(DERIVED_KEY);
+            if (secretKey == null) {
+                throw new ProtocolMessageException("No derived key available");
+            }
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, params);
             byte[] plaintext = cipher.doFinal(cipherText);
 
-            ProtocolMessage protoMessage = (ProtocolMessage) messageClass.newInstance();
+            ProtocolMessage protoMessage = messageFactory.create();
             if (protoMessage == null) {
                 throw new ProtocolMessageException("Cannot decode encrypted message");
             }
@@ -392,7 +519,7 @@ public abstract class ProtocolMessage {
             return protoMessage;
 
 
-        } catch (BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException | IllegalAccessException | InstantiationException | NoSuchAlgorithmException | NoSuchPaddingException e) {
+        } catch (BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException e) {
             throw new ProtocolMessageException("Decryption failed", e);
         }
     }
@@ -406,15 +533,14 @@ public abstract class ProtocolMessage {
      * @throws ProtocolMessageException
      * @throws ProtocolErrorPreKeyException
      */
-    public JSONObject encryptMessage(ProtocolMessage protocolMessage, Map<String, String> protocolData) throws ProtocolMessageException, ProtocolErrorPreKeyException {
-        if (protocolData.get(DERIVED_KEY) == null && ProtocolMessage.class.isAssignableFrom(ErrorProtocolMessage.class)) {
+    public JSONObject encryptMessage(ProtocolMessage protocolMessage, ProtocolData protocolData) throws ProtocolMessageException, ProtocolErrorPreKeyException {
+        if (!protocolData.containsKey(DERIVED_KEY) && ProtocolMessage.class.isAssignableFrom(ErrorProtocolMessage.class)) {
             Log.d(TAG, "Error before key derivation");
             throw new ProtocolErrorPreKeyException("Cannot encrypt error message as the key is yet to be established");
         }
         try {
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            SecretKeySpec secretKeySpec = CryptoUtils.getSecretKey(protocolData.get(DERIVED_KEY));
-            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec);
+            Cipher cipher = CryptoContext.get().getCipher(SYMMETRIC_ALG);
+            cipher.init(Cipher.ENCRYPT_MODE, protocolData.getSecretKey(DERIVED_KEY));
             byte[] cipherText = cipher.doFinal(protocolMessage.getString().getBytes(StandardCharsets.UTF_8));
             byte[] iv = cipher.getIV();
             return (new EncryptedMessage(cipherText, iv)).getDataObj();
@@ -27,7 +27,8 @@
 
 package com.castellate.compendium.protocol.messages;
 
-import java.util.Map;
+import com.castellate.compendium.protocol.ProtocolData;
+
 
 /**
  * Signifies a message should have a signature verified
@@ -51,5 +52,5 @@ public interface VerifySignature {
      * @return Base64 string of the public key
      * @throws ProtocolMessageException
      */
-    String getPublicKey(Map<String, String> protocolData) throws ProtocolMessageException;
+    String getPublicKey(ProtocolData protocolData) throws ProtocolMessageException;
 }
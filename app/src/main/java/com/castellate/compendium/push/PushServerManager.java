@@ -36,7 +36,6 @@ import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.toolbox.JsonObjectRequest;
 import com.android.volley.toolbox.Volley;
-import com.castellate.compendium.crypto.B64;
 import com.castellate.compendium.crypto.CompanionKeyManager;
 import com.castellate.compendium.crypto.CryptoException;
 import com.castellate.compendium.data.Config;
@@ -122,8 +121,8 @@ public class PushServerManager {
     public static void sendTokenToServer(String token, Context context) throws CryptoException, StorageException {
         // creating a new variable for our request queue
         try {
-            CompanionKeyManager ckm = new CompanionKeyManager();
-            KeyPair kp = ckm.getOrCreateIdentityKey();
+            CompanionKeyManager.IdentityMaterial identity = CompanionKeyManager.getInstance().getIdentity();
+            KeyPair kp = identity.getKeyPair();
             KeyFactory factory;
             KeyInfo keyInfo;
 
@@ -131,7 +130,7 @@ public class PushServerManager {
             keyInfo = factory.getKeySpec(kp.getPrivate(), KeyInfo.class);
             Log.d(TAG, "SecureHardware:" + keyInfo.isInsideSecureHardware());
 
-            String pubKey = B64.encode(kp.getPublic().getEncoded());
+            String pubKey = identity.getEncodedPublicKey();
             RequestQueue queue = Volley.newRequestQueue(context);
             String url = Config.getInstance().get(Config.WSS_REGISTER);
 
@@ -0,0 +1,265 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.ui;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.recyclerview.widget.ListAdapter;
+
+import com.castellate.compendium.data.Page;
+import com.castellate.compendium.exceptions.StorageException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the items shown by a ListAdapter a page at a time. Pages are queried on a background
+ * thread and appended to the loaded items on the main thread, with the next page requested when
+ * an item near the end of the loaded items is bound. Each change to the loaded items is submitted
+ * to the ListAdapter, whose AsyncListDiffer calculates the difference off the main thread, so only
+ * the rows that changed are rebound.
+ *
+ * The loaded items are always the first items of the sorted query, so individual additions and
+ * removals can be applied without reloading. Each item is given a stable ID from its key for the
+ * life of the loader. All methods must be called on the main thread.
+ * @param <T> type of the items
+ */
+public class PagedListLoader<T> {
+    private static final String TAG = "PagedListLoader";
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<T> items = new ArrayList<>();
+    private final Set<String> loadedKeys = new HashSet<>();
+    private final Map<String, Long> stableIds = new HashMap<>();
+    private final ListAdapter<T, ?> adapter;
+    private final PageSource<T> source;
+    private final int pageSize;
+    private final ItemKey<T> itemKey;
+    private final Comparator<T> order;
+    private boolean loading = false;
+    private boolean complete = false;
+    private int generation = 0;
+    private long nextId = 0;
+
+    /**
+     * Source of the pages to load, called on a background thread
+     * @param <T> type of the items
+     */
+    public interface PageSource<T> {
+        /**
+         * Load a page of items
+         * @param offset offset of the first item
+         * @param limit maximum number of items
+         * @return Page of items
+         * @throws StorageException
+         */
+        Page<T> load(int offset, int limit) throws StorageException;
+    }
+
+    /**
+     * Provides the unique key of an item
+     * @param <T> type of the items
+     */
+    public interface ItemKey<T> {
+        /**
+         * Get the key of the item
+         * @param item item to get the key of
+         * @return unique key of the item
+         */
+        String of(T item);
+    }
+
+    /**
+     * Create a new loader and request the first page
+     * @param adapter adapter to submit the loaded items to
+     * @param source source of the pages
+     * @param pageSize number of items to load in each page
+     * @param itemKey provides the unique key of each item
+     * @param order order of the items returned by the source
+     */
+    public PagedListLoader(ListAdapter<T, ?> adapter, PageSource<T> source, int pageSize, ItemKey<T> itemKey, Comparator<T> order) {
+        this.adapter = adapter;
+        this.source = source;
+        this.pageSize = pageSize;
+        this.itemKey = itemKey;
+        this.order = order;
+        loadMore();
+    }
+
+    /**
+     * Called when the item at a position is bound, requesting the next page if the item is in
+     * the last quarter of the loaded items
+     * @param position position of the bound item
+     */
+    public void onBind(int position) {
+        if (position >= items.size() - pageSize / 4) {
+            loadMore();
+        }
+    }
+
+    /**
+     * Get the stable ID of an item, which is allocated from its key the first time it is seen
+     * @param item item to get the ID of
+     * @return stable ID
+     */
+    public long getStableId(T item) {
+        String key = itemKey.of(item);
+        Long id = stableIds.get(key);
+        if (id == null) {
+            id = nextId++;
+            stableIds.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Request the next page if there is one and it is not already being loaded
+     */
+    public void loadMore() {
+        if (loading || complete) {
+            return;
+        }
+        loading = true;
+        final int offset = items.size();
+        final int requestGeneration = generation;
+        executor.execute(() -> {
+            Page<T> page = null;
+            try {
+                page = source.load(offset, pageSize);
+            } catch (StorageException e) {
+                Log.d(TAG, "Exception loading page", e);
+            }
+            final Page<T> result = page;
+            mainHandler.post(() -> onPageLoaded(requestGeneration, result));
+        });
+    }
+
+    /**
+     * Append a loaded page, ignoring pages requested before a reload and any items already
+     * added by a change whilst the page was loading
+     * @param requestGeneration generation the page was requested in
+     * @param page loaded page or null if loading failed
+     */
+    private void onPageLoaded(int requestGeneration, Page<T> page) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        loading = false;
+        if (page == null) {
+            return;
+        }
+        for (T item : page.getItems()) {
+            if (loadedKeys.add(itemKey.of(item))) {
+                items.add(item);
+            }
+        }
+        complete = !page.hasMore() || page.getItems().isEmpty();
+        submit();
+    }
+
+    /**
+     * Apply an item that has been added to, or replaced in, the underlying data. The item is
+     * inserted in order if it falls within the loaded items, otherwise it will be loaded with a
+     * later page.
+     * @param item item that was added
+     */
+    public void itemAdded(T item) {
+        removeLoaded(itemKey.of(item));
+        int position = Collections.binarySearch(items, item, order);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        if (position == items.size() && !complete) {
+            submit();
+            return;
+        }
+        items.add(position, item);
+        loadedKeys.add(itemKey.of(item));
+        submit();
+    }
+
+    /**
+     * Apply an item that has been removed from the underlying data
+     * @param key key of the item that was removed
+     */
+    public void itemRemoved(String key) {
+        if (removeLoaded(key)) {
+            submit();
+        }
+    }
+
+    /**
+     * Remove a loaded item by its key
+     * @param key key of the item to remove
+     * @return true if an item was removed, false if it was not loaded
+     */
+    private boolean removeLoaded(String key) {
+        if (!loadedKeys.remove(key)) {
+            return false;
+        }
+        for (int i = 0; i < items.size(); i++) {
+            if (itemKey.of(items.get(i)).equals(key)) {
+                items.remove(i);
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Submit a copy of the loaded items to the adapter to be diffed against the current list
+     */
+    private void submit() {
+        adapter.submitList(new ArrayList<>(items));
+    }
+
+    /**
+     * Discard the loaded items and load again from the first page, for example after all the
+     * underlying data has changed
+     */
+    public void reload() {
+        generation++;
+        items.clear();
+        loadedKeys.clear();
+        loading = false;
+        complete = false;
+        submit();
+        loadMore();
+    }
+}
@@ -30,7 +30,8 @@ package com.castellate.compendium.ui.apps;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.os.Bundle;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -49,19 +50,19 @@ import com.castellate.compendium.R;
 import com.castellate.compendium.crypto.CompanionKeyManager;
 import com.castellate.compendium.crypto.CryptoException;
 import com.castellate.compendium.data.IdentityStore;
+import com.castellate.compendium.data.StoreChange;
+import com.castellate.compendium.data.StoreChangeListener;
 import com.castellate.compendium.exceptions.StorageException;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * A fragment that lists registered Apps
  */
 public class AppsFragment extends Fragment implements AppItemClickedListener {
     private static final String TAG = "AppsFragment";
     private String keyId;
-    private List<AppItem> data;
     private AppsListRecyclerViewAdapter adapter;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final StoreChangeListener changeListener = change -> mainHandler.post(() -> onStoreChanged(change));
     /**
      * Create a new Apps Fragment
      */
@@ -98,17 +99,47 @@ public class AppsFragment extends Fragment implements AppItemClickedListener {
                     ((LinearLayoutManager)recyclerView.getLayoutManager()).getOrientation());
             recyclerView.addItemDecoration(dividerItemDecoration);
 
-
-            data=new ArrayList<>();
-            try {
-                data = IdentityStore.getInstance().getKeyNameAppEntries(this.keyId);
-            }catch(StorageException e){
-                Log.d(TAG,"Exception getting data list");
-            }
-
+            //Apps are loaded a page at a time off the main thread
+            final String pageKeyId = this.keyId;
             int selectColor = getResources().getColor(R.color.sccsColour, null);
-            adapter=new AppsListRecyclerViewAdapter(data,this,selectColor);
+            adapter=new AppsListRecyclerViewAdapter((offset, limit) -> IdentityStore.getInstance().queryApps(pageKeyId, null, offset, limit), this, selectColor);
             recyclerView.setAdapter(adapter);
+            IdentityStore.getInstance().addChangeListener(changeListener);
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        IdentityStore.getInstance().removeChangeListener(changeListener);
+        adapter = null;
+        super.onDestroyView();
+    }
+
+    /**
+     * Apply a change to the IdentityStore to the list, on the main thread. Only changes to the
+     * apps of the PC being shown are applied.
+     * @param change change that was made
+     */
+    private void onStoreChanged(StoreChange change) {
+        if (adapter == null) {
+            return;
+        }
+        switch (change.getType()) {
+            case APP_ADDED:
+                if (keyId.equals(change.getKeyId())) {
+                    adapter.itemAdded(new AppItem(change.getName(), change.getAppType()));
+                }
+                break;
+            case APP_REMOVED:
+                if (keyId.equals(change.getKeyId())) {
+                    adapter.itemRemoved(change.getName());
+                }
+                break;
+            case RESET:
+                adapter.reload();
+                break;
+            default:
+                break;
         }
     }
 
@@ -143,22 +174,11 @@ public class AppsFragment extends Fragment implements AppItemClickedListener {
                             e.printStackTrace();
                         }
                         try {
-                            CompanionKeyManager ckm = new CompanionKeyManager();
+                            CompanionKeyManager ckm = CompanionKeyManager.getInstance();
                             ckm.deleteKey(keyId + ":" + item.getName());
                         } catch (CryptoException e) {
                             e.printStackTrace();
                         }
-                        List<AppItem> updatedList=new ArrayList<>();
-                        try {
-                            updatedList = IdentityStore.getInstance().getKeyNameAppEntries(keyId);
-                        }catch(StorageException e){
-                            Log.d(TAG,"Exception getting data list");
-                        }
-                        data.clear();
-                        data.addAll(updatedList);
-                        Log.d(TAG,data.toString());
-
-                        adapter.notifyDataSetChanged();
                     }})
                 .setNegativeButton(android.R.string.no, null).show();
 
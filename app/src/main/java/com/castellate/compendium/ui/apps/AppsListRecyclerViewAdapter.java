@@ -35,30 +35,45 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.castellate.compendium.data.IdentityStore;
 import com.castellate.compendium.databinding.FragmentAppsItemBinding;
-
-import java.util.List;
+import com.castellate.compendium.ui.PagedListLoader;
 
 /**
  * Recycler view for Apps list
  */
-public class AppsListRecyclerViewAdapter extends RecyclerView.Adapter<AppsListRecyclerViewAdapter.ViewHolder> {
+public class AppsListRecyclerViewAdapter extends ListAdapter<AppItem, AppsListRecyclerViewAdapter.ViewHolder> {
 
     private static final String TAG = "AppsListRecyclerViewAdapter";
-    private final List<AppItem> mValues;
+    private static final DiffUtil.ItemCallback<AppItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<AppItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull AppItem oldItem, @NonNull AppItem newItem) {
+            return oldItem.getName().equals(newItem.getName());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull AppItem oldItem, @NonNull AppItem newItem) {
+            return oldItem.getName().equals(newItem.getName()) && oldItem.getType().equals(newItem.getType());
+        }
+    };
+    private final PagedListLoader<AppItem> mValues;
     private AppItemClickedListener listener;
     private int selectColor;
 
     /**
      * Create new Apps List Recycler view
-     * @param items list of AppItems to show
+     * @param source source of the pages of AppItems to show
      * @param listener listener for click events
      * @param selectColor background colour to set when item is selected
      */
-    public AppsListRecyclerViewAdapter(List<AppItem> items, AppItemClickedListener listener, int selectColor) {
-        mValues = items;
+    public AppsListRecyclerViewAdapter(PagedListLoader.PageSource<AppItem> source, AppItemClickedListener listener, int selectColor) {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
+        mValues = new PagedListLoader<>(this, source, PagedListLoader.DEFAULT_PAGE_SIZE, AppItem::getName, (a, b) -> IdentityStore.compareNames(a.getName(), b.getName()));
         this.listener = listener;
         this.selectColor = selectColor;
     }
@@ -73,8 +88,9 @@ public class AppsListRecyclerViewAdapter extends RecyclerView.Adapter<AppsListRe
 
     @Override
     public void onBindViewHolder(final ViewHolder holder, int position) {
-        holder.mItem = mValues.get(position);
-        holder.mContentView.setText(mValues.get(position).getName());
+        holder.mItem = getItem(position);
+        mValues.onBind(position);
+        holder.mContentView.setText(holder.mItem.getName());
 
         holder.mImageButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -88,8 +104,31 @@ public class AppsListRecyclerViewAdapter extends RecyclerView.Adapter<AppsListRe
     }
 
     @Override
-    public int getItemCount() {
-        return mValues.size();
+    public long getItemId(int position) {
+        return mValues.getStableId(getItem(position));
+    }
+
+    /**
+     * Reload the items from the first page, after all the underlying data has changed
+     */
+    public void reload() {
+        mValues.reload();
+    }
+
+    /**
+     * Show an item that has been added or replaced
+     * @param item AppItem that was added
+     */
+    public void itemAdded(AppItem item) {
+        mValues.itemAdded(item);
+    }
+
+    /**
+     * Remove an item that has been deleted
+     * @param name name of the AppItem that was removed
+     */
+    public void itemRemoved(String name) {
+        mValues.itemRemoved(name);
     }
 
     /**
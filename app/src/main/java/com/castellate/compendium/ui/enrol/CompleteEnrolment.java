@@ -47,6 +47,7 @@ import androidx.navigation.fragment.NavHostFragment;
 import androidx.transition.Slide;
 
 import com.castellate.compendium.CompanionDevice;
+import com.castellate.compendium.ProtocolSession;
 import com.castellate.compendium.R;
 import com.castellate.compendium.data.IdentityStore;
 import com.castellate.compendium.exceptions.StorageException;
@@ -72,6 +73,7 @@ public class CompleteEnrolment extends Fragment {
 
     private int newDeviceIdx = 1;
     private CompanionDevice companionDevice;
+    private ProtocolSession session;
     private boolean inError = false;
 
     /**
@@ -95,7 +97,7 @@ public class CompleteEnrolment extends Fragment {
         String deviceId = prefs.getString("id", android.os.Build.MODEL);
         newDeviceIdx = prefs.getInt("deviceCounter", 1);
 
-        companionDevice = new CompanionDevice(deviceId);
+        companionDevice = CompanionDevice.getInstance(deviceId);
 
     }
 
@@ -181,8 +183,10 @@ public class CompleteEnrolment extends Fragment {
         if (inError) {
             return;
         }
-        companionDevice.setProtocolInError(102, customText);
-        companionDevice.reset();
+        if (session != null) {
+            session.setProtocolInError(102, customText);
+            session.reset();
+        }
         View view = getView();
         if (view == null) {
             Log.d(TAG, "Cannot display error because there is no view");
@@ -225,7 +229,7 @@ public class CompleteEnrolment extends Fragment {
 
         view.findViewById(R.id.confirm_button).setEnabled(false);
         view.findViewById(R.id.cancel_enrolment).setEnabled(false);
-        companionDevice.updateFromUI(null);
+        session.updateFromUI(null);
 
     }
 
@@ -242,8 +246,10 @@ public class CompleteEnrolment extends Fragment {
             confirmButton.setEnabled(false);
         }
         viewButton.setEnabled(false);
-        companionDevice.setProtocolInError(103, "Enrolment Rejected by User");
-        companionDevice.reset();
+        if (session != null) {
+            session.setProtocolInError(103, "Enrolment Rejected by User");
+            session.reset();
+        }
         GifDrawable drawable = (GifDrawable) ((GifImageView) view.findViewById(R.id.failed)).getDrawable();
         drawable.addAnimationListener(loopNumber -> {
             final Handler handler = new Handler();
@@ -265,9 +271,9 @@ public class CompleteEnrolment extends Fragment {
 
         if (protocolState.equals("INIT_WSS")) {
             IdentityStore identityStore = IdentityStore.getInstance();
-            if (identityStore.hasPublicIdentity(companionDevice.getProtocolData(Constants.HASH_PC_PUBLIC_KEY))) {
+            if (identityStore.hasPublicIdentity(session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY))) {
                 showDuplicateError();
-                companionDevice.setProtocolInError(101, "Duplicate Enrolment Attempt");
+                session.setProtocolInError(101, "Duplicate Enrolment Attempt");
 
             }
         }
@@ -281,7 +287,7 @@ public class CompleteEnrolment extends Fragment {
     private void updateProgress(Protocol.STATUS protocolStatus) {
         View view = getView();
         if (protocolStatus != Protocol.STATUS.IDLE) {
-            ((CircularProgressIndicator) Objects.requireNonNull(view).findViewById(R.id.progress_spinner)).setProgress(companionDevice.getProgress(), true);
+            ((CircularProgressIndicator) Objects.requireNonNull(view).findViewById(R.id.progress_spinner)).setProgress(session.getProgress(), true);
         }
     }
 
@@ -295,8 +301,8 @@ public class CompleteEnrolment extends Fragment {
         Log.d(TAG, "Protocol finished will write out data");
         IdentityStore identityStore = IdentityStore.getInstance();
         String deviceNameStr = ((EditText) Objects.requireNonNull(view).findViewById(R.id.device_name)).getText().toString();
-        identityStore.storePublicIdentity(deviceNameStr, companionDevice.getProtocolData(Constants.PC_PUBLIC_KEY));
-        companionDevice.reset();
+        identityStore.storePublicIdentity(deviceNameStr, session.getProtocolData(Constants.PC_PUBLIC_KEY));
+        session.reset();
 
         GifDrawable drawable = (GifDrawable) ((GifImageView) view.findViewById(R.id.complete)).getDrawable();
         drawable.addAnimationListener(loopNumber -> {
@@ -318,9 +324,11 @@ public class CompleteEnrolment extends Fragment {
      * @throws StorageException
      */
     private void protocolStatusUpdate(Protocol.STATUS status) throws StorageException {
+        if (session == null) {
+            return;
+        }
 
-
-        String protocolState = companionDevice.getCurrentStateOfProtocol();
+        String protocolState = session.getCurrentStateOfProtocol();
         Log.d(TAG, "ProtocolStatus:" + status);
         Log.d(TAG, "ProtocolState:" + protocolState);
         updateProgress(status);
@@ -342,7 +350,6 @@ public class CompleteEnrolment extends Fragment {
         view.findViewById(R.id.ok_error_button).setOnClickListener(viewButton -> NavHostFragment.findNavController(CompleteEnrolment.this).navigate(R.id.action_completeEnrolment_to_HomeFragment));
         view.findViewById(R.id.cancel_enrolment).setOnClickListener(this::cancelClicked);
         CompleteEnrolmentViewModel completeEnrolModel = new ViewModelProvider(requireActivity()).get(CompleteEnrolmentViewModel.class);
-        companionDevice.setProtocolViewModel(completeEnrolModel);
         completeEnrolModel.getProtocolStatus().observe(getViewLifecycleOwner(), status -> {
             try {
                 protocolStatusUpdate(status);
@@ -373,11 +380,12 @@ public class CompleteEnrolment extends Fragment {
         EnrolProtocol enrolProtocol = new EnrolProtocol();
         enrolProtocol.setProtocolViewModel(completeEnrolModel);
         try {
-            companionDevice.runProtocol(enrolProtocol);
+            session = companionDevice.runProtocol(enrolProtocol);
         } catch (ProtocolException e) {
             Log.d(TAG, "Exception starting protocol", e);
             showGenericError();
+            return;
         }
-        companionDevice.processMessage((String) item);
+        session.processMessage((String) item);
     }
 }
\ No newline at end of file
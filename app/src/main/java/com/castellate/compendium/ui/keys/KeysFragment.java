@@ -29,6 +29,8 @@ package com.castellate.compendium.ui.keys;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -45,16 +47,17 @@ import androidx.transition.Slide;
 
 import com.castellate.compendium.R;
 import com.castellate.compendium.data.IdentityStore;
-import com.castellate.compendium.exceptions.StorageException;
-
-import java.util.ArrayList;
-import java.util.List;
+import com.castellate.compendium.data.StoreChange;
+import com.castellate.compendium.data.StoreChangeListener;
 
 /**
  * A fragment representing a list of keys, specifically KeyItems
  */
 public class KeysFragment extends Fragment implements KeyItemClickedListener{
     private static final String TAG = "KeysFragment";
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final StoreChangeListener changeListener = change -> mainHandler.post(() -> onStoreChanged(change));
+    private KeysListRecyclerViewAdapter adapter;
 
 
     /**
@@ -90,19 +93,43 @@ public class KeysFragment extends Fragment implements KeyItemClickedListener{
                     ((LinearLayoutManager)recyclerView.getLayoutManager()).getOrientation());
             recyclerView.addItemDecoration(dividerItemDecoration);
 
-            List<KeyItem> data;
-            data=new ArrayList<>();
-            try {
-                data = IdentityStore.getInstance().getKeyNameEntries();
-            }catch(StorageException e){
-                Log.d(TAG,"Exception getting data list");
-            }
+            //Keys are loaded a page at a time off the main thread
             int selectColor = getResources().getColor(R.color.sccsColour, null);
-            recyclerView.setAdapter(new KeysListRecyclerViewAdapter(data,this,selectColor));
+            adapter = new KeysListRecyclerViewAdapter((offset, limit) -> IdentityStore.getInstance().queryKeys(null, offset, limit), this, selectColor);
+            recyclerView.setAdapter(adapter);
+            IdentityStore.getInstance().addChangeListener(changeListener);
         }
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        IdentityStore.getInstance().removeChangeListener(changeListener);
+        adapter = null;
+        super.onDestroyView();
+    }
+
+    /**
+     * Apply a change to the IdentityStore to the list, on the main thread
+     * @param change change that was made
+     */
+    private void onStoreChanged(StoreChange change) {
+        if (adapter == null) {
+            return;
+        }
+        switch (change.getType()) {
+            case IDENTITY_ADDED:
+                adapter.itemAdded(new KeyItem(change.getName(), change.getKeyId()));
+                break;
+            case IDENTITY_REMOVED:
+            case RESET:
+                adapter.reload();
+                break;
+            default:
+                break;
+        }
+    }
+
     @Override
     public void itemClicked(KeyItem item) {
         Log.d(TAG,item.getName());
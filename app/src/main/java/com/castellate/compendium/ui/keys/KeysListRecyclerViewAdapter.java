@@ -34,30 +34,45 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.castellate.compendium.data.IdentityStore;
 import com.castellate.compendium.databinding.FragmentKeysItemBinding;
-
-import java.util.List;
+import com.castellate.compendium.ui.PagedListLoader;
 
 /**
  * Keys List Recycler adapter for showing and managing KeyItems list
  */
-public class KeysListRecyclerViewAdapter extends RecyclerView.Adapter<KeysListRecyclerViewAdapter.ViewHolder> {
+public class KeysListRecyclerViewAdapter extends ListAdapter<KeyItem, KeysListRecyclerViewAdapter.ViewHolder> {
 
     private static final String TAG = "KeysListRecyclerViewAdapter";
-    private final List<KeyItem> mValues;
+    private static final DiffUtil.ItemCallback<KeyItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<KeyItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull KeyItem oldItem, @NonNull KeyItem newItem) {
+            return oldItem.getName().equals(newItem.getName());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull KeyItem oldItem, @NonNull KeyItem newItem) {
+            return oldItem.getName().equals(newItem.getName()) && oldItem.getKeyId().equals(newItem.getKeyId());
+        }
+    };
+    private final PagedListLoader<KeyItem> mValues;
     private KeyItemClickedListener listener;
     private int selectColor;
 
     /**
      * Create a new KeysListRecyclerViewAdapter
-     * @param items list of KeyItmes to be shown
+     * @param source source of the pages of KeyItems to be shown
      * @param listener listener for click events on key items
      * @param selectColor colour to change background to when item is selected
      */
-    public KeysListRecyclerViewAdapter(List<KeyItem> items, KeyItemClickedListener listener, int selectColor) {
-        mValues = items;
+    public KeysListRecyclerViewAdapter(PagedListLoader.PageSource<KeyItem> source, KeyItemClickedListener listener, int selectColor) {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
+        mValues = new PagedListLoader<>(this, source, PagedListLoader.DEFAULT_PAGE_SIZE, KeyItem::getName, (a, b) -> IdentityStore.compareNames(a.getName(), b.getName()));
         this.listener = listener;
         this.selectColor = selectColor;
     }
@@ -72,8 +87,9 @@ public class KeysListRecyclerViewAdapter extends RecyclerView.Adapter<KeysListRe
 
     @Override
     public void onBindViewHolder(final ViewHolder holder, int position) {
-        holder.mItem = mValues.get(position);
-        holder.mContentView.setText(mValues.get(position).getName());
+        holder.mItem = getItem(position);
+        mValues.onBind(position);
+        holder.mContentView.setText(holder.mItem.getName());
 
         holder.mLayout.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -88,8 +104,31 @@ public class KeysListRecyclerViewAdapter extends RecyclerView.Adapter<KeysListRe
     }
 
     @Override
-    public int getItemCount() {
-        return mValues.size();
+    public long getItemId(int position) {
+        return mValues.getStableId(getItem(position));
+    }
+
+    /**
+     * Reload the items from the first page, after all the underlying data has changed
+     */
+    public void reload() {
+        mValues.reload();
+    }
+
+    /**
+     * Show an item that has been added or replaced
+     * @param item KeyItem that was added
+     */
+    public void itemAdded(KeyItem item) {
+        mValues.itemAdded(item);
+    }
+
+    /**
+     * Remove an item that has been deleted
+     * @param name name of the KeyItem that was removed
+     */
+    public void itemRemoved(String name) {
+        mValues.itemRemoved(name);
     }
 
     /**
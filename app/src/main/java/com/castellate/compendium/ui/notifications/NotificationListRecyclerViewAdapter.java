@@ -32,25 +32,38 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.castellate.compendium.databinding.FragmentNotificationItemBinding;
-
-
-import java.util.List;
+import com.castellate.compendium.ui.PagedListLoader;
 
 /**
  * {@link RecyclerView.Adapter} that can display a {@link PlaceholderItem}.
  * TODO: Replace the implementation with code for your data type.
  */
-public class NotificationListRecyclerViewAdapter extends RecyclerView.Adapter<NotificationListRecyclerViewAdapter.ViewHolder> {
+public class NotificationListRecyclerViewAdapter extends ListAdapter<String, NotificationListRecyclerViewAdapter.ViewHolder> {
 
-    private final List<String> mValues;
+    private static final DiffUtil.ItemCallback<String> DIFF_CALLBACK = new DiffUtil.ItemCallback<String>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull String oldItem, @NonNull String newItem) {
+            return oldItem.equals(newItem);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull String oldItem, @NonNull String newItem) {
+            return oldItem.equals(newItem);
+        }
+    };
+    private final PagedListLoader<String> mValues;
     private static final String TAG = "NotificationListRecyclerViewAdapter";
 
 
-    public NotificationListRecyclerViewAdapter(List<String> items) {
-        mValues = items;
+    public NotificationListRecyclerViewAdapter(PagedListLoader.PageSource<String> source) {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
+        mValues = new PagedListLoader<>(this, source, PagedListLoader.DEFAULT_PAGE_SIZE, item -> item, String::compareTo);
     }
 
     @NonNull
@@ -63,13 +76,14 @@ public class NotificationListRecyclerViewAdapter extends RecyclerView.Adapter<No
 
     @Override
     public void onBindViewHolder(final ViewHolder holder, int position) {
-        holder.mItem = mValues.get(position);
-        holder.mContentView.setText(mValues.get(position));
+        holder.mItem = getItem(position);
+        mValues.onBind(position);
+        holder.mContentView.setText(holder.mItem);
     }
 
     @Override
-    public int getItemCount() {
-        return mValues.size();
+    public long getItemId(int position) {
+        return mValues.getStableId(getItem(position));
     }
 
     public class ViewHolder extends RecyclerView.ViewHolder {
@@ -29,7 +29,6 @@ package com.castellate.compendium.ui.notifications;
 
 import android.content.Context;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -41,7 +40,9 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.castellate.compendium.R;
 import com.castellate.compendium.data.IdentityStore;
+import com.castellate.compendium.data.Page;
 import com.castellate.compendium.exceptions.StorageException;
+import com.castellate.compendium.ui.keys.KeyItem;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -51,6 +52,7 @@ import java.util.List;
  */
 public class NotificationsFragment extends Fragment {
     private static final String TAG = "ItemFragment";
+    private static final int PLACEHOLDER_COUNT = 25;
 
 
     /**
@@ -87,19 +89,27 @@ public class NotificationsFragment extends Fragment {
                     ((LinearLayoutManager)recyclerView.getLayoutManager()).getOrientation());
             recyclerView.addItemDecoration(dividerItemDecoration);
 
-            List<String> data;
-            data=new ArrayList<>();
-            try {
-                data = IdentityStore.getInstance().getKeyNames();
-            }catch(StorageException e){
-                Log.d(TAG,"Exception getting data list");
-            }
-            for(int i=0;i<25;i++) {
-                data.add("Notification" + i);
-            }
-
-            recyclerView.setAdapter(new NotificationListRecyclerViewAdapter(data));
+            recyclerView.setAdapter(new NotificationListRecyclerViewAdapter(this::loadPage));
         }
         return view;
     }
+
+    /**
+     * Load a page of the list, which shows the key names followed by placeholder notifications
+     * @param offset offset of the first item
+     * @param limit maximum number of items
+     * @return Page of items
+     * @throws StorageException
+     */
+    private Page<String> loadPage(int offset, int limit) throws StorageException {
+        List<String> items = new ArrayList<>();
+        Page<KeyItem> keys = IdentityStore.getInstance().queryKeys(null, offset, limit);
+        for (KeyItem key : keys.getItems()) {
+            items.add(key.getName());
+        }
+        for (int i = Math.max(offset - keys.getTotal(), 0); i < PLACEHOLDER_COUNT && items.size() < limit; i++) {
+            items.add("Notification" + i);
+        }
+        return new Page<>(items, offset, keys.getTotal() + PLACEHOLDER_COUNT);
+    }
 }
\ No newline at end of file
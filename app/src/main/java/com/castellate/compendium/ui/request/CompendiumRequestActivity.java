@@ -58,30 +58,27 @@ public class CompendiumRequestActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        boolean errorOccurred = false;
         binding = ActivityCompendiumRequestBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
 
         setSupportActionBar(binding.toolbar);
-        IdentityStore identityStore = IdentityStore.getInstance();
-        if(!identityStore.isInitialised()){
-            Log.d(TAG, "Unable to access Identity Store, will stop");
-            AlertDialog.Builder builder;
-            builder = new AlertDialog.Builder(this);
-            builder.setTitle("Error Loading");
-            builder.setMessage("The app is unable to access the identity store and will close.");
-            builder.setPositiveButton("OK", (dialogInterface, i) -> finishAffinity());
-            builder.show();
-            errorOccurred = true;
-        }
+        //The IdentityStore is loaded in the background, the request waits for it when needed
+        IdentityStore.getInstance().getReadyState().observe(this, ready -> {
+            if (!ready) {
+                Log.d(TAG, "Unable to access Identity Store, will stop");
+                AlertDialog.Builder builder;
+                builder = new AlertDialog.Builder(this);
+                builder.setTitle("Error Loading");
+                builder.setMessage("The app is unable to access the identity store and will close.");
+                builder.setPositiveButton("OK", (dialogInterface, i) -> finishAffinity());
+                builder.show();
+            }
+        });
 
         NavController navController = Navigation.findNavController(this, R.id.nav_host_fragment_content_compendium_request);
         appBarConfiguration = new AppBarConfiguration.Builder(navController.getGraph()).build();
         NavigationUI.setupActionBarWithNavController(this, navController, appBarConfiguration);
 
-        if (errorOccurred) {
-            return;
-        }
         JSONObject incomingMsg = new JSONObject();
         if (getIntent().getExtras() != null) {
             for (String key : getIntent().getExtras().keySet()) {
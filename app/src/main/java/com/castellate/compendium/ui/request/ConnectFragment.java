@@ -48,8 +48,10 @@ import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.castellate.compendium.CompanionDevice;
+import com.castellate.compendium.ProtocolSession;
 import com.castellate.compendium.R;
 import com.castellate.compendium.crypto.B64;
+import com.castellate.compendium.crypto.ChunkedCipher;
 import com.castellate.compendium.crypto.CompanionKeyManager;
 import com.castellate.compendium.crypto.CryptoException;
 import com.castellate.compendium.crypto.CryptoUtils;
@@ -60,26 +62,38 @@ import com.castellate.compendium.exceptions.StorageException;
 import com.castellate.compendium.protocol.Protocol;
 import com.castellate.compendium.protocol.ProtocolException;
 import com.castellate.compendium.protocol.core.CoreProtocol;
+import com.castellate.compendium.protocol.core.ResumeProtocol;
+import com.castellate.compendium.protocol.core.ResumeReqProtocolMessage;
+import com.castellate.compendium.protocol.core.req.CoreBatchReqMessage;
 import com.castellate.compendium.protocol.core.req.CoreGetReqMessage;
+import com.castellate.compendium.protocol.core.req.CoreGetStreamReqMessage;
 import com.castellate.compendium.protocol.core.req.CorePutReqMessage;
+import com.castellate.compendium.protocol.core.req.CorePutStreamReqMessage;
 import com.castellate.compendium.protocol.core.req.CoreRegReqMessage;
 import com.castellate.compendium.protocol.core.req.CoreVerifyReqMessage;
+import com.castellate.compendium.protocol.core.res.CoreBatchResMessage;
 import com.castellate.compendium.protocol.core.res.CoreGetResMessage;
 import com.castellate.compendium.protocol.core.res.CorePutResMessage;
+import com.castellate.compendium.protocol.core.res.CorePutStreamResMessage;
 import com.castellate.compendium.protocol.core.res.CoreRegResMessage;
 import com.castellate.compendium.protocol.core.res.CoreVerifyResMessage;
 import com.castellate.compendium.protocol.messages.Constants;
 import com.castellate.compendium.protocol.messages.EncryptedMessage;
 import com.google.android.material.progressindicator.CircularProgressIndicator;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -96,16 +110,39 @@ public class ConnectFragment extends Fragment {
     private static final String TAG = "ConnectFragment";
     private ConnectFragmentBinding binding;
     private CompanionDevice companionDevice;
+    private ProtocolSession session;
     private CompanionKeyManager ckm;
     private boolean inError = false;
     private boolean delayedError = false;
     private boolean newKey = false;
+    private boolean resumeRequest = false;
     private String appId = "";
+    //State of a batch request, operations are authorised and processed in order
+    private JSONArray batchOperations;
+    private JSONArray batchResults;
+    private int batchIndex = 0;
+    private final List<String> batchNewKeyApps = new ArrayList<>();
+    private boolean batchTimeBound = false;
+    private CryptoSupplier pendingCrypto;
+
+    /**
+     * Creates the crypto object for a request. Time-bound keys cannot be initialised until the
+     * user has authenticated, so their Cipher and Signature objects are created on demand
+     * rather than passed to the biometric prompt
+     */
+    private interface CryptoSupplier {
+        /**
+         * Creates the crypto object
+         * @return CryptoObject holding a Cipher or Signature object
+         * @throws CryptoException
+         */
+        BiometricPrompt.CryptoObject get() throws CryptoException;
+    }
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         try {
-            ckm = new CompanionKeyManager();
+            ckm = CompanionKeyManager.getInstance();
         } catch (CryptoException e) {
             Log.d(TAG, "Exception loading CompanionKeyManager, will close", e);
             delayedError = true;
@@ -118,8 +155,18 @@ public class ConnectFragment extends Fragment {
      * @throws CompendiumException if the AppID is not registered under the PCs key
      */
     private void checkAppExists() throws CompendiumException {
+        checkAppExists(session.getProtocolData(CoreGetReqMessage.Fields.APP_ID));
+    }
+
+    /**
+     * Checks that the specified application ID exists under the PCs key
+     *
+     * @param appId application ID to check
+     * @throws CompendiumException if the AppID is not registered under the PCs key
+     */
+    private void checkAppExists(String appId) throws CompendiumException {
         IdentityStore identityStore = IdentityStore.getInstance();
-        if (!identityStore.appExists(companionDevice.getProtocolData(Constants.HASH_PC_PUBLIC_KEY), companionDevice.getProtocolData(CoreGetReqMessage.Fields.APP_ID))) {
+        if (!identityStore.appExists(session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY), appId)) {
             showGenericError("App ID not registered under PC key");
             throw new CompendiumException("App ID not registered under PC key");
         }
@@ -132,8 +179,19 @@ public class ConnectFragment extends Fragment {
      * @throws CompendiumException
      */
     private void checkAppType(String type) throws CompendiumException {
+        checkAppType(session.getProtocolData(CoreGetReqMessage.Fields.APP_ID), type);
+    }
+
+    /**
+     * Checks that the registered type of the specified App is consistent with what is being
+     * requested
+     * @param appId application ID to check
+     * @param type type of application
+     * @throws CompendiumException
+     */
+    private void checkAppType(String appId, String type) throws CompendiumException {
         IdentityStore identityStore = IdentityStore.getInstance();
-        String appType = identityStore.getAppType(companionDevice.getProtocolData(Constants.HASH_PC_PUBLIC_KEY), companionDevice.getProtocolData(CoreGetReqMessage.Fields.APP_ID));
+        String appType = identityStore.getAppType(session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY), appId);
         if (appType.equals(type)) {
             return;
         }
@@ -148,9 +206,19 @@ public class ConnectFragment extends Fragment {
      * @throws CompendiumException
      */
     private void addAppIfNotExists(String type) throws CompendiumException {
+        addAppIfNotExists(session.getProtocolData(CoreGetReqMessage.Fields.APP_ID), type);
+    }
+
+    /**
+     * If the specified AppID doesn't exist add it
+     * @param appId application ID to add
+     * @param type type of AppID to create
+     * @throws CompendiumException
+     */
+    private void addAppIfNotExists(String appId, String type) throws CompendiumException {
         IdentityStore identityStore = IdentityStore.getInstance();
-        if (!identityStore.appExists(companionDevice.getProtocolData(Constants.HASH_PC_PUBLIC_KEY), companionDevice.getProtocolData(CoreGetReqMessage.Fields.APP_ID))) {
-            identityStore.addApp(companionDevice.getProtocolData(Constants.HASH_PC_PUBLIC_KEY), companionDevice.getProtocolData(CoreGetReqMessage.Fields.APP_ID), type);
+        if (!identityStore.appExists(session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY), appId)) {
+            identityStore.addApp(session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY), appId, type);
         }
 
     }
@@ -171,35 +239,53 @@ public class ConnectFragment extends Fragment {
                     Log.d(TAG, "Cannot use biometrics");
                 } else {
                     BiometricPrompt.PromptInfo prompt = this.buildBiometricPrompt(map.get("title"), map.get("subtitle"), map.get("code"));
-                    String type = companionDevice.getProtocolData("type");
+                    String type = session.getProtocolData("type");
                     switch (type) {
                         case "Get":
                             checkAppExists();
                             checkAppType(Constants.TYPE_PUT_GET);
                             this.newKey = ckm.isNewKey(getKeyId());
 
-                            JSONObject obj = new JSONObject(companionDevice.getProtocolData(CoreGetReqMessage.Fields.ENC_DATA));
-                            requestBiometric(prompt, ckm.getDecryptionCipher(getKeyId(), B64.decode(obj.getString(EncryptedMessage.IV))));
+                            JSONObject obj = new JSONObject(session.getProtocolData(CoreGetReqMessage.Fields.ENC_DATA));
+                            byte[] iv = B64.decode(obj.getString(EncryptedMessage.IV));
+                            requestBiometric(prompt, getKeyId(), () -> new BiometricPrompt.CryptoObject(ckm.getDecryptionCipher(getKeyId(), iv)));
                             break;
                         case "Put":
                             addAppIfNotExists(Constants.TYPE_PUT_GET);
                             checkAppType(Constants.TYPE_PUT_GET);
                             this.newKey = ckm.isNewKey(getKeyId());
-                            requestBiometric(prompt, ckm.getEncryptionCipher(getKeyId()));
+                            requestBiometric(prompt, getKeyId(), () -> new BiometricPrompt.CryptoObject(ckm.getEncryptionCipher(getKeyId())));
                             break;
                         case "Reg":
                             //Generate or get the public key
                             addAppIfNotExists(Constants.TYPE_REG_SIGN);
                             checkAppType(Constants.TYPE_REG_SIGN);
                             this.newKey = ckm.isNewKey(getKeyId());
-                            companionDevice.putInProtocolData(CoreRegResMessage.Fields.APP_PK, CryptoUtils.encodePublicKey(ckm.getPublicSigningKey(getKeyId())));
-                            requestBiometric(prompt, ckm.getSignatureObject(getKeyId()));
+                            session.putInProtocolData(CoreRegResMessage.Fields.APP_PK, CryptoUtils.encodePublicKey(ckm.getPublicSigningKey(getKeyId())));
+                            requestBiometric(prompt, getKeyId(), () -> new BiometricPrompt.CryptoObject(ckm.getSignatureObject(getKeyId())));
                             break;
                         case "Verify":
                             checkAppExists();
                             checkAppType(Constants.TYPE_REG_SIGN);
                             this.newKey = ckm.isNewKey(getKeyId());
-                            requestBiometric(prompt, ckm.getSignatureObject(getKeyId()));
+                            requestBiometric(prompt, getKeyId(), () -> new BiometricPrompt.CryptoObject(ckm.getSignatureObject(getKeyId())));
+                            break;
+                        case "Batch":
+                            startBatch();
+                            break;
+                        case "PutStream":
+                            addAppIfNotExists(Constants.TYPE_PUT_GET);
+                            checkAppType(Constants.TYPE_PUT_GET);
+                            this.newKey = ckm.isNewKey(getKeyId());
+                            requestBiometric(prompt, getKeyId(), () -> new BiometricPrompt.CryptoObject(ckm.getEncryptionCipher(getKeyId())));
+                            break;
+                        case "GetStream":
+                            checkAppExists();
+                            checkAppType(Constants.TYPE_PUT_GET);
+                            this.newKey = ckm.isNewKey(getKeyId());
+                            JSONObject wrappedKey = new JSONObject(session.getProtocolData(CoreGetStreamReqMessage.Fields.ENC_KEY));
+                            byte[] wrappedIv = B64.decode(wrappedKey.getString(EncryptedMessage.IV));
+                            requestBiometric(prompt, getKeyId(), () -> new BiometricPrompt.CryptoObject(ckm.getDecryptionCipher(getKeyId(), wrappedIv)));
                             break;
                     }
 
@@ -223,10 +309,14 @@ public class ConnectFragment extends Fragment {
      * rollback method to delete the newly created key.
      */
     private void rollback(){
+        if (batchOperations != null) {
+            rollbackBatch();
+            return;
+        }
         if (newKey) {
             try {
                 ckm.cleanUpUnusedKey(getKeyId());
-                IdentityStore.getInstance().cleanUpUnusedApp(companionDevice.getProtocolData(Constants.HASH_PC_PUBLIC_KEY),appId);
+                IdentityStore.getInstance().cleanUpUnusedApp(session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY),appId);
             }catch(CompendiumException e){
                 showGenericError("Exception cleaning up unused key");
 
@@ -234,6 +324,258 @@ public class ConnectFragment extends Fragment {
         }
     }
 
+    /**
+     * Rolls back any keys and apps optimistically created for the operations of a batch request
+     */
+    private void rollbackBatch() {
+        IdentityStore identityStore = IdentityStore.getInstance();
+        try {
+            identityStore.beginBatch();
+            try {
+                for (String batchAppId : batchNewKeyApps) {
+                    try {
+                        ckm.cleanUpUnusedKey(getKeyId(batchAppId));
+                        identityStore.cleanUpUnusedApp(session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY), batchAppId);
+                    } catch (CompendiumException e) {
+                        showGenericError("Exception cleaning up unused key");
+                    }
+                }
+            } finally {
+                identityStore.endBatch();
+            }
+        } catch (CompendiumException e) {
+            showGenericError("Exception cleaning up unused key");
+        }
+        batchNewKeyApps.clear();
+    }
+
+    /**
+     * Starts processing a batch request. All operations are checked against the registered apps
+     * before any biometric prompt is shown. The results are returned to the PC in a single
+     * response once all operations are complete.
+     *
+     * If all the keys of the batch are time-bound a single biometric prompt authorises the whole
+     * batch, after which each operation is performed in turn. Keys that are bound to the
+     * biometric per use, which includes all keys created before Android 11, need an
+     * authorisation of each Cipher or Signature object, so if any of the keys is per use each
+     * operation is shown its own prompt.
+     *
+     * @throws CompendiumException
+     * @throws JSONException
+     */
+    private void startBatch() throws CompendiumException, JSONException {
+        batchOperations = CoreBatchReqMessage.parseOperations(session.getProtocolData(CoreBatchReqMessage.Fields.OPS));
+        batchResults = new JSONArray();
+        batchNewKeyApps.clear();
+        //Apps added for the operations are written to the store together
+        IdentityStore.getInstance().beginBatch();
+        try {
+            checkBatchOperations();
+        } finally {
+            IdentityStore.getInstance().endBatch();
+        }
+        batchIndex = 0;
+        batchTimeBound = isBatchTimeBound();
+        if (batchTimeBound) {
+            requestBatchAuthorisation();
+        } else {
+            requestBatchOperation();
+        }
+    }
+
+    /**
+     * Checks if all the keys used by the batch are time-bound, so that the whole batch can be
+     * authorised by a single biometric prompt
+     * @return true if all the keys are time-bound, false if any require authorisation per use
+     * @throws CompendiumException
+     * @throws JSONException
+     */
+    private boolean isBatchTimeBound() throws CompendiumException, JSONException {
+        for (int i = 0; i < batchOperations.length(); i++) {
+            JSONObject op = batchOperations.getJSONObject(i);
+            if (!ckm.isTimeBoundKey(getKeyId(op.getString(CoreGetReqMessage.Fields.APP_ID)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Shows a single biometric prompt that authorises all the operations of a batch whose keys
+     * are time-bound. The prompt lists the apps and security codes of the operations.
+     * @throws CompendiumException
+     * @throws JSONException
+     */
+    private void requestBatchAuthorisation() throws CompendiumException, JSONException {
+        String deviceName = IdentityStore.getInstance().getNameByKeyID(session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY));
+        List<String> apps = new ArrayList<>();
+        List<String> codes = new ArrayList<>();
+        for (int i = 0; i < batchOperations.length(); i++) {
+            JSONObject op = batchOperations.getJSONObject(i);
+            String opAppId = op.getString(CoreGetReqMessage.Fields.APP_ID);
+            if (!apps.contains(opAppId)) {
+                apps.add(opAppId);
+            }
+            codes.add(op.getString(CoreGetReqMessage.Fields.CODE));
+        }
+        String request = " sends " + batchOperations.length() + " requests.";
+        BiometricPrompt.PromptInfo prompt = buildBiometricPrompt(createTitleString(deviceName, String.join(", ", apps), request), createSubtitleString(batchOperations.getJSONObject(0).getString(CoreGetReqMessage.Fields.DESC)), createDesc(String.join(", ", codes)));
+        pendingCrypto = null;
+        new BiometricPrompt(this, getAuthenticationCallback()).authenticate(prompt);
+    }
+
+    /**
+     * Performs all the operations of a batch authorised by a single biometric prompt, then
+     * returns the results. The Cipher and Signature objects are created now that the user has
+     * authenticated, so all operations must complete within the validity period of the keys.
+     * @throws CryptoException
+     */
+    private void processTimeBoundBatch() throws CryptoException {
+        try {
+            for (; batchIndex < batchOperations.length(); batchIndex++) {
+                JSONObject op = batchOperations.getJSONObject(batchIndex);
+                batchResults.put(performBatchOperation(op, createBatchCryptoObject(op)));
+            }
+        } catch (JSONException e) {
+            throw new CryptoException("Exception processing batch operation", e);
+        }
+        finishBatch();
+    }
+
+    /**
+     * Checks each operation of a batch against the registered apps, adding apps for new Put
+     * operations and recording which operations require a new key
+     * @throws CompendiumException
+     * @throws JSONException
+     */
+    private void checkBatchOperations() throws CompendiumException, JSONException {
+        for (int i = 0; i < batchOperations.length(); i++) {
+            JSONObject op = batchOperations.getJSONObject(i);
+            String opAppId = op.getString(CoreGetReqMessage.Fields.APP_ID);
+            switch (op.getString(CoreBatchReqMessage.Fields.TYPE)) {
+                case "Get":
+                    checkAppExists(opAppId);
+                    checkAppType(opAppId, Constants.TYPE_PUT_GET);
+                    break;
+                case "Put":
+                    addAppIfNotExists(opAppId, Constants.TYPE_PUT_GET);
+                    checkAppType(opAppId, Constants.TYPE_PUT_GET);
+                    break;
+                case "Verify":
+                    checkAppExists(opAppId);
+                    checkAppType(opAppId, Constants.TYPE_REG_SIGN);
+                    break;
+            }
+            if (ckm.isNewKey(getKeyId(opAppId)) && !batchNewKeyApps.contains(opAppId)) {
+                batchNewKeyApps.add(opAppId);
+            }
+        }
+    }
+
+    /**
+     * Shows the biometric prompt for the current operation of the batch
+     * @throws CompendiumException
+     * @throws JSONException
+     */
+    private void requestBatchOperation() throws CompendiumException, JSONException {
+        JSONObject op = batchOperations.getJSONObject(batchIndex);
+        String opAppId = op.getString(CoreGetReqMessage.Fields.APP_ID);
+        String deviceName = IdentityStore.getInstance().getNameByKeyID(session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY));
+        String request = " request " + (batchIndex + 1) + " of " + batchOperations.length() + ".";
+        BiometricPrompt.PromptInfo prompt = buildBiometricPrompt(createTitleString(deviceName, opAppId, request), createSubtitleString(op.getString(CoreGetReqMessage.Fields.DESC)), createDesc(op.getString(CoreGetReqMessage.Fields.CODE)));
+        pendingCrypto = null;
+        new BiometricPrompt(this, getAuthenticationCallback()).authenticate(prompt, createBatchCryptoObject(op));
+    }
+
+    /**
+     * Creates the crypto object for an operation of a batch
+     * @param op batch operation
+     * @return CryptoObject holding the Cipher or Signature object for the operation
+     * @throws CryptoException
+     * @throws JSONException
+     */
+    private BiometricPrompt.CryptoObject createBatchCryptoObject(JSONObject op) throws CryptoException, JSONException {
+        String keyId = getKeyId(op.getString(CoreGetReqMessage.Fields.APP_ID));
+        switch (op.getString(CoreBatchReqMessage.Fields.TYPE)) {
+            case "Get":
+                JSONObject obj = new JSONObject(op.getString(CoreGetReqMessage.Fields.ENC_DATA));
+                return new BiometricPrompt.CryptoObject(ckm.getDecryptionCipher(keyId, B64.decode(obj.getString(EncryptedMessage.IV))));
+            case "Put":
+                return new BiometricPrompt.CryptoObject(ckm.getEncryptionCipher(keyId));
+            case "Verify":
+                return new BiometricPrompt.CryptoObject(ckm.getSignatureObject(keyId));
+            default:
+                throw new CryptoException("Unknown batch operation type");
+        }
+    }
+
+    /**
+     * Performs the current operation of the batch with the now authorised crypto object, then
+     * moves on to the next operation or, once all are complete, returns the results
+     * @param cryptoObject authorised crypto object for the current operation
+     * @throws CryptoException
+     */
+    private void processBatchCrypto(BiometricPrompt.CryptoObject cryptoObject) throws CryptoException {
+        try {
+            batchResults.put(performBatchOperation(batchOperations.getJSONObject(batchIndex), cryptoObject));
+            batchIndex++;
+            if (batchIndex < batchOperations.length()) {
+                //Show the next prompt once the current one has been dismissed
+                ContextCompat.getMainExecutor(requireContext()).execute(() -> {
+                    try {
+                        requestBatchOperation();
+                    } catch (CompendiumException | JSONException e) {
+                        Log.d(TAG, "Exception requesting batch operation", e);
+                        rollback();
+                        showGenericError("Cryptography error - cannot process request");
+                    }
+                });
+            } else {
+                finishBatch();
+            }
+        } catch (JSONException e) {
+            throw new CryptoException("Exception processing batch operation", e);
+        }
+    }
+
+    /**
+     * Performs an operation of a batch with an authorised crypto object
+     * @param op batch operation
+     * @param cryptoObject authorised crypto object for the operation
+     * @return result of the operation
+     * @throws CryptoException
+     * @throws JSONException
+     */
+    private JSONObject performBatchOperation(JSONObject op, BiometricPrompt.CryptoObject cryptoObject) throws CryptoException, JSONException {
+        String type = op.getString(CoreBatchReqMessage.Fields.TYPE);
+        JSONObject result = new JSONObject();
+        result.put(CoreBatchResMessage.Fields.TYPE, type);
+        result.put(CoreVerifyResMessage.Fields.APP_ID, op.getString(CoreGetReqMessage.Fields.APP_ID));
+        switch (type) {
+            case "Get":
+                result.put(CoreGetResMessage.Fields.DATA, decrypt(cryptoObject.getCipher(), op.getString(CoreGetReqMessage.Fields.ENC_DATA)));
+                break;
+            case "Put":
+                result.put(CorePutResMessage.Fields.ENC_DATA, encrypt(cryptoObject.getCipher(), op.getString(CorePutReqMessage.Fields.DATA)));
+                break;
+            case "Verify":
+                result.put(CoreVerifyResMessage.Fields.APP_SIG, sign(cryptoObject.getSignature(), op.getString(CoreVerifyReqMessage.Fields.NONCE)));
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the results of a completed batch to the PC
+     */
+    private void finishBatch() {
+        batchNewKeyApps.clear();
+        batchOperations = null;
+        Map<String, String> data = new HashMap<>();
+        data.put(CoreBatchResMessage.Fields.RESULTS, batchResults.toString());
+        session.updateFromUI(data);
+    }
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 
@@ -252,20 +594,28 @@ public class ConnectFragment extends Fragment {
         }
         view.findViewById(R.id.connect_ok_error_button).setOnClickListener(viewButton -> requireActivity().finishAffinity());
         String deviceId = prefs.getString("id", android.os.Build.MODEL);
-        companionDevice = new CompanionDevice(deviceId);
+        companionDevice = CompanionDevice.getInstance(deviceId);
 
         RequestViewModel requestViewModel = new ViewModelProvider(requireActivity()).get(RequestViewModel.class);
 
         requestViewModel.getProtocolStatus().observe(getViewLifecycleOwner(), status -> {
+            if (session == null) {
+                return;
+            }
             try {
-                String protocolState = companionDevice.getCurrentStateOfProtocol();
+                String protocolState = session.getCurrentStateOfProtocol();
                 Log.d(TAG, "State:" + protocolState);
                 Log.d(TAG, "Status:" + status);
                 if (status == Protocol.STATUS.AWAITING_UI) {
                     processAwaitingUI(protocolState);
                 }
+                if (status == Protocol.STATUS.ERROR && resumeRequest) {
+                    //Let the PC know straight away so it can fall back to a full key exchange
+                    showGenericError("Session could not be resumed");
+                    return;
+                }
                 if (status != Protocol.STATUS.IDLE) {
-                    ((CircularProgressIndicator) view.findViewById(R.id.progress_spinner_req)).setProgress(companionDevice.getProgress(), true);
+                    ((CircularProgressIndicator) view.findViewById(R.id.progress_spinner_req)).setProgress(session.getProgress(), true);
                 }
                 if (status == Protocol.STATUS.FINISHED) {
                     Log.d(TAG, "Protocol finished will write out data");
@@ -285,11 +635,18 @@ public class ConnectFragment extends Fragment {
         PushRequestSharedViewModel model = new ViewModelProvider(requireActivity()).get(PushRequestSharedViewModel.class);
         model.getMessage().observe(getViewLifecycleOwner(), item -> {
             Log.d(TAG, "Push message received");
+            session = companionDevice.attachPreparedSession(item);
+            if (session != null) {
+                //The request was prepared on receipt of the push message, continue from where it is
+                session.setProtocolViewModel(requestViewModel);
+                return;
+            }
             try {
-                CoreProtocol coreProtocol = new CoreProtocol();
-                companionDevice.runProtocol(coreProtocol);
-                companionDevice.setProtocolViewModel(requestViewModel);
-                companionDevice.processMessage(item);
+                resumeRequest = ResumeReqProtocolMessage.isResumeRequest(item);
+                Protocol protocol = resumeRequest ? new ResumeProtocol() : new CoreProtocol();
+                session = companionDevice.runProtocol(protocol);
+                session.setProtocolViewModel(requestViewModel);
+                session.processMessage(item);
             } catch (ProtocolException e) {
                 showGenericError("Error processing request");
             }
@@ -311,7 +668,7 @@ public class ConnectFragment extends Fragment {
     private void protocolFinished() throws StorageException {
         View view = getView();
         Log.d(TAG, "Protocol finished will write out data");
-        companionDevice.reset();
+        session.reset();
         GifDrawable drawable = (GifDrawable) ((GifImageView) Objects.requireNonNull(view).findViewById(R.id.req_complete)).getDrawable();
         drawable.addAnimationListener(loopNumber -> {
             final Handler handler = new Handler();
@@ -343,7 +700,16 @@ public class ConnectFragment extends Fragment {
      * @return concatenation of Public Key ID ":" and APP ID
      */
     private String getKeyId() {
-        return companionDevice.getProtocolData(Constants.HASH_PC_PUBLIC_KEY) + ":" + companionDevice.getProtocolData(Constants.APP_ID);
+        return getKeyId(session.getProtocolData(Constants.APP_ID));
+    }
+
+    /**
+     * Gets the unique key ID for the specified App ID under the PCs key
+     * @param appId application ID
+     * @return concatenation of Public Key ID ":" and APP ID
+     */
+    private String getKeyId(String appId) {
+        return session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY) + ":" + appId;
     }
 
     /**
@@ -356,45 +722,70 @@ public class ConnectFragment extends Fragment {
      */
     private Map<String, String> preparePromptText() throws StorageException {
         Map<String, String> map = new HashMap<>();
-        String type = companionDevice.getProtocolData("type");
+        String type = session.getProtocolData("type");
         IdentityStore identityStore = IdentityStore.getInstance();
-        String deviceName = identityStore.getNameByKeyID(companionDevice.getProtocolData(Constants.HASH_PC_PUBLIC_KEY));
+        String deviceName = identityStore.getNameByKeyID(session.getProtocolData(Constants.HASH_PC_PUBLIC_KEY));
 
         switch (type) {
             case "Get": {
-                appId = companionDevice.getProtocolData(CoreGetReqMessage.Fields.APP_ID);
-                String code = companionDevice.getProtocolData(CoreGetReqMessage.Fields.CODE);
-                String desc = companionDevice.getProtocolData(CoreGetReqMessage.Fields.DESC);
+                appId = session.getProtocolData(CoreGetReqMessage.Fields.APP_ID);
+                String code = session.getProtocolData(CoreGetReqMessage.Fields.CODE);
+                String desc = session.getProtocolData(CoreGetReqMessage.Fields.DESC);
                 map.put("title", createTitleString(deviceName, appId, " requests access to its data."));
                 map.put("subtitle", createSubtitleString(desc));
                 map.put("code", createDesc(code));
             }
             break;
             case "Put": {
-                appId = companionDevice.getProtocolData(CorePutReqMessage.Fields.APP_ID);
-                String code = companionDevice.getProtocolData(CorePutReqMessage.Fields.CODE);
-                String desc = companionDevice.getProtocolData(CorePutReqMessage.Fields.DESC);
+                appId = session.getProtocolData(CorePutReqMessage.Fields.APP_ID);
+                String code = session.getProtocolData(CorePutReqMessage.Fields.CODE);
+                String desc = session.getProtocolData(CorePutReqMessage.Fields.DESC);
                 map.put("title", createTitleString(deviceName, appId, " requests permission to store data."));
                 map.put("subtitle", createSubtitleString(desc));
                 map.put("code", createDesc(code));
             }
             break;
             case "Reg": {
-                appId = companionDevice.getProtocolData(CoreRegReqMessage.Fields.APP_ID);
-                String desc = companionDevice.getProtocolData(CoreRegReqMessage.Fields.DESC);
+                appId = session.getProtocolData(CoreRegReqMessage.Fields.APP_ID);
+                String desc = session.getProtocolData(CoreRegReqMessage.Fields.DESC);
                 map.put("title", createTitleString(deviceName, appId, " requests permission to create a user verification key."));
                 map.put("subtitle", createSubtitleString(desc));
             }
             break;
             case "Verify": {
-                appId = companionDevice.getProtocolData(CoreVerifyReqMessage.Fields.APP_ID);
-                String code = companionDevice.getProtocolData(CoreVerifyReqMessage.Fields.CODE);
-                String desc = companionDevice.getProtocolData(CoreRegReqMessage.Fields.DESC);
+                appId = session.getProtocolData(CoreVerifyReqMessage.Fields.APP_ID);
+                String code = session.getProtocolData(CoreVerifyReqMessage.Fields.CODE);
+                String desc = session.getProtocolData(CoreRegReqMessage.Fields.DESC);
                 map.put("title", createTitleString(deviceName, appId, " requests a user verification."));
                 map.put("subtitle", createSubtitleString(desc));
                 map.put("code", createDesc(code));
             }
             break;
+            case "PutStream": {
+                appId = session.getProtocolData(CorePutStreamReqMessage.Fields.APP_ID);
+                String code = session.getProtocolData(CorePutStreamReqMessage.Fields.CODE);
+                String desc = session.getProtocolData(CorePutStreamReqMessage.Fields.DESC);
+                map.put("title", createTitleString(deviceName, appId, " requests permission to store a large item."));
+                map.put("subtitle", createSubtitleString(desc));
+                map.put("code", createDesc(code));
+            }
+            break;
+            case "GetStream": {
+                appId = session.getProtocolData(CoreGetStreamReqMessage.Fields.APP_ID);
+                String code = session.getProtocolData(CoreGetStreamReqMessage.Fields.CODE);
+                String desc = session.getProtocolData(CoreGetStreamReqMessage.Fields.DESC);
+                map.put("title", createTitleString(deviceName, appId, " requests access to a large item."));
+                map.put("subtitle", createSubtitleString(desc));
+                map.put("code", createDesc(code));
+            }
+            break;
+            case "Batch": {
+                appId = "";
+                String desc = session.getProtocolData(CoreBatchReqMessage.Fields.DESC);
+                map.put("title", deviceName + " requests access to several apps.");
+                map.put("subtitle", createSubtitleString(desc));
+            }
+            break;
 
         }
         return map;
@@ -432,29 +823,24 @@ public class ConnectFragment extends Fragment {
     }
 
     /**
-     * Requests access to a cipher object (symmetric key) protected by a biometric. This will show
-     * the biometric prompt and ask the user to approve
-     * @param prompt biometric prompt to show
-     * @param cipher Cipher object to access
-     */
-    private void requestBiometric(BiometricPrompt.PromptInfo prompt, Cipher cipher) {
-        BiometricPrompt.AuthenticationCallback authenticationCallback = getAuthenticationCallback();
-        ContextCompat.getMainExecutor(requireActivity());
-        BiometricPrompt mBiometricPrompt = new BiometricPrompt(this, authenticationCallback);
-        mBiometricPrompt.authenticate(prompt, new BiometricPrompt.CryptoObject(cipher));
-    }
-
-    /**
-     * Requests access to a signature object (EC Private Key) protected by a biometric. This will
-     * show the biometric prompt and ask the user to approve
+     * Requests access to a key protected by a biometric. This will show the biometric prompt and
+     * ask the user to approve. A key bound per use has its Cipher or Signature object created now
+     * and authorised by the prompt, whereas for a time-bound key the object can only be created
+     * once the user has authenticated
      * @param prompt biometric prompt to show
-     * @param signature Signature object to access
+     * @param keyId ID of the key to access
+     * @param supplier creates the crypto object for the key
+     * @throws CryptoException
      */
-    private void requestBiometric(BiometricPrompt.PromptInfo prompt, Signature signature) {
-        BiometricPrompt.AuthenticationCallback authenticationCallback = getAuthenticationCallback();
-        ContextCompat.getMainExecutor(requireActivity());
-        BiometricPrompt mBiometricPrompt = new BiometricPrompt(this, authenticationCallback);
-        mBiometricPrompt.authenticate(prompt, new BiometricPrompt.CryptoObject(signature));
+    private void requestBiometric(BiometricPrompt.PromptInfo prompt, String keyId, CryptoSupplier supplier) throws CryptoException {
+        BiometricPrompt mBiometricPrompt = new BiometricPrompt(this, getAuthenticationCallback());
+        if (ckm.isTimeBoundKey(keyId)) {
+            pendingCrypto = supplier;
+            mBiometricPrompt.authenticate(prompt);
+        } else {
+            pendingCrypto = null;
+            mBiometricPrompt.authenticate(prompt, supplier.get());
+        }
     }
 
     /**
@@ -466,7 +852,7 @@ public class ConnectFragment extends Fragment {
      */
     private BiometricPrompt.PromptInfo buildBiometricPrompt(String title, String subtitle, String description) {
         // Set prompt info
-        return new BiometricPrompt.PromptInfo.Builder().setTitle(title).setSubtitle(subtitle).setDescription(description).setNegativeButtonText("Cancel").build();
+        return new BiometricPrompt.PromptInfo.Builder().setTitle(title).setSubtitle(subtitle).setDescription(description).setAllowedAuthenticators(BiometricManager.Authenticators.BIOMETRIC_STRONG).setNegativeButtonText("Cancel").build();
     }
 
     /**
@@ -533,8 +919,10 @@ public class ConnectFragment extends Fragment {
      */
     private void showGenericError() {
         showGenericError(null);
-        companionDevice.setProtocolInError(100,"Unknown Error");
-        companionDevice.reset();
+        if (session != null) {
+            session.setProtocolInError(100,"Unknown Error");
+            session.reset();
+        }
     }
 
     /**
@@ -554,9 +942,9 @@ public class ConnectFragment extends Fragment {
         if (inError) {
             return;
         }
-        if (companionDevice != null) {
-            companionDevice.setProtocolInError(102,customText);
-            companionDevice.reset();
+        if (session != null) {
+            session.setProtocolInError(102,customText);
+            session.reset();
         }
         View view;
         if (passedView != null) {
@@ -601,7 +989,7 @@ public class ConnectFragment extends Fragment {
                 Log.e(TAG, "Error code: " + errorCode + "error String: " + errString);
                 super.onAuthenticationError(errorCode, errString);
                 rollback();
-                companionDevice.setProtocolInError(104,"Biometric Authentication Failed or Rejected");
+                session.setProtocolInError(104,"Biometric Authentication Failed or Rejected");
                 showGenericError("Biometric authentication failed");
             }
 
@@ -609,14 +997,15 @@ public class ConnectFragment extends Fragment {
             public void onAuthenticationSucceeded(@NonNull BiometricPrompt.AuthenticationResult result) {
                 Log.i(TAG, "onAuthenticationSucceeded");
                 super.onAuthenticationSucceeded(result);
-                processCrypto(result.getCryptoObject());
+                BiometricPrompt.CryptoObject authorised = result.getCryptoObject();
+                processCrypto(authorised != null ? () -> authorised : pendingCrypto);
             }
 
             @Override
             public void onAuthenticationFailed() {
                 super.onAuthenticationFailed();
                 rollback();
-                companionDevice.setProtocolInError(104,"Biometric Authentication Failed or Rejected");
+                session.setProtocolInError(104,"Biometric Authentication Failed or Rejected");
                 showGenericError("Biometric authentication failed");
             }
         };
@@ -624,33 +1013,51 @@ public class ConnectFragment extends Fragment {
 
     /**
      * If the biometric prompt is successful process the now available crypto object
-     * @param cryptoObject
+     * @param supplier supplies the authorised crypto object, or null for a time-bound batch
      */
-    private void processCrypto(BiometricPrompt.CryptoObject cryptoObject) {
-        try {
-            String type = companionDevice.getProtocolData("type");
-            switch (type) {
-                case "Put":
-                    doEncryption(cryptoObject.getCipher(), companionDevice.getProtocolData(CorePutReqMessage.Fields.DATA));
-                    break;
-                case "Get":
-                    doDecryption(cryptoObject.getCipher(), companionDevice.getProtocolData(CoreGetReqMessage.Fields.ENC_DATA));
-                    break;
-                case "Reg":
-                    //We don't want to create a signature during reg, so we just return
-                    //immediately, but we want to check that the key is bound to the biometric
-                    //hence why we make this call
-                    companionDevice.updateFromUI();
-                    break;
-                case "Verify":
-                    doSignature(cryptoObject.getSignature(), companionDevice.getProtocolData(CoreVerifyReqMessage.Fields.NONCE));
-                    break;
+    private void processCrypto(CryptoSupplier supplier) {
+        //The crypto and the protocol update run on the session executor, not the main thread
+        Executor mainExecutor = ContextCompat.getMainExecutor(requireContext());
+        session.execute(() -> {
+            try {
+                String type = session.getProtocolData("type");
+                switch (type) {
+                    case "Put":
+                        doEncryption(supplier.get().getCipher(), session.getProtocolData(CorePutReqMessage.Fields.DATA));
+                        break;
+                    case "Get":
+                        doDecryption(supplier.get().getCipher(), session.getProtocolData(CoreGetReqMessage.Fields.ENC_DATA));
+                        break;
+                    case "Reg":
+                        //We don't want to create a signature during reg, so we just return
+                        //immediately, but we want to check that the key is bound to the biometric
+                        //hence why we make this call
+                        supplier.get();
+                        session.updateFromUI();
+                        break;
+                    case "Verify":
+                        doSignature(supplier.get().getSignature(), session.getProtocolData(CoreVerifyReqMessage.Fields.NONCE));
+                        break;
+                    case "Batch":
+                        if (batchTimeBound) {
+                            processTimeBoundBatch();
+                        } else {
+                            processBatchCrypto(supplier.get());
+                        }
+                        break;
+                    case "PutStream":
+                        doWrapChunkKey(supplier.get().getCipher());
+                        break;
+                    case "GetStream":
+                        doUnwrapChunkKey(supplier.get().getCipher(), session.getProtocolData(CoreGetStreamReqMessage.Fields.ENC_KEY));
+                        break;
 
+                }
+            } catch (CryptoException e) {
+                Log.d(TAG, "Exception processing biometric crypto", e);
+                mainExecutor.execute(this::showGenericError);
             }
-        } catch (CryptoException e) {
-            Log.d(TAG, "Exception processing biometric crypto", e);
-            showGenericError();
-        }
+        });
 
     }
 
@@ -661,15 +1068,25 @@ public class ConnectFragment extends Fragment {
      * @throws CryptoException
      */
     private void doSignature(Signature signature, String data) throws CryptoException {
+        Map<String, String> updateData = new HashMap<>();
+        updateData.put(CoreVerifyResMessage.Fields.APP_SIG, sign(signature, data));
+        session.updateFromUI(updateData);
+    }
+
+    /**
+     * Sign the data using the biometric authorised Signature object
+     * @param signature Signature object that is authorised for use
+     * @param data Base64 encoded data to be signed
+     * @return Base64 encoded signature
+     * @throws CryptoException
+     */
+    private String sign(Signature signature, String data) throws CryptoException {
         if (signature == null) {
             throw new CryptoException("Null signature object");
         }
         try {
             signature.update(B64.decode(data));
-            String sig = B64.encode(signature.sign());
-            Map<String, String> updateData = new HashMap<>();
-            updateData.put(CoreVerifyResMessage.Fields.APP_SIG, sig);
-            companionDevice.updateFromUI(updateData);
+            return B64.encode(signature.sign());
         } catch (SignatureException e) {
             throw new CryptoException("Exception creating signature", e);
         }
@@ -682,6 +1099,19 @@ public class ConnectFragment extends Fragment {
      * @throws CryptoException
      */
     private void doEncryption(Cipher cipher, String data) throws CryptoException {
+        Map<String, String> updateData = new HashMap<>();
+        updateData.put(CorePutResMessage.Fields.ENC_DATA, encrypt(cipher, data));
+        session.updateFromUI(updateData);
+    }
+
+    /**
+     * Encrypt the data with the authorised Cipher object
+     * @param cipher authorised Cipher object
+     * @param data Base64 encoded data to encrypt
+     * @return JSON string containing the IV and cipher text
+     * @throws CryptoException
+     */
+    private String encrypt(Cipher cipher, String data) throws CryptoException {
         if (cipher == null) {
             throw new CryptoException("Null cipher object");
         }
@@ -691,15 +1121,53 @@ public class ConnectFragment extends Fragment {
             JSONObject cipherText = new JSONObject();
             cipherText.put("cipher_text", B64.encode(cipherBytes));
             cipherText.put("iv", B64.encode(iv));
-            Map<String, String> updateData = new HashMap<>();
-
-            updateData.put(CorePutResMessage.Fields.ENC_DATA, cipherText.toString());
-            companionDevice.updateFromUI(updateData);
+            return cipherText.toString();
         } catch (JSONException | BadPaddingException | IllegalBlockSizeException e) {
             throw new CryptoException("Exception doing encryption", e);
         }
     }
 
+    /**
+     * Start a chunked Put by generating a new data key for the chunks and wrapping it with the
+     * authorised App key Cipher object. The chunks themselves are encrypted as they are received,
+     * without further user interaction.
+     * @param cipher authorised Cipher object
+     * @throws CryptoException
+     */
+    private void doWrapChunkKey(Cipher cipher) throws CryptoException {
+        byte[] key = ChunkedCipher.generateKey();
+        try {
+            Map<String, String> updateData = new HashMap<>();
+            updateData.put(CorePutStreamResMessage.Fields.ENC_KEY, encrypt(cipher, B64.encode(key)));
+            updateData.put(Constants.CHUNK_PREFIX, B64.encode(ChunkedCipher.generatePrefix()));
+            updateData.put(Constants.CHUNK_KEY, B64.encode(key));
+            session.updateFromUI(updateData);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * Start a chunked Get by unwrapping the data key of the chunks with the authorised App key
+     * Cipher object. The chunks themselves are decrypted as they are received, without further
+     * user interaction.
+     * @param cipher authorised Cipher object
+     * @param wrappedKey wrapped data key, containing IV and cipher text
+     * @throws CryptoException
+     */
+    private void doUnwrapChunkKey(Cipher cipher, String wrappedKey) throws CryptoException {
+        String key = decrypt(cipher, wrappedKey);
+        byte[] keyBytes = B64.decode(key);
+        int keyLength = keyBytes.length;
+        Arrays.fill(keyBytes, (byte) 0);
+        if (keyLength != ChunkedCipher.KEY_LENGTH) {
+            throw new CryptoException("Invalid chunk key");
+        }
+        Map<String, String> updateData = new HashMap<>();
+        updateData.put(Constants.CHUNK_KEY, key);
+        session.updateFromUI(updateData);
+    }
+
     /**
      * Perform a decryption using the now authorised Cipher object
      * @param cipher authorised cipher object
@@ -707,6 +1175,19 @@ public class ConnectFragment extends Fragment {
      * @throws CryptoException
      */
     private void doDecryption(Cipher cipher, String encryptedData) throws CryptoException {
+        Map<String, String> data = new HashMap<>();
+        data.put(CoreGetResMessage.Fields.DATA, decrypt(cipher, encryptedData));
+        session.updateFromUI(data);
+    }
+
+    /**
+     * Decrypt the data using the authorised Cipher object
+     * @param cipher authorised cipher object
+     * @param encryptedData data to be decrypted, containing IV and cipher text
+     * @return Base64 encoded plaintext
+     * @throws CryptoException
+     */
+    private String decrypt(Cipher cipher, String encryptedData) throws CryptoException {
         if (cipher == null) {
             throw new CryptoException("Null cipher object");
         }
@@ -715,10 +1196,7 @@ public class ConnectFragment extends Fragment {
 
             byte[] cipherBytes = B64.decode(cipherText.getString(EncryptedMessage.CIPHER_TEXT));
 
-            String plaintext = B64.encode(cipher.doFinal(cipherBytes));
-            Map<String, String> data = new HashMap<>();
-            data.put(CoreGetResMessage.Fields.DATA, plaintext);
-            companionDevice.updateFromUI(data);
+            return B64.encode(cipher.doFinal(cipherBytes));
         } catch (JSONException | BadPaddingException | IllegalBlockSizeException e) {
             throw new CryptoException("Exception doing decryption", e);
         }
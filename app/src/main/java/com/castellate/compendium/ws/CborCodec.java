@@ -0,0 +1,317 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.ws;
+
+import com.castellate.compendium.crypto.B64;
+import com.castellate.compendium.protocol.core.CoreKeyReqProtocolMessage;
+import com.castellate.compendium.protocol.messages.EncryptedMessage;
+import com.castellate.compendium.protocol.messages.InitKeyRespProtocolMessage;
+import com.castellate.compendium.protocol.messages.MessageSchema;
+import com.google.common.collect.ImmutableSet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Binary CBOR (RFC 8949) encoding of web socket messages, used in place of JSON text when the
+ * relay server has agreed to it at INIT.
+ *
+ * Messages are still handled as JSON trees within the app, the codec converts between the two at
+ * the web socket. The values of fields known to hold Base64 binary, the IVs, cipher texts,
+ * exchanged public keys and signatures that appear outside of encryption, are sent as byte strings
+ * tagged as expected Base64 (tag 22), so the binary value is sent without the Base64 inflation
+ * and is converted back to the identical string on receipt. As such signatures calculated over
+ * the string values are unaffected by the encoding. Any other string, even one that happens to be
+ * valid Base64 such as a key id or relay address, is sent as text.
+ */
+public final class CborCodec {
+    public static final String NAME = "cbor";
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int MAJOR_SIMPLE = 7;
+    private static final int TAG_EXPECTED_BASE64 = 22;
+    private static final int SIMPLE_FALSE = 20;
+    private static final int SIMPLE_TRUE = 21;
+    private static final int SIMPLE_NULL = 22;
+    private static final int FLOAT_64 = 27;
+    private static final int MAX_DEPTH = 16;
+    //Fields whose values are Base64 binary, only these are sent as byte strings
+    private static final Set<String> BINARY_FIELDS = ImmutableSet.of(EncryptedMessage.IV, EncryptedMessage.CIPHER_TEXT, CoreKeyReqProtocolMessage.Fields.G_X, InitKeyRespProtocolMessage.Fields.G_Y, CoreKeyReqProtocolMessage.Fields.SIGNATURE_PC);
+
+    private CborCodec() {
+        // restrict instantiation
+    }
+
+    /**
+     * Encode a message as CBOR
+     * @param msg message to encode
+     * @return CBOR encoded bytes
+     * @throws JSONException if the message contains a value that cannot be encoded
+     */
+    public static byte[] encode(JSONObject msg) throws JSONException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeValue(out, msg, null, 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a CBOR message
+     * @param data buffer containing the CBOR encoded message
+     * @return JSONObject containing the message
+     * @throws JSONException if the message is oversized, malformed or not a map
+     */
+    public static JSONObject decode(ByteBuffer data) throws JSONException {
+        if (data.remaining() > MessageSchema.MAX_MESSAGE_LENGTH) {
+            throw new JSONException("Message too large");
+        }
+        try {
+            Object msg = readValue(data, 0);
+            if (!(msg instanceof JSONObject) || data.hasRemaining()) {
+                throw new JSONException("Invalid CBOR message");
+            }
+            return (JSONObject) msg;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new JSONException("Malformed CBOR message");
+        }
+    }
+
+    private static void writeValue(ByteArrayOutputStream out, Object value, String field, int depth) throws JSONException {
+        if (depth > MAX_DEPTH) {
+            throw new JSONException("Message nested too deeply");
+        }
+        if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            writeHead(out, MAJOR_MAP, obj.length());
+            Iterator<String> itr = obj.keys();
+            while (itr.hasNext()) {
+                String key = itr.next();
+                writeText(out, key);
+                writeValue(out, obj.get(key), key, depth + 1);
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            writeHead(out, MAJOR_ARRAY, array.length());
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(out, array.get(i), null, depth + 1);
+            }
+        } else if (value instanceof String) {
+            byte[] binary = BINARY_FIELDS.contains(field) ? asBase64Bytes((String) value) : null;
+            if (binary != null) {
+                writeHead(out, MAJOR_TAG, TAG_EXPECTED_BASE64);
+                writeHead(out, MAJOR_BYTES, binary.length);
+                out.write(binary, 0, binary.length);
+            } else {
+                writeText(out, (String) value);
+            }
+        } else if (value instanceof Boolean) {
+            out.write((MAJOR_SIMPLE << 5) | ((Boolean) value ? SIMPLE_TRUE : SIMPLE_FALSE));
+        } else if (value == null || value == JSONObject.NULL) {
+            out.write((MAJOR_SIMPLE << 5) | SIMPLE_NULL);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            long number = ((Number) value).longValue();
+            if (number >= 0) {
+                writeHead(out, MAJOR_UNSIGNED, number);
+            } else {
+                writeHead(out, MAJOR_NEGATIVE, -1 - number);
+            }
+        } else if (value instanceof Number) {
+            out.write((MAJOR_SIMPLE << 5) | FLOAT_64);
+            long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (bits >>> shift));
+            }
+        } else {
+            throw new JSONException("Unsupported value type");
+        }
+    }
+
+    private static void writeText(ByteArrayOutputStream out, String value) {
+        byte[] text = value.getBytes(StandardCharsets.UTF_8);
+        writeHead(out, MAJOR_TEXT, text.length);
+        out.write(text, 0, text.length);
+    }
+
+    private static void writeHead(ByteArrayOutputStream out, int major, long value) {
+        int type = major << 5;
+        if (value < 24) {
+            out.write(type | (int) value);
+        } else if (value <= 0xFF) {
+            out.write(type | 24);
+            out.write((int) value);
+        } else if (value <= 0xFFFF) {
+            out.write(type | 25);
+            out.write((int) (value >>> 8));
+            out.write((int) value);
+        } else if (value <= 0xFFFFFFFFL) {
+            out.write(type | 26);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                out.write((int) (value >>> shift));
+            }
+        } else {
+            out.write(type | 27);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (value >>> shift));
+            }
+        }
+    }
+
+    /**
+     * Get the bytes of a string if it is canonical Base64, such that encoding the bytes again
+     * gives back exactly the same string
+     * @param value string to check
+     * @return decoded bytes or null if the string is not canonical Base64
+     */
+    private static byte[] asBase64Bytes(String value) {
+        if (value.length() % 4 != 0) {
+            return null;
+        }
+        try {
+            byte[] bytes = B64.decode(value);
+            return B64.encode(bytes).equals(value) ? bytes : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Object readValue(ByteBuffer in, int depth) throws JSONException {
+        if (depth > MAX_DEPTH) {
+            throw new JSONException("Message nested too deeply");
+        }
+        int initial = in.get() & 0xFF;
+        int major = initial >>> 5;
+        int info = initial & 0x1F;
+        if (major == MAJOR_SIMPLE) {
+            switch (info) {
+                case SIMPLE_FALSE:
+                    return false;
+                case SIMPLE_TRUE:
+                    return true;
+                case SIMPLE_NULL:
+                    return JSONObject.NULL;
+                case FLOAT_64:
+                    return Double.longBitsToDouble(in.getLong());
+                default:
+                    throw new JSONException("Unsupported CBOR simple value");
+            }
+        }
+        long argument = readArgument(in, info);
+        switch (major) {
+            case MAJOR_UNSIGNED:
+                if (argument < 0) {
+                    throw new JSONException("CBOR integer out of range");
+                }
+                return argument;
+            case MAJOR_NEGATIVE:
+                if (argument < 0) {
+                    throw new JSONException("CBOR integer out of range");
+                }
+                return -1 - argument;
+            case MAJOR_BYTES:
+                return B64.encode(readBytes(in, argument));
+            case MAJOR_TEXT:
+                return new String(readBytes(in, argument), StandardCharsets.UTF_8);
+            case MAJOR_ARRAY: {
+                JSONArray array = new JSONArray();
+                long length = checkLength(in, argument);
+                for (long i = 0; i < length; i++) {
+                    array.put(readValue(in, depth + 1));
+                }
+                return array;
+            }
+            case MAJOR_MAP: {
+                JSONObject obj = new JSONObject();
+                long length = checkLength(in, argument);
+                for (long i = 0; i < length; i++) {
+                    Object key = readValue(in, depth + 1);
+                    if (!(key instanceof String) || obj.has((String) key)) {
+                        throw new JSONException("Invalid CBOR map key");
+                    }
+                    obj.put((String) key, readValue(in, depth + 1));
+                }
+                return obj;
+            }
+            case MAJOR_TAG:
+                //Byte strings are always returned as Base64, so tag 22 needs no further handling
+                if (argument != TAG_EXPECTED_BASE64) {
+                    throw new JSONException("Unsupported CBOR tag");
+                }
+                return readValue(in, depth + 1);
+            default:
+                throw new JSONException("Unsupported CBOR type");
+        }
+    }
+
+    private static long readArgument(ByteBuffer in, int info) throws JSONException {
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return in.get() & 0xFFL;
+            case 25:
+                return in.getShort() & 0xFFFFL;
+            case 26:
+                return in.getInt() & 0xFFFFFFFFL;
+            case 27:
+                return in.getLong();
+            default:
+                //Indefinite lengths are not used by this codec
+                throw new JSONException("Unsupported CBOR length");
+        }
+    }
+
+    /**
+     * Check a length read from the message cannot exceed the remaining data, before anything is
+     * allocated for it. Every item occupies at least one byte.
+     */
+    private static long checkLength(ByteBuffer in, long length) throws JSONException {
+        if (length < 0 || length > in.remaining()) {
+            throw new JSONException("Invalid CBOR length");
+        }
+        return length;
+    }
+
+    private static byte[] readBytes(ByteBuffer in, long length) throws JSONException {
+        byte[] bytes = new byte[(int) checkLength(in, length)];
+        in.get(bytes);
+        return bytes;
+    }
+}
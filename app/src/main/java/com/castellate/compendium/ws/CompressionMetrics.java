@@ -0,0 +1,169 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.ws;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters recording the size of web socket messages before and after permessage-deflate
+ * compression, showing the saving on the wire. Sizes are recorded by the extension as it encodes
+ * and decodes each message, so nothing is recorded if the relay did not agree to the extension.
+ * Messages below the threshold are counted with the same size before and after.
+ *
+ * The connection has one set of counters and each protocol session another. An outgoing message
+ * is attributed to the session that queued it whilst the writer thread encodes it, and an incoming
+ * message to the session it is routed to.
+ */
+public final class CompressionMetrics {
+    //Session metrics of the message being written on the current thread, if any
+    private static final ThreadLocal<CompressionMetrics> attributed = new ThreadLocal<>();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong compressedMessages = new AtomicLong();
+    private final AtomicLong originalBytes = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong receivedMessages = new AtomicLong();
+    private final AtomicLong receivedOriginalBytes = new AtomicLong();
+    private final AtomicLong receivedWireBytes = new AtomicLong();
+
+    /**
+     * Set the metrics that messages encoded on the current thread are also recorded in, called
+     * by the outbound queue around each write
+     * @param metrics session metrics or null to stop attributing messages
+     */
+    static void attributeTo(CompressionMetrics metrics) {
+        if (metrics == null) {
+            attributed.remove();
+        } else {
+            attributed.set(metrics);
+        }
+    }
+
+    /**
+     * Get the metrics that messages encoded on the current thread are also recorded in
+     * @return session metrics or null if messages are not being attributed
+     */
+    static CompressionMetrics getAttributed() {
+        return attributed.get();
+    }
+
+    /**
+     * Record an outgoing message
+     * @param original size of the message payload before compression
+     * @param wire size of the payload written to the connection
+     */
+    public void record(long original, long wire) {
+        messages.incrementAndGet();
+        if (wire != original) {
+            compressedMessages.incrementAndGet();
+        }
+        originalBytes.addAndGet(original);
+        wireBytes.addAndGet(wire);
+    }
+
+    /**
+     * Record an incoming message
+     * @param original size of the message payload after decompression
+     * @param wire size of the payload read from the connection
+     */
+    public void recordReceived(long original, long wire) {
+        receivedMessages.incrementAndGet();
+        receivedOriginalBytes.addAndGet(original);
+        receivedWireBytes.addAndGet(wire);
+    }
+
+    /**
+     * Get the number of messages recorded
+     * @return number of messages
+     */
+    public long getMessages() {
+        return messages.get();
+    }
+
+    /**
+     * Get the number of messages that were compressed
+     * @return number of compressed messages
+     */
+    public long getCompressedMessages() {
+        return compressedMessages.get();
+    }
+
+    /**
+     * Get the total size of the messages before compression
+     * @return bytes before compression
+     */
+    public long getOriginalBytes() {
+        return originalBytes.get();
+    }
+
+    /**
+     * Get the total size of the messages written to the connection
+     * @return bytes after compression
+     */
+    public long getWireBytes() {
+        return wireBytes.get();
+    }
+
+    /**
+     * Get the proportion of bytes saved by compression
+     * @return saving as a percentage
+     */
+    public int getSavingPercent() {
+        long original = getOriginalBytes();
+        return original == 0 ? 0 : (int) ((original - getWireBytes()) * 100 / original);
+    }
+
+    /**
+     * Get the number of incoming messages recorded
+     * @return number of messages received
+     */
+    public long getReceivedMessages() {
+        return receivedMessages.get();
+    }
+
+    /**
+     * Get the total size of the incoming messages after decompression
+     * @return bytes after decompression
+     */
+    public long getReceivedOriginalBytes() {
+        return receivedOriginalBytes.get();
+    }
+
+    /**
+     * Get the total size of the incoming messages read from the connection
+     * @return bytes read from the connection
+     */
+    public long getReceivedWireBytes() {
+        return receivedWireBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "messages:" + getMessages() + " compressed:" + getCompressedMessages() + ", bytes:" + getOriginalBytes() + " on wire:" + getWireBytes() + " saving:" + getSavingPercent() + "%"
+                + ", received:" + getReceivedMessages() + " bytes:" + getReceivedOriginalBytes() + " on wire:" + getReceivedWireBytes();
+    }
+}
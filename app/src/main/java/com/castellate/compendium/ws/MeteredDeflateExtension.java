@@ -0,0 +1,157 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.ws;
+
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * permessage-deflate extension that only compresses messages at or above a threshold, and records
+ * the size of each outgoing message before and after encoding. Messages smaller than the threshold
+ * are passed through without the RSV1 bit set, which permessage-deflate permits, so short
+ * handshake messages avoid the cost of compression whilst larger payloads are deflated. Incoming
+ * messages without the RSV1 bit are likewise accepted and passed through uncompressed, so a peer
+ * applying its own threshold can be read. The sizes
+ * are recorded against the metrics of the connection as each frame is encoded, whichever thread
+ * that is on, and against the session metrics the writing thread is attributing messages to.
+ *
+ * The size of each incoming message is recorded against the connection as it is decoded and held
+ * until the message is dispatched, when it can be attributed to the session it is routed to.
+ * Frames are decoded and dispatched in order on the read thread of the connection, so the sizes
+ * are only accessed from that thread.
+ */
+public class MeteredDeflateExtension extends PerMessageDeflateExtension {
+    private final int threshold;
+    private final CompressionMetrics metrics;
+    //Sizes of incoming messages decoded but not yet dispatched, as {original, wire}
+    private final Queue<long[]> received = new ArrayDeque<>();
+    private long receivingOriginal = 0;
+    private long receivingWire = 0;
+    private boolean receivingUncompressed = false;
+
+    /**
+     * Create a new extension
+     * @param threshold size in bytes below which messages are not compressed
+     * @param metrics metrics to record the size of outgoing messages in
+     */
+    public MeteredDeflateExtension(int threshold, CompressionMetrics metrics) {
+        this.threshold = threshold;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the size in bytes below which messages are not compressed
+     * @return threshold in bytes
+     */
+    public int getCompressionThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public void encodeFrame(Framedata inputFrame) {
+        if (!(inputFrame instanceof DataFrame)) {
+            super.encodeFrame(inputFrame);
+            return;
+        }
+        long original = inputFrame.getPayloadData().remaining();
+        if (inputFrame.isFin() && !(inputFrame instanceof ContinuousFrame) && original < threshold) {
+            metrics.record(original, original);
+            return;
+        }
+        super.encodeFrame(inputFrame);
+        record(original, inputFrame.getPayloadData().remaining());
+    }
+
+    /**
+     * Record an outgoing message against the connection and the session being attributed to
+     * @param original size of the message payload before compression
+     * @param wire size of the payload written to the connection
+     */
+    private void record(long original, long wire) {
+        metrics.record(original, wire);
+        CompressionMetrics session = CompressionMetrics.getAttributed();
+        if (session != null) {
+            session.record(original, wire);
+        }
+    }
+
+    @Override
+    public void isFrameValid(Framedata inputFrame) throws InvalidDataException {
+        if (inputFrame instanceof DataFrame && !inputFrame.isRSV1() && !inputFrame.isRSV2() && !inputFrame.isRSV3()) {
+            //Uncompressed message, or a continuation frame, which the base class requires RSV1 on
+            return;
+        }
+        super.isFrameValid(inputFrame);
+    }
+
+    @Override
+    public void decodeFrame(Framedata inputFrame) throws InvalidDataException {
+        if (!(inputFrame instanceof DataFrame)) {
+            super.decodeFrame(inputFrame);
+            return;
+        }
+        if (!(inputFrame instanceof ContinuousFrame)) {
+            receivingUncompressed = !inputFrame.isRSV1();
+        }
+        receivingWire += inputFrame.getPayloadData().remaining();
+        if (!receivingUncompressed) {
+            super.decodeFrame(inputFrame);
+        }
+        receivingOriginal += inputFrame.getPayloadData().remaining();
+        if (inputFrame.isFin()) {
+            metrics.recordReceived(receivingOriginal, receivingWire);
+            received.add(new long[]{receivingOriginal, receivingWire});
+            receivingOriginal = 0;
+            receivingWire = 0;
+        }
+    }
+
+    /**
+     * Record the size of the oldest incoming message not yet dispatched against the session it
+     * was routed to. Called on the read thread once for each message dispatched.
+     * @param session session metrics or null if the message was not routed to a session
+     */
+    public void attributeReceived(CompressionMetrics session) {
+        long[] sizes = received.poll();
+        if (sizes != null && session != null) {
+            session.recordReceived(sizes[0], sizes[1]);
+        }
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        return new MeteredDeflateExtension(threshold, metrics);
+    }
+}
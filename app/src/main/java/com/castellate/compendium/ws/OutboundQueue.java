@@ -0,0 +1,324 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.ws;
+
+import android.util.Log;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of outgoing web socket messages written by a single writer thread. Messages
+ * are written in the order they are queued, and only whilst the connection is open, so callers,
+ * including the UI thread, never block on the network. When the queue is full further messages
+ * are rejected and their callback notified, rather than the queue growing whilst the connection
+ * is stalled.
+ *
+ * A message may be queued with a lock, which is held whilst it is written and its callback
+ * called. Protocol sessions use this so that a reply cannot be processed before the session has
+ * recorded the message as sent. It may also be queued with the compression metrics of the
+ * session, which the message is attributed to whilst it is encoded.
+ *
+ * The queue can be held, for example whilst a lost connection is re-established, in which case
+ * only messages queued with enqueueFirst are written until it is released. Every message,
+ * including those, is written by the writer thread.
+ */
+public class OutboundQueue {
+    private static final String TAG = "OutboundQueue";
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private final BlockingDeque<Entry> queue;
+    private final Connection connection;
+    private final ExecutorService writer;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private volatile boolean held = false;
+
+    /**
+     * Connection the queue writes to
+     */
+    public interface Connection {
+        /**
+         * Checks whether the connection is open for writing
+         * @return true if open, false if not
+         */
+        boolean isOpen();
+
+        /**
+         * Write a message to the connection
+         * @param message message to write
+         */
+        void write(String message);
+    }
+
+    /**
+     * Callback notified of the outcome of a queued message
+     */
+    public interface SendCallback {
+        /**
+         * Called on the writer thread once the message has been written
+         */
+        void onSent();
+
+        /**
+         * Called if the message was rejected because the queue was full
+         */
+        void onRejected();
+    }
+
+    /**
+     * Queued message with its callback, lock and the time it was queued
+     */
+    private static final class Entry {
+        private final String message;
+        private final Object lock;
+        private final SendCallback callback;
+        private final CompressionMetrics metrics;
+        private final boolean first;
+        private final long queuedAt = System.nanoTime();
+
+        private Entry(String message, Object lock, SendCallback callback, CompressionMetrics metrics, boolean first) {
+            this.message = message;
+            this.lock = lock;
+            this.callback = callback;
+            this.metrics = metrics;
+            this.first = first;
+        }
+    }
+
+    /**
+     * Create a new outbound queue
+     * @param connection connection to write to
+     * @param capacity maximum number of messages that can be queued
+     */
+    public OutboundQueue(Connection connection, int capacity) {
+        this.connection = connection;
+        this.queue = new LinkedBlockingDeque<>(capacity);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        pool.allowCoreThreadTimeOut(true);
+        this.writer = pool;
+    }
+
+    /**
+     * Queue a message to be written
+     * @param message message to write
+     * @param lock lock to hold whilst writing the message and calling the callback, or null
+     * @param callback callback to notify, or null
+     * @return true if queued, false if rejected because the queue is full
+     */
+    public boolean enqueue(String message, Object lock, SendCallback callback) {
+        return enqueue(message, lock, callback, null);
+    }
+
+    /**
+     * Queue a message to be written, attributing its size before and after compression to the
+     * specified metrics
+     * @param message message to write
+     * @param lock lock to hold whilst writing the message and calling the callback, or null
+     * @param callback callback to notify, or null
+     * @param metrics compression metrics of the session queuing the message, or null
+     * @return true if queued, false if rejected because the queue is full
+     */
+    public boolean enqueue(String message, Object lock, SendCallback callback, CompressionMetrics metrics) {
+        if (!queue.offerLast(new Entry(message, lock, callback, metrics, false))) {
+            rejected.incrementAndGet();
+            Log.d(TAG, "Outbound queue full, rejecting message");
+            if (callback != null) {
+                callback.onRejected();
+            }
+            return false;
+        }
+        maxDepth.accumulateAndGet(queue.size(), Math::max);
+        flush();
+        return true;
+    }
+
+    /**
+     * Queue a message to be written ahead of any message already queued, used to re-register
+     * with the relay and to replay messages that were written to a connection that has since been
+     * lost. The message is written even if the queue is held, and is not rejected if the queue is
+     * full. The writer is not scheduled, call flush once the messages have been queued.
+     * @param message message to write
+     */
+    public void enqueueFirst(String message) {
+        queue.offerFirst(new Entry(message, null, null, null, true));
+        maxDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    /**
+     * Hold the queue, so that only messages queued with enqueueFirst are written until released
+     */
+    public void hold() {
+        held = true;
+    }
+
+    /**
+     * Release the queue and schedule the writer to write the messages held
+     */
+    public void release() {
+        held = false;
+        flush();
+    }
+
+    /**
+     * Checks whether the queue is held
+     * @return true if held, false if not
+     */
+    public boolean isHeld() {
+        return held;
+    }
+
+    /**
+     * Schedule the writer to write any queued messages, called when messages are queued and when
+     * the connection opens
+     */
+    public void flush() {
+        writer.execute(this::drain);
+    }
+
+    /**
+     * Discard all queued messages
+     */
+    public void clear() {
+        queue.clear();
+    }
+
+    /**
+     * Write queued messages, in order, until the queue is empty, the connection is not open or
+     * the next message is held. Only called on the writer thread.
+     */
+    private void drain() {
+        Entry entry;
+        while (connection.isOpen() && (entry = next()) != null) {
+            if (entry.lock == null) {
+                if (!write(entry)) {
+                    return;
+                }
+            } else {
+                synchronized (entry.lock) {
+                    if (!write(entry)) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the next entry to write. Whilst the queue is held only entries queued with enqueueFirst
+     * are taken, other threads only add those at the head so the entry checked is the one taken.
+     * Only called on the writer thread.
+     * @return entry or null if the queue is empty or the next entry is held
+     */
+    private Entry next() {
+        if (held) {
+            Entry head = queue.peekFirst();
+            if (head == null || !head.first) {
+                return null;
+            }
+        }
+        return queue.pollFirst();
+    }
+
+    /**
+     * Write a single entry, returning it to the head of the queue if the connection closed
+     * before it could be written
+     * @param entry entry to write
+     * @return true if written, false if returned to the queue
+     */
+    private boolean write(Entry entry) {
+        CompressionMetrics.attributeTo(entry.metrics);
+        try {
+            connection.write(entry.message);
+        } catch (RuntimeException e) {
+            Log.d(TAG, "Write failed, will retry when the connection opens", e);
+            queue.offerFirst(entry);
+            return false;
+        } finally {
+            CompressionMetrics.attributeTo(null);
+        }
+        sent.incrementAndGet();
+        totalLatencyNanos.addAndGet(System.nanoTime() - entry.queuedAt);
+        if (entry.callback != null) {
+            entry.callback.onSent();
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of messages currently queued
+     * @return queue depth
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get the largest number of messages that have been queued at once
+     * @return maximum queue depth
+     */
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Get the number of messages written
+     * @return number of messages sent
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * Get the number of messages rejected because the queue was full
+     * @return number of messages rejected
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Get the average time from a message being queued to it being written
+     * @return average latency in milliseconds
+     */
+    public long getAverageLatencyMillis() {
+        long count = sent.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.get() / count);
+    }
+
+    @Override
+    public String toString() {
+        return "queue depth:" + getDepth() + " max:" + getMaxDepth() + ", sent:" + getSentCount() + " rejected:" + getRejectedCount() + ", average latency:" + getAverageLatencyMillis() + "ms";
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.ws;
+
+import java.util.Random;
+
+/**
+ * Reconnect policy for the relay connection using exponential backoff with jitter. The delay
+ * before each attempt is drawn from the upper half of an exponentially growing window, so
+ * devices that lost the connection at the same time do not reconnect in step, and the number
+ * of attempts is bounded so that a session fails rather than waiting indefinitely.
+ */
+public final class ReconnectPolicy {
+    private static final int MAX_SHIFT = 20;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+    private final Random random = new Random();
+
+    /**
+     * Create a new reconnect policy
+     * @param baseDelayMillis window of the first attempt
+     * @param maxDelayMillis largest window of any attempt
+     * @param maxAttempts number of attempts before giving up
+     */
+    public ReconnectPolicy(long baseDelayMillis, long maxDelayMillis, int maxAttempts) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Get the delay before the specified attempt
+     * @param attempt attempt number, starting at 1
+     * @return delay in milliseconds
+     */
+    public long getDelayMillis(int attempt) {
+        int shift = Math.min(Math.max(attempt - 1, 0), MAX_SHIFT);
+        long window = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        long half = window / 2;
+        return half + (long) (random.nextDouble() * (window - half));
+    }
+
+    /**
+     * Checks whether the specified attempt is within the retry budget
+     * @param attempt attempt number, starting at 1
+     * @return true if the attempt should be made, false if the budget is exhausted
+     */
+    public boolean allows(int attempt) {
+        return attempt <= maxAttempts;
+    }
+
+    /**
+     * Get the number of attempts that will be made
+     * @return maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
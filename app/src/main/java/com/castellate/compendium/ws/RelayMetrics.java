@@ -0,0 +1,107 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.ws;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters recording how often protocol runs reuse the relay connection and ephemeral address
+ * rather than opening a new connection or sending a new INIT
+ */
+public final class RelayMetrics {
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+    private final AtomicLong initsSent = new AtomicLong();
+    private final AtomicLong initsReused = new AtomicLong();
+
+    /**
+     * Record that a new connection to the relay was opened
+     */
+    public void connectionOpened() {
+        connectionsOpened.incrementAndGet();
+    }
+
+    /**
+     * Record that a protocol run used the existing connection to the relay
+     */
+    public void connectionReused() {
+        connectionsReused.incrementAndGet();
+    }
+
+    /**
+     * Record that an INIT was sent to the relay
+     */
+    public void initSent() {
+        initsSent.incrementAndGet();
+    }
+
+    /**
+     * Record that a protocol run was given the address of a finished session instead of sending
+     * an INIT
+     */
+    public void initReused() {
+        initsReused.incrementAndGet();
+    }
+
+    /**
+     * Get the number of connections opened to the relay
+     * @return number of connections opened
+     */
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /**
+     * Get the number of protocol runs that used an existing connection
+     * @return number of connections reused
+     */
+    public long getConnectionsReused() {
+        return connectionsReused.get();
+    }
+
+    /**
+     * Get the number of INIT messages sent to the relay
+     * @return number of INITs sent
+     */
+    public long getInitsSent() {
+        return initsSent.get();
+    }
+
+    /**
+     * Get the number of INIT messages answered with the address of a finished session
+     * @return number of INITs reused
+     */
+    public long getInitsReused() {
+        return initsReused.get();
+    }
+
+    @Override
+    public String toString() {
+        return "connections opened:" + getConnectionsOpened() + " reused:" + getConnectionsReused() + ", inits sent:" + getInitsSent() + " reused:" + getInitsReused();
+    }
+}
@@ -27,23 +27,36 @@
 
 package com.castellate.compendium.ws;
 
+import android.util.Log;
+
+import com.castellate.compendium.data.Config;
+import com.castellate.compendium.exceptions.StorageException;
+import com.castellate.compendium.protocol.messages.MessageSchema;
 import com.google.common.collect.ImmutableMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashSet;
-import java.util.Iterator;
+import java.nio.ByteBuffer;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Web Socket Message procesing
  */
 public class WSMessages {
+    private static final String TAG = "WSMessages";
     //Constants for Web Socket Messages
     public static final String MSG_TYPE = "type";
+    //Optional field used to negotiate the wire codec at INIT and INITRESP
+    public static final String CODEC = "codec";
+    public static final String CODEC_JSON = "json";
+    //Optional field carrying the per-connection sequence number of a routed message, so that a
+    //message replayed after a reconnect can be de-duplicated by the peer
+    public static final String SEQ = "seq";
     public static final Map<String, String[]> TYPE_FIELDS = ImmutableMap.of(MsgTypes.INIT, InitMsg.ALL_FIELDS, MsgTypes.INITRESP, InitRespMsg.ALL_FIELDS, MsgTypes.DELIVER, DeliverMsg.ALL_FIELDS, MsgTypes.ROUTE, RouteMsg.ALL_FIELDS, MsgTypes.ERROR, ErrorMsg.ALL_FIELDS);
+    public static final Map<String, String[]> TYPE_OPTIONAL_FIELDS = ImmutableMap.of(MsgTypes.INIT, InitMsg.OPTIONAL_FIELDS, MsgTypes.INITRESP, InitRespMsg.OPTIONAL_FIELDS, MsgTypes.ROUTE, RouteMsg.OPTIONAL_FIELDS, MsgTypes.DELIVER, DeliverMsg.OPTIONAL_FIELDS);
+    //Schema accepting the fields of any message type, the exact fields are validated once the type is known
+    private static final MessageSchema PARSE_SCHEMA = MessageSchema.unionWithOptional(new String[]{CODEC, SEQ, InitMsg.PREVIOUS_ADR}, InitMsg.ALL_FIELDS, InitRespMsg.ALL_FIELDS, DeliverMsg.ALL_FIELDS, RouteMsg.ALL_FIELDS, ErrorMsg.ALL_FIELDS);
 
     /**
      * Parse a web socket string message and create a JSON Object and validate it against
@@ -55,20 +68,64 @@ public class WSMessages {
     public static JSONObject parse(String message){
 
         try {
-            JSONObject msg = new JSONObject(message);
-            if(!msg.has(MSG_TYPE) || !TYPE_FIELDS.containsKey(msg.getString(MSG_TYPE))){
-                return null;
-            }
-            if(!WSMessages.validate(msg,TYPE_FIELDS.get(msg.getString(MSG_TYPE)))){
-                return null;
-            }
-            return msg;
+            return validateType(PARSE_SCHEMA.parse(message));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
 
+    /**
+     * Parse a binary web socket message, decoding it from CBOR and validating it against the
+     * set of fields it should have for its given type
+     *
+     * @param message buffer containing the CBOR encoded message
+     * @return the JSONObject with a validate message or null if validation failed
+     */
+    public static JSONObject parse(ByteBuffer message){
+        try {
+            return validateType(CborCodec.decode(message));
         } catch (JSONException e) {
             return null;
         }
     }
 
+    /**
+     * Encode a message as a binary web socket message using CBOR
+     * @param message JSON string containing the message
+     * @return CBOR encoded message or null if the message is not a valid web socket message
+     */
+    public static byte[] encodeBinary(String message){
+        JSONObject msg = parse(message);
+        if(msg == null){
+            return null;
+        }
+        try {
+            return CborCodec.encode(msg);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Validate a message against the set of fields it should have for its given type
+     * @param msg message to validate
+     * @return the message if valid or null if validation failed
+     * @throws JSONException
+     */
+    private static JSONObject validateType(JSONObject msg) throws JSONException {
+        if(!msg.has(MSG_TYPE) || !TYPE_FIELDS.containsKey(msg.getString(MSG_TYPE))){
+            return null;
+        }
+        String type = msg.getString(MSG_TYPE);
+        if(TYPE_OPTIONAL_FIELDS.containsKey(type)){
+            return MessageSchema.of(TYPE_FIELDS.get(type), TYPE_OPTIONAL_FIELDS.get(type)).validate(msg) ? msg : null;
+        }
+        if(!WSMessages.validate(msg,TYPE_FIELDS.get(type))){
+            return null;
+        }
+        return msg;
+    }
+
     /**
      * Create an INIT message for requesting an ephemeral address from the web socket server
      * @return JSONObject containing the message
@@ -77,12 +134,59 @@ public class WSMessages {
         try {
             JSONObject msg = new JSONObject();
             msg.put(MSG_TYPE, MsgTypes.INIT);
+            String codec = getPreferredCodec();
+            if(!CODEC_JSON.equals(codec)){
+                //Offer the codec, a relay that does not support it will continue with JSON
+                msg.put(CODEC, codec);
+            }
             return msg;
         }catch(JSONException e){
             return new JSONObject();
         }
     }
 
+    /**
+     * Create an INIT message asking the relay to re-register a previous ephemeral address on a
+     * new connection, used when reconnecting during a session. A relay that can restore the
+     * address responds with it in the INITRESP, otherwise it allocates a new address.
+     * @param previousAddress ephemeral address held on the lost connection
+     * @return JSONObject containing the message
+     */
+    public static JSONObject createReregisterMsg(String previousAddress){
+        JSONObject msg = createInitMsg();
+        try {
+            msg.put(InitMsg.PREVIOUS_ADR, previousAddress);
+        }catch(JSONException e){
+            Log.d(TAG, "Exception adding previous address", e);
+        }
+        return msg;
+    }
+
+    /**
+     * Get the preferred wire codec from the config, defaulting to JSON
+     * @return name of the preferred codec
+     */
+    private static String getPreferredCodec(){
+        try {
+            String codec = Config.getInstance().get(Config.WIRE_CODEC);
+            if(CborCodec.NAME.equals(codec)){
+                return codec;
+            }
+        } catch (StorageException e) {
+            Log.d(TAG, "Wire codec not configured, using JSON");
+        }
+        return CODEC_JSON;
+    }
+
+    /**
+     * Checks whether an INITRESP message accepts the binary CBOR codec
+     * @param msg INITRESP message
+     * @return true if CBOR was agreed, false if JSON should continue to be used
+     */
+    public static boolean acceptsBinaryCodec(JSONObject msg){
+        return CborCodec.NAME.equals(msg.optString(CODEC, CODEC_JSON));
+    }
+
     /**
      * Create a routing message to be send to the WSS, containing the target address and the
      * message contents
@@ -114,20 +218,7 @@ public class WSMessages {
         if(fields ==null){
             return false;
         }
-        Set<String> allFields = new HashSet<>();
-        for(String field :fields){
-            if(!msg.has(field)){
-                return false;
-            }
-            allFields.add(field);
-        }
-        Iterator<String> itr = msg.keys();
-        while(itr.hasNext()){
-            if(!allFields.contains(itr.next())){
-                return false;
-            }
-        }
-        return true;
+        return MessageSchema.of(fields).validate(msg);
     }
 
 
@@ -154,7 +245,9 @@ public class WSMessages {
      */
     public static final class InitMsg {
 
+        public static final String PREVIOUS_ADR = "PrevWssAddr";
         public static final String[] ALL_FIELDS = new String[]{MSG_TYPE};
+        public static final String[] OPTIONAL_FIELDS = new String[]{CODEC, PREVIOUS_ADR};
 
         private InitMsg() {
             // restrict instantiation
@@ -168,6 +261,7 @@ public class WSMessages {
 
         public static final String ADR = "EpheWssAddr";
         public static final String[] ALL_FIELDS = new String[]{MSG_TYPE, ADR};
+        public static final String[] OPTIONAL_FIELDS = new String[]{CODEC};
         private InitRespMsg() {
             // restrict instantiation
         }
@@ -181,18 +275,24 @@ public class WSMessages {
         public static final String ADR = "EpheWssAddr";
         public static final String MSG = "msg";
         public static final String[] ALL_FIELDS = new String[]{MSG_TYPE, ADR, MSG};
+        public static final String[] OPTIONAL_FIELDS = new String[]{SEQ};
         private RouteMsg() {
             // restrict instantiation
         }
     }
 
     /**
-     * Defines the fields in a DELIVER message
+     * Defines the fields in a DELIVER message, the optional address is the ephemeral address the
+     * message was delivered to, identifying the session it is for when several share a connection.
+     * The relay must include the address for messages that carry neither the PC address nor the
+     * PC public key hash, otherwise they cannot be routed and are dropped.
      */
     public static final class DeliverMsg {
 
+        public static final String ADR = "EpheWssAddr";
         public static final String MSG = "msg";
         public static final String[] ALL_FIELDS = new String[]{MSG_TYPE, MSG};
+        public static final String[] OPTIONAL_FIELDS = new String[]{SEQ, ADR};
         private DeliverMsg() {
             // restrict instantiation
         }
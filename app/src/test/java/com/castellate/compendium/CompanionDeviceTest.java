@@ -0,0 +1,369 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.castellate.compendium.data.Config;
+import com.castellate.compendium.exceptions.StorageException;
+import com.castellate.compendium.protocol.MessageRegistry;
+import com.castellate.compendium.protocol.Protocol;
+import com.castellate.compendium.protocol.ProtocolException;
+import com.castellate.compendium.protocol.enrol.InitWSSProtocolMessage;
+import com.castellate.compendium.protocol.enrol.InitWSSRespProtocolMessage;
+import com.castellate.compendium.protocol.messages.Constants;
+import com.castellate.compendium.protocol.messages.ProtocolMessage;
+import com.castellate.compendium.protocol.messages.ProtocolMessageException;
+import com.castellate.compendium.ws.CompressionMetrics;
+import com.castellate.compendium.ws.MeteredDeflateExtension;
+import com.castellate.compendium.ws.RelayMetrics;
+import com.castellate.compendium.ws.WSMessages;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tests that the relay connection and ephemeral addresses are shared across protocol runs, using
+ * a local web socket server as a stand-in for the relay
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CompanionDeviceTest {
+    private static final long TIMEOUT_MS = 5000;
+    private static final String DEVICE_ID = "relay-test";
+    private StandInRelay relay;
+
+    /**
+     * Stand-in relay that answers each INIT with a new ephemeral address, counts the connections
+     * made to it and records any errors. It accepts permessage-deflate, reading uncompressed
+     * messages below the threshold of the device, and compresses every message it sends.
+     */
+    private static final class StandInRelay extends WebSocketServer {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final AtomicInteger connectionsOpened = new AtomicInteger();
+        private final AtomicInteger connectionsClosed = new AtomicInteger();
+        private final AtomicInteger initsReceived = new AtomicInteger();
+        private final List<Exception> errors = new CopyOnWriteArrayList<>();
+
+        private StandInRelay() {
+            super(new InetSocketAddress("127.0.0.1", 0), Collections.singletonList(new Draft_6455(new MeteredDeflateExtension(0, new CompressionMetrics()))));
+            setReuseAddr(true);
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            connectionsOpened.incrementAndGet();
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            connectionsClosed.incrementAndGet();
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+            try {
+                JSONObject msg = new JSONObject(message);
+                if (WSMessages.MsgTypes.INIT.equals(msg.getString(WSMessages.MSG_TYPE))) {
+                    initsReceived.incrementAndGet();
+                    JSONObject resp = new JSONObject();
+                    resp.put(WSMessages.MSG_TYPE, WSMessages.MsgTypes.INITRESP);
+                    resp.put(WSMessages.InitRespMsg.ADR, UUID.randomUUID().toString());
+                    conn.send(resp.toString());
+                }
+            } catch (JSONException e) {
+                conn.close();
+            }
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+            errors.add(ex);
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+
+        /**
+         * Close all the connections to the relay, as the relay would on restart
+         */
+        private void closeConnections() {
+            for (WebSocket conn : getConnections()) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Minimal protocol that registers an ephemeral address with the relay and finishes once the
+     * INITRESP has been received
+     */
+    private static final class RegisterProtocol extends Protocol {
+        private static final MessageRegistry MESSAGES = MessageRegistry.build(STATE.values().length - 1, InitWSSProtocolMessage::new, InitWSSRespProtocolMessage::new);
+        private STATE state = STATE.INIT_WSS;
+
+        private enum STATE {
+            INIT_WSS,
+            INIT_WSS_RESP,
+            FINISHED {
+                @Override
+                public STATE next() {
+                    return values()[0];
+                }
+            };
+
+            public STATE next() {
+                return values()[ordinal() + 1];
+            }
+        }
+
+        private RegisterProtocol() throws ProtocolMessageException {
+            prepareNextMessage();
+            status = STATUS.READY_TO_SEND;
+        }
+
+        @Override
+        public MessageRegistry getMessages() {
+            return MESSAGES;
+        }
+
+        @Override
+        public int getStateOrdinal() {
+            return state.ordinal();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return state == STATE.FINISHED;
+        }
+
+        @Override
+        public String getProtocolStateString() {
+            return state.name();
+        }
+
+        @Override
+        public boolean processIncomingMessage(ProtocolMessage protoMessage) throws ProtocolMessageException {
+            return protoMessage.processMessage(this.protocolData);
+        }
+
+        @Override
+        public String getNextMessage() {
+            //The first message is sent without calling messageSent, so advance when it is taken
+            String message = super.getNextMessage();
+            state = state.next();
+            return message;
+        }
+
+        @Override
+        public boolean advancedStateTriggerUI() {
+            state = state.next();
+            return state == STATE.FINISHED;
+        }
+
+        @Override
+        public int getTotalStates() {
+            return STATE.values().length - 1;
+        }
+    }
+
+    @Before
+    public void setUp() throws InterruptedException, StorageException {
+        relay = new StandInRelay();
+        relay.start();
+        assertTrue(relay.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Config config = Config.getInstance();
+        config.initialise(RuntimeEnvironment.getApplication());
+        config.set(Config.WSS_SERVER, "ws://127.0.0.1:" + relay.getPort());
+        config.set(Config.RELAY_IDLE_TIMEOUT, "60");
+        config.set(Config.RELAY_ADDRESS_LIFETIME, "300");
+        config.set(Config.COMPRESSION_THRESHOLD, "256");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        relay.stop();
+        CompanionDevice device = CompanionDevice.getInstance(DEVICE_ID);
+        assertTrue("Relay connection did not close", waitFor(() -> !device.isConnected()));
+        assertTrue("Relay errors: " + relay.errors, relay.errors.isEmpty());
+    }
+
+    /**
+     * Runs a protocol to completion on the device
+     * @param device CompanionDevice to run the protocol on
+     * @return the finished session
+     * @throws ProtocolException
+     * @throws ProtocolMessageException
+     * @throws InterruptedException
+     */
+    private static ProtocolSession runToCompletion(CompanionDevice device) throws ProtocolException, ProtocolMessageException, InterruptedException {
+        ProtocolSession session = device.runProtocol(new RegisterProtocol());
+        assertTrue("Protocol did not finish", waitFor(() -> session.getStatus() == Protocol.STATUS.FINISHED));
+        return session;
+    }
+
+    /**
+     * Ends a finished session and waits for the device to release it
+     * @param device CompanionDevice the session ran on
+     * @param session session to end
+     * @throws InterruptedException
+     */
+    private static void endSession(CompanionDevice device, ProtocolSession session) throws InterruptedException {
+        session.reset();
+        assertTrue("Session did not end", waitFor(() -> device.getSessionCount() == 0));
+    }
+
+    /**
+     * Waits for a condition to become true
+     * @param condition condition to wait for
+     * @return true if the condition became true within the timeout, false if not
+     * @throws InterruptedException
+     */
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Test
+    public void connectionIsReusedAcrossProtocolRuns() throws Exception {
+        CompanionDevice device = CompanionDevice.getInstance(DEVICE_ID);
+        RelayMetrics metrics = device.getRelayMetrics();
+        long opened = metrics.getConnectionsOpened();
+        long reused = metrics.getConnectionsReused();
+        long initsSent = metrics.getInitsSent();
+        long initsReused = metrics.getInitsReused();
+        ProtocolSession first = runToCompletion(device);
+        String address = first.getProtocol().getProtocolData(Constants.ADR_CD);
+        endSession(device, first);
+        ProtocolSession second = runToCompletion(device);
+
+        assertEquals(address, second.getProtocol().getProtocolData(Constants.ADR_CD));
+        endSession(device, second);
+        assertEquals(1, relay.connectionsOpened.get());
+        assertEquals(1, relay.initsReceived.get());
+        assertEquals(opened + 1, metrics.getConnectionsOpened());
+        assertEquals(reused + 1, metrics.getConnectionsReused());
+        assertEquals(initsSent + 1, metrics.getInitsSent());
+        assertEquals(initsReused + 1, metrics.getInitsReused());
+    }
+
+    @Test
+    public void compressionIsCountedPerSession() throws Exception {
+        Config.getInstance().set(Config.COMPRESSION_THRESHOLD, "0");
+        CompanionDevice device = CompanionDevice.getInstance(DEVICE_ID);
+        CompressionMetrics connection = device.getCompressionMetrics();
+        long messages = connection.getMessages();
+        long received = connection.getReceivedMessages();
+        ProtocolSession session = runToCompletion(device);
+        CompressionMetrics metrics = session.getCompressionMetrics();
+
+        assertEquals(1, metrics.getMessages());
+        assertEquals(1, metrics.getCompressedMessages());
+        assertTrue(metrics.getOriginalBytes() > 0);
+        assertTrue(metrics.getWireBytes() > 0);
+        assertEquals(1, metrics.getReceivedMessages());
+        assertTrue(metrics.getReceivedOriginalBytes() > 0);
+        assertTrue(metrics.getReceivedWireBytes() > 0);
+        assertTrue(metrics.getReceivedWireBytes() != metrics.getReceivedOriginalBytes());
+        assertEquals(messages + 1, connection.getMessages());
+        assertEquals(received + 1, connection.getReceivedMessages());
+        endSession(device, session);
+    }
+
+    @Test
+    public void initIsReissuedOnlyOnExpiry() throws Exception {
+        Config.getInstance().set(Config.RELAY_ADDRESS_LIFETIME, "1");
+        CompanionDevice device = CompanionDevice.getInstance(DEVICE_ID);
+        RelayMetrics metrics = device.getRelayMetrics();
+        long initsReused = metrics.getInitsReused();
+        ProtocolSession first = runToCompletion(device);
+        String address = first.getProtocol().getProtocolData(Constants.ADR_CD);
+        endSession(device, first);
+        endSession(device, runToCompletion(device));
+        assertEquals(1, relay.initsReceived.get());
+        assertEquals(initsReused + 1, metrics.getInitsReused());
+
+        Thread.sleep(1100);
+        ProtocolSession expired = runToCompletion(device);
+
+        assertFalse(address.equals(expired.getProtocol().getProtocolData(Constants.ADR_CD)));
+        endSession(device, expired);
+        assertEquals(1, relay.connectionsOpened.get());
+        assertEquals(2, relay.initsReceived.get());
+        assertEquals(initsReused + 1, metrics.getInitsReused());
+    }
+
+    @Test
+    public void connectionIsReplacedAfterClose() throws Exception {
+        CompanionDevice device = CompanionDevice.getInstance(DEVICE_ID);
+        RelayMetrics metrics = device.getRelayMetrics();
+        long opened = metrics.getConnectionsOpened();
+        long reused = metrics.getConnectionsReused();
+        long initsReused = metrics.getInitsReused();
+        endSession(device, runToCompletion(device));
+        relay.closeConnections();
+        assertTrue("Relay connection did not close", waitFor(() -> relay.connectionsClosed.get() == 1 && !device.isConnected()));
+
+        endSession(device, runToCompletion(device));
+
+        assertEquals(2, relay.connectionsOpened.get());
+        assertEquals(2, relay.initsReceived.get());
+        assertEquals(opened + 2, metrics.getConnectionsOpened());
+        assertEquals(reused, metrics.getConnectionsReused());
+        assertEquals(initsReused, metrics.getInitsReused());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.castellate.compendium.protocol.core.ConfirmKeyProtocolMessage;
+import com.castellate.compendium.protocol.core.CoreChunkProtocolMessage;
+import com.castellate.compendium.protocol.core.CoreKeyReqProtocolMessage;
+import com.castellate.compendium.protocol.core.CoreKeyRespProtocolMessage;
+import com.castellate.compendium.protocol.core.CoreProtocol;
+import com.castellate.compendium.protocol.core.req.CoreRequestProtocolMessage;
+import com.castellate.compendium.protocol.core.res.CoreResponseProtocolMessage;
+import com.castellate.compendium.protocol.enrol.EnrolKeyRespProtocolMessage;
+import com.castellate.compendium.protocol.enrol.EnrolProtocol;
+import com.castellate.compendium.protocol.enrol.InitKeyReqProtocolMessage;
+import com.castellate.compendium.protocol.enrol.InitWSSProtocolMessage;
+import com.castellate.compendium.protocol.enrol.InitWSSRespProtocolMessage;
+import com.castellate.compendium.protocol.messages.EmptyProtocolMessage;
+import com.castellate.compendium.protocol.messages.ProtocolMessage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests the validation of message registries and the registries of the core and enrol protocols
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MessageRegistryTest {
+
+    /**
+     * Checks the registry creates a new message of the expected class for a state
+     * @param registry registry to check
+     * @param state ordinal of the state
+     * @param expected class of the message expected in that state
+     */
+    private static void assertMessage(MessageRegistry registry, Enum<?> state, Class<? extends ProtocolMessage> expected) {
+        ProtocolMessage first = registry.create(state.ordinal());
+        ProtocolMessage second = registry.create(state.ordinal());
+        assertNotNull(state.name(), first);
+        assertSame(state.name(), expected, first.getClass());
+        assertNotSame(state.name(), first, second);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void buildRejectsMissingStates() {
+        MessageRegistry.build(2, InitWSSProtocolMessage::new);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void buildRejectsNullFactory() {
+        MessageRegistry.build(2, InitWSSProtocolMessage::new, null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void buildRejectsFactoryWithoutMessage() {
+        MessageRegistry.build(1, () -> null);
+    }
+
+    @Test
+    public void coreRegistryCreatesMessageForEachState() {
+        MessageRegistry registry = new CoreProtocol().getMessages();
+        assertEquals(CoreProtocol.STATE.FINISHED.ordinal(), registry.size());
+        assertMessage(registry, CoreProtocol.STATE.INIT_KEY_REQ, CoreKeyReqProtocolMessage.class);
+        assertMessage(registry, CoreProtocol.STATE.INIT_WSS, InitWSSProtocolMessage.class);
+        assertMessage(registry, CoreProtocol.STATE.INIT_WSS_RESP, InitWSSRespProtocolMessage.class);
+        assertMessage(registry, CoreProtocol.STATE.INIT_KEY_RESP, CoreKeyRespProtocolMessage.class);
+        assertMessage(registry, CoreProtocol.STATE.KEY_CONFIRM_REQ, ConfirmKeyProtocolMessage.class);
+        assertMessage(registry, CoreProtocol.STATE.EMPTY_DUMMY, EmptyProtocolMessage.class);
+        assertMessage(registry, CoreProtocol.STATE.CORE_REQ, CoreRequestProtocolMessage.class);
+        assertMessage(registry, CoreProtocol.STATE.CORE_RESP, CoreResponseProtocolMessage.class);
+        assertMessage(registry, CoreProtocol.STATE.CHUNK_REQ, CoreChunkProtocolMessage.class);
+        assertMessage(registry, CoreProtocol.STATE.CHUNK_RESP, CoreChunkProtocolMessage.class);
+    }
+
+    @Test
+    public void enrolRegistryCreatesMessageForEachState() {
+        MessageRegistry registry = new EnrolProtocol().getMessages();
+        assertEquals(EnrolProtocol.STATE.FINISHED.ordinal(), registry.size());
+        assertMessage(registry, EnrolProtocol.STATE.INIT_KEY_REQ, InitKeyReqProtocolMessage.class);
+        assertMessage(registry, EnrolProtocol.STATE.INIT_WSS, InitWSSProtocolMessage.class);
+        assertMessage(registry, EnrolProtocol.STATE.INIT_WSS_RESP, InitWSSRespProtocolMessage.class);
+        assertMessage(registry, EnrolProtocol.STATE.INIT_KEY_RESP, EnrolKeyRespProtocolMessage.class);
+        assertMessage(registry, EnrolProtocol.STATE.KEY_CONFIRM_REQ, com.castellate.compendium.protocol.enrol.ConfirmKeyProtocolMessage.class);
+    }
+
+    @Test
+    public void createReturnsNullOutsideTable() {
+        MessageRegistry registry = new CoreProtocol().getMessages();
+        assertNull(registry.create(-1));
+        assertNull(registry.create(CoreProtocol.STATE.FINISHED.ordinal()));
+        assertNull(new EnrolProtocol().getMessages().create(EnrolProtocol.STATE.FINISHED.ordinal()));
+    }
+}
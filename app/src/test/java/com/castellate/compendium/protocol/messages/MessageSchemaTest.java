@@ -0,0 +1,184 @@
+/*
+ *  © Copyright 2022. University of Surrey
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *  this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.castellate.compendium.protocol.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.castellate.compendium.protocol.core.CoreKeyReqProtocolMessage;
+import com.castellate.compendium.protocol.enrol.InitWSSRespProtocolMessage;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests the streaming parse and validation of MessageSchema, and the parsing of encrypted
+ * messages with it
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MessageSchemaTest {
+    private static final String[] ENCRYPTED_FIELDS = new String[]{EncryptedMessage.IV, EncryptedMessage.CIPHER_TEXT};
+
+    /**
+     * Key request sent by the PC at the start of the core protocol
+     */
+    private static final String KEY_REQ = "{\"adr_pc\":\"9a552f96-0183-4d6e-942c-64461b8cd5d2\","
+            + "\"hash_pc_public_key\":\"6DJrVkhTyFGMlIiqFMNomA80Z6NYnZjlddaupCB/zX8=\","
+            + "\"g_to_x\":\"MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAEAJFMdvV+JJGL0QAm4IgcyJzhCOLsigILJEdh9YIABFBt/vIV819icOIP1u6TYI9I6m6lBOnP8+huU1/QnPB1LA==\","
+            + "\"signature_pc\":\"MEYCIQB+55VGkCbzc3cQpMEnD8s21bRRlL9ua+zSvecfHDR+FgIhAGXJ+ZFSh4rhxaEQGAwByc0EP2k1vxQ3zh3LvI4ZX9Iy\"}";
+
+    /**
+     * Relay response to the INIT message
+     */
+    private static final String INIT_RESP = "{\"EpheWssAddr\":\"5d0b161f-f831-4a75-9cbd-4335b1810b04\",\"type\":\"INITRESP\"}";
+
+    /**
+     * Encrypted request that follows the key exchange
+     */
+    private static final String ENCRYPTED_REQ = "{\"iv\":\"dexZr+MdruOTxiw1\","
+            + "\"cipher_text\":\"BEal7sMqxr+aTekYTCeJsC5Q5KHRWAEFW6tEkPHu/s7CHAFSKVJjTpGMEdTVRLhzSznk0i+mMrP/nb9+8/2Cw2w4UHt1VUWBto6vo2KGOrCFQzY7JWB+jgAlspI2OrroXhpdMX8EVyVtI8OyyNRZzPTaCJNb0YTGLUUx+AamXiwFMNfe1KojRSg2CQZYl+6x+5QJ1HCH6Fhh0PqvgAMVYD1/IAjGPti5FgJRf7dtpPSTt2I2\"}";
+
+    /**
+     * Gets the schema of the key request, including its optional fields
+     * @return MessageSchema of the key request
+     */
+    private static MessageSchema keyReqSchema() {
+        return MessageSchema.of(CoreKeyReqProtocolMessage.Fields.ALL_FIELDS, CoreKeyReqProtocolMessage.Fields.OPTIONAL_FIELDS);
+    }
+
+    /**
+     * Builds a message with a single field whose value is nested in the specified number of
+     * arrays
+     * @param depth number of nested arrays
+     * @return JSON string of the message
+     */
+    private static String nestedMessage(int depth) {
+        StringBuilder sb = new StringBuilder("{\"iv\":\"AAAA\",\"cipher_text\":");
+        for (int i = 0; i < depth; i++) {
+            sb.append('[');
+        }
+        sb.append('1');
+        for (int i = 0; i < depth; i++) {
+            sb.append(']');
+        }
+        return sb.append('}').toString();
+    }
+
+    @Test
+    public void parseAcceptsRecordedMessages() throws JSONException {
+        JSONObject keyReq = keyReqSchema().parse(KEY_REQ);
+        assertEquals(4, keyReq.length());
+        assertEquals("9a552f96-0183-4d6e-942c-64461b8cd5d2", keyReq.getString(Constants.ADR_PC));
+        assertTrue(keyReqSchema().validate(keyReq));
+
+        MessageSchema initRespSchema = MessageSchema.of(InitWSSRespProtocolMessage.Fields.ALL_FIELDS, InitWSSRespProtocolMessage.Fields.OPTIONAL_FIELDS);
+        assertTrue(initRespSchema.validate(initRespSchema.parse(INIT_RESP)));
+
+        MessageSchema encryptedSchema = MessageSchema.of(ENCRYPTED_FIELDS);
+        assertTrue(encryptedSchema.validate(encryptedSchema.parse(ENCRYPTED_REQ)));
+    }
+
+    @Test
+    public void parseAcceptsOptionalField() throws JSONException {
+        String withMode = KEY_REQ.substring(0, KEY_REQ.length() - 1) + ",\"sig_mode\":\"transcript\"}";
+        JSONObject keyReq = keyReqSchema().parse(withMode);
+        assertEquals("transcript", keyReq.getString(Constants.SIG_MODE));
+        assertTrue(keyReqSchema().validate(keyReq));
+    }
+
+    @Test(expected = JSONException.class)
+    public void parseRejectsOversizedMessage() throws JSONException {
+        StringBuilder sb = new StringBuilder("{\"iv\":\"AAAA\",\"cipher_text\":\"");
+        while (sb.length() <= MessageSchema.MAX_MESSAGE_LENGTH) {
+            sb.append("AAAAAAAAAAAAAAAA");
+        }
+        MessageSchema.of(ENCRYPTED_FIELDS).parse(sb.append("\"}").toString());
+    }
+
+    @Test(expected = JSONException.class)
+    public void parseRejectsMissingMessage() throws JSONException {
+        MessageSchema.of(ENCRYPTED_FIELDS).parse(null);
+    }
+
+    @Test(expected = JSONException.class)
+    public void parseRejectsUnexpectedField() throws JSONException {
+        MessageSchema.of(ENCRYPTED_FIELDS).parse("{\"iv\":\"AAAA\",\"cipher_text\":\"AAAA\",\"extra\":\"AAAA\"}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void parseRejectsDuplicateField() throws JSONException {
+        MessageSchema.of(ENCRYPTED_FIELDS).parse("{\"iv\":\"AAAA\",\"cipher_text\":\"AAAA\",\"iv\":\"BBBB\"}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void parseRejectsDeeplyNestedMessage() throws JSONException {
+        MessageSchema.of(ENCRYPTED_FIELDS).parse(nestedMessage(20));
+    }
+
+    @Test
+    public void parseAcceptsShallowNesting() throws JSONException {
+        JSONObject msg = MessageSchema.of(ENCRYPTED_FIELDS).parse(nestedMessage(3));
+        assertEquals(1, msg.getJSONArray(EncryptedMessage.CIPHER_TEXT).getJSONArray(0).getJSONArray(0).getLong(0));
+    }
+
+    @Test(expected = JSONException.class)
+    public void parseRejectsTrailingData() throws JSONException {
+        MessageSchema.of(ENCRYPTED_FIELDS).parse("{\"iv\":\"AAAA\",\"cipher_text\":\"AAAA\"}{}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void parseRejectsMalformedMessage() throws JSONException {
+        MessageSchema.of(ENCRYPTED_FIELDS).parse("{\"iv\":\"AAAA\",\"cipher_text\":");
+    }
+
+    @Test
+    public void validateRejectsMissingField() throws JSONException {
+        MessageSchema schema = MessageSchema.of(ENCRYPTED_FIELDS);
+        assertFalse(schema.validate(schema.parse("{\"iv\":\"AAAA\"}")));
+    }
+
+    @Test
+    public void encryptedMessageParsesRecordedMessage() throws ProtocolMessageException {
+        EncryptedMessage msg = new EncryptedMessage(ENCRYPTED_REQ);
+        assertEquals("dexZr+MdruOTxiw1", msg.getDataObj().optString(EncryptedMessage.IV));
+    }
+
+    @Test(expected = ProtocolMessageException.class)
+    public void encryptedMessageRejectsUnexpectedField() throws ProtocolMessageException {
+        new EncryptedMessage("{\"iv\":\"AAAA\",\"cipher_text\":\"AAAA\",\"extra\":\"AAAA\"}");
+    }
+
+    @Test(expected = ProtocolMessageException.class)
+    public void encryptedMessageRejectsMissingField() throws ProtocolMessageException {
+        new EncryptedMessage("{\"iv\":\"AAAA\"}");
+    }
+}